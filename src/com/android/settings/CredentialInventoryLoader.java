@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Process;
+import android.os.UserHandle;
+import android.security.KeyStore;
+import android.security.keymaster.KeyCharacteristics;
+import android.security.keymaster.KeymasterDefs;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.internal.widget.LockPatternUtils;
+import com.android.settings.UserCredentialsSettings.Credential;
+
+import java.security.UnrecoverableKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Lists the credentials {@link UserCredentialsSettings} shows for a uid.
+ *
+ * <p>All the entries of a uid are listed with a single KeyStore call and split by
+ * {@link Credential.Type} prefix locally. The result is kept until the listing of the uid changes
+ * or {@link #invalidate()} is called, so that coming back to the screen doesn't query the
+ * algorithm of every key again.
+ */
+class CredentialInventoryLoader {
+    private static final String TAG = "CredentialInventory";
+
+    /** The KeyStore calls needed to list credentials, replaced by a fake in tests. */
+    interface KeyStoreSource {
+        /** @return the names of all entries stored for {@code uid}, including type prefixes. */
+        String[] list(int uid);
+
+        /** @return whether the key stored as {@code name} for {@code uid} is RSA or EC. */
+        boolean isAsymmetric(String name, int uid) throws UnrecoverableKeyException;
+    }
+
+    private static CredentialInventoryLoader sInstance;
+
+    private final KeyStoreSource mKeyStore;
+    // Guarded by this.
+    private final SparseArray<Inventory> mInventories = new SparseArray<>();
+    // Bumped by invalidate(), so a load racing with it isn't reused. Guarded by this.
+    private int mGeneration;
+
+    private static final class Inventory {
+        final int mGeneration;
+        final String[] mNames;
+        final List<Credential> mCredentials;
+
+        Inventory(int generation, String[] names, List<Credential> credentials) {
+            mGeneration = generation;
+            mNames = names;
+            mCredentials = credentials;
+        }
+    }
+
+    static synchronized CredentialInventoryLoader getInstance() {
+        if (sInstance == null) {
+            sInstance = new CredentialInventoryLoader(new KeyStoreSourceImpl());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    CredentialInventoryLoader(KeyStoreSource keyStore) {
+        mKeyStore = keyStore;
+    }
+
+    /**
+     * Drops the cached credentials, e.g. after one of them was removed.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mInventories.clear();
+    }
+
+    /**
+     * Loads the credentials of {@code uid} on the calling thread, or returns the cached ones if the
+     * entries of {@code uid} didn't change since they were loaded.
+     *
+     * @return the credentials ordered by alias.
+     */
+    List<Credential> load(int uid) {
+        String[] names = mKeyStore.list(uid);
+        if (names == null) {
+            names = new String[0];
+        }
+        Arrays.sort(names);
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+            final Inventory inventory = mInventories.get(uid);
+            if (inventory != null && inventory.mGeneration == generation
+                    && Arrays.equals(inventory.mNames, names)) {
+                return inventory.mCredentials;
+            }
+        }
+
+        final List<Credential> credentials = Collections.unmodifiableList(
+                new ArrayList<>(buildCredentials(names, uid).values()));
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mInventories.put(uid, new Inventory(generation, names, credentials));
+            }
+        }
+        return credentials;
+    }
+
+    private SortedMap<String, Credential> buildCredentials(String[] names, int uid) {
+        final SortedMap<String, Credential> aliasMap = new TreeMap<>();
+        for (final String name : names) {
+            final Credential.Type type = getType(name);
+            if (type == null) {
+                continue;
+            }
+            final String prefix = getPrefix(type, name);
+            final String alias = name.substring(prefix.length());
+            if (UserHandle.getAppId(uid) == Process.SYSTEM_UID) {
+                // Do not show work profile keys in user credentials
+                if (alias.startsWith(LockPatternUtils.PROFILE_KEY_NAME_ENCRYPT) ||
+                        alias.startsWith(LockPatternUtils.PROFILE_KEY_NAME_DECRYPT)) {
+                    continue;
+                }
+                // Do not show synthetic password keys in user credential
+                if (alias.startsWith(LockPatternUtils.SYNTHETIC_PASSWORD_KEY_PREFIX)) {
+                    continue;
+                }
+            }
+            try {
+                if (type == Credential.Type.USER_KEY && !mKeyStore.isAsymmetric(name, uid)) {
+                    continue;
+                }
+            } catch (UnrecoverableKeyException e) {
+                Log.e(TAG, "Unable to determine algorithm of key: " + name, e);
+                continue;
+            }
+            Credential c = aliasMap.get(alias);
+            if (c == null) {
+                c = new Credential(alias, uid);
+                aliasMap.put(alias, c);
+            }
+            c.storedTypes.add(type);
+        }
+        return aliasMap;
+    }
+
+    private static Credential.Type getType(String name) {
+        for (final Credential.Type type : Credential.Type.values()) {
+            if (getPrefix(type, name) != null) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static String getPrefix(Credential.Type type, String name) {
+        for (final String prefix : type.prefix) {
+            if (name.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    private static class KeyStoreSourceImpl implements KeyStoreSource {
+        private final KeyStore mKeyStore = KeyStore.getInstance();
+
+        @Override
+        public String[] list(int uid) {
+            return mKeyStore.list("", uid);
+        }
+
+        @Override
+        public boolean isAsymmetric(String name, int uid) throws UnrecoverableKeyException {
+            KeyCharacteristics keyCharacteristics = new KeyCharacteristics();
+            int errorCode = mKeyStore.getKeyCharacteristics(name, null, null, uid,
+                    keyCharacteristics);
+            if (errorCode != KeyStore.NO_ERROR) {
+                throw (UnrecoverableKeyException)
+                        new UnrecoverableKeyException("Failed to obtain information about key")
+                                .initCause(KeyStore.getKeyStoreException(errorCode));
+            }
+            Integer keymasterAlgorithm = keyCharacteristics.getEnum(
+                    KeymasterDefs.KM_TAG_ALGORITHM);
+            if (keymasterAlgorithm == null) {
+                throw new UnrecoverableKeyException("Key algorithm unknown");
+            }
+            return keymasterAlgorithm == KeymasterDefs.KM_ALGORITHM_RSA ||
+                    keymasterAlgorithm == KeymasterDefs.KM_ALGORITHM_EC;
+        }
+    }
+}
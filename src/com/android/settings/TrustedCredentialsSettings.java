@@ -45,6 +45,7 @@ import android.security.KeyChain;
 import android.security.KeyChain.KeyChainConnection;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -70,9 +71,18 @@ import com.android.settings.core.InstrumentedFragment;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.IntConsumer;
 
 public class TrustedCredentialsSettings extends InstrumentedFragment
@@ -90,6 +100,14 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
     private static final String SAVED_CONFIRMING_CREDENTIAL_USER = "ConfirmingCredentialUser";
     private static final String USER_ACTION = "com.android.settings.TRUSTED_CREDENTIALS_USER";
     private static final int REQUEST_CONFIRM_CREDENTIALS = 1;
+    // Certificates fetched from KeyChain before handing them to the parser pool.
+    private static final int CERT_BATCH_SIZE = 16;
+    private static final int PARSER_THREAD_COUNT = 2;
+    private static final long PARSER_KEEP_ALIVE_SECONDS = 30;
+    // Enough for the system CAs of a couple of profiles plus user CAs.
+    private static final int PARSED_CERT_CACHE_SIZE = 512;
+
+    private static ThreadPoolExecutor sParserExecutor;
 
     @Override
     public int getMetricsCategory() {
@@ -262,6 +280,16 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
         }
     }
 
+    private static synchronized Executor getParserExecutor() {
+        if (sParserExecutor == null) {
+            sParserExecutor = new ThreadPoolExecutor(PARSER_THREAD_COUNT, PARSER_THREAD_COUNT,
+                    PARSER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            sParserExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sParserExecutor;
+    }
+
     private void closeKeyChainConnections() {
         synchronized (mKeyChainConnectionByProfileId) {
             final int n = mKeyChainConnectionByProfileId.size();
@@ -657,20 +685,32 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                 new SparseArray<List<CertHolder>>();
         private final Tab mTab;
         private final GroupAdapter mAdapter;
+        // The latest load, whose batches are shown as they get parsed.
+        private AliasLoader mCurrentLoader;
 
         private AdapterData(Tab tab, GroupAdapter adapter) {
             mAdapter = adapter;
             mTab = tab;
         }
 
-        private class AliasLoader extends AsyncTask<Void, Integer, SparseArray<List<CertHolder>>> {
+        /**
+         * Loads the certificates of {@link #mTab} for every profile. Encoded certificates are
+         * fetched from KeyChain in batches of {@link #CERT_BATCH_SIZE} and parsed on the parser
+         * pool while the next batch is fetched. Each parsed batch is merged into the adapter in
+         * sorted order as soon as it's ready, so the list fills in while the rest loads.
+         */
+        private class AliasLoader extends AsyncTask<Void, CertBatch, SparseArray<List<CertHolder>>> {
             private ProgressBar mProgressBar;
             private View mContentView;
             private Context mContext;
+            // Written before the first batch is published, read in onProgressUpdate().
+            private volatile int mMax;
+            private int mProgress;
 
             public AliasLoader() {
                 mContext = getActivity();
                 mAliasLoaders.add(this);
+                mCurrentLoader = this;
                 List<UserHandle> profiles = mUserManager.getUserProfiles();
                 for (UserHandle profile : profiles) {
                     mCertHoldersByUserId.put(profile.getIdentifier(), new ArrayList<CertHolder>());
@@ -692,6 +732,9 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
             @Override protected SparseArray<List<CertHolder>> doInBackground(Void... params) {
                 SparseArray<List<CertHolder>> certHoldersByProfile =
                         new SparseArray<List<CertHolder>>();
+                CompletionService<CertBatch> parser =
+                        new ExecutorCompletionService<CertBatch>(getParserExecutor());
+                List<Future<CertBatch>> pendingBatches = new ArrayList<Future<CertBatch>>();
                 try {
                     synchronized(mKeyChainConnectionByProfileId) {
                         List<UserHandle> profiles = mUserManager.getUserProfiles();
@@ -701,7 +744,6 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                         SparseArray<List<String>> aliasesByProfileId = new SparseArray<
                                 List<String>>(n);
                         int max = 0;
-                        int progress = 0;
                         for (int i = 0; i < n; ++i) {
                             UserHandle profile = profiles.get(i);
                             int profileId = profile.getIdentifier();
@@ -720,6 +762,7 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                             max += aliases.size();
                             aliasesByProfileId.put(profileId, aliases);
                         }
+                        mMax = max;
                         for (int i = 0; i < n; ++i) {
                             UserHandle profile = profiles.get(i);
                             int profileId = profile.getIdentifier();
@@ -735,19 +778,36 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                                 continue;
                             }
                             IKeyChainService service = keyChainConnection.getService();
-                            List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
+                            certHoldersByProfile.put(profileId,
+                                    new ArrayList<CertHolder>(aliases.size()));
                             final int aliasMax = aliases.size();
-                            for (int j = 0; j < aliasMax; ++j) {
-                                String alias = aliases.get(j);
-                                byte[] encodedCertificate = service.getEncodedCaCertificate(alias,
-                                        true);
-                                X509Certificate cert = KeyChain.toCertificate(encodedCertificate);
-                                certHolders.add(new CertHolder(service, mAdapter,
-                                        mTab, alias, cert, profileId));
-                                publishProgress(++progress, max);
+                            for (int start = 0; start < aliasMax; start += CERT_BATCH_SIZE) {
+                                if (isCancelled()) {
+                                    return new SparseArray<List<CertHolder>>();
+                                }
+                                List<String> batchAliases = aliases.subList(start,
+                                        Math.min(start + CERT_BATCH_SIZE, aliasMax));
+                                List<byte[]> encodedCertificates =
+                                        new ArrayList<byte[]>(batchAliases.size());
+                                for (String alias : batchAliases) {
+                                    encodedCertificates.add(
+                                            service.getEncodedCaCertificate(alias, true));
+                                }
+                                pendingBatches.add(parser.submit(() -> parseBatch(service,
+                                        profileId, batchAliases, encodedCertificates)));
+                                // Publish whatever got parsed while this batch was fetched.
+                                Future<CertBatch> parsed;
+                                while ((parsed = parser.poll()) != null) {
+                                    publishBatch(parsed, pendingBatches, certHoldersByProfile);
+                                }
                             }
-                            Collections.sort(certHolders);
-                            certHoldersByProfile.put(profileId, certHolders);
+                        }
+                        while (!pendingBatches.isEmpty()) {
+                            publishBatch(parser.take(), pendingBatches, certHoldersByProfile);
+                        }
+                        final int profileCount = certHoldersByProfile.size();
+                        for (int i = 0; i < profileCount; ++i) {
+                            Collections.sort(certHoldersByProfile.valueAt(i));
                         }
                         return certHoldersByProfile;
                     }
@@ -757,15 +817,63 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                 } catch (InterruptedException e) {
                     Log.e(TAG, "InterruptedException while loading aliases.", e);
                     return new SparseArray<List<CertHolder>>();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Exception while parsing certificates.", e.getCause());
+                    return new SparseArray<List<CertHolder>>();
+                } finally {
+                    for (Future<CertBatch> pendingBatch : pendingBatches) {
+                        pendingBatch.cancel(true);
+                    }
                 }
             }
-            @Override protected void onProgressUpdate(Integer... progressAndMax) {
-                int progress = progressAndMax[0];
-                int max = progressAndMax[1];
-                if (max != mProgressBar.getMax()) {
-                    mProgressBar.setMax(max);
+
+            private CertBatch parseBatch(IKeyChainService service, int profileId,
+                    List<String> aliases, List<byte[]> encodedCertificates) {
+                final int n = aliases.size();
+                List<CertHolder> certHolders = new ArrayList<CertHolder>(n);
+                for (int i = 0; i < n; ++i) {
+                    String alias = aliases.get(i);
+                    certHolders.add(new CertHolder(service, mAdapter, mTab, alias,
+                            ParsedCert.get(alias, encodedCertificates.get(i)), profileId));
+                }
+                Collections.sort(certHolders);
+                return new CertBatch(profileId, certHolders);
+            }
+
+            private void publishBatch(Future<CertBatch> parsed,
+                    List<Future<CertBatch>> pendingBatches,
+                    SparseArray<List<CertHolder>> certHoldersByProfile)
+                    throws InterruptedException, ExecutionException {
+                pendingBatches.remove(parsed);
+                CertBatch batch = parsed.get();
+                certHoldersByProfile.get(batch.mProfileId).addAll(batch.mCertHolders);
+                publishProgress(batch);
+            }
+
+            @Override protected void onProgressUpdate(CertBatch... batches) {
+                for (CertBatch batch : batches) {
+                    mProgress += batch.mCertHolders.size();
+                    if (mCurrentLoader != this) {
+                        // A newer load owns the shown lists.
+                        continue;
+                    }
+                    List<CertHolder> certHolders = mCertHoldersByUserId.get(batch.mProfileId);
+                    if (certHolders == null) {
+                        continue;
+                    }
+                    for (CertHolder certHolder : batch.mCertHolders) {
+                        int index = Collections.binarySearch(certHolders, certHolder);
+                        certHolders.add(index < 0 ? -index - 1 : index, certHolder);
+                    }
+                }
+                if (mMax != mProgressBar.getMax()) {
+                    mProgressBar.setMax(mMax);
+                }
+                mProgressBar.setProgress(mProgress);
+                if (mCurrentLoader == this) {
+                    mAdapter.notifyDataSetChanged();
+                    mContentView.setVisibility(View.VISIBLE);
                 }
-                mProgressBar.setProgress(progress);
             }
             @Override protected void onPostExecute(SparseArray<List<CertHolder>> certHolders) {
                 mCertHoldersByUserId.clear();
@@ -778,6 +886,9 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                 mContentView.setVisibility(View.VISIBLE);
                 mProgressBar.setProgress(0);
                 mAliasLoaders.remove(this);
+                if (mCurrentLoader == this) {
+                    mCurrentLoader = null;
+                }
                 showTrustAllCaDialogIfNeeded();
             }
 
@@ -822,33 +933,46 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
         }
     }
 
-    /* package */ static class CertHolder implements Comparable<CertHolder> {
-        public int mProfileId;
-        private final IKeyChainService mService;
-        private final GroupAdapter mAdapter;
-        private final Tab mTab;
-        private final String mAlias;
-        private final X509Certificate mX509Cert;
+    /** Certificates of one profile parsed together, sorted. */
+    private static class CertBatch {
+        private final int mProfileId;
+        private final List<CertHolder> mCertHolders;
 
+        private CertBatch(int profileId, List<CertHolder> certHolders) {
+            mProfileId = profileId;
+            mCertHolders = certHolders;
+        }
+    }
+
+    /**
+     * The parsed form of an encoded CA certificate. Parsed certificates are kept across visits,
+     * keyed by alias and hash of the encoding, so that reopening the screen only re-parses
+     * certificates which were added or changed since.
+     */
+    private static class ParsedCert {
+        private static final LruCache<String, ParsedCert> sCache =
+                new LruCache<String, ParsedCert>(PARSED_CERT_CACHE_SIZE);
+
+        private final byte[] mEncoded;
+        private final X509Certificate mX509Cert;
         private final SslCertificate mSslCert;
         private final String mSubjectPrimary;
         private final String mSubjectSecondary;
-        private boolean mDeleted;
 
-        private CertHolder(IKeyChainService service,
-                           GroupAdapter adapter,
-                           Tab tab,
-                           String alias,
-                           X509Certificate x509Cert,
-                           int profileId) {
-            mProfileId = profileId;
-            mService = service;
-            mAdapter = adapter;
-            mTab = tab;
-            mAlias = alias;
-            mX509Cert = x509Cert;
+        private static ParsedCert get(String alias, byte[] encoded) {
+            final String key = alias + ":" + Arrays.hashCode(encoded);
+            ParsedCert parsedCert = sCache.get(key);
+            if (parsedCert == null || !Arrays.equals(parsedCert.mEncoded, encoded)) {
+                parsedCert = new ParsedCert(encoded);
+                sCache.put(key, parsedCert);
+            }
+            return parsedCert;
+        }
 
-            mSslCert = new SslCertificate(x509Cert);
+        private ParsedCert(byte[] encoded) {
+            mEncoded = encoded;
+            mX509Cert = KeyChain.toCertificate(encoded);
+            mSslCert = new SslCertificate(mX509Cert);
 
             String cn = mSslCert.getIssuedTo().getCName();
             String o = mSslCert.getIssuedTo().getOName();
@@ -873,6 +997,37 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                     mSubjectSecondary = "";
                 }
             }
+        }
+    }
+
+    /* package */ static class CertHolder implements Comparable<CertHolder> {
+        public int mProfileId;
+        private final IKeyChainService mService;
+        private final GroupAdapter mAdapter;
+        private final Tab mTab;
+        private final String mAlias;
+        private final X509Certificate mX509Cert;
+
+        private final SslCertificate mSslCert;
+        private final String mSubjectPrimary;
+        private final String mSubjectSecondary;
+        private boolean mDeleted;
+
+        private CertHolder(IKeyChainService service,
+                           GroupAdapter adapter,
+                           Tab tab,
+                           String alias,
+                           ParsedCert parsedCert,
+                           int profileId) {
+            mProfileId = profileId;
+            mService = service;
+            mAdapter = adapter;
+            mTab = tab;
+            mAlias = alias;
+            mX509Cert = parsedCert.mX509Cert;
+            mSslCert = parsedCert.mSslCert;
+            mSubjectPrimary = parsedCert.mSubjectPrimary;
+            mSubjectSecondary = parsedCert.mSubjectSecondary;
             try {
                 mDeleted = mTab.deleted(mService, mAlias);
             } catch (RemoteException e) {
@@ -35,8 +35,6 @@ import android.security.IKeyChainService;
 import android.security.KeyChain;
 import android.security.KeyChain.KeyChainConnection;
 import android.security.KeyStore;
-import android.security.keymaster.KeyCharacteristics;
-import android.security.keymaster.KeymasterDefs;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.LayoutInflater;
@@ -49,18 +47,14 @@ import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.android.internal.widget.LockPatternUtils;
 import com.android.settings.core.instrumentation.InstrumentedDialogFragment;
 import com.android.settingslib.RestrictedLockUtils;
 import com.android.settingslib.RestrictedLockUtils.EnforcedAdmin;
 import com.android.settingslib.RestrictedLockUtilsInternal;
 
-import java.security.UnrecoverableKeyException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 public class UserCredentialsSettings extends SettingsPreferenceFragment
         implements View.OnClickListener {
@@ -197,6 +191,7 @@ public class UserCredentialsSettings extends SettingsPreferenceFragment
                         deleteWifiCredential(credential);
                     }
                 }
+                CredentialInventoryLoader.getInstance().invalidate();
                 return credentials;
             }
 
@@ -254,104 +249,66 @@ public class UserCredentialsSettings extends SettingsPreferenceFragment
     /**
      * Opens a background connection to KeyStore to list user credentials.
      * The credentials are stored in a {@link CredentialAdapter} attached to the main
-     * {@link ListView} in the fragment.
+     * {@link ListView} in the fragment, one uid at a time as they are loaded.
      */
-    private class AliasLoader extends AsyncTask<Void, Void, List<Credential>> {
+    private class AliasLoader extends AsyncTask<Void, List<Credential>, Void> {
+        private CredentialAdapter mAdapter;
+
         /**
-         * @return a list of credentials ordered:
+         * Publishes credentials ordered:
          * <ol>
          *   <li>first by purpose;</li>
          *   <li>then by alias.</li>
          * </ol>
          */
         @Override
-        protected List<Credential> doInBackground(Void... params) {
-            final KeyStore keyStore = KeyStore.getInstance();
+        protected Void doInBackground(Void... params) {
+            final CredentialInventoryLoader loader = CredentialInventoryLoader.getInstance();
 
             // Certificates can be installed into SYSTEM_UID or WIFI_UID through CertInstaller.
             final int myUserId = UserHandle.myUserId();
             final int systemUid = UserHandle.getUid(myUserId, Process.SYSTEM_UID);
             final int wifiUid = UserHandle.getUid(myUserId, Process.WIFI_UID);
 
-            List<Credential> credentials = new ArrayList<>();
-            credentials.addAll(getCredentialsForUid(keyStore, systemUid).values());
-            credentials.addAll(getCredentialsForUid(keyStore, wifiUid).values());
-            return credentials;
-        }
-
-        private boolean isAsymmetric(KeyStore keyStore, String alias, int uid)
-            throws UnrecoverableKeyException {
-                KeyCharacteristics keyCharacteristics = new KeyCharacteristics();
-                int errorCode = keyStore.getKeyCharacteristics(alias, null, null, uid,
-                        keyCharacteristics);
-                if (errorCode != KeyStore.NO_ERROR) {
-                    throw (UnrecoverableKeyException)
-                            new UnrecoverableKeyException("Failed to obtain information about key")
-                                    .initCause(KeyStore.getKeyStoreException(errorCode));
-                }
-                Integer keymasterAlgorithm = keyCharacteristics.getEnum(
-                        KeymasterDefs.KM_TAG_ALGORITHM);
-                if (keymasterAlgorithm == null) {
-                    throw new UnrecoverableKeyException("Key algorithm unknown");
-                }
-                return keymasterAlgorithm == KeymasterDefs.KM_ALGORITHM_RSA ||
-                        keymasterAlgorithm == KeymasterDefs.KM_ALGORITHM_EC;
+            publishProgress(loader.load(systemUid));
+            publishProgress(loader.load(wifiUid));
+            return null;
         }
 
-        private SortedMap<String, Credential> getCredentialsForUid(KeyStore keyStore, int uid) {
-            final SortedMap<String, Credential> aliasMap = new TreeMap<>();
-            for (final Credential.Type type : Credential.Type.values()) {
-                for (final String prefix : type.prefix) {
-                    for (final String alias : keyStore.list(prefix, uid)) {
-                        if (UserHandle.getAppId(uid) == Process.SYSTEM_UID) {
-                            // Do not show work profile keys in user credentials
-                            if (alias.startsWith(LockPatternUtils.PROFILE_KEY_NAME_ENCRYPT) ||
-                                    alias.startsWith(LockPatternUtils.PROFILE_KEY_NAME_DECRYPT)) {
-                                continue;
-                            }
-                            // Do not show synthetic password keys in user credential
-                            if (alias.startsWith(LockPatternUtils.SYNTHETIC_PASSWORD_KEY_PREFIX)) {
-                                continue;
-                            }
-                        }
-                        try {
-                            if (type == Credential.Type.USER_KEY &&
-                                    !isAsymmetric(keyStore, prefix + alias, uid)) {
-                                continue;
-                            }
-                        } catch (UnrecoverableKeyException e) {
-                            Log.e(TAG, "Unable to determine algorithm of key: " + prefix + alias, e);
-                            continue;
-                        }
-                        Credential c = aliasMap.get(alias);
-                        if (c == null) {
-                            c = new Credential(alias, uid);
-                            aliasMap.put(alias, c);
-                        }
-                        c.storedTypes.add(type);
-                    }
-                }
+        @Override
+        protected void onProgressUpdate(List<Credential>... credentials) {
+            if (!isAdded()) {
+                return;
+            }
+            if (mAdapter == null) {
+                mAdapter = new CredentialAdapter(new ArrayList<>(), UserCredentialsSettings.this);
+                getListView().setAdapter(mAdapter);
+            }
+            for (List<Credential> uidCredentials : credentials) {
+                mAdapter.addItems(uidCredentials);
+            }
+            if (mAdapter.getItemCount() > 0) {
+                setEmptyView(null);
             }
-            return aliasMap;
         }
 
         @Override
-        protected void onPostExecute(List<Credential> credentials) {
+        protected void onPostExecute(Void result) {
             if (!isAdded()) {
                 return;
             }
 
-            if (credentials == null || credentials.size() == 0) {
+            if (mAdapter == null) {
+                // Nothing was published, still replace the list of a previous load.
+                mAdapter = new CredentialAdapter(new ArrayList<>(), UserCredentialsSettings.this);
+                getListView().setAdapter(mAdapter);
+            }
+            if (mAdapter.getItemCount() == 0) {
                 // Create a "no credentials installed" message for the empty case.
                 TextView emptyTextView = (TextView) getActivity().findViewById(android.R.id.empty);
                 emptyTextView.setText(R.string.user_credential_none_installed);
                 setEmptyView(emptyTextView);
-            } else {
-                setEmptyView(null);
             }
-
-            getListView().setAdapter(
-                    new CredentialAdapter(credentials, UserCredentialsSettings.this));
         }
     }
 
@@ -386,6 +343,12 @@ public class UserCredentialsSettings extends SettingsPreferenceFragment
         public int getItemCount() {
             return mItems.size();
         }
+
+        public void addItems(List<Credential> items) {
+            final int start = mItems.size();
+            mItems.addAll(items);
+            notifyItemRangeInserted(start, items.size());
+        }
     }
 
     private static class ViewHolder extends RecyclerView.ViewHolder {
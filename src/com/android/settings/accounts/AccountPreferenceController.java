@@ -24,6 +24,7 @@ import static android.provider.Settings.EXTRA_AUTHORITIES;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
+import android.accounts.AuthenticatorDescription;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -32,7 +33,6 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -62,6 +62,7 @@ import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnPause;
 import com.android.settingslib.core.lifecycle.events.OnResume;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -127,6 +128,26 @@ public class AccountPreferenceController extends AbstractPreferenceController
          * The map from account key to account preference
          */
         public ArrayMap<String, AccountTypePreference> accountPreferences = new ArrayMap<>();
+        /**
+         * Bumped by each accounts load, so that only the latest one is applied.
+         */
+        public int accountsGeneration;
+    }
+
+    /**
+     * An account row, loaded off the main thread.
+     */
+    private static class AccountEntry {
+        final Account account;
+        final AuthenticatorDescription desc;
+        final AuthenticatorMetadataCache.Metadata metadata;
+
+        AccountEntry(Account account, AuthenticatorDescription desc,
+                AuthenticatorMetadataCache.Metadata metadata) {
+            this.account = account;
+            this.desc = desc;
+            this.metadata = metadata;
+        }
     }
 
     public AccountPreferenceController(Context context, SettingsPreferenceFragment parent,
@@ -428,30 +449,32 @@ public class AccountPreferenceController extends AbstractPreferenceController
             // This could happen if activity is finishing
             return;
         }
+        // Also drops the result of a load still running for a previous update.
+        final int generation = ++profileData.accountsGeneration;
         if (profileData.userInfo.isEnabled()) {
-            final ArrayMap<String, AccountTypePreference> preferenceToRemove =
-                    new ArrayMap<>(profileData.accountPreferences);
-            final ArrayList<AccountTypePreference> preferences = getAccountTypePreferences(
-                    profileData.authenticatorHelper, profileData.userInfo.getUserHandle(),
-                    preferenceToRemove);
-            final int count = preferences.size();
-            for (int i = 0; i < count; i++) {
-                final AccountTypePreference preference = preferences.get(i);
-                preference.setOrder(i);
-                final String key = preference.getKey();
-                if (!profileData.accountPreferences.containsKey(key)) {
-                    profileData.preferenceGroup.addPreference(preference);
-                    profileData.accountPreferences.put(key, preference);
+            final AuthenticatorHelper helper = profileData.authenticatorHelper;
+            final UserHandle userHandle = profileData.userInfo.getUserHandle();
+            // Snapshot the helper on the main thread, its account updates run there.
+            final ArrayMap<String, ArrayList<String>> authoritiesByType = new ArrayMap<>();
+            for (String accountType : helper.getEnabledAccountTypes()) {
+                if (accountTypeHasAnyRequestedAuthorities(helper, accountType)) {
+                    authoritiesByType.put(accountType,
+                            helper.getAuthoritiesForAccountType(accountType));
                 }
             }
+            ThreadUtils.postOnBackgroundThread(() -> {
+                final List<AccountEntry> entries = loadAccountEntries(authoritiesByType,
+                        userHandle);
+                ThreadUtils.postOnMainThread(() -> {
+                    if (generation == profileData.accountsGeneration
+                            && mProfiles.get(profileData.userInfo.id) == profileData) {
+                        applyAccountEntries(profileData, entries);
+                    }
+                });
+            });
             if (profileData.addAccountPreference != null) {
                 profileData.preferenceGroup.addPreference(profileData.addAccountPreference);
             }
-            for (String key : preferenceToRemove.keySet()) {
-                profileData.preferenceGroup.removePreference(
-                    profileData.accountPreferences.get(key));
-                profileData.accountPreferences.remove(key);
-            }
         } else {
             profileData.preferenceGroup.removeAll();
             // Put a label instead of the accounts list
@@ -474,72 +497,106 @@ public class AccountPreferenceController extends AbstractPreferenceController
         }
     }
 
-    private ArrayList<AccountTypePreference> getAccountTypePreferences(AuthenticatorHelper helper,
-            UserHandle userHandle, ArrayMap<String, AccountTypePreference> preferenceToRemove) {
-        final String[] accountTypes = helper.getEnabledAccountTypes();
-        final ArrayList<AccountTypePreference> accountTypePreferences =
-                new ArrayList<>(accountTypes.length);
-
-        for (int i = 0; i < accountTypes.length; i++) {
-            final String accountType = accountTypes[i];
-            // Skip showing any account that does not have any of the requested authorities
-            if (!accountTypeHasAnyRequestedAuthorities(helper, accountType)) {
+    /**
+     * Loads the accounts of the given account types, with the label and icon of their type.
+     * Called on a background thread.
+     *
+     * @return the accounts sorted by label, then by name.
+     */
+    private List<AccountEntry> loadAccountEntries(
+            ArrayMap<String, ArrayList<String>> authoritiesByType, UserHandle userHandle) {
+        final AccountManager accountManager = AccountManager.get(mContext);
+        final AuthenticatorDescription[] descs =
+                accountManager.getAuthenticatorTypesAsUser(userHandle.getIdentifier());
+        final AuthenticatorMetadataCache metadataCache =
+                AuthenticatorMetadataCache.getInstance(mContext);
+        final List<AccountEntry> entries = new ArrayList<>();
+        for (AuthenticatorDescription desc : descs) {
+            if (!authoritiesByType.containsKey(desc.type)) {
                 continue;
             }
-            final CharSequence label = helper.getLabelForType(mContext, accountType);
-            if (label == null) {
+            final AuthenticatorMetadataCache.Metadata metadata =
+                    metadataCache.getMetadata(desc, userHandle);
+            if (metadata == null) {
                 continue;
             }
-            final String titleResPackageName = helper.getPackageForType(accountType);
-            final int titleResId = helper.getLabelIdForType(accountType);
-
-            final Account[] accounts = AccountManager.get(mContext)
-                    .getAccountsByTypeAsUser(accountType, userHandle);
-            final Drawable icon = helper.getDrawableForType(mContext, accountType);
-            final Context prefContext = mParent.getPreferenceManager().getContext();
-
-            // Add a preference row for each individual account
-            for (Account account : accounts) {
-                final AccountTypePreference preference =
-                        preferenceToRemove.remove(AccountTypePreference.buildKey(account));
-                if (preference != null) {
-                    accountTypePreferences.add(preference);
-                    continue;
-                }
-                final ArrayList<String> auths =
-                    helper.getAuthoritiesForAccountType(account.type);
-                if (!AccountRestrictionHelper.showAccount(mAuthorities, auths)) {
-                    continue;
-                }
-                final Bundle fragmentArguments = new Bundle();
-                fragmentArguments.putParcelable(AccountDetailDashboardFragment.KEY_ACCOUNT,
-                    account);
-                fragmentArguments.putParcelable(AccountDetailDashboardFragment.KEY_USER_HANDLE,
-                    userHandle);
-                fragmentArguments.putString(AccountDetailDashboardFragment.KEY_ACCOUNT_TYPE,
-                    accountType);
-                fragmentArguments.putString(AccountDetailDashboardFragment.KEY_ACCOUNT_LABEL,
-                    label.toString());
-                fragmentArguments.putInt(AccountDetailDashboardFragment.KEY_ACCOUNT_TITLE_RES,
-                    titleResId);
-                fragmentArguments.putParcelable(EXTRA_USER, userHandle);
-                accountTypePreferences.add(new AccountTypePreference(
-                    prefContext, mMetricsFeatureProvider.getMetricsCategory(mParent),
-                    account, titleResPackageName, titleResId, label,
-                    AccountDetailDashboardFragment.class.getName(), fragmentArguments, icon));
+            if (!AccountRestrictionHelper.showAccount(mAuthorities,
+                    authoritiesByType.get(desc.type))) {
+                continue;
+            }
+            for (Account account : accountManager.getAccountsByTypeAsUser(desc.type,
+                    userHandle)) {
+                entries.add(new AccountEntry(account, desc, metadata));
             }
-            helper.preloadDrawableForType(mContext, accountType);
         }
         // Sort by label
-        Collections.sort(accountTypePreferences, new Comparator<AccountTypePreference>() {
+        Collections.sort(entries, new Comparator<AccountEntry>() {
             @Override
-            public int compare(AccountTypePreference t1, AccountTypePreference t2) {
-                int result = t1.getSummary().toString().compareTo(t2.getSummary().toString());
-                return result != 0
-                    ? result : t1.getTitle().toString().compareTo(t2.getTitle().toString());
+            public int compare(AccountEntry e1, AccountEntry e2) {
+                int result = e1.metadata.label.toString().compareTo(
+                        e2.metadata.label.toString());
+                return result != 0 ? result : e1.account.name.compareTo(e2.account.name);
             }
         });
-        return accountTypePreferences;
+        return entries;
+    }
+
+    /**
+     * Adds, removes and reorders the account preferences of {@code profileData} so that they
+     * match {@code entries}, keeping the preferences of accounts which are still there.
+     */
+    private void applyAccountEntries(ProfileData profileData, List<AccountEntry> entries) {
+        if (mParent.getPreferenceManager() == null
+                || profileData.preferenceGroup.getPreferenceManager() == null) {
+            // This could happen if activity is finishing
+            return;
+        }
+        final ArrayMap<String, AccountTypePreference> preferenceToRemove =
+                new ArrayMap<>(profileData.accountPreferences);
+        final Context prefContext = mParent.getPreferenceManager().getContext();
+        final UserHandle userHandle = profileData.userInfo.getUserHandle();
+        final int count = entries.size();
+        for (int i = 0; i < count; i++) {
+            final AccountEntry entry = entries.get(i);
+            final String key = AccountTypePreference.buildKey(entry.account);
+            AccountTypePreference preference = preferenceToRemove.remove(key);
+            if (preference != null) {
+                if (preference.getOrder() != i) {
+                    preference.setOrder(i);
+                }
+                continue;
+            }
+            preference = newAccountTypePreference(prefContext, entry, userHandle);
+            preference.setOrder(i);
+            profileData.preferenceGroup.addPreference(preference);
+            profileData.accountPreferences.put(key, preference);
+        }
+        for (String key : preferenceToRemove.keySet()) {
+            profileData.preferenceGroup.removePreference(
+                profileData.accountPreferences.get(key));
+            profileData.accountPreferences.remove(key);
+        }
+    }
+
+    private AccountTypePreference newAccountTypePreference(Context prefContext,
+            AccountEntry entry, UserHandle userHandle) {
+        final Bundle fragmentArguments = new Bundle();
+        fragmentArguments.putParcelable(AccountDetailDashboardFragment.KEY_ACCOUNT,
+            entry.account);
+        fragmentArguments.putParcelable(AccountDetailDashboardFragment.KEY_USER_HANDLE,
+            userHandle);
+        fragmentArguments.putString(AccountDetailDashboardFragment.KEY_ACCOUNT_TYPE,
+            entry.desc.type);
+        fragmentArguments.putString(AccountDetailDashboardFragment.KEY_ACCOUNT_LABEL,
+            entry.metadata.label.toString());
+        fragmentArguments.putInt(AccountDetailDashboardFragment.KEY_ACCOUNT_TITLE_RES,
+            entry.desc.labelId);
+        fragmentArguments.putParcelable(EXTRA_USER, userHandle);
+        return new AccountTypePreference(
+            prefContext, mMetricsFeatureProvider.getMetricsCategory(mParent),
+            entry.account, entry.desc.packageName, entry.desc.labelId, entry.metadata.label,
+            AccountDetailDashboardFragment.class.getName(), fragmentArguments,
+            entry.metadata.getIcon());
     }
 
     private boolean accountTypeHasAnyRequestedAuthorities(AuthenticatorHelper helper,
@@ -26,13 +26,14 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentSender;
 import android.content.SyncAdapterType;
-import android.content.SyncInfo;
-import android.content.SyncStatusInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.content.pm.UserInfo;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.TextUtils;
@@ -42,18 +43,19 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AlertDialog;
 import androidx.preference.Preference;
 
 import com.android.settings.R;
 import com.android.settings.Utils;
 import com.android.settings.widget.EntityHeaderController;
+import com.android.settingslib.utils.ThreadUtils;
 
 import com.google.android.collect.Lists;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
 public class AccountSyncSettings extends AccountPreferenceBase {
 
@@ -61,9 +63,23 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     private static final int MENU_SYNC_NOW_ID = Menu.FIRST;
     private static final int MENU_SYNC_CANCEL_ID = Menu.FIRST + 1;
     private static final int CANT_DO_ONETIME_SYNC_DIALOG = 102;
+    // Minimum time between two loads of the sync state while a sync is running.
+    @VisibleForTesting
+    static final long SYNC_ACTIVE_REFRESH_INTERVAL_MS = 1000;
 
     private Account mAccount;
     private ArrayList<SyncAdapterType> mInvisibleAdapters = Lists.newArrayList();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // The sync state shown by the switches, null until the first load.
+    private SyncStateSnapshot mSnapshot;
+    private long mLastLoadTime;
+    private boolean mLoadScheduled;
+    private boolean mLoading;
+    private boolean mReloadRequested;
+    private final Runnable mLoadRunnable = () -> {
+        mLoadScheduled = false;
+        loadSyncState();
+    };
 
     @Override
     public Dialog onCreateDialog(final int id) {
@@ -156,6 +172,8 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     public void onPause() {
         super.onPause();
         mAuthenticatorHelper.stopListeningToAccountUpdates();
+        mHandler.removeCallbacks(mLoadRunnable);
+        mLoadScheduled = false;
     }
 
     private void addSyncStateSwitch(Account account, String authority,
@@ -205,8 +223,8 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     public void onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
         // Note that this also counts accounts that are not currently displayed
-        boolean syncActive = !ContentResolver.getCurrentSyncsAsUser(
-                mUserHandle.getIdentifier()).isEmpty();
+        boolean syncActive = mSnapshot != null ? mSnapshot.anySyncActive
+                : !ContentResolver.getCurrentSyncsAsUser(mUserHandle.getIdentifier()).isEmpty();
         menu.findItem(MENU_SYNC_NOW_ID).setVisible(!syncActive);
         menu.findItem(MENU_SYNC_CANCEL_ID).setVisible(syncActive);
     }
@@ -373,35 +391,79 @@ public class AccountSyncSettings extends AccountPreferenceBase {
         }
     }
 
-    private boolean isSyncing(List<SyncInfo> currentSyncs, Account account, String authority) {
-        for (SyncInfo syncInfo : currentSyncs) {
-            if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     @Override
     protected void onSyncStateUpdated() {
         if (!isResumed()) return;
-        setFeedsState();
+        requestSyncStateLoad();
+    }
+
+    /**
+     * Loads the sync state in the background. While a sync is running the status observer fires
+     * for every synced batch, so loads are then spaced by
+     * {@link #SYNC_ACTIVE_REFRESH_INTERVAL_MS}.
+     */
+    private void requestSyncStateLoad() {
+        if (mLoadScheduled) {
+            return;
+        }
+        final long delay = mSnapshot != null && mSnapshot.isSyncing()
+                ? mLastLoadTime + SYNC_ACTIVE_REFRESH_INTERVAL_MS - SystemClock.uptimeMillis()
+                : 0;
+        if (delay > 0) {
+            mLoadScheduled = true;
+            mHandler.postDelayed(mLoadRunnable, delay);
+        } else {
+            loadSyncState();
+        }
+    }
+
+    private void loadSyncState() {
+        if (mLoading) {
+            // Load again once the running load is applied, its state may be outdated.
+            mReloadRequested = true;
+            return;
+        }
+        mLoading = true;
+        mLastLoadTime = SystemClock.uptimeMillis();
+        final Context context = getContext().getApplicationContext();
+        final Account account = mAccount;
+        final int userId = mUserHandle.getIdentifier();
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final SyncStateSnapshot snapshot = SyncStateSnapshot.load(context, account, userId);
+            ThreadUtils.postOnMainThread(() -> onSyncStateLoaded(snapshot));
+        });
+    }
+
+    private void onSyncStateLoaded(SyncStateSnapshot snapshot) {
+        mLoading = false;
+        if (!isAdded()) {
+            return;
+        }
+        setFeedsState(snapshot);
         final Activity activity = getActivity();
         if (activity != null) {
             activity.invalidateOptionsMenu();
         }
+        if (mReloadRequested) {
+            mReloadRequested = false;
+            requestSyncStateLoad();
+        }
     }
 
-    private void setFeedsState() {
-        // iterate over all the preferences, setting the state properly for each
-        Date date = new Date();
-        final int userId = mUserHandle.getIdentifier();
-        List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncsAsUser(userId);
-        boolean syncIsFailing = false;
+    private void setFeedsState(SyncStateSnapshot snapshot) {
+        final SyncStateSnapshot previous = mSnapshot;
+        mSnapshot = snapshot;
+        mInvisibleAdapters.clear();
+        mInvisibleAdapters.addAll(snapshot.invisibleAdapters);
 
         // Refresh the sync status switches - some syncs may have become active.
-        updateAccountSwitches();
+        final boolean adaptersChanged = !snapshot.hasSameAdapters(previous);
+        if (adaptersChanged) {
+            updateAccountSwitches(snapshot);
+        }
 
+        // iterate over all the preferences, setting the state properly for each
+        Date date = new Date();
         for (int i = 0, count = getPreferenceScreen().getPreferenceCount(); i < count; i++) {
             Preference pref = getPreferenceScreen().getPreference(i);
             if (!(pref instanceof SyncStateSwitchPreference)) {
@@ -410,54 +472,48 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             SyncStateSwitchPreference syncPref = (SyncStateSwitchPreference) pref;
 
             String authority = syncPref.getAuthority();
-            Account account = syncPref.getAccount();
-
-            SyncStatusInfo status = ContentResolver.getSyncStatusAsUser(account, authority, userId);
-            boolean syncEnabled = ContentResolver.getSyncAutomaticallyAsUser(account, authority,
-                    userId);
-            boolean authorityIsPending = status == null ? false : status.pending;
-            boolean initialSync = status == null ? false : status.initialize;
-
-            boolean activelySyncing = isSyncing(currentSyncs, account, authority);
-            boolean lastSyncFailed = status != null
-                    && status.lastFailureTime != 0
-                    && status.getLastFailureMesgAsInt(0)
-                    != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
-            if (!syncEnabled) lastSyncFailed = false;
-            if (lastSyncFailed && !activelySyncing && !authorityIsPending) {
-                syncIsFailing = true;
+            final SyncStateSnapshot.AuthorityState state = snapshot.getState(authority);
+            if (state == null) {
+                continue;
+            }
+            final boolean oneTimeSyncMode = !snapshot.masterSyncAutomatically;
+            final boolean checked = oneTimeSyncMode || state.syncEnabled;
+            // A click may have toggled the switch without changing the sync state (e.g. while
+            // account access is requested), so its checked state is compared as well. The other
+            // flags it shows are only ever set here.
+            if (!adaptersChanged && previous.masterSyncAutomatically
+                    == snapshot.masterSyncAutomatically
+                    && state.equals(previous.getState(authority))
+                    && syncPref.isChecked() == checked
+                    && syncPref.isOneTimeSyncMode() == oneTimeSyncMode) {
+                // Nothing to update, skip rebinding the switch.
+                continue;
             }
             if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "Update sync status: " + account + " " + authority +
-                        " active = " + activelySyncing + " pend =" + authorityIsPending);
+                Log.d(TAG, "Update sync status: " + syncPref.getAccount() + " " + authority +
+                        " active = " + state.active + " pend =" + state.pending);
             }
 
-            final long successEndTime = (status == null) ? 0 : status.lastSuccessTime;
-            if (!syncEnabled) {
+            if (!state.syncEnabled) {
                 syncPref.setSummary(R.string.sync_disabled);
-            } else if (activelySyncing) {
+            } else if (state.active) {
                 syncPref.setSummary(R.string.sync_in_progress);
-            } else if (successEndTime != 0) {
-                date.setTime(successEndTime);
+            } else if (state.lastSuccessTime != 0) {
+                date.setTime(state.lastSuccessTime);
                 final String timeString = formatSyncDate(getContext(), date);
                 syncPref.setSummary(getResources().getString(R.string.last_synced, timeString));
             } else {
                 syncPref.setSummary("");
             }
-            int syncState = ContentResolver.getIsSyncableAsUser(account, authority, userId);
 
-            syncPref.setActive(activelySyncing && (syncState >= 0) &&
-                    !initialSync);
-            syncPref.setPending(authorityIsPending && (syncState >= 0) &&
-                    !initialSync);
+            syncPref.setActive(state.active);
+            syncPref.setPending(state.pending);
 
-            syncPref.setFailed(lastSyncFailed);
-            final boolean oneTimeSyncMode = !ContentResolver.getMasterSyncAutomaticallyAsUser(
-                    userId);
+            syncPref.setFailed(state.lastSyncFailed);
             syncPref.setOneTimeSyncMode(oneTimeSyncMode);
-            syncPref.setChecked(oneTimeSyncMode || syncEnabled);
+            syncPref.setChecked(checked);
         }
-        if (syncIsFailing) {
+        if (snapshot.isSyncFailing() && (previous == null || !previous.isSyncFailing())) {
             mFooterPreferenceMixin.createFooterPreference()
                     .setTitle(R.string.sync_is_failing);
         }
@@ -471,7 +527,6 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             finish();
             return;
         }
-        updateAccountSwitches();
         onSyncStateUpdated();
     }
 
@@ -489,54 +544,18 @@ public class AccountSyncSettings extends AccountPreferenceBase {
         return false;
     }
 
-    private void updateAccountSwitches() {
-        mInvisibleAdapters.clear();
-
-        SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypesAsUser(
-                mUserHandle.getIdentifier());
-        ArrayList<SyncAdapterType> authorities = new ArrayList<>();
-        for (int i = 0, n = syncAdapters.length; i < n; i++) {
-            final SyncAdapterType sa = syncAdapters[i];
-            // Only keep track of sync adapters for this account
-            if (!sa.accountType.equals(mAccount.type)) continue;
-            if (sa.isUserVisible()) {
-                if (Log.isLoggable(TAG, Log.DEBUG)) {
-                    Log.d(TAG, "updateAccountSwitches: added authority " + sa.authority
-                            + " to accountType " + sa.accountType);
-                }
-                authorities.add(sa);
-            } else {
-                // keep track of invisible sync adapters, so sync now forces
-                // them to sync as well.
-                mInvisibleAdapters.add(sa);
-            }
-        }
-
+    private void updateAccountSwitches(SyncStateSnapshot snapshot) {
         if (Log.isLoggable(TAG, Log.DEBUG)) {
             Log.d(TAG, "looking for sync adapters that match account " + mAccount);
         }
 
         cacheRemoveAllPrefs(getPreferenceScreen());
         getCachedPreference(EntityHeaderController.PREF_KEY_APP_HEADER);
-        for (int j = 0, m = authorities.size(); j < m; j++) {
-            final SyncAdapterType syncAdapter = authorities.get(j);
-            // We could check services here....
-            int syncState = ContentResolver.getIsSyncableAsUser(mAccount, syncAdapter.authority,
-                    mUserHandle.getIdentifier());
+        for (SyncStateSnapshot.AuthorityState state : snapshot.authorities) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "  found authority " + syncAdapter.authority + " " + syncState);
-            }
-            if (syncState > 0) {
-                final int uid;
-                try {
-                    uid = getContext().getPackageManager().getPackageUidAsUser(
-                            syncAdapter.getPackageName(), mUserHandle.getIdentifier());
-                    addSyncStateSwitch(mAccount, syncAdapter.authority,
-                            syncAdapter.getPackageName(), uid);
-                } catch (PackageManager.NameNotFoundException e) {
-                    Log.e(TAG, "No uid for package" + syncAdapter.getPackageName(), e);
-                }
+                Log.d(TAG, "  found authority " + state.authority);
             }
+            addSyncStateSwitch(mAccount, state.authority, state.packageName, state.uid);
         }
         removeCachedPrefs(getPreferenceScreen());
     }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.accounts;
+
+import android.accounts.AuthenticatorDescription;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Labels and icons of account authenticators, per user, shared by the account lists of all
+ * profiles.
+ *
+ * <p>Entries are loaded from the resources of the authenticator package and kept until that
+ * package is updated or removed, or the locale changes. An entry is also reloaded if the
+ * {@link AuthenticatorDescription} of its account type now points to other resources.
+ */
+public class AuthenticatorMetadataCache {
+    private static final String TAG = "AuthenticatorMetadata";
+
+    private static AuthenticatorMetadataCache sInstance;
+
+    private final Context mContext;
+    // Keyed by user id and account type. Guarded by this.
+    private final ArrayMap<String, Metadata> mMetadata = new ArrayMap<>();
+
+    /**
+     * Label and icon of an account type.
+     */
+    public static class Metadata {
+        public final CharSequence label;
+        private final Drawable mIcon;
+        private final String mPackageName;
+        private final int mLabelId;
+        private final int mIconId;
+
+        private Metadata(AuthenticatorDescription desc, CharSequence label, Drawable icon) {
+            this.label = label;
+            mIcon = icon;
+            mPackageName = desc.packageName;
+            mLabelId = desc.labelId;
+            mIconId = desc.iconId;
+        }
+
+        /**
+         * @return a new instance of the icon, since the same account type can be shown by
+         * several preferences at once.
+         */
+        public Drawable getIcon() {
+            final Drawable.ConstantState state = mIcon.getConstantState();
+            return state != null ? state.newDrawable() : mIcon;
+        }
+
+        private boolean matches(AuthenticatorDescription desc) {
+            return mPackageName.equals(desc.packageName) && mLabelId == desc.labelId
+                    && mIconId == desc.iconId;
+        }
+    }
+
+    public static synchronized AuthenticatorMetadataCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AuthenticatorMetadataCache(context.getApplicationContext());
+            sInstance.registerReceivers();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AuthenticatorMetadataCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the label and icon of the account type described by {@code desc} for
+     * {@code userHandle}, loading them if they aren't cached. Loading reads resources of another
+     * package, so this shouldn't be called on the main thread.
+     *
+     * @return the metadata, or {@code null} if the label of the account type can't be loaded.
+     */
+    public Metadata getMetadata(AuthenticatorDescription desc, UserHandle userHandle) {
+        final String key = userHandle.getIdentifier() + "/" + desc.type;
+        synchronized (this) {
+            final Metadata metadata = mMetadata.get(key);
+            if (metadata != null && metadata.matches(desc)) {
+                return metadata;
+            }
+        }
+        final Metadata metadata = loadMetadata(desc, userHandle);
+        if (metadata != null) {
+            synchronized (this) {
+                mMetadata.put(key, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Drops the metadata of the account types declared by {@code packageName}.
+     */
+    public synchronized void invalidatePackage(String packageName) {
+        for (int i = mMetadata.size() - 1; i >= 0; i--) {
+            if (mMetadata.valueAt(i).mPackageName.equals(packageName)) {
+                mMetadata.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Drops all metadata, e.g. because the labels are localized differently.
+     */
+    public synchronized void invalidateAll() {
+        mMetadata.clear();
+    }
+
+    private Metadata loadMetadata(AuthenticatorDescription desc, UserHandle userHandle) {
+        final Context authContext;
+        try {
+            authContext = mContext.createPackageContextAsUser(desc.packageName, 0, userHandle);
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Bad package name for account type " + desc.type);
+            return null;
+        }
+        final CharSequence label;
+        try {
+            label = authContext.getResources().getText(desc.labelId);
+        } catch (Resources.NotFoundException e) {
+            Log.w(TAG, "No label resource for account type " + desc.type);
+            return null;
+        }
+        Drawable icon = null;
+        try {
+            if (desc.iconId != 0) {
+                icon = mContext.getPackageManager().getUserBadgedIcon(
+                        authContext.getDrawable(desc.iconId), userHandle);
+            }
+        } catch (Resources.NotFoundException e) {
+            Log.w(TAG, "Invalid icon id for account type " + desc.type, e);
+        }
+        if (icon == null) {
+            icon = mContext.getPackageManager().getDefaultActivityIcon();
+        }
+        return new Metadata(desc, label, icon);
+    }
+
+    private void registerReceivers() {
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiverAsUser(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                final Uri data = intent.getData();
+                if (data != null) {
+                    invalidatePackage(data.getSchemeSpecificPart());
+                }
+            }
+        }, UserHandle.ALL, packageFilter, null /* permission */, null /* scheduler */);
+
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateAll();
+            }
+        }, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+}
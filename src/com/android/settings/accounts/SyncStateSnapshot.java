@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.accounts;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncAdapterType;
+import android.content.SyncInfo;
+import android.content.SyncStatusInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The sync state of all the authorities of an account, read in one pass so that
+ * {@link AccountSyncSettings} can load it off the main thread and only update the switches whose
+ * state changed since the previous snapshot.
+ */
+class SyncStateSnapshot {
+    private static final String TAG = "SyncStateSnapshot";
+
+    /**
+     * The sync state of one authority shown with a {@link SyncStateSwitchPreference}.
+     */
+    static class AuthorityState {
+        final String authority;
+        final String packageName;
+        final int uid;
+        final boolean syncEnabled;
+        final boolean active;
+        final boolean pending;
+        final boolean lastSyncFailed;
+        final long lastSuccessTime;
+
+        AuthorityState(String authority, String packageName, int uid, boolean syncEnabled,
+                boolean active, boolean pending, boolean lastSyncFailed, long lastSuccessTime) {
+            this.authority = authority;
+            this.packageName = packageName;
+            this.uid = uid;
+            this.syncEnabled = syncEnabled;
+            this.active = active;
+            this.pending = pending;
+            this.lastSyncFailed = lastSyncFailed;
+            this.lastSuccessTime = lastSuccessTime;
+        }
+
+        boolean isSameAdapter(AuthorityState other) {
+            return authority.equals(other.authority)
+                    && Objects.equals(packageName, other.packageName) && uid == other.uid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AuthorityState)) {
+                return false;
+            }
+            final AuthorityState other = (AuthorityState) o;
+            return isSameAdapter(other) && syncEnabled == other.syncEnabled
+                    && active == other.active && pending == other.pending
+                    && lastSyncFailed == other.lastSyncFailed
+                    && lastSuccessTime == other.lastSuccessTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(authority, packageName, uid, syncEnabled, active, pending,
+                    lastSyncFailed, lastSuccessTime);
+        }
+    }
+
+    /** The user visible, syncable authorities of the account, in sync adapter order. */
+    final List<AuthorityState> authorities;
+    /** Sync adapters of the account type which aren't shown but are synced by "sync now". */
+    final List<SyncAdapterType> invisibleAdapters;
+    final boolean masterSyncAutomatically;
+    /** Whether any sync of the user is running, including syncs of other accounts. */
+    final boolean anySyncActive;
+
+    @VisibleForTesting
+    SyncStateSnapshot(List<AuthorityState> authorities,
+            List<SyncAdapterType> invisibleAdapters, boolean masterSyncAutomatically,
+            boolean anySyncActive) {
+        this.authorities = authorities;
+        this.invisibleAdapters = invisibleAdapters;
+        this.masterSyncAutomatically = masterSyncAutomatically;
+        this.anySyncActive = anySyncActive;
+    }
+
+    /**
+     * Reads the sync state of {@code account}. Makes several calls to the sync manager, so this
+     * shouldn't be called on the main thread.
+     */
+    static SyncStateSnapshot load(Context context, Account account, int userId) {
+        final List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncsAsUser(userId);
+        final boolean masterSyncAutomatically =
+                ContentResolver.getMasterSyncAutomaticallyAsUser(userId);
+        final PackageManager packageManager = context.getPackageManager();
+        final List<AuthorityState> authorities = new ArrayList<>();
+        final List<SyncAdapterType> invisibleAdapters = new ArrayList<>();
+
+        for (SyncAdapterType sa : ContentResolver.getSyncAdapterTypesAsUser(userId)) {
+            // Only keep track of sync adapters for this account
+            if (!sa.accountType.equals(account.type)) {
+                continue;
+            }
+            if (!sa.isUserVisible()) {
+                // keep track of invisible sync adapters, so sync now forces
+                // them to sync as well.
+                invisibleAdapters.add(sa);
+                continue;
+            }
+            final String authority = sa.authority;
+            if (ContentResolver.getIsSyncableAsUser(account, authority, userId) <= 0) {
+                continue;
+            }
+            final int uid;
+            try {
+                uid = packageManager.getPackageUidAsUser(sa.getPackageName(), userId);
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.e(TAG, "No uid for package" + sa.getPackageName(), e);
+                continue;
+            }
+
+            final SyncStatusInfo status =
+                    ContentResolver.getSyncStatusAsUser(account, authority, userId);
+            final boolean syncEnabled =
+                    ContentResolver.getSyncAutomaticallyAsUser(account, authority, userId);
+            final boolean initialSync = status != null && status.initialize;
+            final boolean activelySyncing = isSyncing(currentSyncs, account, authority);
+            final boolean lastSyncFailed = syncEnabled && status != null
+                    && status.lastFailureTime != 0
+                    && status.getLastFailureMesgAsInt(0)
+                    != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
+            authorities.add(new AuthorityState(authority, sa.getPackageName(), uid, syncEnabled,
+                    activelySyncing && !initialSync,
+                    status != null && status.pending && !initialSync,
+                    lastSyncFailed, status == null ? 0 : status.lastSuccessTime));
+        }
+        return new SyncStateSnapshot(authorities, invisibleAdapters, masterSyncAutomatically,
+                !currentSyncs.isEmpty());
+    }
+
+    /**
+     * @return the state of {@code authority}, or {@code null} if it isn't shown.
+     */
+    AuthorityState getState(String authority) {
+        for (AuthorityState state : authorities) {
+            if (state.authority.equals(authority)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether {@code other} shows the same sync adapters, in the same order.
+     */
+    boolean hasSameAdapters(SyncStateSnapshot other) {
+        if (other == null || other.authorities.size() != authorities.size()) {
+            return false;
+        }
+        for (int i = 0, n = authorities.size(); i < n; i++) {
+            if (!authorities.get(i).isSameAdapter(other.authorities.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a shown authority is syncing or waiting to sync.
+     */
+    boolean isSyncing() {
+        for (AuthorityState state : authorities) {
+            if (state.active || state.pending) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the last sync of a shown authority failed and it isn't being retried yet.
+     */
+    boolean isSyncFailing() {
+        for (AuthorityState state : authorities) {
+            if (state.lastSyncFailed && !state.active && !state.pending) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSyncing(List<SyncInfo> currentSyncs, Account account,
+            String authority) {
+        for (SyncInfo syncInfo : currentSyncs) {
+            if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
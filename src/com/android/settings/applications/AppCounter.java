@@ -17,12 +17,10 @@ package com.android.settings.applications;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.UserInfo;
 import android.os.AsyncTask;
-import android.os.UserHandle;
 import android.os.UserManager;
 
-import java.util.List;
+import com.android.settings.applications.InstalledAppsSnapshot.ProfileApps;
 
 public abstract class AppCounter extends AsyncTask<Void, Void, Integer> {
 
@@ -32,18 +30,14 @@ public abstract class AppCounter extends AsyncTask<Void, Void, Integer> {
     public AppCounter(Context context, PackageManager packageManager) {
         mPm = packageManager;
         mUm = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        InstalledAppsSnapshot.startTracking(context);
     }
 
     @Override
     protected Integer doInBackground(Void... params) {
         int count = 0;
-        for (UserInfo user : mUm.getProfiles(UserHandle.myUserId())) {
-            final List<ApplicationInfo> list =
-                    mPm.getInstalledApplicationsAsUser(PackageManager.GET_DISABLED_COMPONENTS
-                            | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS
-                            | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
-                            user.id);
-            for (ApplicationInfo info : list) {
+        for (ProfileApps profile : InstalledAppsSnapshot.get(mPm, mUm).getProfiles()) {
+            for (ApplicationInfo info : profile.apps) {
                 if (includeInCount(info)) {
                     count++;
                 }
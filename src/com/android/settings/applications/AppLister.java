@@ -18,11 +18,11 @@ package com.android.settings.applications;
 
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.UserInfo;
 import android.os.AsyncTask;
-import android.os.UserHandle;
 import android.os.UserManager;
 
+import com.android.settings.applications.InstalledAppsSnapshot.ProfileApps;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -44,15 +44,10 @@ public abstract class AppLister extends AsyncTask<Void, Void, List<UserAppInfo>>
     @Override
     protected List<UserAppInfo> doInBackground(Void... params) {
         final List<UserAppInfo> result = new ArrayList<>();
-        for (UserInfo user : mUm.getProfiles(UserHandle.myUserId())) {
-            final List<ApplicationInfo> list =
-                    mPm.getInstalledApplicationsAsUser(PackageManager.GET_DISABLED_COMPONENTS
-                            | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS
-                            | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
-                            user.id);
-            for (ApplicationInfo info : list) {
+        for (ProfileApps profile : InstalledAppsSnapshot.get(mPm, mUm).getProfiles()) {
+            for (ApplicationInfo info : profile.apps) {
                 if (includeInCount(info)) {
-                    result.add(new UserAppInfo(user, info));
+                    result.add(new UserAppInfo(profile.user, info));
                 }
             }
         }
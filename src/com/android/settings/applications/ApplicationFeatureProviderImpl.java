@@ -54,6 +54,7 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
         mPms = pms;
         mDpm = dpm;
         mUm = UserManager.get(mContext);
+        InstalledAppsSnapshot.startTracking(mContext);
     }
 
     @Override
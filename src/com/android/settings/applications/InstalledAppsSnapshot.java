@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.UserInfo;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applications installed in the current user and its profiles, enumerated once and shared by
+ * {@link AppCounter} and {@link AppLister} so screens running several of them at once, such as
+ * the enterprise privacy page, don't scan the installed packages for each of them.
+ *
+ * <p>A snapshot is only reused while a package receiver registered through
+ * {@link #startTracking(Context)} is listening; any package or profile change drops it.
+ */
+public class InstalledAppsSnapshot {
+
+    /**
+     * Applications installed for one profile.
+     */
+    public static class ProfileApps {
+        public final UserInfo user;
+        public final List<ApplicationInfo> apps;
+
+        ProfileApps(UserInfo user, List<ApplicationInfo> apps) {
+            this.user = user;
+            this.apps = apps;
+        }
+    }
+
+    // Held while enumerating.
+    private static final Object sLock = new Object();
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+    private static volatile Context sTrackingContext;
+    private static InstalledAppsSnapshot sSnapshot;
+
+    private final int mGeneration;
+    private final List<ProfileApps> mProfiles;
+
+    private InstalledAppsSnapshot(int generation, List<ProfileApps> profiles) {
+        mGeneration = generation;
+        mProfiles = profiles;
+    }
+
+    public List<ProfileApps> getProfiles() {
+        return mProfiles;
+    }
+
+    /**
+     * Starts dropping snapshots on package changes, which allows them to be reused. Does nothing
+     * if {@param context} has no application context.
+     */
+    public static void startTracking(Context context) {
+        final Context appContext = context.getApplicationContext();
+        if (appContext == null) {
+            return;
+        }
+        synchronized (InstalledAppsSnapshot.class) {
+            if (sTrackingContext == appContext) {
+                return;
+            }
+            sTrackingContext = appContext;
+        }
+        invalidate();
+        final BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        };
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        appContext.registerReceiverAsUser(receiver, UserHandle.ALL, packageFilter,
+                null /* broadcastPermission */, null /* scheduler */);
+
+        final IntentFilter profileFilter = new IntentFilter();
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        profileFilter.addAction(Intent.ACTION_USER_REMOVED);
+        appContext.registerReceiverAsUser(receiver, UserHandle.ALL, profileFilter,
+                null /* broadcastPermission */, null /* scheduler */);
+    }
+
+    /**
+     * Drops the current snapshot, the next {@link #get} enumerates the installed apps again.
+     */
+    public static void invalidate() {
+        sGeneration.incrementAndGet();
+    }
+
+    /**
+     * @return the applications installed for the current user and its profiles, from the shared
+     * snapshot when it is still valid.
+     */
+    public static InstalledAppsSnapshot get(PackageManager pm, UserManager um) {
+        final List<UserInfo> users = um.getProfiles(UserHandle.myUserId());
+        synchronized (sLock) {
+            // Read before enumerating, so a change during the scan drops its result.
+            final int generation = sGeneration.get();
+            final InstalledAppsSnapshot snapshot = sSnapshot;
+            // Callers each hold their own PackageManager and UserManager, so only the generation
+            // and the profiles tell whether the snapshot is still valid.
+            if (snapshot != null && snapshot.mGeneration == generation
+                    && snapshot.hasSameProfiles(users)) {
+                return snapshot;
+            }
+
+            // Enumerate under the lock so concurrent callers wait for a single scan.
+            final List<ProfileApps> profiles = new ArrayList<>(users.size());
+            for (UserInfo user : users) {
+                final List<ApplicationInfo> list =
+                        pm.getInstalledApplicationsAsUser(PackageManager.GET_DISABLED_COMPONENTS
+                                | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS
+                                | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
+                                user.id);
+                profiles.add(new ProfileApps(user, Collections.unmodifiableList(list)));
+            }
+            final InstalledAppsSnapshot newSnapshot = new InstalledAppsSnapshot(generation,
+                    Collections.unmodifiableList(profiles));
+            if (sTrackingContext != null) {
+                sSnapshot = newSnapshot;
+            }
+            return newSnapshot;
+        }
+    }
+
+    private boolean hasSameProfiles(List<UserInfo> users) {
+        if (users.size() != mProfiles.size()) {
+            return false;
+        }
+        for (int i = 0; i < users.size(); i++) {
+            final UserInfo user = users.get(i);
+            final UserInfo cached = mProfiles.get(i).user;
+            if (user.id != cached.id || user.isAdmin() != cached.isAdmin()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @VisibleForTesting
+    static void reset() {
+        synchronized (InstalledAppsSnapshot.class) {
+            sTrackingContext = null;
+        }
+        synchronized (sLock) {
+            sSnapshot = null;
+        }
+    }
+}
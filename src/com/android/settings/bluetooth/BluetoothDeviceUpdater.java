@@ -19,6 +19,9 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
@@ -35,9 +38,13 @@ import com.android.settingslib.bluetooth.CachedBluetoothDevice;
 import com.android.settingslib.bluetooth.LocalBluetoothManager;
 import com.android.settingslib.bluetooth.LocalBluetoothProfileManager;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Update the bluetooth devices. It gets bluetooth event from {@link LocalBluetoothManager} using
@@ -46,6 +53,11 @@ import java.util.Map;
  *
  * In {@link BluetoothDeviceUpdater}, it uses {@link BluetoothDeviceFilter.Filter} to detect
  * whether the {@link CachedBluetoothDevice} is relevant.
+ *
+ * Device events are batched: events posted while the main looper is busy, such as a car kit or
+ * several BLE devices reconnecting at once, are applied together, and every device is evaluated
+ * once per batch. A full refresh skips devices whose state hasn't changed since they were last
+ * evaluated.
  */
 public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
         LocalBluetoothProfileManager.ServiceListener {
@@ -59,6 +71,14 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
     @VisibleForTesting
     protected LocalBluetoothManager mLocalManager;
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Devices with events since the last batch, in arrival order.
+    private final Set<CachedBluetoothDevice> mPendingDevices = new LinkedHashSet<>();
+    // Device state seen when each device was last evaluated, see getDeviceState().
+    private final Map<CachedBluetoothDevice, Integer> mDeviceStates = new ArrayMap<>();
+    private boolean mPendingRefresh;
+    private boolean mBatchScheduled;
+
     @VisibleForTesting
     final GearPreference.OnGearClickListener mDeviceProfilesListener = pref -> {
         launchDeviceDetails(pref);
@@ -89,7 +109,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
         mLocalManager.setForegroundActivity(mFragment.getContext());
         mLocalManager.getEventManager().registerCallback(this);
         mLocalManager.getProfileManager().addServiceListener(this);
-        forceUpdate();
+        scheduleRefresh();
     }
 
     /**
@@ -103,6 +123,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
         mLocalManager.setForegroundActivity(null);
         mLocalManager.getEventManager().unregisterCallback(this);
         mLocalManager.getProfileManager().removeServiceListener(this);
+        clearPendingUpdates();
     }
 
     /**
@@ -117,13 +138,111 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
             final Collection<CachedBluetoothDevice> cachedDevices =
                     mLocalManager.getCachedDeviceManager().getCachedDevicesCopy();
             for (CachedBluetoothDevice cachedBluetoothDevice : cachedDevices) {
-                update(cachedBluetoothDevice);
+                updateDevice(cachedBluetoothDevice);
             }
         } else {
           removeAllDevicesFromPreference();
         }
     }
 
+    /**
+     * Queue {@code cachedDevice} to be updated with the next batch.
+     */
+    protected void scheduleUpdate(CachedBluetoothDevice cachedDevice) {
+        mPendingDevices.add(cachedDevice);
+        scheduleBatch();
+    }
+
+    /**
+     * Queue a refresh of all devices whose state changed, to be applied with the next batch.
+     */
+    protected void scheduleRefresh() {
+        mPendingRefresh = true;
+        scheduleBatch();
+    }
+
+    private void scheduleBatch() {
+        if (mBatchScheduled) {
+            return;
+        }
+        mBatchScheduled = true;
+        // Created here rather than once so that it runs on the object the event was delivered to.
+        mHandler.post(() -> applyPendingUpdates());
+    }
+
+    private void clearPendingUpdates() {
+        mHandler.removeCallbacksAndMessages(null);
+        mBatchScheduled = false;
+        mPendingRefresh = false;
+        mPendingDevices.clear();
+    }
+
+    /**
+     * Apply the device events received since the last batch.
+     */
+    @VisibleForTesting
+    void applyPendingUpdates() {
+        mBatchScheduled = false;
+        final boolean refresh = mPendingRefresh;
+        final List<CachedBluetoothDevice> devices = new ArrayList<>(mPendingDevices);
+        mPendingRefresh = false;
+        mPendingDevices.clear();
+        if (mLocalManager == null) {
+            return;
+        }
+        for (CachedBluetoothDevice cachedDevice : devices) {
+            updateDevice(cachedDevice);
+        }
+        if (!refresh) {
+            return;
+        }
+        if (!BluetoothAdapter.getDefaultAdapter().isEnabled()) {
+            removeAllDevicesFromPreference();
+            return;
+        }
+        final Collection<CachedBluetoothDevice> cachedDevices =
+                mLocalManager.getCachedDeviceManager().getCachedDevicesCopy();
+        for (CachedBluetoothDevice cachedDevice : cachedDevices) {
+            if (devices.contains(cachedDevice)) {
+                continue;
+            }
+            final Integer lastState = mDeviceStates.get(cachedDevice);
+            if (lastState != null && lastState == getDeviceState(cachedDevice)) {
+                continue;
+            }
+            updateDevice(cachedDevice);
+        }
+    }
+
+    private void updateDevice(CachedBluetoothDevice cachedDevice) {
+        mDeviceStates.put(cachedDevice, getDeviceState(cachedDevice));
+        update(cachedDevice);
+    }
+
+    /**
+     * @return the state {@link #isFilterMatched} depends on for {@code cachedDevice}. Updaters
+     * whose filter also depends on other state mix it in through {@link #getFilterState()}.
+     */
+    @VisibleForTesting
+    int getDeviceState(CachedBluetoothDevice cachedDevice) {
+        final BluetoothDevice device = cachedDevice.getDevice();
+        int state = device != null ? device.getBondState() - BluetoothDevice.BOND_NONE : 0;
+        state = (state << 1) | (device != null && device.isConnected() ? 1 : 0);
+        state = (state << 1) | (device != null && device.isTwsPlusDevice() ? 1 : 0);
+        state = (state << 1) | (cachedDevice.isConnectedA2dpDevice() ? 1 : 0);
+        state = (state << 1) | (cachedDevice.isConnectedHfpDevice() ? 1 : 0);
+        state = (state << 1) | (cachedDevice.isConnectedHearingAidDevice() ? 1 : 0);
+        state = (state << 1) | (cachedDevice.getSubDevice() != null ? 1 : 0);
+        return (state << 8) | (getFilterState() & 0xff);
+    }
+
+    /**
+     * @return state other than the device's own which {@link #isFilterMatched} depends on.
+     */
+    protected int getFilterState() {
+        return 0;
+    }
+
     public void removeAllDevicesFromPreference() {
         if (mLocalManager == null) {
             Log.e(TAG, "removeAllDevicesFromPreference() BT is not supported on this device");
@@ -134,20 +253,22 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
         for (CachedBluetoothDevice cachedBluetoothDevice : cachedDevices) {
             removePreference(cachedBluetoothDevice);
         }
+        mDeviceStates.clear();
     }
 
     @Override
     public void onBluetoothStateChanged(int bluetoothState) {
         if (BluetoothAdapter.STATE_ON == bluetoothState) {
-            forceUpdate();
+            scheduleRefresh();
         } else if (BluetoothAdapter.STATE_OFF == bluetoothState) {
+            mPendingDevices.clear();
             removeAllDevicesFromPreference();
         }
     }
 
     @Override
     public void onDeviceAdded(CachedBluetoothDevice cachedDevice) {
-        update(cachedDevice);
+        scheduleUpdate(cachedDevice);
     }
 
     @Override
@@ -155,12 +276,14 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
         // Used to combine the hearing aid entries just after pairing. Once both the hearing aids
         // get connected and their hiSyncId gets populated, this gets called for one of the
         // 2 hearing aids so that only one entry in the connected devices list will be seen.
+        mPendingDevices.remove(cachedDevice);
+        mDeviceStates.remove(cachedDevice);
         removePreference(cachedDevice);
     }
 
     @Override
     public void onDeviceBondStateChanged(CachedBluetoothDevice cachedDevice, int bondState) {
-        update(cachedDevice);
+        scheduleUpdate(cachedDevice);
     }
 
     @Override
@@ -170,7 +293,7 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
             Log.d(TAG, "onProfileConnectionStateChanged() device: " + cachedDevice.getName()
                     + ", state: " + state + ", bluetoothProfile: " + bluetoothProfile);
         }
-        update(cachedDevice);
+        scheduleUpdate(cachedDevice);
     }
 
     @Override
@@ -179,13 +302,13 @@ public abstract class BluetoothDeviceUpdater implements BluetoothCallback,
             Log.d(TAG, "onAclConnectionStateChanged() device: " + cachedDevice.getName()
                     + ", state: " + state);
         }
-        update(cachedDevice);
+        scheduleUpdate(cachedDevice);
     }
 
     @Override
     public void onServiceConnected() {
         // When bluetooth service connected update the UI
-        forceUpdate();
+        scheduleRefresh();
     }
 
     @Override
@@ -45,7 +45,12 @@ public class ConnectedBluetoothDeviceUpdater extends BluetoothDeviceUpdater {
 
     @Override
     public void onAudioModeChanged() {
-        forceUpdate();
+        scheduleRefresh();
+    }
+
+    @Override
+    protected int getFilterState() {
+        return mAudioManager.getMode();
     }
 
     @Override
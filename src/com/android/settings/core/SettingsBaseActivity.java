@@ -25,6 +25,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.res.TypedArray;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.TextUtils;
@@ -45,6 +46,7 @@ import com.android.settings.dashboard.CategoryManager;
 import com.google.android.setupcompat.util.WizardManagerHelper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class SettingsBaseActivity extends FragmentActivity {
@@ -225,7 +227,8 @@ public class SettingsBaseActivity extends FragmentActivity {
      * Updates dashboard categories. Only necessary to call this after setTileEnabled
      */
     public void updateCategories() {
-        new CategoriesUpdateTask().execute();
+        // Only components of Settings itself are enabled or disabled by setTileEnabled().
+        new CategoriesUpdateTask(getPackageName()).execute();
     }
 
     public interface CategoryListener {
@@ -235,14 +238,17 @@ public class SettingsBaseActivity extends FragmentActivity {
     private class CategoriesUpdateTask extends AsyncTask<Void, Void, Void> {
 
         private final CategoryManager mCategoryManager;
+        // Packages to reload in addition to the ones changed since the last load.
+        private final List<String> mPackageNames;
 
-        public CategoriesUpdateTask() {
+        public CategoriesUpdateTask(String... packageNames) {
             mCategoryManager = CategoryManager.get(SettingsBaseActivity.this);
+            mPackageNames = Arrays.asList(packageNames);
         }
 
         @Override
         protected Void doInBackground(Void... params) {
-            mCategoryManager.reloadAllCategories(SettingsBaseActivity.this);
+            mCategoryManager.reloadPackages(SettingsBaseActivity.this, mPackageNames);
             return null;
         }
 
@@ -256,7 +262,10 @@ public class SettingsBaseActivity extends FragmentActivity {
     private class PackageReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
-            new CategoriesUpdateTask().execute();
+            final Uri data = intent.getData();
+            if (data != null) {
+                new CategoriesUpdateTask(data.getSchemeSpecificPart()).execute();
+            }
         }
     }
 }
@@ -28,15 +28,22 @@ import com.android.settingslib.applications.InterestingConfigChanges;
 import com.android.settingslib.drawer.CategoryKey;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
-import com.android.settingslib.drawer.TileUtils;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+/**
+ * Keeps the {@link DashboardCategory}s built from the tiles injected into Settings.
+ *
+ * <p>Tiles come from a {@link TileCatalog}, which is read from disk when possible and then only
+ * reloads the packages that changed. The categories are rebuilt and swapped as a whole, so
+ * readers never wait for a reload once the first load is done.
+ */
 public class CategoryManager {
 
     private static final String TAG = "CategoryManager";
@@ -44,13 +51,25 @@ public class CategoryManager {
     private static CategoryManager sInstance;
     private final InterestingConfigChanges mInterestingConfigChanges;
 
-    // Tile cache (key: <packageName, activityName>, value: tile)
+    // Tile cache (key: <packageName, activityName>, value: tile). Guarded by this.
     private final Map<Pair<String, String>, Tile> mTileByComponentCache;
 
-    // Tile cache (key: category key, value: category)
-    private final Map<String, DashboardCategory> mCategoryByKeyMap;
+    // All injected tiles, or null before the first load. Guarded by this.
+    private TileCatalog mCatalog;
+
+    private volatile Categories mCategories;
 
-    private List<DashboardCategory> mCategories;
+    private static class Categories {
+        final List<DashboardCategory> mCategories;
+        // key: category key, value: category
+        final Map<String, DashboardCategory> mCategoryByKeyMap;
+
+        Categories(List<DashboardCategory> categories,
+                Map<String, DashboardCategory> categoryByKeyMap) {
+            mCategories = categories;
+            mCategoryByKeyMap = categoryByKeyMap;
+        }
+    }
 
     public static CategoryManager get(Context context) {
         if (sInstance == null) {
@@ -61,64 +80,147 @@ public class CategoryManager {
 
     CategoryManager(Context context) {
         mTileByComponentCache = new ArrayMap<>();
-        mCategoryByKeyMap = new ArrayMap<>();
         mInterestingConfigChanges = new InterestingConfigChanges();
         mInterestingConfigChanges.applyNewConfig(context.getResources());
     }
 
-    public synchronized DashboardCategory getTilesByCategory(Context context, String categoryKey) {
-        tryInitCategories(context);
-
-        return mCategoryByKeyMap.get(categoryKey);
+    public DashboardCategory getTilesByCategory(Context context, String categoryKey) {
+        return tryInitCategories(context).mCategoryByKeyMap.get(categoryKey);
     }
 
-    public synchronized List<DashboardCategory> getCategories(Context context) {
-        tryInitCategories(context);
-        return mCategories;
+    public List<DashboardCategory> getCategories(Context context) {
+        return tryInitCategories(context).mCategories;
     }
 
+    /**
+     * Resolves all injected tiles again.
+     */
     public synchronized void reloadAllCategories(Context context) {
-        final boolean forceClearCache = mInterestingConfigChanges.applyNewConfig(
-                context.getResources());
-        mCategories = null;
-        tryInitCategories(context, forceClearCache);
+        if (mInterestingConfigChanges.applyNewConfig(context.getResources())) {
+            mTileByComponentCache.clear();
+        }
+        setCatalog(context, TileCatalog.scan(context, mTileByComponentCache), true /* persist */);
+    }
+
+    /**
+     * Resolves the tiles of {@code packageNames} and of any other package changed since the last
+     * load again. All tiles are resolved again if the configuration changed.
+     */
+    public synchronized void reloadPackages(Context context, Collection<String> packageNames) {
+        if (mInterestingConfigChanges.applyNewConfig(context.getResources())) {
+            mTileByComponentCache.clear();
+            setCatalog(context, TileCatalog.scan(context, mTileByComponentCache),
+                    true /* persist */);
+            return;
+        }
+        if (mCatalog == null) {
+            // The first load resolves all changed packages.
+            tryInitCategories(context);
+            return;
+        }
+        final Set<String> changedPackages = new ArraySet<>(packageNames);
+        changedPackages.addAll(mCatalog.pollChangedPackages(context));
+        boolean changed = false;
+        for (String packageName : changedPackages) {
+            changed |= mCatalog.reloadPackage(context, packageName, mTileByComponentCache);
+        }
+        if (changed) {
+            setCatalog(context, mCatalog, true /* persist */);
+        }
     }
 
     public synchronized void updateCategoryFromBlacklist(Set<ComponentName> tileBlacklist) {
-        if (mCategories == null) {
+        final Categories categories = mCategories;
+        if (categories == null) {
             Log.w(TAG, "Category is null, skipping blacklist update");
+            return;
         }
-        for (int i = 0; i < mCategories.size(); i++) {
-            DashboardCategory category = mCategories.get(i);
-            for (int j = 0; j < category.getTilesCount(); j++) {
-                Tile tile = category.getTile(j);
-                if (tileBlacklist.contains(tile.getIntent().getComponent())) {
-                    category.removeTile(j--);
+        if (tileBlacklist.isEmpty()) {
+            return;
+        }
+        // Readers may be iterating the current categories, so filter copies of them.
+        final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+        for (Entry<String, DashboardCategory> entry : categories.mCategoryByKeyMap.entrySet()) {
+            final DashboardCategory category = entry.getValue();
+            final DashboardCategory filtered = new DashboardCategory(category.key);
+            for (int i = 0; i < category.getTilesCount(); i++) {
+                final Tile tile = category.getTile(i);
+                if (!tileBlacklist.contains(tile.getIntent().getComponent())) {
+                    filtered.addTile(tile);
                 }
             }
+            categoryByKeyMap.put(entry.getKey(), filtered);
+        }
+        final List<DashboardCategory> list = new ArrayList<>();
+        for (DashboardCategory category : categories.mCategories) {
+            list.add(categoryByKeyMap.get(category.key));
         }
+        mCategories = new Categories(list, categoryByKeyMap);
     }
 
-    private synchronized void tryInitCategories(Context context) {
-        // Keep cached tiles by default. The cache is only invalidated when InterestingConfigChange
-        // happens.
-        tryInitCategories(context, false /* forceClearCache */);
+    private Categories tryInitCategories(Context context) {
+        final Categories categories = mCategories;
+        if (categories != null) {
+            return categories;
+        }
+        synchronized (this) {
+            if (mCategories == null) {
+                initCategories(context);
+            }
+            return mCategories;
+        }
     }
 
-    private synchronized void tryInitCategories(Context context, boolean forceClearCache) {
-        if (mCategories == null) {
-            if (forceClearCache) {
-                mTileByComponentCache.clear();
-            }
-            mCategoryByKeyMap.clear();
-            mCategories = TileUtils.getCategories(context, mTileByComponentCache);
-            for (DashboardCategory category : mCategories) {
-                mCategoryByKeyMap.put(category.key, category);
+    private synchronized void initCategories(Context context) {
+        final TileCatalog catalog = TileCatalog.read(TileCatalog.getFile(context));
+        if (catalog == null || !catalog.isValidFor(TileCatalog.Environment.get(context))) {
+            setCatalog(context, TileCatalog.scan(context, mTileByComponentCache),
+                    true /* persist */);
+            return;
+        }
+        for (Tile tile : catalog.getTiles()) {
+            mTileByComponentCache.put(getComponentKey(tile), tile);
+        }
+        final Set<String> changedPackages = new ArraySet<>(catalog.pollChangedPackages(context));
+        // In case a change was missed, e.g. because the catalog was written just before it.
+        changedPackages.addAll(catalog.getUpdatedPackages(context));
+        for (String packageName : changedPackages) {
+            catalog.reloadPackage(context, packageName, mTileByComponentCache);
+        }
+        setCatalog(context, catalog, !changedPackages.isEmpty() /* persist */);
+    }
+
+    @VisibleForTesting
+    synchronized void setCatalog(Context context, TileCatalog catalog, boolean persist) {
+        mCatalog = catalog;
+        mCategories = buildCategories(context, catalog.getTiles());
+        if (persist) {
+            catalog.write(TileCatalog.getFile(context));
+        }
+    }
+
+    private Categories buildCategories(Context context, List<Tile> tiles) {
+        final Map<Pair<String, String>, Tile> tileByComponent = new ArrayMap<>();
+        final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+        final List<DashboardCategory> categories = new ArrayList<>();
+        for (Tile tile : tiles) {
+            tileByComponent.put(getComponentKey(tile), tile);
+            DashboardCategory category = categoryByKeyMap.get(tile.getCategory());
+            if (category == null) {
+                category = new DashboardCategory(tile.getCategory());
+                categoryByKeyMap.put(category.key, category);
+                categories.add(category);
             }
-            backwardCompatCleanupForCategory(mTileByComponentCache, mCategoryByKeyMap);
-            sortCategories(context, mCategoryByKeyMap);
-            filterDuplicateTiles(mCategoryByKeyMap);
+            category.addTile(tile);
         }
+        backwardCompatCleanupForCategory(tileByComponent, categoryByKeyMap);
+        sortCategories(context, categoryByKeyMap);
+        filterDuplicateTiles(categoryByKeyMap);
+        return new Categories(categories, categoryByKeyMap);
+    }
+
+    private static Pair<String, String> getComponentKey(Tile tile) {
+        return new Pair<>(tile.getPackageName(), tile.getIntent().getComponent().getClassName());
     }
 
     @VisibleForTesting
@@ -15,6 +15,8 @@
  */
 package com.android.settings.dashboard;
 
+import android.content.Context;
+
 import androidx.fragment.app.FragmentActivity;
 import androidx.preference.Preference;
 
@@ -22,6 +24,7 @@ import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * FeatureProvider for dashboard (aka settings homepage).
@@ -58,9 +61,30 @@ public interface DashboardFeatureProvider {
     void bindPreferenceToTile(FragmentActivity activity, boolean forceRoundedIcon,
             int sourceMetricsCategory, Preference pref, Tile tile, String key, int baseOrder);
 
+    /**
+     * Same as {@link #bindPreferenceToTile(FragmentActivity, boolean, int, Preference, Tile,
+     * String, int)}, and calls {@code iconListener} and {@code summaryListener} on the main thread
+     * once the icon, respectively the summary, of the tile is set on {@code pref}. Both may be set
+     * after this method returns.
+     */
+    void bindPreferenceToTile(FragmentActivity activity, boolean forceRoundedIcon,
+            int sourceMetricsCategory, Preference pref, Tile tile, String key, int baseOrder,
+            Consumer<Preference> iconListener, Consumer<Preference> summaryListener);
+
     /**
      * Opens a tile to its destination intent.
      */
     void openTileIntent(FragmentActivity activity, Tile tile);
 
+    /**
+     * Starts loading the icons of the tiles in a category in the background, so binding them
+     * later doesn't wait for their packages' resources.
+     *
+     * @param context The context whose theme tints the icons
+     * @param categoryKey The key of the category defined in CategoryKey
+     * @param forceRoundedIcon Whether or not injected tiles from other packages should be forced
+     * to rounded icon.
+     */
+    void prewarmTileIcons(Context context, String categoryKey, boolean forceRoundedIcon);
+
 }
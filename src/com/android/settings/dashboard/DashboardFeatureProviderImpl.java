@@ -51,10 +51,10 @@ import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 import com.android.settingslib.drawer.TileUtils;
 import com.android.settingslib.utils.ThreadUtils;
-import com.android.settingslib.widget.AdaptiveIcon;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Impl for {@code DashboardFeatureProvider}.
@@ -70,12 +70,14 @@ public class DashboardFeatureProviderImpl implements DashboardFeatureProvider {
     private final MetricsFeatureProvider mMetricsFeatureProvider;
     private final CategoryManager mCategoryManager;
     private final PackageManager mPackageManager;
+    private final TileIconLoader mTileIconLoader;
 
     public DashboardFeatureProviderImpl(Context context) {
         mContext = context.getApplicationContext();
         mCategoryManager = CategoryManager.get(context);
         mMetricsFeatureProvider = FeatureFactory.getFactory(context).getMetricsFeatureProvider();
         mPackageManager = context.getPackageManager();
+        mTileIconLoader = new TileIconLoader(context);
     }
 
     @Override
@@ -105,6 +107,14 @@ public class DashboardFeatureProviderImpl implements DashboardFeatureProvider {
     @Override
     public void bindPreferenceToTile(FragmentActivity activity, boolean forceRoundedIcon,
             int sourceMetricsCategory, Preference pref, Tile tile, String key, int baseOrder) {
+        bindPreferenceToTile(activity, forceRoundedIcon, sourceMetricsCategory, pref, tile, key,
+                baseOrder, null /* iconListener */, null /* summaryListener */);
+    }
+
+    @Override
+    public void bindPreferenceToTile(FragmentActivity activity, boolean forceRoundedIcon,
+            int sourceMetricsCategory, Preference pref, Tile tile, String key, int baseOrder,
+            Consumer<Preference> iconListener, Consumer<Preference> summaryListener) {
         if (pref == null) {
             return;
         }
@@ -114,8 +124,8 @@ public class DashboardFeatureProviderImpl implements DashboardFeatureProvider {
         } else {
             pref.setKey(getDashboardKeyForTile(tile));
         }
-        bindSummary(pref, tile);
-        bindIcon(pref, tile, forceRoundedIcon);
+        bindSummary(pref, tile, summaryListener);
+        bindIcon(pref, tile, forceRoundedIcon, iconListener);
         final Bundle metadata = tile.getMetaData();
         String clsName = null;
         String action = null;
@@ -168,10 +178,19 @@ public class DashboardFeatureProviderImpl implements DashboardFeatureProvider {
         launchIntentOrSelectProfile(activity, tile, intent, SettingsEnums.DASHBOARD_SUMMARY);
     }
 
-    private void bindSummary(Preference preference, Tile tile) {
+    @Override
+    public void prewarmTileIcons(Context context, String categoryKey, boolean forceRoundedIcon) {
+        final DashboardCategory category = getTilesForCategory(categoryKey);
+        if (category != null) {
+            mTileIconLoader.prewarm(context, category.getTiles(), forceRoundedIcon);
+        }
+    }
+
+    private void bindSummary(Preference preference, Tile tile,
+            Consumer<Preference> summaryListener) {
         final CharSequence summary = tile.getSummary(mContext);
         if (summary != null) {
-            preference.setSummary(summary);
+            setSummary(preference, summary, summaryListener);
         } else if (tile.getMetaData() != null
                 && tile.getMetaData().containsKey(META_DATA_PREFERENCE_SUMMARY_URI)) {
             // Set a placeholder summary before  starting to fetch real summary, this is necessary
@@ -183,52 +202,77 @@ public class DashboardFeatureProviderImpl implements DashboardFeatureProvider {
                 final String uri = tile.getMetaData().getString(META_DATA_PREFERENCE_SUMMARY_URI);
                 final String summaryFromUri = TileUtils.getTextFromUri(
                         mContext, uri, providerMap, META_DATA_PREFERENCE_SUMMARY);
-                ThreadUtils.postOnMainThread(() -> preference.setSummary(summaryFromUri));
+                ThreadUtils.postOnMainThread(
+                        () -> setSummary(preference, summaryFromUri, summaryListener));
             });
         } else {
-            preference.setSummary(R.string.summary_placeholder);
+            setSummary(preference, mContext.getString(R.string.summary_placeholder),
+                    summaryListener);
         }
     }
 
     @VisibleForTesting
-    void bindIcon(Preference preference, Tile tile, boolean forceRoundedIcon) {
+    void bindIcon(Preference preference, Tile tile, boolean forceRoundedIcon,
+            Consumer<Preference> iconListener) {
         // Use preference context instead here when get icon from Tile, as we are using the context
         // to get the style to tint the icon.  Using mContext here won't get the correct style.
-        final Icon tileIcon = tile.getIcon(preference.getContext());
-        if (tileIcon != null) {
-            Drawable iconDrawable = tileIcon.loadDrawable(preference.getContext());
-            if (forceRoundedIcon
-                    && !TextUtils.equals(mContext.getPackageName(), tile.getPackageName())) {
-                iconDrawable = new AdaptiveIcon(mContext, iconDrawable);
-                ((AdaptiveIcon) iconDrawable).setBackgroundColor(mContext, tile);
+        final Context context = preference.getContext();
+        final boolean rounded = mTileIconLoader.isRounded(tile, forceRoundedIcon);
+        final Drawable cachedIcon = mTileIconLoader.getCachedIcon(context, tile, rounded);
+        if (cachedIcon != null) {
+            setIcon(preference, cachedIcon, iconListener);
+            return;
+        }
+        mTileIconLoader.loadIcon(context, tile, rounded, iconDrawable -> {
+            if (iconDrawable != null) {
+                setIcon(preference, iconDrawable, iconListener);
+            } else if (tile.getMetaData() != null
+                    && tile.getMetaData().containsKey(META_DATA_PREFERENCE_ICON_URI)) {
+                bindIconFromUri(preference, tile, iconListener);
             }
-            preference.setIcon(iconDrawable);
-        } else if (tile.getMetaData() != null
-                && tile.getMetaData().containsKey(META_DATA_PREFERENCE_ICON_URI)) {
-            ThreadUtils.postOnBackgroundThread(() -> {
-                final Intent intent = tile.getIntent();
-                String packageName = null;
-                if (!TextUtils.isEmpty(intent.getPackage())) {
-                    packageName = intent.getPackage();
-                } else if (intent.getComponent() != null) {
-                    packageName = intent.getComponent().getPackageName();
-                }
-                final Map<String, IContentProvider> providerMap = new ArrayMap<>();
-                final String uri = tile.getMetaData().getString(META_DATA_PREFERENCE_ICON_URI);
-                final Pair<String, Integer> iconInfo = TileUtils.getIconFromUri(
-                        mContext, packageName, uri, providerMap);
-                if (iconInfo == null) {
-                    Log.w(TAG, "Failed to get icon from uri " + uri);
-                    return;
-                }
-                final Icon icon = Icon.createWithResource(iconInfo.first, iconInfo.second);
-                ThreadUtils.postOnMainThread(() ->
-                        preference.setIcon(icon.loadDrawable(preference.getContext()))
-                );
-            });
+        });
+    }
+
+    private static void setSummary(Preference preference, CharSequence summary,
+            Consumer<Preference> summaryListener) {
+        preference.setSummary(summary);
+        if (summaryListener != null) {
+            summaryListener.accept(preference);
+        }
+    }
+
+    private static void setIcon(Preference preference, Drawable icon,
+            Consumer<Preference> iconListener) {
+        preference.setIcon(icon);
+        if (iconListener != null) {
+            iconListener.accept(preference);
         }
     }
 
+    private void bindIconFromUri(Preference preference, Tile tile,
+            Consumer<Preference> iconListener) {
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final Intent intent = tile.getIntent();
+            String packageName = null;
+            if (!TextUtils.isEmpty(intent.getPackage())) {
+                packageName = intent.getPackage();
+            } else if (intent.getComponent() != null) {
+                packageName = intent.getComponent().getPackageName();
+            }
+            final Map<String, IContentProvider> providerMap = new ArrayMap<>();
+            final String uri = tile.getMetaData().getString(META_DATA_PREFERENCE_ICON_URI);
+            final Pair<String, Integer> iconInfo = TileUtils.getIconFromUri(
+                    mContext, packageName, uri, providerMap);
+            if (iconInfo == null) {
+                Log.w(TAG, "Failed to get icon from uri " + uri);
+                return;
+            }
+            final Icon icon = Icon.createWithResource(iconInfo.first, iconInfo.second);
+            ThreadUtils.postOnMainThread(() -> setIcon(preference,
+                    icon.loadDrawable(preference.getContext()), iconListener));
+        });
+    }
+
     private void launchIntentOrSelectProfile(FragmentActivity activity, Tile tile, Intent intent,
             int sourceMetricCategory) {
         if (!isIntentResolvable(intent)) {
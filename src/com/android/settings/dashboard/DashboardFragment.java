@@ -63,10 +63,13 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     private final Map<Class, List<AbstractPreferenceController>> mPreferenceControllers =
             new ArrayMap<>();
     private final Set<String> mDashboardTilePrefKeys = new ArraySet<>();
+    private final Set<String> mPendingTileSummaryKeys = new ArraySet<>();
 
     private DashboardFeatureProvider mDashboardFeatureProvider;
     private DashboardTilePlaceholderPreferenceController mPlaceholderPreferenceController;
     private boolean mListeningToCategoryChange;
+    private boolean mPreferenceStatesUpdated;
+    private boolean mSummariesLoaded;
     private SummaryLoader mSummaryLoader;
     private List<String> mSuppressInjectedTileKeys;
     @VisibleForTesting
@@ -79,6 +82,12 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
                 R.array.config_suppress_injected_tile_keys));
         mDashboardFeatureProvider = FeatureFactory.getFactory(context).
                 getDashboardFeatureProvider(context);
+        final String categoryKey = getCategoryKey();
+        if (categoryKey != null) {
+            // Load icons of injected tiles while the preferences are created.
+            mDashboardFeatureProvider.prewarmTileIcons(context, categoryKey,
+                    shouldForceRoundedIcon());
+        }
         final List<AbstractPreferenceController> controllers = new ArrayList<>();
         // Load preference controllers from code
         final List<AbstractPreferenceController> controllersFromCode =
@@ -196,6 +205,8 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     public void onResume() {
         super.onResume();
         updatePreferenceStates();
+        mPreferenceStatesUpdated = true;
+        maybeNotifySummariesLoaded();
     }
 
     @Override
@@ -246,6 +257,36 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         return false;
     }
 
+    /**
+     * Called on the main thread once the icon of a dashboard tile preference is set, which may
+     * be after the preference was added to the screen.
+     */
+    protected void onTileIconLoaded(Preference preference) {
+    }
+
+    /**
+     * Called on the main thread once the summaries of all preferences are loaded: the ones of the
+     * preference controllers, of the summary providers and of the dashboard tiles. Called again
+     * after the dashboard tiles were refreshed.
+     */
+    protected void onSummariesLoaded() {
+    }
+
+    private void onTileSummaryLoaded(Preference preference) {
+        if (mPendingTileSummaryKeys.remove(preference.getKey())) {
+            maybeNotifySummariesLoaded();
+        }
+    }
+
+    private void maybeNotifySummariesLoaded() {
+        if (mSummariesLoaded || !mPreferenceStatesUpdated || !mPendingTileSummaryKeys.isEmpty()
+                || (mSummaryLoader != null && !mSummaryLoader.isLoaded())) {
+            return;
+        }
+        mSummariesLoaded = true;
+        onSummariesLoaded();
+    }
+
     protected <T extends AbstractPreferenceController> T use(Class<T> clazz) {
         List<AbstractPreferenceController> controllerList = mPreferenceControllers.get(clazz);
         if (controllerList != null) {
@@ -432,6 +473,9 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         final Context context = getContext();
         mSummaryLoader = new SummaryLoader(getActivity(), getCategoryKey());
         mSummaryLoader.setSummaryConsumer(this);
+        mSummaryLoader.setSummariesLoadedListener(this::maybeNotifySummariesLoaded);
+        mPendingTileSummaryKeys.clear();
+        mSummariesLoaded = false;
         // Install dashboard tiles.
         final boolean forceRoundedIcons = shouldForceRoundedIcon();
         for (Tile tile : tiles) {
@@ -446,15 +490,21 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
             if (mDashboardTilePrefKeys.contains(key)) {
                 // Have the key already, will rebind.
                 final Preference preference = screen.findPreference(key);
+                if (preference != null) {
+                    mPendingTileSummaryKeys.add(key);
+                }
                 mDashboardFeatureProvider.bindPreferenceToTile(getActivity(), forceRoundedIcons,
                         getMetricsCategory(), preference, tile, key,
-                        mPlaceholderPreferenceController.getOrder());
+                        mPlaceholderPreferenceController.getOrder(),
+                        this::onTileIconLoaded, this::onTileSummaryLoaded);
             } else {
                 // Don't have this key, add it.
                 final Preference pref = new Preference(getPrefContext());
+                mPendingTileSummaryKeys.add(key);
                 mDashboardFeatureProvider.bindPreferenceToTile(getActivity(), forceRoundedIcons,
                         getMetricsCategory(), pref, tile, key,
-                        mPlaceholderPreferenceController.getOrder());
+                        mPlaceholderPreferenceController.getOrder(),
+                        this::onTileIconLoaded, this::onTileSummaryLoaded);
                 screen.addPreference(pref);
                 mDashboardTilePrefKeys.add(key);
             }
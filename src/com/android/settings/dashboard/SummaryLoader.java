@@ -59,6 +59,9 @@ public class SummaryLoader {
     private final HandlerThread mWorkerThread;
 
     private SummaryConsumer mSummaryConsumer;
+    private Runnable mSummariesLoadedListener;
+    // Providers which did not set their first summary yet, null until the providers are created.
+    private ArraySet<SummaryProvider> mPendingProviders;
     private boolean mListening;
     private boolean mWorkerListening;
     private ArraySet<BroadcastReceiver> mReceivers = new ArraySet<>();
@@ -83,9 +86,28 @@ public class SummaryLoader {
         mSummaryConsumer = summaryConsumer;
     }
 
+    /**
+     * Sets a listener called on the main thread once every summary provider set its first summary.
+     */
+    public void setSummariesLoadedListener(Runnable listener) {
+        mSummariesLoadedListener = listener;
+    }
+
+    /**
+     * Only call from the main thread.
+     *
+     * @return whether every summary provider set its first summary.
+     */
+    public boolean isLoaded() {
+        return mPendingProviders != null && mPendingProviders.isEmpty();
+    }
+
     public void setSummary(SummaryProvider provider, final CharSequence summary) {
         final ComponentName component = mSummaryProviderMap.get(provider);
         ThreadUtils.postOnMainThread(() -> {
+            if (mPendingProviders != null && mPendingProviders.remove(provider)) {
+                maybeNotifySummariesLoaded();
+            }
 
             final Tile tile = getTileFromCategory(
                     mDashboardFeatureProvider.getTilesForCategory(mCategoryKey), component);
@@ -222,6 +244,26 @@ public class SummaryLoader {
         }
     }
 
+    private void onProvidersCreated(ArraySet<SummaryProvider> providers) {
+        mPendingProviders = providers;
+        maybeNotifySummariesLoaded();
+    }
+
+    private void maybeNotifySummariesLoaded() {
+        if (isLoaded() && mSummariesLoadedListener != null) {
+            mSummariesLoadedListener.run();
+        }
+    }
+
+    /**
+     * Posts the created providers to the main thread. Must be called before they start
+     * listening, so none of their summaries is posted ahead of them.
+     */
+    private synchronized void postProvidersCreatedW() {
+        final ArraySet<SummaryProvider> providers = new ArraySet<>(mSummaryProviderMap.keySet());
+        ThreadUtils.postOnMainThread(() -> onProvidersCreated(providers));
+    }
+
     private synchronized void setListeningW(boolean listening) {
         if (mWorkerListening == listening) {
             return;
@@ -291,12 +333,14 @@ public class SummaryLoader {
                     final DashboardCategory category =
                             mDashboardFeatureProvider.getTilesForCategory(mCategoryKey);
                     if (category == null || category.getTilesCount() == 0) {
+                        postProvidersCreatedW();
                         return;
                     }
                     final List<Tile> tiles = category.getTiles();
                     for (Tile tile : tiles) {
                         makeProviderW(tile);
                     }
+                    postProvidersCreatedW();
                     setListeningW(true);
                     break;
                 case MSG_GET_PROVIDER:
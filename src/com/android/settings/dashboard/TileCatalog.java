@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.dashboard;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.provider.Settings.Global;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.drawer.DashboardCategory;
+import com.android.settingslib.drawer.Tile;
+import com.android.settingslib.drawer.TileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tiles injected into Settings, grouped by the package declaring them.
+ *
+ * <p>A full scan goes through {@link TileUtils#getCategories}. After that, packages named by a
+ * package broadcast or by {@link PackageManager#getChangedPackages} are resolved one by one, and
+ * the catalog is persisted so a new Settings process in the same boot only needs to resolve the
+ * packages changed since it was written.
+ */
+class TileCatalog {
+
+    private static final String TAG = "TileCatalog";
+    private static final String FILE_NAME = "tile_catalog";
+    private static final int VERSION = 1;
+
+    // Injection actions and default categories, same as TileUtils.getCategories().
+    private static final String SETTINGS_PACKAGE = "com.android.settings";
+    @VisibleForTesting
+    static final String SETTINGS_ACTION = "com.android.settings.action.SETTINGS";
+    private static final String OPERATOR_SETTINGS =
+            "com.android.settings.OPERATOR_APPLICATION_SETTING";
+    private static final String OPERATOR_DEFAULT_CATEGORY =
+            "com.android.settings.category.wireless";
+    private static final String MANUFACTURER_SETTINGS =
+            "com.android.settings.MANUFACTURER_APPLICATION_SETTING";
+    private static final String MANUFACTURER_DEFAULT_CATEGORY =
+            "com.android.settings.category.device";
+
+    /**
+     * What the injected tiles depend on besides the packages declaring them. A persisted catalog
+     * is only used if its environment is still the current one.
+     */
+    @VisibleForTesting
+    static class Environment {
+        final String fingerprint;
+        final int bootCount;
+        final int currentUserId;
+        final int[] profileIds;
+        final boolean provisioned;
+
+        @VisibleForTesting
+        Environment(String fingerprint, int bootCount, int currentUserId, int[] profileIds,
+                boolean provisioned) {
+            this.fingerprint = fingerprint;
+            this.bootCount = bootCount;
+            this.currentUserId = currentUserId;
+            this.profileIds = profileIds;
+            this.provisioned = provisioned;
+        }
+
+        static Environment get(Context context) {
+            final List<UserHandle> profiles =
+                    context.getSystemService(UserManager.class).getUserProfiles();
+            final int[] profileIds = new int[profiles.size()];
+            for (int i = 0; i < profileIds.length; i++) {
+                profileIds[i] = profiles.get(i).getIdentifier();
+            }
+            Arrays.sort(profileIds);
+            return new Environment(Build.FINGERPRINT,
+                    Global.getInt(context.getContentResolver(), Global.BOOT_COUNT, -1),
+                    ActivityManager.getCurrentUser(), profileIds,
+                    Global.getInt(context.getContentResolver(), Global.DEVICE_PROVISIONED, 0)
+                            != 0);
+        }
+
+        boolean matches(Environment other) {
+            return fingerprint.equals(other.fingerprint) && bootCount == other.bootCount
+                    && currentUserId == other.currentUserId
+                    && Arrays.equals(profileIds, other.profileIds)
+                    && provisioned == other.provisioned;
+        }
+    }
+
+    private static class PackageTiles {
+        final long versionCode;
+        final List<Tile> tiles;
+
+        PackageTiles(long versionCode, List<Tile> tiles) {
+            this.versionCode = versionCode;
+            this.tiles = tiles;
+        }
+    }
+
+    private final Environment mEnvironment;
+    private final Map<String, PackageTiles> mPackages = new ArrayMap<>();
+    // Sequence number of PackageManager.getChangedPackages() the catalog is up to date with.
+    private int mSequenceNumber;
+
+    @VisibleForTesting
+    TileCatalog(Environment environment, int sequenceNumber) {
+        mEnvironment = environment;
+        mSequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Resolves all tiles with {@link TileUtils#getCategories}.
+     */
+    static TileCatalog scan(Context context,
+            Map<Pair<String, String>, Tile> tileByComponentCache) {
+        final ChangedPackages changedPackages =
+                context.getPackageManager().getChangedPackages(0);
+        final TileCatalog catalog = new TileCatalog(Environment.get(context),
+                changedPackages == null ? 0 : changedPackages.getSequenceNumber());
+        final Map<String, List<Tile>> tilesByPackage = new ArrayMap<>();
+        for (DashboardCategory category : TileUtils.getCategories(context, tileByComponentCache)) {
+            for (int i = 0; i < category.getTilesCount(); i++) {
+                final Tile tile = category.getTile(i);
+                List<Tile> tiles = tilesByPackage.get(tile.getPackageName());
+                if (tiles == null) {
+                    tiles = new ArrayList<>();
+                    tilesByPackage.put(tile.getPackageName(), tiles);
+                }
+                tiles.add(tile);
+            }
+        }
+        for (Map.Entry<String, List<Tile>> entry : tilesByPackage.entrySet()) {
+            catalog.putPackage(entry.getKey(), getVersionCode(context, entry.getKey()),
+                    entry.getValue());
+        }
+        return catalog;
+    }
+
+    /**
+     * @return all tiles, grouped by package.
+     */
+    List<Tile> getTiles() {
+        final List<Tile> tiles = new ArrayList<>();
+        for (PackageTiles packageTiles : mPackages.values()) {
+            tiles.addAll(packageTiles.tiles);
+        }
+        return tiles;
+    }
+
+    boolean isValidFor(Environment environment) {
+        return mEnvironment.matches(environment);
+    }
+
+    @VisibleForTesting
+    void putPackage(String packageName, long versionCode, List<Tile> tiles) {
+        if (tiles.isEmpty()) {
+            mPackages.remove(packageName);
+        } else {
+            mPackages.put(packageName, new PackageTiles(versionCode, tiles));
+        }
+    }
+
+    /**
+     * Resolves the tiles declared by {@code packageName} again. The package changed, so its tiles
+     * are always created anew; they replace the ones of the package in
+     * {@code tileByComponentCache}.
+     *
+     * @return whether the package declared or declares tiles.
+     */
+    boolean reloadPackage(Context context, String packageName,
+            Map<Pair<String, String>, Tile> tileByComponentCache) {
+        final Map<Pair<String, String>, Tile> tiles = new ArrayMap<>();
+        final UserManager userManager = context.getSystemService(UserManager.class);
+        for (UserHandle user : userManager.getUserProfiles()) {
+            if (user.getIdentifier() == mEnvironment.currentUserId) {
+                // Like TileUtils, only Settings itself can inject tiles with SETTINGS_ACTION.
+                if (SETTINGS_PACKAGE.equals(packageName)) {
+                    resolveTiles(context, user, SETTINGS_ACTION, packageName,
+                            null /* category */, tiles);
+                }
+                resolveTiles(context, user, OPERATOR_SETTINGS, packageName,
+                        OPERATOR_DEFAULT_CATEGORY, tiles);
+                resolveTiles(context, user, MANUFACTURER_SETTINGS, packageName,
+                        MANUFACTURER_DEFAULT_CATEGORY, tiles);
+            }
+            if (mEnvironment.provisioned) {
+                resolveTiles(context, user, TileUtils.EXTRA_SETTINGS_ACTION, packageName,
+                        null /* category */, tiles);
+                resolveTiles(context, user, TileUtils.IA_SETTINGS_ACTION, packageName,
+                        null /* category */, tiles);
+            }
+        }
+        final boolean hadTiles = mPackages.containsKey(packageName);
+        if (!hadTiles && tiles.isEmpty()) {
+            return false;
+        }
+        tileByComponentCache.keySet().removeIf(key -> packageName.equals(key.first));
+        tileByComponentCache.putAll(tiles);
+        putPackage(packageName, getVersionCode(context, packageName),
+                new ArrayList<>(tiles.values()));
+        return true;
+    }
+
+    private static void resolveTiles(Context context, UserHandle user, String action,
+            String packageName, String defaultCategory, Map<Pair<String, String>, Tile> outTiles) {
+        final Intent intent = new Intent(action).setPackage(packageName);
+        final List<ResolveInfo> results = context.getPackageManager().queryIntentActivitiesAsUser(
+                intent, PackageManager.GET_META_DATA, user.getIdentifier());
+        for (ResolveInfo resolved : results) {
+            // Only system apps can inject tiles.
+            if (!resolved.system) {
+                continue;
+            }
+            final ActivityInfo activityInfo = resolved.activityInfo;
+            final Bundle metaData = activityInfo.metaData;
+            String categoryKey = defaultCategory;
+            if (metaData != null && metaData.containsKey(TileUtils.EXTRA_CATEGORY_KEY)) {
+                categoryKey = metaData.getString(TileUtils.EXTRA_CATEGORY_KEY);
+            } else if (categoryKey == null) {
+                Log.w(TAG, "Found " + activityInfo.name + " for intent " + intent
+                        + " missing metadata");
+                continue;
+            }
+            final Pair<String, String> key = new Pair<>(activityInfo.packageName,
+                    activityInfo.name);
+            Tile tile = outTiles.get(key);
+            if (tile == null) {
+                tile = new Tile(activityInfo, categoryKey);
+                outTiles.put(key, tile);
+            }
+            if (!tile.userHandle.contains(user)) {
+                tile.userHandle.add(user);
+            }
+        }
+    }
+
+    /**
+     * @return the names of the packages changed since the catalog was last updated, and updates
+     *         the sequence number of the catalog. Empty if no package changed.
+     */
+    List<String> pollChangedPackages(Context context) {
+        final ChangedPackages changedPackages =
+                context.getPackageManager().getChangedPackages(mSequenceNumber);
+        if (changedPackages == null) {
+            return Collections.emptyList();
+        }
+        mSequenceNumber = changedPackages.getSequenceNumber();
+        return changedPackages.getPackageNames();
+    }
+
+    /**
+     * @return the packages of the catalog whose installed version isn't the one their tiles were
+     *         resolved for.
+     */
+    List<String> getUpdatedPackages(Context context) {
+        final List<String> updated = new ArrayList<>();
+        for (Map.Entry<String, PackageTiles> entry : mPackages.entrySet()) {
+            if (getVersionCode(context, entry.getKey()) != entry.getValue().versionCode) {
+                updated.add(entry.getKey());
+            }
+        }
+        return updated;
+    }
+
+    private static long getVersionCode(Context context, String packageName) {
+        try {
+            return context.getPackageManager().getPackageInfo(packageName, 0)
+                    .getLongVersionCode();
+        } catch (PackageManager.NameNotFoundException e) {
+            return -1;
+        }
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * @return the catalog persisted in {@code file}, or {@code null} if there is none or it can't
+     *         be read.
+     */
+    static TileCatalog read(File file) {
+        final AtomicFile atomicFile = new AtomicFile(file);
+        if (!atomicFile.exists()) {
+            return null;
+        }
+        final Parcel parcel = Parcel.obtain();
+        try {
+            final byte[] data = atomicFile.readFully();
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != VERSION) {
+                return null;
+            }
+            final Environment environment = new Environment(parcel.readString(),
+                    parcel.readInt(), parcel.readInt(), parcel.createIntArray(),
+                    parcel.readInt() != 0);
+            final TileCatalog catalog = new TileCatalog(environment, parcel.readInt());
+            for (int i = parcel.readInt(); i > 0; i--) {
+                final String packageName = parcel.readString();
+                final long versionCode = parcel.readLong();
+                catalog.putPackage(packageName, versionCode,
+                        parcel.createTypedArrayList(Tile.CREATOR));
+            }
+            return catalog;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Unable to read tile catalog", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Persists the catalog to {@code file}. Does I/O, so this shouldn't be called on the main
+     * thread.
+     */
+    void write(File file) {
+        final Parcel parcel = Parcel.obtain();
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            parcel.writeInt(VERSION);
+            parcel.writeString(mEnvironment.fingerprint);
+            parcel.writeInt(mEnvironment.bootCount);
+            parcel.writeInt(mEnvironment.currentUserId);
+            parcel.writeIntArray(mEnvironment.profileIds);
+            parcel.writeInt(mEnvironment.provisioned ? 1 : 0);
+            parcel.writeInt(mSequenceNumber);
+            parcel.writeInt(mPackages.size());
+            for (Map.Entry<String, PackageTiles> entry : mPackages.entrySet()) {
+                parcel.writeString(entry.getKey());
+                parcel.writeLong(entry.getValue().versionCode);
+                parcel.writeTypedList(entry.getValue().tiles);
+            }
+            out = atomicFile.startWrite();
+            out.write(parcel.marshall());
+            atomicFile.finishWrite(out);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Unable to write tile catalog", e);
+            atomicFile.failWrite(out);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.Icon;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.Utils;
+import com.android.settingslib.drawer.Tile;
+import com.android.settingslib.utils.ThreadUtils;
+import com.android.settingslib.widget.AdaptiveIcon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Loads the icons of tiles on a background thread and keeps them in memory.
+ *
+ * <p>Icons from resources are cached by package, resource id, tint and whether they are wrapped
+ * in an {@link AdaptiveIcon}, so tiles sharing an icon decode it once. All methods must be called
+ * on the main thread.
+ */
+class TileIconLoader {
+
+    private static final String TAG = "TileIconLoader";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+    private static final int MAX_CACHED_ICONS = 100;
+
+    private final Context mContext;
+    private final LruCache<IconKey, Drawable.ConstantState> mIcons =
+            new LruCache<>(MAX_CACHED_ICONS);
+    // Icon key of the last icon loaded for a request.
+    private final ArrayMap<Request, IconKey> mIconKeys = new ArrayMap<>();
+    // Callbacks waiting for a load in progress. A null callback only warms the cache.
+    private final ArrayMap<Request, List<Consumer<Drawable>>> mPendingLoads = new ArrayMap<>();
+
+    /**
+     * What an icon is loaded for: the tile, the tint of the context and whether the icon is
+     * wrapped in an {@link AdaptiveIcon}.
+     */
+    private static class Request {
+        final ComponentName component;
+        final int tint;
+        final boolean rounded;
+
+        Request(ComponentName component, int tint, boolean rounded) {
+            this.component = component;
+            this.tint = tint;
+            this.rounded = rounded;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Request)) {
+                return false;
+            }
+            final Request other = (Request) o;
+            return component.equals(other.component) && tint == other.tint
+                    && rounded == other.rounded;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(component, tint, rounded);
+        }
+    }
+
+    @VisibleForTesting
+    static class IconKey {
+        final String packageName;
+        final int resId;
+        final int tint;
+        final boolean rounded;
+
+        IconKey(String packageName, int resId, int tint, boolean rounded) {
+            this.packageName = packageName;
+            this.resId = resId;
+            this.tint = tint;
+            this.rounded = rounded;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IconKey)) {
+                return false;
+            }
+            final IconKey other = (IconKey) o;
+            return packageName.equals(other.packageName) && resId == other.resId
+                    && tint == other.tint && rounded == other.rounded;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(packageName, resId, tint, rounded);
+        }
+    }
+
+    TileIconLoader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * @return a new drawable of the cached icon of {@code tile}, or {@code null} if it isn't
+     *         cached.
+     */
+    Drawable getCachedIcon(Context context, Tile tile, boolean rounded) {
+        final IconKey key = mIconKeys.get(createRequest(context, tile, rounded));
+        if (key == null) {
+            return null;
+        }
+        final Drawable.ConstantState icon = mIcons.get(key);
+        return icon == null ? null : createIcon(tile, icon.newDrawable(), rounded);
+    }
+
+    /**
+     * Loads the icon of {@code tile} on a background thread, using {@code context} for its tint,
+     * and passes it to {@code callback} on the main thread. The callback gets {@code null} if the
+     * tile has no icon resource.
+     */
+    void loadIcon(Context context, Tile tile, boolean rounded, Consumer<Drawable> callback) {
+        final Request request = createRequest(context, tile, rounded);
+        List<Consumer<Drawable>> callbacks = mPendingLoads.get(request);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        mPendingLoads.put(request, callbacks);
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final long startTime = System.currentTimeMillis();
+            final Icon icon = tile.getIcon(context);
+            final Drawable drawable = icon == null ? null : icon.loadDrawable(context);
+            if (DEBUG) {
+                Log.d(TAG, "Loaded icon of " + request.component.flattenToShortString() + " in "
+                        + (System.currentTimeMillis() - startTime) + " ms");
+            }
+            ThreadUtils.postOnMainThread(() -> onIconLoaded(request, tile, icon, drawable));
+        });
+    }
+
+    /**
+     * Starts loading the icons of {@code tiles} which aren't cached yet.
+     */
+    void prewarm(Context context, List<Tile> tiles, boolean forceRoundedIcon) {
+        for (Tile tile : tiles) {
+            final boolean rounded = isRounded(tile, forceRoundedIcon);
+            if (getCachedIcon(context, tile, rounded) == null) {
+                loadIcon(context, tile, rounded, null /* callback */);
+            }
+        }
+    }
+
+    /**
+     * @return whether the icon of {@code tile} is wrapped in an {@link AdaptiveIcon}; icons of
+     *         Settings itself never are.
+     */
+    boolean isRounded(Tile tile, boolean forceRoundedIcon) {
+        return forceRoundedIcon && !mContext.getPackageName().equals(tile.getPackageName());
+    }
+
+    /**
+     * Mutates {@code drawable} and wraps it in an {@link AdaptiveIcon} if needed. The cache only
+     * holds unwrapped icons so pages theming their {@link AdaptiveIcon}s still get one for cached
+     * icons, and every icon handed out is mutated so tinting it doesn't change the cached state.
+     */
+    private Drawable createIcon(Tile tile, Drawable drawable, boolean rounded) {
+        final Drawable mutated = drawable.mutate();
+        if (!rounded) {
+            return mutated;
+        }
+        final AdaptiveIcon icon = new AdaptiveIcon(mContext, mutated);
+        icon.setBackgroundColor(mContext, tile);
+        icon.mutate();
+        return icon;
+    }
+
+    private void onIconLoaded(Request request, Tile tile, Icon icon, Drawable drawable) {
+        final Drawable.ConstantState state = drawable == null ? null
+                : drawable.getConstantState();
+        if (state != null && icon.getType() == Icon.TYPE_RESOURCE) {
+            final IconKey key = new IconKey(icon.getResPackage(), icon.getResId(), request.tint,
+                    request.rounded);
+            mIconKeys.put(request, key);
+            mIcons.put(key, state);
+        }
+        final List<Consumer<Drawable>> callbacks = mPendingLoads.remove(request);
+        if (callbacks == null) {
+            return;
+        }
+        boolean drawableUsed = false;
+        for (Consumer<Drawable> callback : callbacks) {
+            if (callback == null) {
+                continue;
+            }
+            if (drawable == null) {
+                callback.accept(null);
+            } else if (!drawableUsed || state == null) {
+                callback.accept(createIcon(tile, drawable, request.rounded));
+                drawableUsed = true;
+            } else {
+                // Each preference gets its own drawable.
+                callback.accept(createIcon(tile, state.newDrawable(), request.rounded));
+            }
+        }
+    }
+
+    private static Request createRequest(Context context, Tile tile, boolean rounded) {
+        return new Request(tile.getIntent().getComponent(),
+                Utils.getColorAttrDefaultColor(context, android.R.attr.colorControlNormal),
+                rounded);
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import android.app.ActivityManager;
+import android.app.usage.NetworkStats;
+import android.app.usage.NetworkStats.Bucket;
+import android.app.usage.NetworkStatsManager;
+import android.content.Context;
+import android.net.NetworkTemplate;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Loads the per-app data usage of one cycle for {@link DataUsageList}, already collapsed into
+ * sorted {@link AppItem}s.
+ *
+ * The per-uid totals of a cycle are cached by template and cycle bounds, so switching back to a
+ * cycle doesn't walk its network stats buckets again, and the adjacent cycles are prefetched in
+ * the background. Totals of a cycle that hasn't ended yet expire after {@link #OPEN_CYCLE_TTL_MS}.
+ */
+public class AppDataUsageListLoader extends AsyncLoaderCompat<List<AppItem>> {
+    private static final String TAG = "AppDataUsageListLoader";
+
+    @VisibleForTesting
+    static final long OPEN_CYCLE_TTL_MS = 30 * 1000;
+    private static final int CACHE_SIZE = 8;
+
+    private static final LruCache<CacheKey, CachedUsage> sCache = new LruCache<>(CACHE_SIZE);
+
+    private final NetworkTemplate mTemplate;
+    private final long mStart;
+    private final long mEnd;
+    private final long[] mPrefetchStarts;
+    private final long[] mPrefetchEnds;
+    private final int[] mRestrictedUids;
+
+    /**
+     * Cycle of a template. The template itself is part of the key because its string form hides
+     * the subscriber id, so two SIMs of the same carrier would share an entry.
+     */
+    private static class CacheKey {
+        final NetworkTemplate template;
+        final long start;
+        final long end;
+
+        CacheKey(NetworkTemplate template, long start, long end) {
+            this.template = template;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return Objects.equals(template, other.template) && start == other.start
+                    && end == other.end;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(template, start, end);
+        }
+    }
+
+    private static class CachedUsage {
+        final SparseLongArray uidBytes;
+        final long loadedAt;
+
+        CachedUsage(SparseLongArray uidBytes, long loadedAt) {
+            this.uidBytes = uidBytes;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private AppDataUsageListLoader(Builder builder) {
+        super(builder.mContext);
+        mTemplate = builder.mTemplate;
+        mStart = builder.mStart;
+        mEnd = builder.mEnd;
+        mPrefetchStarts = builder.mPrefetchStarts;
+        mPrefetchEnds = builder.mPrefetchEnds;
+        mRestrictedUids = builder.mRestrictedUids;
+    }
+
+    @Override
+    public List<AppItem> loadInBackground() {
+        final Context context = getContext();
+        final SparseLongArray uidBytes = getUidBytes(context, mTemplate, mStart, mEnd);
+        if (uidBytes == null) {
+            return null;
+        }
+        if (mPrefetchStarts != null) {
+            ThreadUtils.postOnBackgroundThread(() -> {
+                for (int i = 0; i < mPrefetchStarts.length; i++) {
+                    getUidBytes(context, mTemplate, mPrefetchStarts[i], mPrefetchEnds[i]);
+                }
+            });
+        }
+        final UserManager userManager = UserManager.get(context);
+        return buildAppItems(uidBytes, ActivityManager.getCurrentUser(),
+                userManager.getUserProfiles(), userManager, mRestrictedUids);
+    }
+
+    @Override
+    protected void onDiscardResult(List<AppItem> result) {
+    }
+
+    /**
+     * Returns the total bytes per uid of the given cycle, from the cache when possible.
+     */
+    private static SparseLongArray getUidBytes(Context context, NetworkTemplate template,
+            long start, long end) {
+        final long now = SystemClock.elapsedRealtime();
+        final SparseLongArray cached = getCachedUidBytes(template, start, end, now);
+        if (cached != null) {
+            return cached;
+        }
+
+        final SparseLongArray uidBytes = new SparseLongArray();
+        final NetworkStatsManager statsManager =
+                context.getSystemService(NetworkStatsManager.class);
+        try (NetworkStats stats = statsManager.querySummary(template, start, end)) {
+            final Bucket bucket = new Bucket();
+            while (stats.hasNextBucket() && stats.getNextBucket(bucket)) {
+                final int uid = bucket.getUid();
+                uidBytes.put(uid, uidBytes.get(uid) + bucket.getRxBytes() + bucket.getTxBytes());
+            }
+        } catch (RemoteException | SecurityException e) {
+            Log.e(TAG, "Failed to query network stats", e);
+            return null;
+        }
+
+        putCachedUidBytes(template, start, end, uidBytes, now);
+        return uidBytes;
+    }
+
+    /**
+     * Returns the cached totals of the given cycle, or null if they aren't cached or the cycle
+     * is still open and they are older than {@link #OPEN_CYCLE_TTL_MS} at {@code now}.
+     */
+    @VisibleForTesting
+    static SparseLongArray getCachedUidBytes(NetworkTemplate template, long start, long end,
+            long now) {
+        synchronized (sCache) {
+            final CachedUsage cached = sCache.get(new CacheKey(template, start, end));
+            if (cached != null && (end <= System.currentTimeMillis()
+                    || now - cached.loadedAt < OPEN_CYCLE_TTL_MS)) {
+                return cached.uidBytes;
+            }
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    static void putCachedUidBytes(NetworkTemplate template, long start, long end,
+            SparseLongArray uidBytes, long now) {
+        synchronized (sCache) {
+            sCache.put(new CacheKey(template, start, end), new CachedUsage(uidBytes, now));
+        }
+    }
+
+    /**
+     * Collapses the per-uid totals into the items shown in the list: apps of the current user and
+     * its profiles, one item per other profile or user, and removed/tethering/OTA/system items.
+     * Restricted uids without usage are added with a total of -1.
+     */
+    @VisibleForTesting
+    static List<AppItem> buildAppItems(SparseLongArray uidBytes, int currentUserId,
+            List<UserHandle> profiles, UserManager userManager, int[] restrictedUids) {
+        final ArrayList<AppItem> items = new ArrayList<>();
+        final SparseArray<AppItem> knownItems = new SparseArray<>();
+
+        for (int i = 0, size = uidBytes.size(); i < size; i++) {
+            // Decide how to collapse items together
+            final int uid = uidBytes.keyAt(i);
+            final long bytes = uidBytes.valueAt(i);
+            final int collapseKey;
+            final int category;
+            final int userId = UserHandle.getUserId(uid);
+            if (UserHandle.isApp(uid)) {
+                if (profiles.contains(new UserHandle(userId))) {
+                    if (userId != currentUserId) {
+                        // Add to a managed user item.
+                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
+                        accumulate(managedKey, knownItems, uid, bytes, AppItem.CATEGORY_USER,
+                                items);
+                    }
+                    // Add to app item.
+                    collapseKey = uid;
+                    category = AppItem.CATEGORY_APP;
+                } else {
+                    // If it is a removed user add it to the removed users' key
+                    if (userManager.getUserInfo(userId) == null) {
+                        collapseKey = UID_REMOVED;
+                        category = AppItem.CATEGORY_APP;
+                    } else {
+                        // Add to other user item.
+                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
+                        category = AppItem.CATEGORY_USER;
+                    }
+                }
+            } else if (uid == UID_REMOVED || uid == UID_TETHERING
+                    || uid == Process.OTA_UPDATE_UID) {
+                collapseKey = uid;
+                category = AppItem.CATEGORY_APP;
+            } else {
+                collapseKey = android.os.Process.SYSTEM_UID;
+                category = AppItem.CATEGORY_APP;
+            }
+            accumulate(collapseKey, knownItems, uid, bytes, category, items);
+        }
+
+        for (int uid : restrictedUids) {
+            // Only splice in restricted state for current user or managed users
+            if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
+                continue;
+            }
+
+            AppItem item = knownItems.get(uid);
+            if (item == null) {
+                item = new AppItem(uid);
+                item.total = -1;
+                items.add(item);
+                knownItems.put(item.key, item);
+            }
+            item.restricted = true;
+        }
+
+        Collections.sort(items);
+        return items;
+    }
+
+    /**
+     * Accumulate data usage of a uid for the item mapped by the collapse key.
+     * Creates the item if needed.
+     */
+    private static void accumulate(int collapseKey, SparseArray<AppItem> knownItems, int uid,
+            long bytes, int itemCategory, ArrayList<AppItem> items) {
+        AppItem item = knownItems.get(collapseKey);
+        if (item == null) {
+            item = new AppItem(collapseKey);
+            item.category = itemCategory;
+            items.add(item);
+            knownItems.put(item.key, item);
+        }
+        item.addUid(uid);
+        item.total += bytes;
+    }
+
+    @VisibleForTesting
+    static void clearCache() {
+        synchronized (sCache) {
+            sCache.evictAll();
+        }
+    }
+
+    public static class Builder {
+        private final Context mContext;
+        private NetworkTemplate mTemplate;
+        private long mStart;
+        private long mEnd;
+        private long[] mPrefetchStarts;
+        private long[] mPrefetchEnds;
+        private int[] mRestrictedUids = new int[0];
+
+        public Builder(Context context) {
+            mContext = context;
+        }
+
+        public Builder setNetworkTemplate(NetworkTemplate template) {
+            mTemplate = template;
+            return this;
+        }
+
+        public Builder setStartTime(long start) {
+            mStart = start;
+            return this;
+        }
+
+        public Builder setEndTime(long end) {
+            mEnd = end;
+            return this;
+        }
+
+        /**
+         * Cycles to load into the cache in the background once the requested one is loaded.
+         */
+        public Builder setPrefetchCycles(long[] starts, long[] ends) {
+            mPrefetchStarts = starts;
+            mPrefetchEnds = ends;
+            return this;
+        }
+
+        public Builder setRestrictedUids(int[] restrictedUids) {
+            mRestrictedUids = restrictedUids;
+            return this;
+        }
+
+        public AppDataUsageListLoader build() {
+            return new AppDataUsageListLoader(this);
+        }
+    }
+}
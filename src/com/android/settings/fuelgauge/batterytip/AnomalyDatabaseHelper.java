@@ -33,7 +33,7 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "BatteryDatabaseHelper";
 
     private static final String DATABASE_NAME = "battery_settings.db";
-    private static final int DATABASE_VERSION = 5;
+    private static final int DATABASE_VERSION = 6;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({State.NEW,
@@ -56,6 +56,11 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
         String TABLE_ACTION = "action";
     }
 
+    public interface Indices {
+        String INDEX_ANOMALY_TIME_STATE = "anomaly_time_state_index";
+        String INDEX_ANOMALY_PACKAGE = "anomaly_package_index";
+    }
+
     public interface AnomalyColumns {
         /**
          * The package name of the anomaly app
@@ -99,6 +104,16 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
                     + ")";
 
 
+    // Serves both the time range queries filtered by state and the cleanup by time stamp.
+    private static final String CREATE_ANOMALY_TIME_STATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + Indices.INDEX_ANOMALY_TIME_STATE + " ON "
+                    + Tables.TABLE_ANOMALY + "(" + AnomalyColumns.TIME_STAMP_MS + ","
+                    + AnomalyColumns.ANOMALY_STATE + ")";
+
+    private static final String CREATE_ANOMALY_PACKAGE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + Indices.INDEX_ANOMALY_PACKAGE + " ON "
+                    + Tables.TABLE_ANOMALY + "(" + AnomalyColumns.PACKAGE_NAME + ")";
+
     public interface ActionColumns {
         /**
          * The package name of an app been performed an action
@@ -145,6 +160,8 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     private AnomalyDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Let the UI read anomalies while the detection job is writing them.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -154,7 +171,11 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion < DATABASE_VERSION) {
+        if (oldVersion == 5) {
+            // Version 6 only adds the indices, keep the anomalies and actions.
+            Log.i(TAG, "Adding indices for schema version '" + newVersion + "'.");
+            createIndices(db);
+        } else if (oldVersion < DATABASE_VERSION) {
             Log.w(TAG, "Detected schema version '" + oldVersion + "'. " +
                     "Index needs to be rebuilt for schema version '" + newVersion + "'.");
             // We need to drop the tables and recreate them
@@ -178,9 +199,15 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
     private void bootstrapDB(SQLiteDatabase db) {
         db.execSQL(CREATE_ANOMALY_TABLE);
         db.execSQL(CREATE_ACTION_TABLE);
+        createIndices(db);
         Log.i(TAG, "Bootstrapped database");
     }
 
+    private void createIndices(SQLiteDatabase db) {
+        db.execSQL(CREATE_ANOMALY_TIME_STATE_INDEX);
+        db.execSQL(CREATE_ANOMALY_PACKAGE_INDEX);
+    }
+
     private void dropTables(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_ANOMALY);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_ACTION);
@@ -63,6 +63,7 @@ public class AnomalyDetectionJobService extends JobService {
     static final int STATSD_UID_FILED = 1;
     @VisibleForTesting
     static final long MAX_DELAY_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final int MAX_BATCH_SIZE = 100;
 
     private final Object mLock = new Object();
     @GuardedBy("mLock")
@@ -103,14 +104,21 @@ public class AnomalyDetectionJobService extends JobService {
             final MetricsFeatureProvider metricsFeatureProvider = FeatureFactory
                     .getFactory(this).getMetricsFeatureProvider();
 
+            // Anomalies arrive in bursts, so write everything that is queued in one transaction.
+            final List<JobWorkItem> items = new ArrayList<>();
+            final List<BatteryDatabaseManager.AnomalyEntry> anomalies = new ArrayList<>();
             for (JobWorkItem item = dequeueWork(params); item != null; item = dequeueWork(params)) {
                 saveAnomalyToDatabase(context, userManager,
                         batteryDatabaseManager, batteryUtils, policy, powerWhitelistBackend,
                         contentResolver, powerUsageFeatureProvider, metricsFeatureProvider,
-                        item.getIntent().getExtras());
+                        item.getIntent().getExtras(), anomalies);
+                items.add(item);
 
-                completeWork(params, item);
+                if (anomalies.size() >= MAX_BATCH_SIZE) {
+                    flushAnomalies(params, batteryDatabaseManager, anomalies, items);
+                }
             }
+            flushAnomalies(params, batteryDatabaseManager, anomalies, items);
         });
 
         return true;
@@ -124,12 +132,38 @@ public class AnomalyDetectionJobService extends JobService {
         return true; // Need to reschedule
     }
 
+    private void flushAnomalies(JobParameters params, BatteryDatabaseManager databaseManager,
+            List<BatteryDatabaseManager.AnomalyEntry> anomalies, List<JobWorkItem> items) {
+        databaseManager.insertAnomalies(anomalies);
+        anomalies.clear();
+        for (JobWorkItem item : items) {
+            completeWork(params, item);
+        }
+        items.clear();
+    }
+
     @VisibleForTesting
     void saveAnomalyToDatabase(Context context, UserManager userManager,
             BatteryDatabaseManager databaseManager, BatteryUtils batteryUtils,
             BatteryTipPolicy policy, PowerWhitelistBackend powerWhitelistBackend,
             ContentResolver contentResolver, PowerUsageFeatureProvider powerUsageFeatureProvider,
             MetricsFeatureProvider metricsFeatureProvider, Bundle bundle) {
+        saveAnomalyToDatabase(context, userManager, databaseManager, batteryUtils, policy,
+                powerWhitelistBackend, contentResolver, powerUsageFeatureProvider,
+                metricsFeatureProvider, bundle, null /* batch */);
+    }
+
+    /**
+     * Same as above, but adds the anomaly to {@code batch} instead of writing it right away
+     * when {@code batch} is not {@code null}.
+     */
+    @VisibleForTesting
+    void saveAnomalyToDatabase(Context context, UserManager userManager,
+            BatteryDatabaseManager databaseManager, BatteryUtils batteryUtils,
+            BatteryTipPolicy policy, PowerWhitelistBackend powerWhitelistBackend,
+            ContentResolver contentResolver, PowerUsageFeatureProvider powerUsageFeatureProvider,
+            MetricsFeatureProvider metricsFeatureProvider, Bundle bundle,
+            List<BatteryDatabaseManager.AnomalyEntry> batch) {
         // The Example of intentDimsValue is: 35:{1:{1:{1:10013|}|}|}
         final StatsDimensionsValue intentDimsValue =
                 bundle.getParcelable(StatsManager.EXTRA_STATS_DIMENSIONS_VALUE);
@@ -162,12 +196,12 @@ public class AnomalyDetectionJobService extends JobService {
                     // Auto restrict this app
                     batteryUtils.setForceAppStandby(uid, packageName,
                             AppOpsManager.MODE_IGNORED);
-                    databaseManager.insertAnomaly(uid, packageName, anomalyInfo.anomalyType,
-                            AnomalyDatabaseHelper.State.AUTO_HANDLED,
+                    insertAnomaly(databaseManager, batch, uid, packageName,
+                            anomalyInfo.anomalyType, AnomalyDatabaseHelper.State.AUTO_HANDLED,
                             timeMs);
                 } else {
-                    databaseManager.insertAnomaly(uid, packageName, anomalyInfo.anomalyType,
-                            AnomalyDatabaseHelper.State.NEW,
+                    insertAnomaly(databaseManager, batch, uid, packageName,
+                            anomalyInfo.anomalyType, AnomalyDatabaseHelper.State.NEW,
                             timeMs);
                 }
                 metricsFeatureProvider.action(SettingsEnums.PAGE_UNKNOWN,
@@ -182,6 +216,17 @@ public class AnomalyDetectionJobService extends JobService {
         }
     }
 
+    private void insertAnomaly(BatteryDatabaseManager databaseManager,
+            List<BatteryDatabaseManager.AnomalyEntry> batch, int uid, String packageName,
+            int type, int state, long timeMs) {
+        if (batch != null) {
+            batch.add(new BatteryDatabaseManager.AnomalyEntry(uid, packageName, type, state,
+                    timeMs));
+        } else {
+            databaseManager.insertAnomaly(uid, packageName, type, state, timeMs);
+        }
+    }
+
     /**
      * Extract the uid from {@link StatsDimensionsValue}
      *
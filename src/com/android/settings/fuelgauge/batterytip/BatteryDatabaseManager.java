@@ -31,7 +31,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
+import android.database.sqlite.SQLiteStatement;
 import android.util.ArrayMap;
 import android.util.SparseLongArray;
 
@@ -40,17 +40,23 @@ import androidx.annotation.VisibleForTesting;
 import com.android.settings.fuelgauge.batterytip.AnomalyDatabaseHelper.ActionColumns;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Database manager for battery data. Now it only contains anomaly data stored in {@link AppInfo}.
  *
- * This manager may be accessed by multi-threads. All the database related methods are synchronized
- * so each operation won't be interfered by other threads.
+ * This manager may be accessed by multi-threads. The database runs in write-ahead logging mode, so
+ * queries run concurrently with each other and with writes. Only the write methods are
+ * synchronized so each write operation won't be interfered by other threads.
  */
 public class BatteryDatabaseManager {
+    private static final String INSERT_ANOMALY_SQL = "INSERT OR IGNORE INTO " + TABLE_ANOMALY
+            + "(" + UID + "," + PACKAGE_NAME + "," + ANOMALY_TYPE + "," + ANOMALY_STATE + ","
+            + TIME_STAMP_MS + ") VALUES (?,?,?,?,?)";
+    private static final String UPDATE_ANOMALY_STATE_SQL = "UPDATE " + TABLE_ANOMALY + " SET "
+            + ANOMALY_STATE + " = ? WHERE " + PACKAGE_NAME + " = ?";
+
     private static BatteryDatabaseManager sSingleton;
 
     private AnomalyDatabaseHelper mDatabaseHelper;
@@ -95,10 +101,46 @@ public class BatteryDatabaseManager {
         return db.insertWithOnConflict(TABLE_ANOMALY, null, values, CONFLICT_IGNORE) != -1;
     }
 
+    /**
+     * Insert a batch of anomaly logs in a single transaction.
+     *
+     * @param anomalies the anomalies to insert
+     * @return the number of anomalies inserted, duplicated ones are ignored
+     */
+    public synchronized int insertAnomalies(List<AnomalyEntry> anomalies) {
+        if (anomalies.isEmpty()) {
+            return 0;
+        }
+        int inserted = 0;
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try (SQLiteStatement statement = db.compileStatement(INSERT_ANOMALY_SQL)) {
+            for (int i = 0, size = anomalies.size(); i < size; i++) {
+                final AnomalyEntry anomaly = anomalies.get(i);
+                statement.bindLong(1, anomaly.uid);
+                if (anomaly.packageName == null) {
+                    statement.bindNull(2);
+                } else {
+                    statement.bindString(2, anomaly.packageName);
+                }
+                statement.bindLong(3, anomaly.type);
+                statement.bindLong(4, anomaly.state);
+                statement.bindLong(5, anomaly.timestampMs);
+                if (statement.executeInsert() != -1) {
+                    inserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return inserted;
+    }
+
     /**
      * Query all the anomalies that happened after {@code timestampMsAfter} and with {@code state}.
      */
-    public synchronized List<AppInfo> queryAllAnomalies(long timestampMsAfter, int state) {
+    public List<AppInfo> queryAllAnomalies(long timestampMsAfter, int state) {
         final List<AppInfo> appInfos = new ArrayList<>();
         final SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
         final String[] projection = {PACKAGE_NAME, ANOMALY_TYPE, UID};
@@ -110,17 +152,19 @@ public class BatteryDatabaseManager {
 
         try (Cursor cursor = db.query(TABLE_ANOMALY, projection, selection, selectionArgs,
                 null /* groupBy */, null /* having */, orderBy)) {
+            final int uidIndex = cursor.getColumnIndex(UID);
+            final int packageNameIndex = cursor.getColumnIndex(PACKAGE_NAME);
+            final int typeIndex = cursor.getColumnIndex(ANOMALY_TYPE);
             while (cursor.moveToNext()) {
-                final int uid = cursor.getInt(cursor.getColumnIndex(UID));
-                if (!mAppInfoBuilders.containsKey(uid)) {
-                    final AppInfo.Builder builder = new AppInfo.Builder()
+                final int uid = cursor.getInt(uidIndex);
+                AppInfo.Builder builder = mAppInfoBuilders.get(uid);
+                if (builder == null) {
+                    builder = new AppInfo.Builder()
                             .setUid(uid)
-                            .setPackageName(
-                                    cursor.getString(cursor.getColumnIndex(PACKAGE_NAME)));
+                            .setPackageName(cursor.getString(packageNameIndex));
                     mAppInfoBuilders.put(uid, builder);
                 }
-                mAppInfoBuilders.get(uid).addAnomalyType(
-                        cursor.getInt(cursor.getColumnIndex(ANOMALY_TYPE)));
+                builder.addAnomalyType(cursor.getInt(typeIndex));
             }
         }
 
@@ -145,17 +189,22 @@ public class BatteryDatabaseManager {
      */
     public synchronized void updateAnomalies(List<AppInfo> appInfos, int state) {
         if (!appInfos.isEmpty()) {
-            final int size = appInfos.size();
-            final String[] whereArgs = new String[size];
-            for (int i = 0; i < size; i++) {
-                whereArgs[i] = appInfos.get(i).packageName;
-            }
-
             final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-            final ContentValues values = new ContentValues();
-            values.put(ANOMALY_STATE, state);
-            db.update(TABLE_ANOMALY, values, PACKAGE_NAME + " IN (" + TextUtils.join(",",
-                    Collections.nCopies(appInfos.size(), "?")) + ")", whereArgs);
+            db.beginTransactionNonExclusive();
+            try (SQLiteStatement statement = db.compileStatement(UPDATE_ANOMALY_STATE_SQL)) {
+                for (int i = 0, size = appInfos.size(); i < size; i++) {
+                    final String packageName = appInfos.get(i).packageName;
+                    if (packageName == null) {
+                        continue;
+                    }
+                    statement.bindLong(1, state);
+                    statement.bindString(2, packageName);
+                    statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
         }
     }
 
@@ -165,7 +214,7 @@ public class BatteryDatabaseManager {
      * @param type of action been performed
      * @return {@link SparseLongArray} where key is uid and value is timestamp
      */
-    public synchronized SparseLongArray queryActionTime(
+    public SparseLongArray queryActionTime(
             @AnomalyDatabaseHelper.ActionType int type) {
         final SparseLongArray timeStamps = new SparseLongArray();
         final SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
@@ -217,4 +266,23 @@ public class BatteryDatabaseManager {
 
         return db.delete(TABLE_ACTION, where, whereArgs) != 0;
     }
+
+    /**
+     * An anomaly log to be written by {@link #insertAnomalies(List)}.
+     */
+    public static class AnomalyEntry {
+        public final int uid;
+        public final String packageName;
+        public final int type;
+        public final int state;
+        public final long timestampMs;
+
+        public AnomalyEntry(int uid, String packageName, int type, int state, long timestampMs) {
+            this.uid = uid;
+            this.packageName = packageName;
+            this.type = type;
+            this.state = state;
+            this.timestampMs = timestampMs;
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.homepage;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Times one launch of {@link SettingsHomepageActivity}: from onCreate to its first frame, and to
+ * the time {@link TopLevelSettings} loaded the summaries of its preferences.
+ *
+ * <p>The launch shows up as an async trace section, and both durations are logged once under
+ * {@link #TAG} so they can be collected across runs, e.g. by HomepageStartupBenchmark. The log
+ * also holds the time from the start of the process to onCreate, which covers process creation
+ * and application startup on a cold start.
+ */
+class HomepageStartupTracker {
+
+    static final String TAG = "HomepageStartup";
+
+    private static final String TRACE_LAUNCH = "SettingsHomepage#launch";
+
+    private final long mProcessStartTime;
+    private final long mStartTime;
+    private final int mCookie;
+    private long mFirstFrameTime;
+    private long mSummariesTime;
+
+    HomepageStartupTracker() {
+        this(Process.getStartElapsedRealtime(), SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    HomepageStartupTracker(long processStartTime, long startTime) {
+        mProcessStartTime = processStartTime;
+        mStartTime = startTime;
+        mCookie = System.identityHashCode(this);
+        Trace.beginAsyncSection(TRACE_LAUNCH, mCookie);
+    }
+
+    void onFirstFrame() {
+        onFirstFrame(SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    void onFirstFrame(long time) {
+        if (mFirstFrameTime == 0) {
+            mFirstFrameTime = time;
+            maybeReport();
+        }
+    }
+
+    void onSummariesLoaded() {
+        onSummariesLoaded(SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    void onSummariesLoaded(long time) {
+        if (mSummariesTime == 0) {
+            mSummariesTime = time;
+            maybeReport();
+        }
+    }
+
+    @VisibleForTesting
+    boolean isReported() {
+        return mFirstFrameTime != 0 && mSummariesTime != 0;
+    }
+
+    /**
+     * @return the line logged for the launch, parsed by HomepageStartupBenchmark.
+     */
+    @VisibleForTesting
+    String getReport() {
+        return "firstFrame=" + (mFirstFrameTime - mStartTime)
+                + " summaries=" + (mSummariesTime - mStartTime)
+                + " sinceProcessStart=" + (mStartTime - mProcessStartTime);
+    }
+
+    private void maybeReport() {
+        if (!isReported()) {
+            return;
+        }
+        Trace.endAsyncSection(TRACE_LAUNCH, mCookie);
+        Log.i(TAG, getReport());
+    }
+}
@@ -31,12 +31,14 @@ import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.net.Uri;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -53,9 +55,12 @@ import com.android.internal.util.UserIcons;
 import com.android.settings.R;
 import com.android.settings.accounts.AvatarViewMixin;
 import com.android.settings.core.HideNonSystemOverlayMixin;
+import com.android.settings.dashboard.DashboardFeatureProvider;
 import com.android.settings.homepage.contextualcards.ContextualCardsFragment;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settingslib.drawable.CircleFramedDrawable;
+import com.android.settingslib.drawer.CategoryKey;
+import com.android.settingslib.utils.ThreadUtils;
 import com.airbnb.lottie.LottieAnimationView;
 
 import android.provider.Settings;
@@ -82,49 +87,152 @@ public class SettingsHomepageActivity extends FragmentActivity {
     Drawable mStockDrawable;
     private static final String SPACER_IMAGE = "custom_spacer_image";
 
+    private HomepageStartupTracker mStartupTracker;
+    private SettingsObserver mSettingsObserver;
+    private Drawable mUserIcon;
+    private boolean mLoadingUserIcon;
+
+    /**
+     * Only what the first frame needs runs in onCreate: the search bar, the spacer and
+     * {@link TopLevelSettings}. Tiles and the user icon are loaded in the background meanwhile,
+     * and the contextual cards and settings observers are set up once the first frame is drawn.
+     */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mStartupTracker = new HomepageStartupTracker();
         super.onCreate(savedInstanceState);
 
-        setContentView(R.layout.settings_homepage_container);
-        final View root = findViewById(R.id.settings_homepage_container);
-        root.setSystemUiVisibility(
-                View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION | View.SYSTEM_UI_FLAG_LAYOUT_STABLE);
-
-        setHomepageContainerPaddingTop();
+        Trace.beginSection("SettingsHomepage#critical");
+        try {
+            context = getApplicationContext();
+            mUserManager = context.getSystemService(UserManager.class);
+            prefetchTiles();
+            loadUserIcon();
+
+            setContentView(R.layout.settings_homepage_container);
+            final View root = findViewById(R.id.settings_homepage_container);
+            root.setSystemUiVisibility(
+                    View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION | View.SYSTEM_UI_FLAG_LAYOUT_STABLE);
+
+            setHomepageContainerPaddingTop();
+
+            final Toolbar toolbar = findViewById(R.id.search_action_bar);
+            FeatureFactory.getFactory(this).getSearchFeatureProvider()
+                    .initSearchToolbar(this /* activity */, toolbar,
+                            SettingsEnums.SETTINGS_HOMEPAGE);
+
+            avatarView = root.findViewById(R.id.account_avatar);
+            //final AvatarViewMixin avatarViewMixin = new AvatarViewMixin(this, avatarView);
+            avatarView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    Intent intent = new Intent(Intent.ACTION_MAIN);
+                    intent.setComponent(new ComponentName("com.android.settings","com.android.settings.Settings$UserSettingsActivity"));
+                    startActivity(intent);
+                }
+            });
+            //getLifecycle().addObserver(avatarViewMixin);
+
+            showFragment(new TopLevelSettings(), R.id.main_content, false /* allowStateLoss */);
+            ((FrameLayout) findViewById(R.id.main_content))
+                    .getLayoutTransition().enableTransitionType(LayoutTransition.CHANGING);
 
-        context = getApplicationContext();
+            recreateSpacer();
+            applyUserIcon();
+
+            root.getViewTreeObserver().addOnPreDrawListener(
+                    new ViewTreeObserver.OnPreDrawListener() {
+                        @Override
+                        public boolean onPreDraw() {
+                            root.getViewTreeObserver().removeOnPreDrawListener(this);
+                            // Runs once the frame being drawn is done.
+                            root.post(SettingsHomepageActivity.this::onFirstFrame);
+                            return true;
+                        }
+                    });
+        } finally {
+            Trace.endSection();
+        }
+    }
 
-        mUserManager = context.getSystemService(UserManager.class);
+    private void onFirstFrame() {
+        mStartupTracker.onFirstFrame();
+        if (isDestroyed()) {
+            return;
+        }
+        Trace.beginSection("SettingsHomepage#deferred");
+        try {
+            if (!getSystemService(ActivityManager.class).isLowRamDevice()) {
+                // Only allow contextual feature on high ram devices. The first frame may come
+                // after the state was saved, the cards are added again if it is restored.
+                showFragment(new ContextualCardsFragment(), R.id.contextual_cards_content,
+                        true /* allowStateLoss */);
+            }
+            mSettingsObserver = new SettingsObserver(new Handler(Looper.getMainLooper()));
+            mSettingsObserver.observe();
+        } finally {
+            Trace.endSection();
+        }
+    }
 
-        final Toolbar toolbar = findViewById(R.id.search_action_bar);
-        FeatureFactory.getFactory(this).getSearchFeatureProvider()
-                .initSearchToolbar(this /* activity */, toolbar, SettingsEnums.SETTINGS_HOMEPAGE);
+    /**
+     * Called by {@link TopLevelSettings} once the summaries of its preferences are loaded.
+     */
+    void onSummariesLoaded() {
+        mStartupTracker.onSummariesLoaded();
+    }
 
-        avatarView = root.findViewById(R.id.account_avatar);
-        //final AvatarViewMixin avatarViewMixin = new AvatarViewMixin(this, avatarView);
-        avatarView.setImageDrawable(getCircularUserIcon(context));
-        avatarView.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                Intent intent = new Intent(Intent.ACTION_MAIN);
-                intent.setComponent(new ComponentName("com.android.settings","com.android.settings.Settings$UserSettingsActivity"));
-                startActivity(intent);
+    /**
+     * Loads the homepage tiles in the background, so {@link TopLevelSettings} finds them loaded
+     * or at least loading when it is created.
+     */
+    private void prefetchTiles() {
+        final DashboardFeatureProvider provider =
+                FeatureFactory.getFactory(this).getDashboardFeatureProvider(this);
+        ThreadUtils.postOnBackgroundThread(() -> {
+            Trace.beginSection("SettingsHomepage#prefetchTiles");
+            try {
+                provider.getTilesForCategory(CategoryKey.CATEGORY_HOMEPAGE);
+            } finally {
+                Trace.endSection();
             }
         });
-        //getLifecycle().addObserver(avatarViewMixin);
+    }
 
-        if (!getSystemService(ActivityManager.class).isLowRamDevice()) {
-            // Only allow contextual feature on high ram devices.
-            showFragment(new ContextualCardsFragment(), R.id.contextual_cards_content);
+    private void loadUserIcon() {
+        if (mLoadingUserIcon) {
+            return;
         }
-        showFragment(new TopLevelSettings(), R.id.main_content);
-        ((FrameLayout) findViewById(R.id.main_content))
-                .getLayoutTransition().enableTransitionType(LayoutTransition.CHANGING);
+        mLoadingUserIcon = true;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            Trace.beginSection("SettingsHomepage#loadUserIcon");
+            final Drawable icon;
+            try {
+                icon = getCircularUserIcon(context);
+            } finally {
+                Trace.endSection();
+            }
+            ThreadUtils.postOnMainThread(() -> {
+                mLoadingUserIcon = false;
+                if (isDestroyed()) {
+                    return;
+                }
+                mUserIcon = icon;
+                applyUserIcon();
+            });
+        });
+    }
 
-        SettingsObserver observer = new SettingsObserver(new Handler(Looper.getMainLooper()));
-        observer.observe();
-        recreateSpacer();
+    private void applyUserIcon() {
+        if (mUserIcon == null || avatarView == null) {
+            return;
+        }
+        avatarView.setImageDrawable(mUserIcon);
+        if (configAnim() == 0 && isProfileAvatar() == 1 && isHomepageSpacerEnabled()) {
+            if (iv != null) {
+                iv.setImageDrawable(mUserIcon);
+            }
+        }
     }
 
     private void recreateSpacer() {
@@ -149,7 +257,7 @@ public class SettingsHomepageActivity extends FragmentActivity {
                      mCustomImage.setImageDrawable(null);
                      mCustomImage.setVisibility(View.GONE);
                      iv.setVisibility(View.VISIBLE);
-                     iv.setImageDrawable(getCircularUserIcon(context));
+                     iv.setImageDrawable(mUserIcon);
                      iv.setOnClickListener(new View.OnClickListener() {
                          @Override
                          public void onClick(View v) {
@@ -310,7 +418,7 @@ public class SettingsHomepageActivity extends FragmentActivity {
     }
 
 
-    private void showFragment(Fragment fragment, int id) {
+    private void showFragment(Fragment fragment, int id, boolean allowStateLoss) {
         final FragmentManager fragmentManager = getSupportFragmentManager();
         final FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
         final Fragment showFragment = fragmentManager.findFragmentById(id);
@@ -320,7 +428,11 @@ public class SettingsHomepageActivity extends FragmentActivity {
         } else {
             fragmentTransaction.show(showFragment);
         }
-        fragmentTransaction.commit();
+        if (allowStateLoss) {
+            fragmentTransaction.commitAllowingStateLoss();
+        } else {
+            fragmentTransaction.commit();
+        }
     }
 
     public void saveCustomFileFromString(Uri fileUri, String fileName, Context mContext) {
@@ -431,11 +543,14 @@ public class SettingsHomepageActivity extends FragmentActivity {
     @Override
     public void onResume() {
         super.onResume();
-        avatarView.setImageDrawable(getCircularUserIcon(getApplicationContext()));
-        if (configAnim() == 0 && isProfileAvatar() == 1 && isHomepageSpacerEnabled()) {
-            if (iv != null) {
-                iv.setImageDrawable(getCircularUserIcon(getApplicationContext()));
-            }
+        loadUserIcon();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mSettingsObserver != null) {
+            context.getContentResolver().unregisterContentObserver(mSettingsObserver);
         }
+        super.onDestroy();
     }
 }
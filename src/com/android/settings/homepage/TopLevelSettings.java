@@ -140,6 +140,21 @@ public class TopLevelSettings extends DashboardFragment implements
         getRandomColor();
     }
 
+    @Override
+    protected void onSummariesLoaded() {
+        if (getActivity() instanceof SettingsHomepageActivity) {
+            ((SettingsHomepageActivity) getActivity()).onSummariesLoaded();
+        }
+    }
+
+    @Override
+    protected void onTileIconLoaded(Preference preference) {
+        // Icons loaded after onResume missed updateTheme.
+        if (isResumed()) {
+            themePreference(preference);
+        }
+    }
+
     private void updateTheme() {
         int[] attrs = new int[] {
             android.R.attr.colorControlNormal,
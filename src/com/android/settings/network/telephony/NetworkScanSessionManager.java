@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.network.telephony;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.CellInfo;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Shares network scans between the screens which request them, per subscription.
+ *
+ * <p>A scan requested while another one is running for the same subscription joins it and gets
+ * the operators found so far. The operators of a completed scan are kept for
+ * {@link #RESULTS_TTL_MS} and returned without scanning again, so that rotating or coming back to
+ * {@link NetworkSelectSettings} doesn't restart a scan that can take minutes. Results are merged
+ * into one list per scan, keyed by PLMN, which keeps the strongest cell of each operator.
+ */
+public class NetworkScanSessionManager {
+    private static final String TAG = "NetworkScanSessionMgr";
+
+    /** How long the results of a completed scan are returned instead of scanning again. */
+    @VisibleForTesting
+    static final long RESULTS_TTL_MS = 2 * 60 * 1000;
+    /** How long a scan without requesters keeps running, in case one comes back. */
+    @VisibleForTesting
+    static final long RELEASE_DELAY_MS = 5000;
+
+    private static NetworkScanSessionManager sInstance;
+
+    private final Object mLock = new Object();
+    private final SparseArray<Session> mSessions = new SparseArray<>();
+    private final SparseArray<CachedResults> mCachedResults = new SparseArray<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Scans outlive the screen which started them, so they don't use its executor.
+    private final Executor mExecutor;
+
+    public static synchronized NetworkScanSessionManager getInstance() {
+        if (sInstance == null) {
+            sInstance = new NetworkScanSessionManager(Executors.newCachedThreadPool());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    NetworkScanSessionManager(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Requests the network operators available to {@code subId}. {@code callback} gets fresh cached
+     * results right away, joins a scan already running for {@code subId}, or starts a new scan of
+     * {@code type}.
+     */
+    public void startScan(TelephonyManager tm, int subId,
+            @NetworkScanHelper.NetworkQueryType int type,
+            NetworkScanHelper.NetworkScanCallback callback) {
+        final List<CellInfo> partialResults;
+        final List<CellInfo> cachedResults;
+        synchronized (mLock) {
+            final CachedResults cached = mCachedResults.get(subId);
+            if (cached != null
+                    && SystemClock.elapsedRealtime() - cached.mTimestamp < RESULTS_TTL_MS) {
+                Log.d(TAG, "Using cached scan results for sub " + subId);
+                cachedResults = new ArrayList<>(cached.mResults);
+                partialResults = null;
+            } else {
+                cachedResults = null;
+                partialResults = startOrJoinScanLocked(tm, subId, type, callback);
+            }
+        }
+        // Callbacks run outside of the lock, like results of a running scan.
+        if (cachedResults != null) {
+            callback.onResults(cachedResults);
+            callback.onComplete();
+        } else if (partialResults != null && !partialResults.isEmpty()) {
+            callback.onResults(partialResults);
+        }
+    }
+
+    /**
+     * Starts a scan of {@code subId}, or joins the running one. Called with {@link #mLock} held.
+     *
+     * @return the operators found so far by a joined scan, or {@code null} for a new scan.
+     */
+    private List<CellInfo> startOrJoinScanLocked(TelephonyManager tm, int subId,
+            @NetworkScanHelper.NetworkQueryType int type,
+            NetworkScanHelper.NetworkScanCallback callback) {
+        mCachedResults.remove(subId);
+
+        Session session = mSessions.get(subId);
+        if (session == null) {
+            session = new Session(subId);
+            mSessions.put(subId, session);
+            session.mCallbacks.add(callback);
+            session.mHelper = new NetworkScanHelper(tm, session, mExecutor);
+            session.mHelper.startNetworkScan(type);
+            return null;
+        }
+        Log.d(TAG, "Joining running scan for sub " + subId);
+        mHandler.removeCallbacks(session.mReleaseRunnable);
+        session.mCallbacks.add(callback);
+        return session.getResults();
+    }
+
+    /**
+     * Stops sending results to {@code callback}. The scan keeps running for
+     * {@link #RELEASE_DELAY_MS} after its last requester left.
+     */
+    public void release(int subId, NetworkScanHelper.NetworkScanCallback callback) {
+        synchronized (mLock) {
+            final Session session = mSessions.get(subId);
+            if (session == null || !session.mCallbacks.remove(callback)) {
+                return;
+            }
+            if (session.mCallbacks.isEmpty()) {
+                mHandler.postDelayed(session.mReleaseRunnable, RELEASE_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Stops the scan of {@code subId} right away and drops its cached results, e.g. because a
+     * network is being selected manually.
+     */
+    public void cancel(int subId) {
+        final Session session;
+        synchronized (mLock) {
+            mCachedResults.remove(subId);
+            session = mSessions.get(subId);
+            if (session == null) {
+                return;
+            }
+            mSessions.remove(subId);
+            mHandler.removeCallbacks(session.mReleaseRunnable);
+        }
+        session.mHelper.stopNetworkQuery();
+    }
+
+    private void stopIfUnused(Session session) {
+        synchronized (mLock) {
+            if (mSessions.get(session.mSubId) != session || !session.mCallbacks.isEmpty()) {
+                return;
+            }
+            mSessions.remove(session.mSubId);
+        }
+        Log.d(TAG, "Stopping unused scan for sub " + session.mSubId);
+        session.mHelper.stopNetworkQuery();
+    }
+
+    private static final class CachedResults {
+        final List<CellInfo> mResults;
+        final long mTimestamp;
+
+        CachedResults(List<CellInfo> results, long timestamp) {
+            mResults = results;
+            mTimestamp = timestamp;
+        }
+    }
+
+    private final class Session implements NetworkScanHelper.NetworkScanCallback {
+        final int mSubId;
+        final List<NetworkScanHelper.NetworkScanCallback> mCallbacks = new ArrayList<>();
+        // Strongest cell found so far for each PLMN, in the order operators were found.
+        final Map<String, CellInfo> mOperators = new LinkedHashMap<>();
+        final Runnable mReleaseRunnable = () -> stopIfUnused(this);
+        NetworkScanHelper mHelper;
+
+        Session(int subId) {
+            mSubId = subId;
+        }
+
+        /** Called with {@link #mLock} held. */
+        List<CellInfo> getResults() {
+            return new ArrayList<>(mOperators.values());
+        }
+
+        @Override
+        public void onResults(List<CellInfo> results) {
+            final List<NetworkScanHelper.NetworkScanCallback> callbacks;
+            final List<CellInfo> merged;
+            synchronized (mLock) {
+                if (mSessions.get(mSubId) != this) {
+                    return;
+                }
+                for (CellInfo cellInfo : results) {
+                    mergeCellInfo(mOperators, cellInfo);
+                }
+                merged = getResults();
+                callbacks = new ArrayList<>(mCallbacks);
+            }
+            for (NetworkScanHelper.NetworkScanCallback callback : callbacks) {
+                callback.onResults(merged);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            final List<NetworkScanHelper.NetworkScanCallback> callbacks;
+            synchronized (mLock) {
+                if (mSessions.get(mSubId) != this) {
+                    return;
+                }
+                mSessions.remove(mSubId);
+                mHandler.removeCallbacks(mReleaseRunnable);
+                mCachedResults.put(mSubId,
+                        new CachedResults(getResults(), SystemClock.elapsedRealtime()));
+                callbacks = new ArrayList<>(mCallbacks);
+            }
+            for (NetworkScanHelper.NetworkScanCallback callback : callbacks) {
+                callback.onComplete();
+            }
+        }
+
+        @Override
+        public void onError(int errorCode) {
+            final List<NetworkScanHelper.NetworkScanCallback> callbacks;
+            synchronized (mLock) {
+                if (mSessions.get(mSubId) != this) {
+                    return;
+                }
+                mSessions.remove(mSubId);
+                mHandler.removeCallbacks(mReleaseRunnable);
+                callbacks = new ArrayList<>(mCallbacks);
+            }
+            for (NetworkScanHelper.NetworkScanCallback callback : callbacks) {
+                callback.onError(errorCode);
+            }
+        }
+    }
+
+    /**
+     * Adds {@code cellInfo} to {@code operators}, unless the cell already kept for its PLMN is
+     * registered or has a stronger signal.
+     */
+    @VisibleForTesting
+    static void mergeCellInfo(Map<String, CellInfo> operators, CellInfo cellInfo) {
+        final String plmn =
+                CellInfoUtil.getOperatorInfoFromCellInfo(cellInfo).getOperatorNumeric();
+        final CellInfo kept = operators.get(plmn);
+        if (kept == null || cellInfo.isRegistered()) {
+            operators.put(plmn, cellInfo);
+        } else if (!kept.isRegistered() && kept.getCellSignalStrength().getLevel()
+                <= cellInfo.getCellSignalStrength().getLevel()) {
+            operators.put(plmn, cellInfo);
+        }
+    }
+}
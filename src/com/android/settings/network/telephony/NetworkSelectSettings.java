@@ -48,11 +48,7 @@ import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * "Choose network" settings UI for the Phone app.
@@ -85,8 +81,7 @@ public class NetworkSelectSettings extends DashboardFragment {
     TelephonyManager mTelephonyManager;
     private List<String> mForbiddenPlmns;
     private boolean mShow4GForLTE = false;
-    private NetworkScanHelper mNetworkScanHelper;
-    private final ExecutorService mNetworkScanExecutor = Executors.newFixedThreadPool(1);
+    private NetworkScanSessionManager mNetworkScanSessionManager;
     private MetricsFeatureProvider mMetricsFeatureProvider;
     private boolean mUseNewApi;
 
@@ -104,8 +99,7 @@ public class NetworkSelectSettings extends DashboardFragment {
         mStatusMessagePreference.setSelectable(false);
         mSelectedPreference = null;
         mTelephonyManager = TelephonyManager.from(getContext()).createForSubscriptionId(mSubId);
-        mNetworkScanHelper = new NetworkScanHelper(
-                mTelephonyManager, mCallback, mNetworkScanExecutor);
+        mNetworkScanSessionManager = NetworkScanSessionManager.getInstance();
         PersistableBundle bundle = ((CarrierConfigManager) getContext().getSystemService(
                 Context.CARRIER_CONFIG_SERVICE)).getConfigForSubId(mSubId);
         if (bundle != null) {
@@ -137,10 +131,11 @@ public class NetworkSelectSettings extends DashboardFragment {
         updateForbiddenPlmns();
         setProgressBarVisible(true);
 
-        mNetworkScanHelper.startNetworkScan(
+        mNetworkScanSessionManager.startScan(mTelephonyManager, mSubId,
                 mUseNewApi
                         ? NetworkScanHelper.NETWORK_SCAN_TYPE_INCREMENTAL_RESULTS
-                        : NetworkScanHelper.NETWORK_SCAN_TYPE_WAIT_FOR_ALL_RESULTS);
+                        : NetworkScanHelper.NETWORK_SCAN_TYPE_WAIT_FOR_ALL_RESULTS,
+                mCallback);
     }
 
     /**
@@ -164,6 +159,8 @@ public class NetworkSelectSettings extends DashboardFragment {
     public boolean onPreferenceTreeClick(Preference preference) {
         if (preference != mSelectedPreference) {
             stopNetworkQuery();
+            // The registration is about to change, don't reuse this scan.
+            mNetworkScanSessionManager.cancel(mSubId);
             // Refresh the last selected item in case users reselect network.
             if (mSelectedPreference != null) {
                 mSelectedPreference.setSummary(null);
@@ -231,7 +228,8 @@ public class NetworkSelectSettings extends DashboardFragment {
                             : R.string.network_could_not_connect);
                     break;
                 case EVENT_NETWORK_SCAN_RESULTS:
-                    List<CellInfo> results = aggregateCellInfoList((List<CellInfo>) msg.obj);
+                    // Already aggregated per operator by NetworkScanSessionManager.
+                    List<CellInfo> results = (List<CellInfo>) msg.obj;
                     Log.d(TAG, "CellInfoList after aggregation: "
                             + CellInfoUtil.cellInfoListToString(results));
                     mCellInfoList = new ArrayList<>(results);
@@ -391,41 +389,10 @@ public class NetworkSelectSettings extends DashboardFragment {
         mPreferenceCategory.addPreference(mStatusMessagePreference);
     }
 
-    /**
-     * The Scan results may contains several cell infos with different radio technologies and signal
-     * strength for one network operator. Aggregate the CellInfoList by retaining only the cell info
-     * with the strongest signal strength.
-     */
-    private List<CellInfo> aggregateCellInfoList(List<CellInfo> cellInfoList) {
-        Map<String, CellInfo> map = new HashMap<>();
-        for (CellInfo cellInfo : cellInfoList) {
-            String plmn = CellInfoUtil.getOperatorInfoFromCellInfo(cellInfo).getOperatorNumeric();
-            if (cellInfo.isRegistered() || !map.containsKey(plmn)) {
-                map.put(plmn, cellInfo);
-            } else {
-                if (map.get(plmn).isRegistered()
-                        || map.get(plmn).getCellSignalStrength().getLevel()
-                        > cellInfo.getCellSignalStrength().getLevel()) {
-                    // Skip if the stored cellInfo is registered or has higher signal strength level
-                    continue;
-                }
-                // Otherwise replace it with the new CellInfo
-                map.put(plmn, cellInfo);
-            }
-        }
-        return new ArrayList<>(map.values());
-    }
-
     private void stopNetworkQuery() {
         setProgressBarVisible(false);
-        if (mNetworkScanHelper != null) {
-            mNetworkScanHelper.stopNetworkQuery();
+        if (mNetworkScanSessionManager != null) {
+            mNetworkScanSessionManager.release(mSubId, mCallback);
         }
     }
-
-    @Override
-    public void onDestroy() {
-        mNetworkScanExecutor.shutdown();
-        super.onDestroy();
-    }
 }
@@ -48,13 +48,17 @@ import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.StyleSpan;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.View;
 import android.widget.DateTimeView;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.preference.Preference;
+import androidx.preference.PreferenceScreen;
 import androidx.preference.PreferenceViewHolder;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -66,6 +70,7 @@ import com.android.settings.search.Indexable;
 import com.android.settings.search.SearchIndexableRaw;
 import com.android.settingslib.search.SearchIndexable;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -78,9 +83,15 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
     private static final boolean DEBUG = false;
     private static final boolean DUMP_EXTRAS = true;
     private static final boolean DUMP_PARCEL = true;
+    @VisibleForTesting
+    static final int MAX_HISTORICAL = 100;
+    private static final int ICON_CACHE_SIZE = 128;
+    private static final int LABEL_CACHE_SIZE = 64;
+    private static final long EVENT_BATCH_DELAY_MS = 100;
     private Handler mHandler;
 
     private static class HistoricalNotificationInfo {
+        public StatusBarNotification sbn;
         public String key;
         public String channel;
         public String pkg;
@@ -97,12 +108,28 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
 
     private PackageManager mPm;
     private INotificationManager mNoMan;
-    private RankingMap mRanking;
+    private volatile RankingMap mRanking;
 
-    private Runnable mRefreshListRunnable = new Runnable() {
+    // Active notifications by key, and dismissed ones newest first.
+    private final ArrayMap<String, HistoricalNotificationPreference> mActivePrefs =
+            new ArrayMap<>();
+    private final ArrayDeque<HistoricalNotificationPreference> mHistoricalPrefs =
+            new ArrayDeque<>();
+    private int mTopOrder;
+
+    // Posted (true) and removed (false) notifications not yet applied to the list.
+    private final ArrayList<StatusBarNotification> mPendingEvents = new ArrayList<>();
+    private final ArrayList<Boolean> mPendingPosted = new ArrayList<>();
+    private boolean mRankingChanged;
+
+    private final LruCache<String, Drawable> mIconCache = new LruCache<>(ICON_CACHE_SIZE);
+    // Application labels are looked up across all users, so they are cached per package only.
+    private final LruCache<String, CharSequence> mLabelCache = new LruCache<>(LABEL_CACHE_SIZE);
+
+    private Runnable mApplyEventsRunnable = new Runnable() {
         @Override
         public void run() {
-            refreshList();
+            applyPendingEvents();
         }
     };
 
@@ -112,15 +139,15 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
             logd("onNotificationPosted: %s, with update for %d", sbn.getNotification(),
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
             mRanking = ranking;
-            scheduleRefreshList();
+            enqueueEvent(sbn, true /* posted */);
         }
 
         @Override
         public void onNotificationRemoved(StatusBarNotification notification, RankingMap ranking) {
-            logd("onNotificationRankingUpdate with update for %d",
+            logd("onNotificationRemoved with update for %d",
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
             mRanking = ranking;
-            scheduleRefreshList();
+            enqueueEvent(notification, false /* posted */);
         }
 
         @Override
@@ -128,7 +155,7 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
             logd("onNotificationRankingUpdate with update for %d",
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
             mRanking = ranking;
-            scheduleRefreshList();
+            enqueueEvent(null, false);
         }
 
         @Override
@@ -136,14 +163,28 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
             mRanking = getCurrentRanking();
             logd("onListenerConnected with update for %d",
                     mRanking == null ? 0 : mRanking.getOrderedKeys().length);
-            scheduleRefreshList();
+            enqueueEvent(null, false);
         }
     };
 
-    private void scheduleRefreshList() {
-        if (mHandler != null) {
-            mHandler.removeCallbacks(mRefreshListRunnable);
-            mHandler.postDelayed(mRefreshListRunnable, 100);
+    /**
+     * Queues a posted or removed notification, or a ranking change if {@code sbn} is null.
+     * Events are applied in batches so a notification storm costs one list update per batch
+     * instead of a full reload per event.
+     */
+    @VisibleForTesting
+    void enqueueEvent(StatusBarNotification sbn, boolean posted) {
+        synchronized (mPendingEvents) {
+            if (sbn != null) {
+                mPendingEvents.add(sbn);
+                mPendingPosted.add(posted);
+            } else {
+                mRankingChanged = true;
+            }
+        }
+        final Handler handler = mHandler;
+        if (handler != null && !handler.hasCallbacks(mApplyEventsRunnable)) {
+            handler.postDelayed(mApplyEventsRunnable, EVENT_BATCH_DELAY_MS);
         }
     }
 
@@ -172,7 +213,7 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
     @Override
     public void onDetach() {
         logd("onDetach()");
-        mHandler.removeCallbacks(mRefreshListRunnable);
+        mHandler.removeCallbacks(mApplyEventsRunnable);
         mHandler = null;
         super.onDetach();
     }
@@ -215,18 +256,99 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
     }
 
     private void refreshList() {
+        synchronized (mPendingEvents) {
+            // The full load below already reflects anything queued so far.
+            mPendingEvents.clear();
+            mPendingPosted.clear();
+            mRankingChanged = false;
+        }
         List<HistoricalNotificationInfo> infos = loadNotifications();
         if (infos != null) {
             final int N = infos.size();
             logd("adding %d infos", N);
             Collections.sort(infos, mNotificationSorter);
-            if (getPreferenceScreen() == null) {
-                setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getContext()));
-            }
-            getPreferenceScreen().removeAll();
+            final PreferenceScreen screen = getOrCreatePreferenceScreen();
+            screen.removeAll();
+            mActivePrefs.clear();
+            mHistoricalPrefs.clear();
+            mTopOrder = 0;
             for (int i = 0; i < N; i++) {
-                getPreferenceScreen().addPreference(
-                        new HistoricalNotificationPreference(getPrefContext(), infos.get(i)));
+                final HistoricalNotificationInfo info = infos.get(i);
+                final HistoricalNotificationPreference pref =
+                        new HistoricalNotificationPreference(getPrefContext(), info, this);
+                pref.setOrder(i);
+                if (info.active) {
+                    mActivePrefs.put(info.key, pref);
+                } else {
+                    mHistoricalPrefs.addLast(pref);
+                }
+                screen.addPreference(pref);
+            }
+        }
+    }
+
+    private PreferenceScreen getOrCreatePreferenceScreen() {
+        if (getPreferenceScreen() == null) {
+            final PreferenceScreen screen =
+                    getPreferenceManager().createPreferenceScreen(getContext());
+            screen.setOrderingAsAdded(false);
+            setPreferenceScreen(screen);
+        }
+        return getPreferenceScreen();
+    }
+
+    /**
+     * Applies queued posted/removed notifications to the existing rows: posts replace or add
+     * the active row for their key and move it to the top, removals turn the active row into
+     * a historical one. Only the affected rows are touched.
+     */
+    @VisibleForTesting
+    void applyPendingEvents() {
+        final ArrayList<StatusBarNotification> events;
+        final ArrayList<Boolean> posted;
+        final boolean rankingChanged;
+        synchronized (mPendingEvents) {
+            events = new ArrayList<>(mPendingEvents);
+            posted = new ArrayList<>(mPendingPosted);
+            rankingChanged = mRankingChanged;
+            mPendingEvents.clear();
+            mPendingPosted.clear();
+            mRankingChanged = false;
+        }
+        if (getPreferenceScreen() == null || getContext() == null) {
+            return;
+        }
+        final PreferenceScreen screen = getPreferenceScreen();
+        final int currentUserId = ActivityManager.getCurrentUser();
+        final int N = events.size();
+        logd("applying %d events", N);
+        for (int i = 0; i < N; i++) {
+            final StatusBarNotification sbn = events.get(i);
+            if (sbn.getUserId() != UserHandle.USER_ALL && sbn.getUserId() != currentUserId) {
+                continue;
+            }
+            final HistoricalNotificationPreference active = mActivePrefs.remove(sbn.getKey());
+            if (posted.get(i)) {
+                if (active != null) {
+                    screen.removePreference(active);
+                }
+                final HistoricalNotificationPreference pref = new HistoricalNotificationPreference(
+                        getPrefContext(), createInfo(sbn, true /* active */), this);
+                pref.setOrder(--mTopOrder);
+                mActivePrefs.put(sbn.getKey(), pref);
+                screen.addPreference(pref);
+            } else if (active != null) {
+                active.setActive(false);
+                mHistoricalPrefs.addFirst(active);
+            }
+        }
+        while (mHistoricalPrefs.size() > MAX_HISTORICAL) {
+            screen.removePreference(mHistoricalPrefs.removeLast());
+        }
+        if (rankingChanged) {
+            // Ranking details are only shown for active notifications, rebuild them on demand.
+            for (int i = mActivePrefs.size() - 1; i >= 0; i--) {
+                mActivePrefs.valueAt(i).invalidateExtra();
             }
         }
     }
@@ -289,28 +411,7 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
                         continue;
                     }
 
-                    final Notification n = sbn.getNotification();
-                    final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
-                    info.pkg = sbn.getPackageName();
-                    info.user = sbn.getUserId();
-                    info.icon = loadIconDrawable(info.pkg, info.user, n.icon);
-                    info.pkgicon = loadPackageIconDrawable(info.pkg, info.user);
-                    info.pkgname = loadPackageName(info.pkg);
-                    info.title = getTitleString(n);
-                    if (TextUtils.isEmpty(info.title)) {
-                        info.title = getString(R.string.notification_log_no_title);
-                    }
-                    info.timestamp = sbn.getPostTime();
-                    info.priority = n.priority;
-                    info.channel = n.getChannelId();
-                    info.key = sbn.getKey();
-
-                    info.active = (resultset == active);
-
-                    info.extra = generateExtraText(sbn, info);
-
-                    logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
-                    list.add(info);
+                    list.add(createInfo(sbn, resultset == active));
                 }
             }
 
@@ -321,6 +422,32 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
         return null;
     }
 
+    private HistoricalNotificationInfo createInfo(StatusBarNotification sbn, boolean active) {
+        final Notification n = sbn.getNotification();
+        final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
+        info.sbn = sbn;
+        info.pkg = sbn.getPackageName();
+        info.user = sbn.getUserId();
+        info.icon = loadIconDrawable(info.pkg, info.user, n.icon);
+        info.pkgicon = loadPackageIconDrawable(info.pkg, info.user);
+        info.pkgname = loadPackageName(info.pkg);
+        info.title = getTitleString(n);
+        if (TextUtils.isEmpty(info.title)) {
+            info.title = getString(R.string.notification_log_no_title);
+        }
+        info.timestamp = sbn.getPostTime();
+        info.priority = n.priority;
+        info.channel = n.getChannelId();
+        info.key = sbn.getKey();
+
+        info.active = active;
+
+        // info.extra is generated when the row is first expanded
+
+        logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
+        return info;
+    }
+
     private CharSequence generateExtraText(StatusBarNotification sbn,
                                            HistoricalNotificationInfo info) {
         final Ranking rank = new Ranking();
@@ -560,37 +687,83 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
         return r;
     }
 
+    private static String cacheKey(String pkg, int userId, int resId) {
+        return pkg + '|' + userId + '|' + resId;
+    }
+
+    /**
+     * Returns a new instance of a cached icon, since the same icon can be shown by several
+     * rows at once.
+     */
+    private Drawable getCachedIcon(String key) {
+        final Drawable cached = mIconCache.get(key);
+        return cached != null ? newInstance(cached) : null;
+    }
+
+    /**
+     * Caches {@code icon} and returns a new instance of it, so the cached one is never shown.
+     */
+    private Drawable cacheIcon(String key, Drawable icon) {
+        mIconCache.put(key, icon);
+        return newInstance(icon);
+    }
+
+    private static Drawable newInstance(Drawable icon) {
+        final Drawable.ConstantState state = icon.getConstantState();
+        return state != null ? state.newDrawable() : icon;
+    }
+
     private Drawable loadPackageIconDrawable(String pkg, int userId) {
-        Drawable icon = null;
+        final String key = cacheKey(pkg, userId, 0);
+        Drawable icon = getCachedIcon(key);
+        if (icon != null) {
+            return icon;
+        }
         try {
             icon = mPm.getApplicationIcon(pkg);
         } catch (PackageManager.NameNotFoundException e) {
             Log.e(TAG, "Cannot get application icon", e);
         }
 
-        return icon;
+        return icon != null ? cacheIcon(key, icon) : null;
     }
 
     private CharSequence loadPackageName(String pkg) {
+        CharSequence label = mLabelCache.get(pkg);
+        if (label != null) {
+            return label;
+        }
+        label = pkg;
         try {
             ApplicationInfo info = mPm.getApplicationInfo(pkg,
                     PackageManager.MATCH_ANY_USER);
-            if (info != null) return mPm.getApplicationLabel(info);
+            if (info != null) label = mPm.getApplicationLabel(info);
         } catch (PackageManager.NameNotFoundException e) {
             Log.e(TAG, "Cannot load package name", e);
         }
-        return pkg;
+        mLabelCache.put(pkg, label);
+        return label;
     }
 
     private Drawable loadIconDrawable(String pkg, int userId, int resId) {
-        Resources r = getResourcesForUserPackage(pkg, userId);
-
         if (resId == 0) {
             return null;
         }
 
+        final String key = cacheKey(pkg, userId, resId);
+        final Drawable cached = getCachedIcon(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Resources r = getResourcesForUserPackage(pkg, userId);
+        if (r == null) {
+            return null;
+        }
+
         try {
-            return r.getDrawable(resId, null);
+            final Drawable icon = r.getDrawable(resId, null);
+            return icon != null ? cacheIcon(key, icon) : null;
         } catch (RuntimeException e) {
             Log.w(TAG, "Icon not found in "
                     + (pkg != null ? resId : "<system>")
@@ -602,38 +775,65 @@ public class NotificationStation extends SettingsPreferenceFragment implements I
 
     private static class HistoricalNotificationPreference extends Preference {
         private final HistoricalNotificationInfo mInfo;
+        private final NotificationStation mStation;
         private static long sLastExpandedTimestamp; // quick hack to keep things from collapsing
 
-        public HistoricalNotificationPreference(Context context, HistoricalNotificationInfo info) {
+        public HistoricalNotificationPreference(Context context, HistoricalNotificationInfo info,
+                NotificationStation station) {
             super(context);
             setLayoutResource(R.layout.notification_log_row);
             mInfo = info;
+            mStation = station;
+        }
+
+        void setActive(boolean active) {
+            if (mInfo.active != active) {
+                mInfo.active = active;
+                mInfo.extra = null;
+                notifyChanged();
+            }
+        }
+
+        void invalidateExtra() {
+            if (mInfo.extra != null) {
+                mInfo.extra = null;
+                if (mInfo.timestamp == sLastExpandedTimestamp) {
+                    notifyChanged();
+                }
+            }
+        }
+
+        private CharSequence getExtra() {
+            if (mInfo.extra == null) {
+                mInfo.extra = mStation.generateExtraText(mInfo.sbn, mInfo);
+            }
+            return mInfo.extra;
         }
 
         @Override
         public void onBindViewHolder(PreferenceViewHolder row) {
             super.onBindViewHolder(row);
 
-            if (mInfo.icon != null) {
-                ((ImageView) row.findViewById(R.id.icon)).setImageDrawable(mInfo.icon);
-            }
-            if (mInfo.pkgicon != null) {
-                ((ImageView) row.findViewById(R.id.pkgicon)).setImageDrawable(mInfo.pkgicon);
-            }
+            // Rows are recycled, so clear icons that this notification doesn't have.
+            ((ImageView) row.findViewById(R.id.icon)).setImageDrawable(mInfo.icon);
+            ((ImageView) row.findViewById(R.id.pkgicon)).setImageDrawable(mInfo.pkgicon);
 
             ((DateTimeView) row.findViewById(R.id.timestamp)).setTime(mInfo.timestamp);
             ((TextView) row.findViewById(R.id.title)).setText(mInfo.title);
             ((TextView) row.findViewById(R.id.pkgname)).setText(mInfo.pkgname);
 
             final TextView extra = (TextView) row.findViewById(R.id.extra);
-            extra.setText(mInfo.extra);
-            extra.setVisibility(mInfo.timestamp == sLastExpandedTimestamp
-                    ? View.VISIBLE : View.GONE);
+            final boolean expanded = mInfo.timestamp == sLastExpandedTimestamp;
+            extra.setText(expanded ? getExtra() : null);
+            extra.setVisibility(expanded ? View.VISIBLE : View.GONE);
 
             row.itemView.setOnClickListener(
                     new View.OnClickListener() {
                         @Override
                         public void onClick(View view) {
+                            if (extra.getVisibility() != View.VISIBLE) {
+                                extra.setText(getExtra());
+                            }
                             extra.setVisibility(extra.getVisibility() == View.VISIBLE
                                     ? View.GONE : View.VISIBLE);
                             sLastExpandedTimestamp = mInfo.timestamp;
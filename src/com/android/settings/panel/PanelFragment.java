@@ -39,6 +39,7 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.slice.Slice;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -206,14 +207,26 @@ public class PanelFragment extends Fragment {
         mSliceLiveData.clear();
         final List<Uri> sliceUris = mPanel.getSlices();
         mPanelSlicesLoaderCountdownLatch = new PanelSlicesLoaderCountdownLatch(sliceUris.size());
+        final PanelSlicePrefetcher prefetcher = PanelSlicePrefetcher.getInstance(getActivity());
 
         for (Uri uri : sliceUris) {
-            final LiveData<Slice> sliceLiveData = SliceLiveData.fromUri(getActivity(), uri);
+            // Start from the content shown last time, the live Slice replaces it once bound.
+            final MediatorLiveData<Slice> sliceLiveData = new MediatorLiveData<>();
+            final Slice cachedSlice = prefetcher.getCachedSlice(uri);
+            if (cachedSlice != null) {
+                sliceLiveData.setValue(cachedSlice);
+            }
+            sliceLiveData.addSource(SliceLiveData.fromUri(getActivity(), uri),
+                    sliceLiveData::setValue);
 
             // Add slice first to make it in order.  Will remove it later if there's an error.
             mSliceLiveData.add(sliceLiveData);
 
             sliceLiveData.observe(getViewLifecycleOwner(), slice -> {
+                if (slice != null && slice != cachedSlice) {
+                    prefetcher.onSliceUpdated(uri, slice);
+                }
+
                 // If the Slice has already loaded, do nothing.
                 if (mPanelSlicesLoaderCountdownLatch.isSliceLoaded(uri)) {
                     return;
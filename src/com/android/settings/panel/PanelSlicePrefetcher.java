@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.panel;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.slice.Slice;
+import androidx.slice.SliceViewManager;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts binding the {@link Slice Slices} of a Panel as soon as {@link SettingsPanelActivity}
+ * receives its intent, and keeps the last content of each Slice shown in a Panel.
+ * <p>
+ *     {@link PanelFragment} renders the kept content right away while the live Slice loads, so a
+ *     Panel opened again doesn't wait for its slowest Slice. Binding early also gets the
+ *     {@link com.android.settings.slices.SettingsSliceProvider} to load the Slice data before the
+ *     Panel subscribes to it.
+ */
+public class PanelSlicePrefetcher {
+
+    private static final String TAG = "PanelSlicePrefetcher";
+
+    private static PanelSlicePrefetcher sInstance;
+
+    private final Context mContext;
+    private final Map<Uri, Slice> mSlices = new ArrayMap<>();
+
+    public static synchronized PanelSlicePrefetcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PanelSlicePrefetcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PanelSlicePrefetcher(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Binds each of {@param sliceUris} once in the background.
+     */
+    public void prefetch(List<Uri> sliceUris) {
+        for (Uri uri : sliceUris) {
+            ThreadUtils.postOnBackgroundThread(() -> {
+                try {
+                    final Slice slice = SliceViewManager.getInstance(mContext).bindSlice(uri);
+                    if (getCachedSlice(uri) == null) {
+                        onSliceUpdated(uri, slice);
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Failed to prefetch slice: " + uri, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the last content of {@param uri} seen by a Panel or the prefetch, or {@code null}.
+     */
+    public Slice getCachedSlice(Uri uri) {
+        synchronized (mSlices) {
+            return mSlices.get(uri);
+        }
+    }
+
+    /**
+     * Keeps {@param slice} as the latest content of {@param uri}. Empty stub Slices are ignored.
+     */
+    public void onSliceUpdated(Uri uri, Slice slice) {
+        if (slice == null || slice.getItems().isEmpty()) {
+            return;
+        }
+        synchronized (mSlices) {
+            mSlices.put(uri, slice);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import androidx.fragment.app.FragmentManager;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.settings.R;
 import com.android.settings.core.HideNonSystemOverlayMixin;
+import com.android.settings.overlay.FeatureFactory;
 
 /**
  * Dialog Activity to host Settings Slices.
@@ -88,6 +89,8 @@ public class SettingsPanelActivity extends FragmentActivity {
         mBundle.putString(KEY_CALLING_PACKAGE_NAME, getCallingPackage());
         mBundle.putString(KEY_MEDIA_PACKAGE_NAME, mediaPackageName);
 
+        prefetchSlices(callingIntent.getAction(), mediaPackageName);
+
         final FragmentManager fragmentManager = getSupportFragmentManager();
         final Fragment fragment = fragmentManager.findFragmentById(R.id.main_content);
 
@@ -109,4 +112,25 @@ public class SettingsPanelActivity extends FragmentActivity {
             fragmentManager.beginTransaction().add(R.id.main_content, panelFragment).commit();
         }
     }
+
+    /**
+     * Starts binding the Slices of the requested Panel while the {@link PanelFragment} is being
+     * created.
+     */
+    private void prefetchSlices(String panelType, String mediaPackageName) {
+        if (panelType == null) {
+            return;
+        }
+        final PanelContent panel;
+        try {
+            panel = FeatureFactory.getFactory(this).getPanelFeatureProvider()
+                    .getPanel(this, panelType, mediaPackageName);
+        } catch (IllegalStateException e) {
+            // Unknown panel type, PanelFragment handles it.
+            return;
+        }
+        if (panel != null) {
+            PanelSlicePrefetcher.getInstance(this).prefetch(panel.getSlices());
+        }
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.rr.Preferences;
+
+import android.content.ContentResolver;
+import android.preference.PreferenceDataStore;
+
+/**
+ * Settings data store whose writes go through a {@link SettingsWriteBuffer}.
+ *
+ * Reads return the pending value of a batched key, if any, and defer to the provider otherwise.
+ * Subclasses only read and write the values of their settings table. Booleans are stored as
+ * 1 or 0.
+ */
+public abstract class BufferedSettingsStore extends androidx.preference.PreferenceDataStore
+        implements PreferenceDataStore, SettingsWriteBuffer.Host {
+
+    protected final ContentResolver mContentResolver;
+    private final SettingsWriteBuffer mWriteBuffer = new SettingsWriteBuffer(this::write);
+
+    protected BufferedSettingsStore(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    protected abstract float readFloat(String key, float defValue);
+
+    protected abstract int readInt(String key, int defValue);
+
+    protected abstract long readLong(String key, long defValue);
+
+    /**
+     * @return the value of {@code key}, or {@code null} if it is not set.
+     */
+    protected abstract String readString(String key);
+
+    protected abstract void writeFloat(String key, float value);
+
+    protected abstract void writeInt(String key, int value);
+
+    protected abstract void writeLong(String key, long value);
+
+    protected abstract void writeString(String key, String value);
+
+    public boolean getBoolean(String key, boolean defValue) {
+        if (mWriteBuffer.hasPendingValue(key)) {
+            return mWriteBuffer.getBoolean(key, defValue);
+        }
+        return readInt(key, defValue ? 1 : 0) != 0;
+    }
+
+    public float getFloat(String key, float defValue) {
+        if (mWriteBuffer.hasPendingValue(key)) {
+            return mWriteBuffer.getFloat(key, defValue);
+        }
+        return readFloat(key, defValue);
+    }
+
+    public int getInt(String key, int defValue) {
+        if (mWriteBuffer.hasPendingValue(key)) {
+            return mWriteBuffer.getInt(key, defValue);
+        }
+        return readInt(key, defValue);
+    }
+
+    public long getLong(String key, long defValue) {
+        if (mWriteBuffer.hasPendingValue(key)) {
+            return mWriteBuffer.getLong(key, defValue);
+        }
+        return readLong(key, defValue);
+    }
+
+    public String getString(String key, String defValue) {
+        if (mWriteBuffer.hasPendingValue(key)) {
+            return mWriteBuffer.getString(key, defValue);
+        }
+        String result = readString(key);
+        return result == null ? defValue : result;
+    }
+
+    public void putBoolean(String key, boolean value) {
+        if (!mWriteBuffer.defer(key, value)) {
+            write(key, value);
+        }
+    }
+
+    public void putFloat(String key, float value) {
+        if (!mWriteBuffer.defer(key, value)) {
+            write(key, value);
+        }
+    }
+
+    public void putInt(String key, int value) {
+        if (!mWriteBuffer.defer(key, value)) {
+            write(key, value);
+        }
+    }
+
+    public void putLong(String key, long value) {
+        if (!mWriteBuffer.defer(key, value)) {
+            write(key, value);
+        }
+    }
+
+    public void putString(String key, String value) {
+        if (!mWriteBuffer.defer(key, value)) {
+            write(key, value);
+        }
+    }
+
+    @Override
+    public SettingsWriteBuffer getWriteBuffer() {
+        return mWriteBuffer;
+    }
+
+    private void write(String key, Object value) {
+        if (value instanceof Boolean) {
+            writeInt(key, (Boolean) value ? 1 : 0);
+        } else if (value instanceof Float) {
+            writeFloat(key, (Float) value);
+        } else if (value instanceof Integer) {
+            writeInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            writeLong(key, (Long) value);
+        } else if (value == null || value instanceof String) {
+            writeString(key, (String) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported value for " + key + ": " + value);
+        }
+    }
+}
@@ -250,6 +250,10 @@ public class CustomSeekBarPreference extends Preference implements SeekBar.OnSee
     public void onStartTrackingTouch(SeekBar seekBar) {
         mTrackingValue = mValue;
         mTrackingTouch = true;
+        // Continuous updates are written once the drag pauses or ends
+        SettingsWriteBuffer writeBuffer = getWriteBuffer();
+        if (writeBuffer != null && mContinuousUpdates)
+            writeBuffer.beginBatch(getKey());
     }
 
     @Override
@@ -257,9 +261,19 @@ public class CustomSeekBarPreference extends Preference implements SeekBar.OnSee
         mTrackingTouch = false;
         if (!mContinuousUpdates)
             onProgressChanged(mSeekBar, getSeekValue(mTrackingValue), false);
+        SettingsWriteBuffer writeBuffer = getWriteBuffer();
+        if (writeBuffer != null)
+            writeBuffer.endBatch(getKey());
         notifyChanged();
     }
 
+    private SettingsWriteBuffer getWriteBuffer() {
+        PreferenceDataStore dataStore = getPreferenceDataStore();
+        if (dataStore instanceof SettingsWriteBuffer.Host && getKey() != null)
+            return ((SettingsWriteBuffer.Host) dataStore).getWriteBuffer();
+        return null;
+    }
+
     @Override
     public void onClick(View v) {
         int id = v.getId();
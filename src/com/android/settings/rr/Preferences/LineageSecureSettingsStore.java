@@ -16,59 +16,53 @@
 package com.android.settings.rr.Preferences;
 
 import android.content.ContentResolver;
-import android.preference.PreferenceDataStore;
 import android.os.UserHandle;
-import androidx.preference.*;
 
 import lineageos.providers.LineageSettings;
 
-public class LineageSecureSettingsStore extends androidx.preference.PreferenceDataStore
-        implements PreferenceDataStore {
-
-    private ContentResolver mContentResolver;
+public class LineageSecureSettingsStore extends BufferedSettingsStore {
 
     public LineageSecureSettingsStore(ContentResolver contentResolver) {
-        mContentResolver = contentResolver;
-    }
-
-    public boolean getBoolean(String key, boolean defValue) {
-        return getInt(key, defValue ? 1 : 0) != 0;
+        super(contentResolver);
     }
 
-    public float getFloat(String key, float defValue) {
+    @Override
+    protected float readFloat(String key, float defValue) {
         return LineageSettings.Secure.getFloatForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
     }
 
-    public int getInt(String key, int defValue) {
+    @Override
+    protected int readInt(String key, int defValue) {
         return LineageSettings.Secure.getIntForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
     }
 
-    public long getLong(String key, long defValue) {
+    @Override
+    protected long readLong(String key, long defValue) {
         return LineageSettings.Secure.getLongForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
     }
 
-    public String getString(String key, String defValue) {
-        String result = LineageSettings.Secure.getString(mContentResolver, key);
-        return result == null ? defValue : result;
-    }
-
-    public void putBoolean(String key, boolean value) {
-        putInt(key, value ? 1 : 0);
+    @Override
+    protected String readString(String key) {
+        return LineageSettings.Secure.getString(mContentResolver, key);
     }
 
-    public void putFloat(String key, float value) {
+    @Override
+    protected void writeFloat(String key, float value) {
         LineageSettings.Secure.putFloatForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
     }
 
-    public void putInt(String key, int value) {
+    @Override
+    protected void writeInt(String key, int value) {
         LineageSettings.Secure.putIntForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
     }
 
-    public void putLong(String key, long value) {
+    @Override
+    protected void writeLong(String key, long value) {
         LineageSettings.Secure.putLongForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
     }
 
-    public void putString(String key, String value) {
+    @Override
+    protected void writeString(String key, String value) {
         LineageSettings.Secure.putString(mContentResolver, key, value);
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.rr.Preferences;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+/**
+ * Write-behind buffer for the settings data stores.
+ *
+ * While a key is batched, e.g. while a seek bar is dragged, writes to it are kept here and only
+ * the latest value is written once the batch ends or no write came for {@link #IDLE_FLUSH_MS}.
+ * Every other write goes straight to the provider. Must be used on the main thread.
+ */
+public class SettingsWriteBuffer {
+
+    private static final String TAG = "SettingsWriteBuffer";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    static final long IDLE_FLUSH_MS = 100;
+
+    /**
+     * Implemented by data stores owning a write buffer.
+     */
+    public interface Host {
+        SettingsWriteBuffer getWriteBuffer();
+    }
+
+    /**
+     * Writes a value to the provider. The value is a Boolean, Float, Integer, Long or String.
+     */
+    public interface Writer {
+        void write(String key, Object value);
+    }
+
+    private final Writer mWriter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArraySet<String> mBatchedKeys = new ArraySet<>();
+    private final ArrayMap<String, Object> mPendingValues = new ArrayMap<>();
+    private final Runnable mFlushRunnable = this::flush;
+
+    private int mDeferredWriteCount;
+    private int mCoalescedWriteCount;
+    private int mFlushedWriteCount;
+
+    public SettingsWriteBuffer(Writer writer) {
+        mWriter = writer;
+    }
+
+    /**
+     * Starts deferring writes to {@code key}.
+     */
+    public void beginBatch(String key) {
+        mBatchedKeys.add(key);
+    }
+
+    /**
+     * Stops deferring writes to {@code key} and writes its pending value.
+     */
+    public void endBatch(String key) {
+        if (!mBatchedKeys.remove(key)) {
+            return;
+        }
+        flush(key);
+        if (DEBUG) {
+            Log.d(TAG, "Batch of " + key + " ended: " + mDeferredWriteCount + " deferred, "
+                    + mCoalescedWriteCount + " coalesced, " + mFlushedWriteCount + " written");
+        }
+    }
+
+    /**
+     * Keeps {@code value} as the pending value of {@code key} if the key is batched.
+     *
+     * @return whether the write was deferred; if not the caller writes it itself.
+     */
+    public boolean defer(String key, Object value) {
+        if (!mBatchedKeys.contains(key)) {
+            return false;
+        }
+        mDeferredWriteCount++;
+        if (mPendingValues.containsKey(key)) {
+            mCoalescedWriteCount++;
+        }
+        mPendingValues.put(key, value);
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, IDLE_FLUSH_MS);
+        return true;
+    }
+
+    public boolean hasPendingValue(String key) {
+        return mPendingValues.containsKey(key);
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        final Object value = mPendingValues.get(key);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return value instanceof Number ? ((Number) value).intValue() != 0 : defValue;
+    }
+
+    public float getFloat(String key, float defValue) {
+        final Object value = mPendingValues.get(key);
+        return value instanceof Number ? ((Number) value).floatValue() : defValue;
+    }
+
+    public int getInt(String key, int defValue) {
+        final Object value = mPendingValues.get(key);
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return value instanceof Number ? ((Number) value).intValue() : defValue;
+    }
+
+    public long getLong(String key, long defValue) {
+        final Object value = mPendingValues.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : defValue;
+    }
+
+    public String getString(String key, String defValue) {
+        final Object value = mPendingValues.get(key);
+        return value == null ? defValue : String.valueOf(value);
+    }
+
+    /**
+     * Writes all pending values.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        for (int i = mPendingValues.size() - 1; i >= 0; i--) {
+            write(mPendingValues.keyAt(i), mPendingValues.valueAt(i));
+        }
+        mPendingValues.clear();
+    }
+
+    private void flush(String key) {
+        if (!mPendingValues.containsKey(key)) {
+            return;
+        }
+        write(key, mPendingValues.remove(key));
+        if (mPendingValues.isEmpty()) {
+            mHandler.removeCallbacks(mFlushRunnable);
+        }
+    }
+
+    private void write(String key, Object value) {
+        mFlushedWriteCount++;
+        mWriter.write(key, value);
+    }
+
+    public int getDeferredWriteCount() {
+        return mDeferredWriteCount;
+    }
+
+    public int getCoalescedWriteCount() {
+        return mCoalescedWriteCount;
+    }
+
+    public int getFlushedWriteCount() {
+        return mFlushedWriteCount;
+    }
+}
@@ -16,57 +16,51 @@
 package com.android.settings.rr.Preferences;
 
 import android.content.ContentResolver;
-import android.preference.PreferenceDataStore;
 import android.provider.Settings;
 
-public class SystemSettingsStore extends androidx.preference.PreferenceDataStore
-        implements PreferenceDataStore  {
-
-    private ContentResolver mContentResolver;
+public class SystemSettingsStore extends BufferedSettingsStore {
 
     public SystemSettingsStore(ContentResolver contentResolver) {
-        mContentResolver = contentResolver;
-    }
-
-    public boolean getBoolean(String key, boolean defValue) {
-        return getInt(key, defValue ? 1 : 0) != 0;
+        super(contentResolver);
     }
 
-    public float getFloat(String key, float defValue) {
+    @Override
+    protected float readFloat(String key, float defValue) {
         return Settings.System.getFloat(mContentResolver, key, defValue);
     }
 
-    public int getInt(String key, int defValue) {
+    @Override
+    protected int readInt(String key, int defValue) {
         return Settings.System.getInt(mContentResolver, key, defValue);
     }
 
-    public long getLong(String key, long defValue) {
+    @Override
+    protected long readLong(String key, long defValue) {
         return Settings.System.getLong(mContentResolver, key, defValue);
     }
 
-    public String getString(String key, String defValue) {
-        String result = Settings.System.getString(mContentResolver, key);
-        return result == null ? defValue : result;
+    @Override
+    protected String readString(String key) {
+        return Settings.System.getString(mContentResolver, key);
     }
 
-    public void putBoolean(String key, boolean value) {
-        putInt(key, value ? 1 : 0);
-    }
-
-    public void putFloat(String key, float value) {
+    @Override
+    protected void writeFloat(String key, float value) {
         Settings.System.putFloat(mContentResolver, key, value);
     }
 
-    public void putInt(String key, int value) {
+    @Override
+    protected void writeInt(String key, int value) {
         Settings.System.putInt(mContentResolver, key, value);
     }
 
-    public void putLong(String key, long value) {
+    @Override
+    protected void writeLong(String key, long value) {
         Settings.System.putLong(mContentResolver, key, value);
     }
 
-    public void putString(String key, String value) {
+    @Override
+    protected void writeString(String key, String value) {
         Settings.System.putString(mContentResolver, key, value);
     }
-
 }
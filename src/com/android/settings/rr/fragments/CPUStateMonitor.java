@@ -38,6 +38,10 @@ public class CPUStateMonitor {
     private List<Integer> mFrequencies;
     private List<Integer> mShowCpus;
     private boolean mStatsInMsecs;
+    private TimeInStateSampler mSampler;
+    private Map<Integer, CpuState[]> mSlotStates;
+    private CpuState mDeepSleepState;
+    private int mGeneration = -1;
 
     public CPUStateMonitor(List<Integer> showCpus, boolean statsInMsecs) {
         mStatsInMsecs = statsInMsecs;
@@ -54,6 +58,17 @@ public class CPUStateMonitor {
             mOffsets.put(i, cpuOffsets);
         }
         mOverallStats = Helpers.hasOverallStats();
+
+        int[] sampleCpus = null;
+        if (showCpus != null) {
+            sampleCpus = new int[showCpus.size()];
+            for (int i = 0; i < sampleCpus.length; i++) {
+                sampleCpus[i] = showCpus.get(i);
+            }
+        }
+        mSampler = new TimeInStateSampler(mCpuNum, sampleCpus, mOverallStats, statsInMsecs);
+        mSlotStates = new HashMap<Integer, CpuState[]>();
+        mDeepSleepState = new CpuState(0, 0, 0, true);
     }
 
     public boolean hasOverallStats() {
@@ -174,6 +189,29 @@ public class CPUStateMonitor {
         }
     }
 
+    /**
+     * Rebases the offsets so that {@link CpuState#getDuration()} returns the residency
+     * of the given window instead of the time since boot.
+     */
+    public void applyWindow(int[] frequencies, long[][] times, long deepSleep) {
+        for (int i = 0; i < mCpuNum; i++) {
+            Map<Integer, Long> cpuOffsets = new HashMap<Integer, Long>();
+            for (CpuState state : mStates.get(i)) {
+                long window = 0;
+                if (state.freq == 0) {
+                    window = deepSleep;
+                } else if (i < times.length) {
+                    int slot = Arrays.binarySearch(frequencies, state.freq);
+                    if (slot >= 0) {
+                        window = times[i][slot];
+                    }
+                }
+                cpuOffsets.put(state.freq, state.duration - window);
+            }
+            mOffsets.put(i, cpuOffsets);
+        }
+    }
+
     public void removeOffsets() {
         for (int i = 0; i < mCpuNum; i++) {
             removeOffsets(i);
@@ -193,104 +231,104 @@ public class CPUStateMonitor {
     }
 
     public void updateStates() throws CPUStateMonitorException {
-        mFrequencies.clear();
-        if (mOverallStats) {
-            try {
-                InputStream is = new FileInputStream(TIME_IN_STATE_OVERALL_PATH);
-                InputStreamReader ir = new InputStreamReader(is);
-                BufferedReader br = new BufferedReader(ir);
-                clear();
-                readInOverallStates(br);
-                is.close();
-            } catch (IOException e) {
-                throw new CPUStateMonitorException(
-                        "Problem opening time-in-states file");
+        try {
+            mSampler.sample();
+        } catch (IOException e) {
+            throw new CPUStateMonitorException(
+                    "Problem opening time-in-states file");
+        }
+        readInSample();
+    }
+
+    /**
+     * Copies the last sample of {@link #getSampler()} into the {@link CpuState} lists. The
+     * state objects are only reallocated when the frequency table changes, so periodic
+     * updates do not allocate.
+     */
+    public void readInSample() {
+        final TimeInStateSampler sampler = mSampler;
+        final int slots = sampler.getFrequencyCount();
+        if (sampler.getGeneration() != mGeneration) {
+            mGeneration = sampler.getGeneration();
+            mFrequencies.clear();
+            for (int slot = 0; slot < slots; slot++) {
+                mFrequencies.add(sampler.getFrequency(slot));
             }
-        } else {
-            try {
-                clear();
-                for (int i = 0; i < mCpuNum; i++) {
-                    if (mShowCpus != null) {
-                        if (!mShowCpus.contains(i)) {
-                            continue;
-                        }
-                    }
-                    List<CpuState> cpuStates = mStates.get(i);
-                    InputStream is = new FileInputStream(getCpuFreqPathFor(i));
-                    InputStreamReader ir = new InputStreamReader(is);
-                    BufferedReader br = new BufferedReader(ir);
-                    readInStates(br, i, cpuStates);
-                    is.close();
+            for (int i = 0; i < mCpuNum; i++) {
+                mSlotStates.put(i, new CpuState[slots]);
+            }
+        }
+
+        clear();
+        for (int i = 0; i < mCpuNum; i++) {
+            List<CpuState> cpuStates = mStates.get(i);
+            CpuState[] slotStates = mSlotStates.get(i);
+            for (int slot = 0; slot < slots; slot++) {
+                if (!sampler.hasState(i, slot)) {
+                    continue;
+                }
+                CpuState state = slotStates[slot];
+                if (state == null) {
+                    state = new CpuState(i, sampler.getFrequency(slot), 0, true);
+                    slotStates[slot] = state;
                 }
-            } catch (IOException e) {
-                throw new CPUStateMonitorException(
-                        "Problem opening time-in-states file");
+                state.duration = sampler.getTime(i, slot);
+                cpuStates.add(state);
             }
         }
 
-        List<CpuState> cpuStates = mStates.get(0);
         long sleepTime = Math.max((SystemClock.elapsedRealtime() - SystemClock
                 .uptimeMillis()), 0);
-        cpuStates.add(new CpuState(0, 0, sleepTime, true));
-        Collections.sort(mFrequencies);
+        mDeepSleepState.duration = sleepTime;
+        mStates.get(0).add(mDeepSleepState);
     }
 
-    private void readInStates(BufferedReader br, int cpu,
-            List<CpuState> cpuStates) throws CPUStateMonitorException {
-        try {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] nums = line.split(" ");
-                int freq = Integer.parseInt(nums[0]);
-                cpuStates.add(new CpuState(cpu, freq, Long
-                        .parseLong(nums[1]), mStatsInMsecs));
-                if (!mFrequencies.contains(freq)) {
-                    mFrequencies.add(freq);
+    /**
+     * Copies the states, with the offsets applied, into {@code target} so they can be read on
+     * another thread while this monitor samples again. The state objects of {@code target} are
+     * reused, so periodic copies do not allocate.
+     */
+    public void copyStatesTo(CPUStateMonitor target) {
+        if (target.mGeneration != mGeneration) {
+            target.mGeneration = mGeneration;
+            target.mFrequencies.clear();
+            target.mFrequencies.addAll(mFrequencies);
+        }
+        for (int i = 0; i < mCpuNum; i++) {
+            List<CpuState> cpuStates = mStates.get(i);
+            List<CpuState> targetStates = target.mStates.get(i);
+            CpuState[] copies = target.mSlotStates.get(i);
+            if (copies == null || copies.length < cpuStates.size()) {
+                copies = new CpuState[cpuStates.size()];
+                target.mSlotStates.put(i, copies);
+            }
+            targetStates.clear();
+            for (int j = 0; j < cpuStates.size(); j++) {
+                CpuState state = cpuStates.get(j);
+                CpuState copy = copies[j];
+                if (copy == null) {
+                    copy = target.new CpuState(state.mCpu, state.freq, 0, true);
+                    copies[j] = copy;
                 }
+                copy.mCpu = state.mCpu;
+                copy.freq = state.freq;
+                copy.duration = state.getDuration();
+                targetStates.add(copy);
             }
-            Collections.sort(cpuStates);
-        } catch (IOException e) {
-            throw new CPUStateMonitorException(
-                    "Problem processing time-in-states file");
+            target.mOffsets.get(i).clear();
         }
     }
 
-    private void readInOverallStates(BufferedReader br)
-            throws CPUStateMonitorException {
-        int cpu = 0;
-        List<CpuState> cpuStates = null;
-        ;
-        int firstFreq = 0;
-        try {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] nums = line.split(" ");
-                int freq = Integer.parseInt(nums[0]);
-                if (firstFreq == 0) {
-                    firstFreq = freq;
-                } else if (freq == firstFreq) {
-                    cpu++;
-                    if (cpuStates != null) {
-                        Collections.sort(cpuStates);
-                    }
-                }
-                cpuStates = mStates.get(cpu);
-                cpuStates.add(new CpuState(cpu, freq, Long.parseLong(nums[1]), mStatsInMsecs));
-                if (!mFrequencies.contains(freq)) {
-                    mFrequencies.add(freq);
-                }
-            }
-        } catch (IOException e) {
-            throw new CPUStateMonitorException(
-                    "Problem processing time-in-states file");
-        }
+    /** Releases the sysfs file descriptors cached by the sampler. */
+    public void close() {
+        mSampler.close();
     }
 
-    public void dump() {
-        Log.d("PC", "states = " + mStates + "\noffsets = " + mOffsets);
+    public TimeInStateSampler getSampler() {
+        return mSampler;
     }
 
-    private String getCpuFreqPathFor(int cpu) {
-        return TIME_IN_STATE_PATH.replace("cpu0", "cpu" + cpu);
+    public void dump() {
+        Log.d("PC", "states = " + mStates + "\noffsets = " + mOffsets);
     }
 }
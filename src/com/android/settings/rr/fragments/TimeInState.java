@@ -17,12 +17,18 @@
 */
 package com.android.settings.rr.fragments;
 
+import android.app.AlertDialog;
 import android.app.Fragment;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.util.Log;
@@ -30,6 +36,11 @@ import android.view.*;
 import android.widget.*;
 import android.widget.CompoundButton.OnCheckedChangeListener;
 
+import androidx.core.content.FileProvider;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.HashMap;
@@ -40,6 +51,7 @@ import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
+import com.android.settings.users.RestrictedProfileSettings;
 
 import com.android.settings.rr.fragments.CPUStateMonitor.CpuState;
 import com.android.settings.rr.fragments.CPUStateMonitor.CPUStateMonitorException;
@@ -49,13 +61,17 @@ public class TimeInState extends SettingsPreferenceFragment {
     public static final String PREF_OFFSETS = "pref_offsets";
     public static final String PREF_STATE_MODE = "pref_state_mode";
     public static final String PREF_CORE_MODE = "pref_core_mode";
+    public static final String PREF_LIVE_MODE = "pref_live_mode";
 
     private LinearLayout mStatesView;
     private TextView mTotalStateTime;
     private TextView mStatesWarning;
     private CheckBox mStateMode;
     private boolean mUpdatingData;
+    // Only touched on the sampler thread, the view shows a copy of its states.
     private CPUStateMonitor monitor;
+    private CPUStateMonitor mShownStates;
+    private CPUStateMonitor mSpareStates;
     private Context mContext;
     private int mCpuNum;
     private boolean mActiveStateMode;
@@ -64,14 +80,45 @@ public class TimeInState extends SettingsPreferenceFragment {
     private LinearLayout mProgress;
     private CheckBox mCoreMode;
     private int mPeriodType = 1;
-    private boolean sHasRefData;
+    private volatile boolean sHasRefData;
+    private boolean mHasWindowData;
     private Intent mShareIntent;
     private List<Integer> mShowCpus;
     private static boolean sResetStats;
+    private final StringBuilder mShareData = new StringBuilder();
+    private int mRowCount;
+
+    private boolean mLiveMode;
+    private boolean mResumed;
+    private HandlerThread mSamplerThread;
+    private Handler mSamplerHandler;
+    private final Handler mHandler = new Handler();
+    // At most one sample is in flight, a sample requested meanwhile is taken after it.
+    private boolean mSampling;
+    private boolean mSampleRequested;
+
+    private final Runnable mLiveSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            requestSample();
+        }
+    };
+
+    private static final long LIVE_UPDATE_INTERVAL = 1000;
+
+    private static final int PERIOD_RESET = 0;
+    private static final int PERIOD_BOOT = 1;
+    private static final int PERIOD_LAST_5_MIN = 2;
+    private static final int PERIOD_LAST_HOUR = 3;
+    private static final String CSV_FILE_NAME = "time_in_state.csv";
 
     private static final int MENU_REFRESH = Menu.FIRST;
     private static final int MENU_SHARE = MENU_REFRESH + 1;
-    private static final String SHARED_PREFERENCES_NAME = "time_in_state";
+    private static final int MENU_LIVE = MENU_SHARE + 1;
+    private static final int MENU_RECORD = MENU_LIVE + 1;
+    private static final int MENU_RECORD_INTERVAL = MENU_RECORD + 1;
+    private static final int MENU_EXPORT = MENU_RECORD_INTERVAL + 1;
+    static final String SHARED_PREFERENCES_NAME = "time_in_state";
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -79,15 +126,10 @@ public class TimeInState extends SettingsPreferenceFragment {
         mContext = getActivity();
         boolean statsInMsecs = getResources().getBoolean(R.bool.config_cpufreq_msecs);
 
-        mShowCpus = new ArrayList<Integer>();
-        String showCpus = getResources().getString(R.string.config_cpufreq_show_cpus);
-        if (!TextUtils.isEmpty(showCpus)) {
-            String[] parts = showCpus.split(",");
-            for (String cpu : parts) {
-                mShowCpus.add(Integer.valueOf(cpu));
-            }
-        }
+        mShowCpus = getShowCpus(mContext);
         monitor = new CPUStateMonitor(mShowCpus, statsInMsecs);
+        mShownStates = new CPUStateMonitor(mShowCpus, statsInMsecs);
+        mSpareStates = new CPUStateMonitor(mShowCpus, statsInMsecs);
         mActiveCoreMode = mShowCpus.size() > 1;
 
         mCpuNum = Helpers.getNumOfCpus();
@@ -96,17 +138,57 @@ public class TimeInState extends SettingsPreferenceFragment {
             mPeriodType = savedInstanceState.getInt("which");
         }
 
+        mSamplerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mSamplerThread.start();
+        mSamplerHandler = new Handler(mSamplerThread.getLooper());
+
         if (sResetStats) {
             sResetStats = false;
             clearOffsets();
         }
-        loadOffsets();
+        mSamplerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadOffsets();
+            }
+        });
+
+        mLiveMode = getPrefs().getBoolean(PREF_LIVE_MODE, false);
 
         setHasOptionsMenu(true);
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacksAndMessages(null);
+        mSamplerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                monitor.close();
+            }
+        });
+        mSamplerThread.quitSafely();
+    }
+
     private SharedPreferences getPrefs() {
-        return mContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        return getPrefs(mContext);
+    }
+
+    static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    static List<Integer> getShowCpus(Context context) {
+        List<Integer> showCpus = new ArrayList<Integer>();
+        String config = context.getResources().getString(R.string.config_cpufreq_show_cpus);
+        if (!TextUtils.isEmpty(config)) {
+            String[] parts = config.split(",");
+            for (String cpu : parts) {
+                showCpus.add(Integer.valueOf(cpu));
+            }
+        }
+        return showCpus;
     }
 
     @Override
@@ -154,11 +236,16 @@ public class TimeInState extends SettingsPreferenceFragment {
                     public void onItemSelected(AdapterView<?> parent,
                             View view, int position, long id) {
                         mPeriodType = position;
-                        if (position == 0) {
-                            loadOffsets();
-                        } else if (position == 1) {
-                            monitor.removeOffsets();
-                        }
+                        mSamplerHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (position == 0) {
+                                    loadOffsets();
+                                } else if (position == 1) {
+                                    monitor.removeOffsets();
+                                }
+                            }
+                        });
                         refreshData();
                     }
 
@@ -180,16 +267,92 @@ public class TimeInState extends SettingsPreferenceFragment {
     @Override
     public void onResume() {
         mUpdatingData = false;
-        refreshData();
+        mResumed = true;
+        if (mLiveMode) {
+            startLiveUpdates();
+        } else {
+            refreshData();
+        }
         super.onResume();
     }
 
     @Override
     public void onPause() {
+        mResumed = false;
+        stopLiveUpdates();
         getPrefs().edit().putInt("which", mPeriodType).commit();
         super.onPause();
     }
 
+    private void startLiveUpdates() {
+        stopLiveUpdates();
+        requestSample();
+    }
+
+    private void stopLiveUpdates() {
+        mHandler.removeCallbacks(mLiveSampleRunnable);
+    }
+
+    /**
+     * Samples the states on the sampler thread and shows them once done. Called on the main
+     * thread.
+     */
+    private void requestSample() {
+        if (mSampling) {
+            mSampleRequested = true;
+            return;
+        }
+        mSampling = true;
+        final CPUStateMonitor target = mSpareStates;
+        final int periodType = mPeriodType;
+        mSamplerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final boolean hasWindowData = updateStates(periodType);
+                monitor.copyStatesTo(target);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSampled(target, hasWindowData);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onSampled(CPUStateMonitor states, boolean hasWindowData) {
+        mSampling = false;
+        mSpareStates = mShownStates;
+        mShownStates = states;
+        mHasWindowData = hasWindowData;
+        if (mSampleRequested) {
+            mSampleRequested = false;
+            requestSample();
+            return;
+        }
+        if (mUpdatingData) {
+            mProgress.setVisibility(View.GONE);
+            mUpdatingData = false;
+        }
+        if (getView() == null) {
+            return;
+        }
+        updateView();
+        if (mLiveMode && mResumed) {
+            mHandler.postDelayed(mLiveSampleRunnable, LIVE_UPDATE_INTERVAL);
+        }
+    }
+
+    private void setLiveMode(boolean liveMode) {
+        mLiveMode = liveMode;
+        getPrefs().edit().putBoolean(PREF_LIVE_MODE, liveMode).commit();
+        if (liveMode && mResumed) {
+            startLiveUpdates();
+        } else {
+            stopLiveUpdates();
+        }
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.time_in_state_menu, menu);
@@ -207,6 +370,22 @@ public class TimeInState extends SettingsPreferenceFragment {
                 .setShowAsAction(
                         MenuItem.SHOW_AS_ACTION_IF_ROOM
                                 | MenuItem.SHOW_AS_ACTION_WITH_TEXT);
+
+        menu.add(2, MENU_LIVE, 0, R.string.mt_live)
+                .setCheckable(true)
+                .setChecked(mLiveMode)
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
+
+        menu.add(2, MENU_RECORD, 0, R.string.mt_record)
+                .setCheckable(true)
+                .setChecked(TimeInStateService.isRecording(mContext))
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
+
+        menu.add(2, MENU_RECORD_INTERVAL, 0, R.string.mt_record_interval)
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
+
+        menu.add(2, MENU_EXPORT, 0, R.string.mt_export_csv)
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
     }
 
     @Override
@@ -219,27 +398,116 @@ public class TimeInState extends SettingsPreferenceFragment {
             createResetPoint();
             break;
         case MENU_SHARE:
+            updateShareIntent(mShareData.toString());
             if (mShareIntent != null) {
                 Intent intent = Intent.createChooser(mShareIntent, null);
                 intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 mContext.startActivity(intent);
             }
             break;
+        case MENU_LIVE:
+            item.setChecked(!item.isChecked());
+            setLiveMode(item.isChecked());
+            break;
+        case MENU_RECORD:
+            item.setChecked(!item.isChecked());
+            getPrefs().edit().putBoolean(TimeInStateService.PREF_RECORD,
+                    item.isChecked()).commit();
+            TimeInStateService.update(mContext);
+            break;
+        case MENU_RECORD_INTERVAL:
+            showRecordIntervalDialog();
+            break;
+        case MENU_EXPORT:
+            new ExportCsvTask().execute((Void) null);
+            break;
         }
         return super.onOptionsItemSelected(item);
     }
 
     private void createResetPoint() {
+        final int periodType = mPeriodType;
+        mSamplerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    monitor.setOffsets();
+                } catch (Exception e) {
+                    // not good
+                }
+                saveOffsets();
+                if (periodType == 1) {
+                    monitor.removeOffsets();
+                }
+            }
+        });
+        refreshData();
+    }
+
+    private void showRecordIntervalDialog() {
+        final String[] values = getResources().getStringArray(
+                R.array.time_in_state_record_interval_values);
+        final String current = String.valueOf(TimeInStateService.getInterval(mContext));
+        int checked = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(current)) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(mContext)
+                .setTitle(R.string.mt_record_interval)
+                .setSingleChoiceItems(R.array.time_in_state_record_interval_entries, checked,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                getPrefs().edit().putInt(
+                                        TimeInStateService.PREF_RECORD_INTERVAL,
+                                        Integer.parseInt(values[which])).commit();
+                                // restart sampling with the new interval
+                                TimeInStateService.update(mContext);
+                                dialog.dismiss();
+                            }
+                        })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private static boolean isWindowPeriod(int periodType) {
+        return periodType == PERIOD_LAST_5_MIN || periodType == PERIOD_LAST_HOUR;
+    }
+
+    private static long getWindowDuration(int periodType) {
+        return periodType == PERIOD_LAST_5_MIN ? 5 * 60 * 1000L : 60 * 60 * 1000L;
+    }
+
+    /**
+     * Samples the current states and, for the rolling windows, rebases the offsets so
+     * that the states show the residency recorded by {@link TimeInStateService} in the
+     * window. Called on the sampler thread.
+     *
+     * @return whether a window period has recorded data.
+     */
+    private boolean updateStates(int periodType) {
         try {
-            monitor.setOffsets();
-        } catch (Exception e) {
-            // not good
+            monitor.updateStates();
+        } catch (CPUStateMonitorException e) {
+        }
+        if (!isWindowPeriod(periodType)) {
+            return false;
         }
-        saveOffsets();
-        if (mPeriodType == 1) {
+        TimeInStateRecorder.Window window = null;
+        try {
+            window = TimeInStateRecorder.getInstance(mContext)
+                    .getWindow(getWindowDuration(periodType));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read recorded time in state", e);
+        }
+        if (window != null) {
+            monitor.applyWindow(window.frequencies, window.times, window.deepSleep);
+        } else {
             monitor.removeOffsets();
         }
-        refreshData();
+        return window != null;
     }
 
     public void updateView() {
@@ -247,10 +515,11 @@ public class TimeInState extends SettingsPreferenceFragment {
             return;
         }
 
-        StringBuffer data = new StringBuffer();
-        mStatesView.removeAllViews();
+        StringBuilder data = mShareData;
+        data.setLength(0);
+        mRowCount = 0;
 
-        if (monitor.getStates(0).size() == 0) {
+        if (mShownStates.getStates(0).size() == 0) {
             mStatesWarning.setVisibility(View.VISIBLE);
             mTotalStateTime.setText(getResources().getString(R.string.total_time)
                     + " " + toString(0));
@@ -262,24 +531,31 @@ public class TimeInState extends SettingsPreferenceFragment {
                 mTotalStateTime.setText(getResources().getString(R.string.total_time)
                         + " " + toString(0));
                 mStatesView.setVisibility(View.VISIBLE);
+            } else if (isWindowPeriod(mPeriodType) && !mHasWindowData) {
+                mStatesWarning.setVisibility(View.VISIBLE);
+                mStatesWarning.setText(getResources().getString(
+                        R.string.no_stat_because_not_recording));
+                mTotalStateTime.setText(getResources().getString(R.string.total_time)
+                        + " " + toString(0));
+                mStatesView.setVisibility(View.GONE);
             } else {
                 mStatesWarning.setVisibility(View.GONE);
                 mStatesView.setVisibility(View.VISIBLE);
                 long totTime = getStateTime(mActiveStateMode);
-                data.append(totTime + "\n");
+                data.append(totTime).append('\n');
                 totTime = totTime / 1000;
                 if (!mActiveStateMode) {
-                    CpuState deepSleepState = monitor.getDeepSleepState();
+                    CpuState deepSleepState = mShownStates.getDeepSleepState();
                     if (deepSleepState != null) {
                         generateStateRowHeader(deepSleepState, mStatesView);
                         generateStateRow(deepSleepState, mStatesView);
-                        data.append(deepSleepState.freq + " "
-                                + deepSleepState.getDuration() + "\n");
+                        data.append(deepSleepState.freq).append(' ')
+                                .append(deepSleepState.getDuration()).append('\n');
                     }
                 }
                 if (mActiveCoreMode) {
                     int cpu = 0;
-                    for (int freq : monitor.getFrequencies()) {
+                    for (int freq : mShownStates.getFrequencies()) {
                         boolean headerCreated = false;
                         for (cpu = 0; cpu < mCpuNum; cpu++) {
                             if (mShowCpus != null) {
@@ -287,7 +563,7 @@ public class TimeInState extends SettingsPreferenceFragment {
                                     continue;
                                 }
                             }
-                            CpuState state = monitor.getFreqState(cpu, freq);
+                            CpuState state = mShownStates.getFreqState(cpu, freq);
                             if (state == null) {
                                 continue;
                             }
@@ -296,18 +572,19 @@ public class TimeInState extends SettingsPreferenceFragment {
                                 headerCreated = true;
                             }
                             generateStateRow(state, mStatesView);
-                            data.append(state.mCpu + " " + state.freq + " "
-                                    + state.getDuration() + "\n");
+                            data.append(state.mCpu).append(' ').append(state.freq)
+                                    .append(' ').append(state.getDuration()).append('\n');
                         }
                     }
                 } else {
-                    for (CpuState state : monitor.getStates(0)) {
+                    for (CpuState state : mShownStates.getStates(0)) {
                         if (state.freq == 0) {
                             continue;
                         }
                         generateStateRowHeader(state, mStatesView);
                         generateStateRow(state, mStatesView);
-                        data.append(state.freq + " " + state.getDuration() + "\n");
+                        data.append(state.freq).append(' ').append(state.getDuration())
+                                .append('\n');
                     }
                 }
 
@@ -315,12 +592,21 @@ public class TimeInState extends SettingsPreferenceFragment {
                         + " " + toString(totTime));
             }
         }
-        updateShareIntent(data.toString());
+        // drop rows left over from a previous, larger table
+        if (mStatesView.getChildCount() > mRowCount) {
+            mStatesView.removeViews(mRowCount, mStatesView.getChildCount() - mRowCount);
+        }
     }
 
     public void refreshData() {
-        if (!mUpdatingData) {
-            new RefreshStateDataTask().execute((Void) null);
+        if (mLiveMode) {
+            if (mResumed) {
+                startLiveUpdates();
+            }
+        } else if (!mUpdatingData) {
+            mProgress.setVisibility(View.VISIBLE);
+            mUpdatingData = true;
+            requestSample();
         }
     }
 
@@ -340,10 +626,28 @@ public class TimeInState extends SettingsPreferenceFragment {
         return sDur;
     }
 
-    private View generateStateRow(CpuState state, ViewGroup parent) {
+    /**
+     * Returns the row at the current position if it was inflated from {@code layout},
+     * so that repeated updates rebind the existing rows instead of inflating new ones.
+     */
+    private LinearLayout obtainRow(ViewGroup parent, int layout) {
+        final int index = mRowCount++;
+        if (index < parent.getChildCount()) {
+            View child = parent.getChildAt(index);
+            if (child.getTag() instanceof Integer && (Integer) child.getTag() == layout) {
+                return (LinearLayout) child;
+            }
+            parent.removeViewAt(index);
+        }
         LayoutInflater inflater = LayoutInflater.from(mContext);
-        LinearLayout view = (LinearLayout) inflater.inflate(
-                R.layout.state_row_line, parent, false);
+        LinearLayout view = (LinearLayout) inflater.inflate(layout, parent, false);
+        view.setTag(layout);
+        parent.addView(view, index);
+        return view;
+    }
+
+    private View generateStateRow(CpuState state, ViewGroup parent) {
+        LinearLayout view = obtainRow(parent, R.layout.state_row_line);
 
         float per = 0f;
         String sPer = "";
@@ -380,15 +684,11 @@ public class TimeInState extends SettingsPreferenceFragment {
         perText.setText(sPer);
         durText.setText(sDur);
         bar.setProgress((int) per);
-
-        parent.addView(view);
         return view;
     }
 
     private View generateStateRowHeader(CpuState state, ViewGroup parent) {
-        LayoutInflater inflater = LayoutInflater.from(mContext);
-        LinearLayout view = (LinearLayout) inflater.inflate(
-                R.layout.state_row_header, parent, false);
+        LinearLayout view = obtainRow(parent, R.layout.state_row_header);
 
         String sFreq;
         if (state.freq == 0) {
@@ -399,35 +699,43 @@ public class TimeInState extends SettingsPreferenceFragment {
 
         TextView freqText = (TextView) view.findViewById(R.id.ui_freq_text);
         freqText.setText(sFreq);
-
-        parent.addView(view);
         return view;
     }
 
-    protected class RefreshStateDataTask extends AsyncTask<Void, Void, Void> {
+    protected class ExportCsvTask extends AsyncTask<Void, Void, Uri> {
         @Override
-        protected Void doInBackground(Void... v) {
+        protected Uri doInBackground(Void... v) {
+            StringBuilder csv = new StringBuilder();
+            File file = new File(mContext.getCacheDir(), CSV_FILE_NAME);
             try {
-                monitor.updateStates();
-            } catch (CPUStateMonitorException e) {
+                TimeInStateRecorder.getInstance(mContext).writeCsv(csv);
+                FileWriter writer = new FileWriter(file);
+                try {
+                    writer.write(csv.toString());
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to export time in state", e);
+                return null;
             }
-            return null;
+            return FileProvider.getUriForFile(mContext,
+                    RestrictedProfileSettings.FILE_PROVIDER_AUTHORITY, file);
         }
 
         @Override
-        protected void onPreExecute() {
-            mProgress.setVisibility(View.VISIBLE);
-            mUpdatingData = true;
-        }
-
-        @Override
-        protected void onPostExecute(Void v) {
-            try {
-                mProgress.setVisibility(View.GONE);
-                mUpdatingData = false;
-                updateView();
-            } catch(Exception e) {
+        protected void onPostExecute(Uri uri) {
+            if (uri == null || getActivity() == null) {
+                return;
             }
+            Intent shareIntent = new Intent();
+            shareIntent.setAction(Intent.ACTION_SEND);
+            shareIntent.setType("text/csv");
+            shareIntent.putExtra(Intent.EXTRA_STREAM, uri);
+            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            Intent intent = Intent.createChooser(shareIntent, null);
+            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            mContext.startActivity(intent);
         }
     }
 
@@ -499,9 +807,9 @@ public class TimeInState extends SettingsPreferenceFragment {
     }
 
     private long getStateTime(boolean activeMode) {
-        long total = monitor.getTotalStateTime(0, true);
+        long total = mShownStates.getTotalStateTime(0, true);
         if (activeMode) {
-            CpuState deepSleepState = monitor.getDeepSleepState();
+            CpuState deepSleepState = mShownStates.getDeepSleepState();
             return total - deepSleepState.getDuration();
         }
         return total;
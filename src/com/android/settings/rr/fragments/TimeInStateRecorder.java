@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2019 The Resurrection Remix Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.android.settings.rr.fragments;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Fixed-size on-disk ring of time_in_state deltas.
+ *
+ * The file starts with a header holding the cpu count, the boot count and the frequency table,
+ * followed by {@link #CAPACITY} records of
+ * {@code elapsedRealtime, deep sleep delta, delta[cpu][slot]}. Records of another boot are
+ * discarded and the ring is reset whenever the frequency table or the boot count changes, so
+ * all records always share the header's layout and the current boot's clock.
+ */
+public class TimeInStateRecorder {
+    private static final String TAG = "TimeInStateRecorder";
+
+    private static final String FILE_NAME = "time_in_state.ring";
+    private static final int MAGIC = 0x54495352; // TISR
+    @VisibleForTesting
+    static final int VERSION = 2;
+    @VisibleForTesting
+    static final int CAPACITY = 2048;
+    // magic, version, cpus, slots, capacity, boot count, head, count
+    private static final int HEADER_FIELDS_SIZE = 8 * 4;
+    private static final int HEAD_OFFSET = 6 * 4;
+
+    private static TimeInStateRecorder sInstance;
+
+    /** Residency summed over the records of a time window. */
+    public static class Window {
+        public int[] frequencies;
+        public long[][] times;
+        public long deepSleep;
+        public long span;
+        public int records;
+    }
+
+    private final File mFile;
+    private final int mBootCount;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private ByteBuffer mRecord;
+    private int mCpuNum;
+    private int[] mFrequencies;
+    private int mRingBootCount;
+    private int mHead;
+    private int mCount;
+    private long mLastTime;
+
+    public static synchronized TimeInStateRecorder getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new TimeInStateRecorder(new File(appContext.getFilesDir(), FILE_NAME),
+                    Settings.Global.getInt(appContext.getContentResolver(),
+                            Settings.Global.BOOT_COUNT, 0));
+        }
+        return sInstance;
+    }
+
+    TimeInStateRecorder(File file, int bootCount) {
+        mFile = file;
+        mBootCount = bootCount;
+    }
+
+    /**
+     * Appends the deltas of the last sample. Samples without a previous one to compare to
+     * are skipped.
+     */
+    public synchronized void append(TimeInStateSampler sampler, long deepSleepDelta)
+            throws IOException {
+        if (sampler.getInterval() <= 0) {
+            return;
+        }
+        final int slots = sampler.getFrequencyCount();
+        if (!matches(sampler)) {
+            final int[] frequencies = new int[slots];
+            for (int slot = 0; slot < slots; slot++) {
+                frequencies[slot] = sampler.getFrequency(slot);
+            }
+            reset(sampler.getCpuCount(), frequencies);
+        }
+        final long now = sampler.getSampleTime();
+        if (now < mLastTime) {
+            // elapsedRealtime went backwards although the boot count did not change
+            mHead = 0;
+            mCount = 0;
+        }
+
+        mRecord.clear();
+        mRecord.putLong(now);
+        mRecord.putInt(clamp(deepSleepDelta));
+        for (int cpu = 0; cpu < mCpuNum; cpu++) {
+            for (int slot = 0; slot < slots; slot++) {
+                mRecord.putInt(clamp(sampler.getDelta(cpu, slot)));
+            }
+        }
+        mRecord.flip();
+        mChannel.write(mRecord, recordPosition(mHead));
+
+        mHead = (mHead + 1) % CAPACITY;
+        mCount = Math.min(mCount + 1, CAPACITY);
+        mLastTime = now;
+        writeHead();
+    }
+
+    /**
+     * Sums the records of the last {@code duration} msecs. Returns {@code null} if nothing
+     * has been recorded during this boot.
+     */
+    public synchronized Window getWindow(long duration) throws IOException {
+        if (!open() || !isCurrentBoot() || mCount == 0) {
+            return null;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        if (mLastTime > now) {
+            return null;
+        }
+        final int slots = mFrequencies.length;
+        final Window window = new Window();
+        window.frequencies = mFrequencies.clone();
+        window.times = new long[mCpuNum][slots];
+        long oldest = now;
+        for (int i = 1; i <= mCount; i++) {
+            readRecord((mHead - i + CAPACITY) % CAPACITY);
+            final long time = mRecord.getLong();
+            if (time < now - duration) {
+                break;
+            }
+            oldest = time;
+            window.deepSleep += mRecord.getInt();
+            for (int cpu = 0; cpu < mCpuNum; cpu++) {
+                for (int slot = 0; slot < slots; slot++) {
+                    window.times[cpu][slot] += mRecord.getInt();
+                }
+            }
+            window.records++;
+        }
+        window.span = now - oldest;
+        return window.records > 0 ? window : null;
+    }
+
+    /**
+     * Writes all records of this boot as CSV, oldest first, one row per record with a
+     * column per cpu and frequency.
+     */
+    public synchronized void writeCsv(StringBuilder out) throws IOException {
+        out.append("elapsed_ms,deep_sleep_ms");
+        if (!open()) {
+            out.append('\n');
+            return;
+        }
+        final int slots = mFrequencies.length;
+        for (int cpu = 0; cpu < mCpuNum; cpu++) {
+            for (int slot = 0; slot < slots; slot++) {
+                out.append(",cpu").append(cpu).append('_').append(mFrequencies[slot]);
+            }
+        }
+        out.append('\n');
+        if (!isCurrentBoot() || mLastTime > SystemClock.elapsedRealtime()) {
+            return;
+        }
+        for (int i = mCount; i > 0; i--) {
+            readRecord((mHead - i + CAPACITY) % CAPACITY);
+            out.append(mRecord.getLong()).append(',').append(mRecord.getInt());
+            for (int j = mCpuNum * slots; j > 0; j--) {
+                out.append(',').append(mRecord.getInt());
+            }
+            out.append('\n');
+        }
+    }
+
+    public synchronized void close() {
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        mRaf = null;
+        mChannel = null;
+        mFrequencies = null;
+    }
+
+    private boolean matches(TimeInStateSampler sampler) throws IOException {
+        if (!open() || !isCurrentBoot() || mCpuNum != sampler.getCpuCount()
+                || mFrequencies.length != sampler.getFrequencyCount()) {
+            return false;
+        }
+        for (int slot = 0; slot < mFrequencies.length; slot++) {
+            if (mFrequencies[slot] != sampler.getFrequency(slot)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isCurrentBoot() {
+        return mRingBootCount == mBootCount;
+    }
+
+    /** Opens the ring and loads its header, returns false if there is no valid ring yet. */
+    private boolean open() throws IOException {
+        if (mFrequencies != null) {
+            return true;
+        }
+        if (!mFile.exists()) {
+            return false;
+        }
+        ensureChannel();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_FIELDS_SIZE);
+        if (mChannel.read(header, 0) != HEADER_FIELDS_SIZE) {
+            return false;
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            Log.w(TAG, "Discarding incompatible ring " + mFile);
+            return false;
+        }
+        final int cpuNum = header.getInt();
+        final int slots = header.getInt();
+        if (header.getInt() != CAPACITY || cpuNum <= 0 || slots <= 0) {
+            return false;
+        }
+        final int bootCount = header.getInt();
+        final int head = header.getInt();
+        final int count = header.getInt();
+        final ByteBuffer table = ByteBuffer.allocate(slots * 4);
+        mChannel.read(table, HEADER_FIELDS_SIZE);
+        table.flip();
+        final int[] frequencies = new int[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            frequencies[slot] = table.getInt();
+        }
+
+        mCpuNum = cpuNum;
+        mFrequencies = frequencies;
+        mRingBootCount = bootCount;
+        mHead = head;
+        mCount = count;
+        mRecord = ByteBuffer.allocate(recordSize());
+        mLastTime = 0;
+        if (mCount > 0) {
+            readRecord((mHead - 1 + CAPACITY) % CAPACITY);
+            mLastTime = mRecord.getLong();
+        }
+        return true;
+    }
+
+    private void reset(int cpuNum, int[] frequencies) throws IOException {
+        ensureChannel();
+        mCpuNum = cpuNum;
+        mFrequencies = frequencies;
+        mRingBootCount = mBootCount;
+        mHead = 0;
+        mCount = 0;
+        mLastTime = 0;
+        mRecord = ByteBuffer.allocate(recordSize());
+        mRaf.setLength(recordPosition(CAPACITY));
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_FIELDS_SIZE
+                + frequencies.length * 4);
+        header.putInt(MAGIC).putInt(VERSION).putInt(cpuNum).putInt(frequencies.length)
+                .putInt(CAPACITY).putInt(mRingBootCount).putInt(mHead).putInt(mCount);
+        for (int freq : frequencies) {
+            header.putInt(freq);
+        }
+        header.flip();
+        mChannel.write(header, 0);
+        Log.d(TAG, "Reset ring for " + cpuNum + " cpus, " + Arrays.toString(frequencies));
+    }
+
+    private void ensureChannel() throws IOException {
+        if (mRaf == null) {
+            mRaf = new RandomAccessFile(mFile, "rw");
+            mChannel = mRaf.getChannel();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        final ByteBuffer head = ByteBuffer.allocate(8);
+        head.putInt(mHead).putInt(mCount).flip();
+        mChannel.write(head, HEAD_OFFSET);
+    }
+
+    private void readRecord(int index) throws IOException {
+        mRecord.clear();
+        mChannel.read(mRecord, recordPosition(index));
+        mRecord.flip();
+    }
+
+    private int recordSize() {
+        return 8 + 4 + 4 * mCpuNum * mFrequencies.length;
+    }
+
+    private long recordPosition(int index) {
+        return HEADER_FIELDS_SIZE + mFrequencies.length * 4 + (long) index * recordSize();
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.max(0, Math.min(value, Integer.MAX_VALUE));
+    }
+}
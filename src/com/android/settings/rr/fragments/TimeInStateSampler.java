@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2019 The Resurrection Remix Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.android.settings.rr.fragments;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Samples cpufreq time_in_state tables into primitive columns.
+ *
+ * Each sysfs file is opened once and re-read with pread into a shared byte buffer, and the
+ * "freq time" pairs are parsed in place. Times are kept in {@code long[cpu][slot]} where a slot
+ * is the index of the frequency in the sorted union of all frequencies seen so far, so a steady
+ * state sample does not allocate.
+ */
+public class TimeInStateSampler {
+
+    public interface Callback {
+        /**
+         * Called on the sampling handler after each periodic sample. Deltas are relative to the
+         * previous sample.
+         */
+        void onSample(TimeInStateSampler sampler);
+    }
+
+    private static final int INITIAL_SLOTS = 32;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final int mCpuNum;
+    private final boolean mOverallStats;
+    private final boolean mStatsInMsecs;
+    private final boolean[] mSampleCpu;
+    private final FileDescriptor[] mFds;
+
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private int[] mFrequencies = new int[INITIAL_SLOTS];
+    private int mSlotCount;
+    private long[][] mTimes;
+    private long[][] mLastTimes;
+    private long[][] mDeltas;
+    private boolean[][] mHasSlot;
+    private int mGeneration;
+    private boolean mHasPrevious;
+    private long mSampleTime;
+    private long mInterval;
+
+    private Handler mHandler;
+    private Callback mCallback;
+    private long mPeriod;
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                sample();
+            } catch (IOException e) {
+                // Keep the previous values, the next period will try again.
+            }
+            final Callback callback = mCallback;
+            if (callback != null) {
+                callback.onSample(TimeInStateSampler.this);
+            }
+            if (mHandler != null && mPeriod > 0) {
+                mHandler.postDelayed(this, mPeriod);
+            }
+        }
+    };
+
+    /**
+     * @param cpuNum number of cpus to track
+     * @param showCpus cpus to sample when per-cpu files are used, or {@code null} for all
+     * @param overallStats whether to read {@link CPUStateMonitor#TIME_IN_STATE_OVERALL_PATH}
+     * @param statsInMsecs whether the kernel reports times in msecs instead of 10 msec units
+     */
+    public TimeInStateSampler(int cpuNum, int[] showCpus, boolean overallStats,
+            boolean statsInMsecs) {
+        mCpuNum = cpuNum;
+        mOverallStats = overallStats;
+        mStatsInMsecs = statsInMsecs;
+        mSampleCpu = new boolean[cpuNum];
+        for (int cpu = 0; cpu < cpuNum; cpu++) {
+            mSampleCpu[cpu] = showCpus == null || contains(showCpus, cpu);
+        }
+        mFds = new FileDescriptor[overallStats ? 1 : cpuNum];
+        mTimes = new long[cpuNum][INITIAL_SLOTS];
+        mLastTimes = new long[cpuNum][INITIAL_SLOTS];
+        mDeltas = new long[cpuNum][INITIAL_SLOTS];
+        mHasSlot = new boolean[cpuNum][INITIAL_SLOTS];
+    }
+
+    /** Reads all tracked time_in_state files once. */
+    public synchronized void sample() throws IOException {
+        for (int cpu = 0; cpu < mCpuNum; cpu++) {
+            Arrays.fill(mHasSlot[cpu], 0, mSlotCount, false);
+        }
+        if (mOverallStats) {
+            parse(read(0, CPUStateMonitor.TIME_IN_STATE_OVERALL_PATH), -1);
+        } else {
+            for (int cpu = 0; cpu < mCpuNum; cpu++) {
+                if (mSampleCpu[cpu]) {
+                    parse(read(cpu, getCpuFreqPathFor(cpu)), cpu);
+                }
+            }
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        mInterval = mHasPrevious ? now - mSampleTime : 0;
+        mSampleTime = now;
+        for (int cpu = 0; cpu < mCpuNum; cpu++) {
+            final long[] times = mTimes[cpu];
+            final long[] last = mLastTimes[cpu];
+            final long[] deltas = mDeltas[cpu];
+            for (int slot = 0; slot < mSlotCount; slot++) {
+                deltas[slot] = mHasPrevious ? Math.max(times[slot] - last[slot], 0) : 0;
+                last[slot] = times[slot];
+            }
+        }
+        mHasPrevious = true;
+    }
+
+    /**
+     * Samples every {@code period} msecs on {@code handler} until {@link #stopSampling()}.
+     */
+    public synchronized void startSampling(Handler handler, long period, Callback callback) {
+        stopSampling();
+        mHandler = handler;
+        mPeriod = period;
+        mCallback = callback;
+        mHandler.post(mSampleRunnable);
+    }
+
+    public synchronized void stopSampling() {
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mSampleRunnable);
+        }
+        mHandler = null;
+        mCallback = null;
+        mPeriod = 0;
+    }
+
+    /** Stops sampling and closes all cached file descriptors. */
+    public synchronized void close() {
+        stopSampling();
+        for (int i = 0; i < mFds.length; i++) {
+            closeQuietly(mFds[i]);
+            mFds[i] = null;
+        }
+    }
+
+    public int getCpuCount() {
+        return mCpuNum;
+    }
+
+    public int getFrequencyCount() {
+        return mSlotCount;
+    }
+
+    public int getFrequency(int slot) {
+        return mFrequencies[slot];
+    }
+
+    /** Incremented every time a new frequency slot is inserted. */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public boolean hasState(int cpu, int slot) {
+        return mHasSlot[cpu][slot];
+    }
+
+    /** Total residency in msecs as reported by the kernel. */
+    public long getTime(int cpu, int slot) {
+        return mTimes[cpu][slot];
+    }
+
+    /** Residency in msecs gained since the previous sample. */
+    public long getDelta(int cpu, int slot) {
+        return mDeltas[cpu][slot];
+    }
+
+    /** {@link SystemClock#elapsedRealtime()} of the last sample. */
+    public long getSampleTime() {
+        return mSampleTime;
+    }
+
+    /** Wall time in msecs between the last two samples, 0 after the first one. */
+    public long getInterval() {
+        return mInterval;
+    }
+
+    private int read(int index, String path) throws IOException {
+        try {
+            FileDescriptor fd = mFds[index];
+            if (fd == null) {
+                fd = Os.open(path, OsConstants.O_RDONLY, 0);
+                mFds[index] = fd;
+            }
+            int length = 0;
+            while (true) {
+                if (length == mBuffer.length) {
+                    mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+                }
+                final int read = Os.pread(fd, mBuffer, length, mBuffer.length - length, length);
+                if (read <= 0) {
+                    break;
+                }
+                length += read;
+            }
+            return length;
+        } catch (ErrnoException e) {
+            closeQuietly(mFds[index]);
+            mFds[index] = null;
+            throw new IOException("Problem reading " + path, e);
+        }
+    }
+
+    /**
+     * Parses "freq time" lines from {@link #mBuffer}. A {@code cpu} of -1 means the overall stats
+     * layout where the tables of all cpus are concatenated and a new cpu starts whenever the first
+     * frequency repeats.
+     */
+    private void parse(int length, int cpu) {
+        final byte[] buf = mBuffer;
+        final boolean overall = cpu < 0;
+        int currentCpu = overall ? 0 : cpu;
+        int firstFreq = 0;
+        int pos = 0;
+        while (pos < length) {
+            long freq = 0;
+            boolean hasFreq = false;
+            while (pos < length && isDigit(buf[pos])) {
+                freq = freq * 10 + (buf[pos++] - '0');
+                hasFreq = true;
+            }
+            while (pos < length && buf[pos] == ' ') {
+                pos++;
+            }
+            long time = 0;
+            boolean hasTime = false;
+            while (pos < length && isDigit(buf[pos])) {
+                time = time * 10 + (buf[pos++] - '0');
+                hasTime = true;
+            }
+            while (pos < length && buf[pos] != '\n') {
+                pos++;
+            }
+            pos++;
+            if (!hasFreq || !hasTime) {
+                continue;
+            }
+
+            if (overall) {
+                if (firstFreq == 0) {
+                    firstFreq = (int) freq;
+                } else if (freq == firstFreq) {
+                    currentCpu++;
+                }
+                if (currentCpu >= mCpuNum) {
+                    return;
+                }
+            }
+            final int slot = getOrInsertSlot((int) freq);
+            mTimes[currentCpu][slot] = mStatsInMsecs ? time : time * 10;
+            mHasSlot[currentCpu][slot] = true;
+        }
+    }
+
+    private int getOrInsertSlot(int freq) {
+        int slot = Arrays.binarySearch(mFrequencies, 0, mSlotCount, freq);
+        if (slot >= 0) {
+            return slot;
+        }
+        slot = -slot - 1;
+        if (mSlotCount == mFrequencies.length) {
+            final int capacity = mFrequencies.length * 2;
+            mFrequencies = Arrays.copyOf(mFrequencies, capacity);
+            for (int cpu = 0; cpu < mCpuNum; cpu++) {
+                mTimes[cpu] = Arrays.copyOf(mTimes[cpu], capacity);
+                mLastTimes[cpu] = Arrays.copyOf(mLastTimes[cpu], capacity);
+                mDeltas[cpu] = Arrays.copyOf(mDeltas[cpu], capacity);
+                mHasSlot[cpu] = Arrays.copyOf(mHasSlot[cpu], capacity);
+            }
+        }
+        final int tail = mSlotCount - slot;
+        System.arraycopy(mFrequencies, slot, mFrequencies, slot + 1, tail);
+        mFrequencies[slot] = freq;
+        for (int cpu = 0; cpu < mCpuNum; cpu++) {
+            shift(mTimes[cpu], slot, tail);
+            shift(mLastTimes[cpu], slot, tail);
+            shift(mDeltas[cpu], slot, tail);
+            System.arraycopy(mHasSlot[cpu], slot, mHasSlot[cpu], slot + 1, tail);
+            mHasSlot[cpu][slot] = false;
+        }
+        mSlotCount++;
+        mGeneration++;
+        return slot;
+    }
+
+    private static void shift(long[] column, int slot, int tail) {
+        System.arraycopy(column, slot, column, slot + 1, tail);
+        column[slot] = 0;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void closeQuietly(FileDescriptor fd) {
+        if (fd == null) {
+            return;
+        }
+        try {
+            Os.close(fd);
+        } catch (ErrnoException e) {
+            // ignore
+        }
+    }
+
+    static String getCpuFreqPathFor(int cpu) {
+        return CPUStateMonitor.TIME_IN_STATE_PATH.replace("cpu0", "cpu" + cpu);
+    }
+}
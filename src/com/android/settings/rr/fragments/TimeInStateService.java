@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Resurrection Remix Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.android.settings.rr.fragments;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.settings.R;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Samples time_in_state in the background and appends the per-interval deltas to the
+ * {@link TimeInStateRecorder} ring, so {@link TimeInState} can show rolling windows.
+ */
+public class TimeInStateService extends Service implements TimeInStateSampler.Callback {
+    private static final String TAG = "TimeInStateService";
+
+    public static final String PREF_RECORD = "pref_record";
+    public static final String PREF_RECORD_INTERVAL = "pref_record_interval";
+    public static final int DEFAULT_RECORD_INTERVAL = 15;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private TimeInStateSampler mSampler;
+    private TimeInStateRecorder mRecorder;
+    private long mLastSleepTime;
+
+    /** Starts or stops recording according to the stored preference. */
+    public static void update(Context context) {
+        final Intent intent = new Intent(context, TimeInStateService.class);
+        if (isRecording(context)) {
+            context.startService(intent);
+        } else {
+            context.stopService(intent);
+        }
+    }
+
+    public static boolean isRecording(Context context) {
+        return TimeInState.getPrefs(context).getBoolean(PREF_RECORD, false);
+    }
+
+    /** Sampling interval in seconds. */
+    public static int getInterval(Context context) {
+        return TimeInState.getPrefs(context).getInt(PREF_RECORD_INTERVAL,
+                DEFAULT_RECORD_INTERVAL);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        final List<Integer> showCpus = TimeInState.getShowCpus(this);
+        final int[] cpus = new int[showCpus.size()];
+        for (int i = 0; i < cpus.length; i++) {
+            cpus[i] = showCpus.get(i);
+        }
+        mSampler = new TimeInStateSampler(Helpers.getNumOfCpus(), cpus,
+                Helpers.hasOverallStats(),
+                getResources().getBoolean(R.bool.config_cpufreq_msecs));
+        mRecorder = TimeInStateRecorder.getInstance(this);
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (!isRecording(this)) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        mLastSleepTime = getSleepTime();
+        mSampler.startSampling(mHandler, getInterval(this) * 1000L, this);
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mSampler.stopSampling();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSampler.close();
+            }
+        });
+        mThread.quitSafely();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onSample(TimeInStateSampler sampler) {
+        final long sleepTime = getSleepTime();
+        try {
+            mRecorder.append(sampler, sleepTime - mLastSleepTime);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to record time in state", e);
+        }
+        mLastSleepTime = sleepTime;
+    }
+
+    private static long getSleepTime() {
+        return Math.max(SystemClock.elapsedRealtime() - SystemClock.uptimeMillis(), 0);
+    }
+
+    /** Resumes recording after a reboot. */
+    public static class BootReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())
+                    && isRecording(context)) {
+                update(context);
+            }
+        }
+    }
+}
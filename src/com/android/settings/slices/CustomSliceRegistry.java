@@ -397,7 +397,11 @@ public class CustomSliceRegistry {
     }
 
     public static Uri removeParameterFromUri(Uri uri) {
-        return uri != null ? uri.buildUpon().clearQuery().build() : null;
+        if (uri == null || uri.getEncodedQuery() == null) {
+            // Nothing to remove, avoid building a new Uri on every lookup.
+            return uri;
+        }
+        return uri.buildUpon().clearQuery().build();
     }
 
     /**
@@ -24,6 +24,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.StrictMode;
 import android.provider.Settings;
@@ -34,6 +35,7 @@ import android.util.KeyValueListParser;
 import android.util.Log;
 import android.util.Pair;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -57,7 +59,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 
 /**
  * A {@link SliceProvider} for Settings to enabled inline results in system apps.
@@ -75,6 +76,10 @@ import java.util.WeakHashMap;
  * The {@link Slice} displayed by the Slice-presenter will re-query this Slice-provider and find
  * the {@link SliceData} cached to build the full {@link Slice}.
  *
+ * <p>{@link #mSliceDataCache} is a bounded LRU of {@link SliceData}, so later binds of the same
+ * {@link Uri} are served synchronously. The controller is built again for every bind. The most
+ * frequently loaded slices are put in the cache as soon as the provider is created.
+ *
  * <p>When an action is taken on that {@link Slice}, we receive the action in
  * {@link SliceBroadcastReceiver}, and use the
  * {@link com.android.settings.core.BasePreferenceController} indexed as
@@ -121,14 +126,63 @@ public class SettingsSliceProvider extends SliceProvider {
 
     private static final KeyValueListParser KEY_VALUE_LIST_PARSER = new KeyValueListParser(',');
 
+    /**
+     * Builds the {@link Slice} for a special case {@link Uri} that is neither a
+     * {@link CustomSliceable} nor backed by the Slices database.
+     */
+    private interface SliceBinder {
+        Slice bindSlice(Context context, Uri sliceUri);
+    }
+
+    private static final Map<Uri, SliceBinder> SPECIAL_CASE_BINDERS = new ArrayMap<>();
+
+    static {
+        SPECIAL_CASE_BINDERS.put(CustomSliceRegistry.WIFI_CALLING_URI,
+                (context, uri) -> FeatureFactory.getFactory(context)
+                        .getSlicesFeatureProvider()
+                        .getNewWifiCallingSliceHelper(context)
+                        .createWifiCallingSlice(uri));
+        SPECIAL_CASE_BINDERS.put(CustomSliceRegistry.ZEN_MODE_SLICE_URI,
+                (context, uri) -> ZenModeSliceBuilder.getSlice(context));
+        SPECIAL_CASE_BINDERS.put(CustomSliceRegistry.BLUETOOTH_URI,
+                (context, uri) -> BluetoothSliceBuilder.getSlice(context));
+        SPECIAL_CASE_BINDERS.put(CustomSliceRegistry.ENHANCED_4G_SLICE_URI,
+                (context, uri) -> FeatureFactory.getFactory(context)
+                        .getSlicesFeatureProvider()
+                        .getNewEnhanced4gLteSliceHelper(context)
+                        .createEnhanced4gLteSlice(uri));
+        SPECIAL_CASE_BINDERS.put(CustomSliceRegistry.WIFI_CALLING_PREFERENCE_URI,
+                (context, uri) -> FeatureFactory.getFactory(context)
+                        .getSlicesFeatureProvider()
+                        .getNewWifiCallingSliceHelper(context)
+                        .createWifiCallingPreferenceSlice(uri));
+    }
+
     @VisibleForTesting
     SlicesDatabaseAccessor mSlicesDatabaseAccessor;
 
     @VisibleForTesting
-    Map<Uri, SliceData> mSliceWeakDataCache;
+    SliceDataCache mSliceDataCache;
 
     final Map<Uri, SliceBackgroundWorker> mPinnedWorkers = new ArrayMap<>();
 
+    private final Object mBlockedKeysLock = new Object();
+
+    /**
+     * Parsed value of {@link Settings.Global#BLOCKED_SLICES}, {@code null} until read or after the
+     * setting changed.
+     */
+    private volatile Set<String> mBlockedKeys;
+
+    /**
+     * Bumped whenever the setting changes, so a set parsed before the change is not published.
+     */
+    @GuardedBy("mBlockedKeysLock")
+    private int mBlockedKeysGeneration;
+
+    @GuardedBy("mBlockedKeysLock")
+    private ContentObserver mBlockedKeysObserver;
+
     public SettingsSliceProvider() {
         super(READ_SEARCH_INDEXABLES);
     }
@@ -136,7 +190,23 @@ public class SettingsSliceProvider extends SliceProvider {
     @Override
     public boolean onCreateSliceProvider() {
         mSlicesDatabaseAccessor = new SlicesDatabaseAccessor(getContext());
-        mSliceWeakDataCache = new WeakHashMap<>();
+        mSliceDataCache = new SliceDataCache();
+        final ContentObserver blockedKeysObserver = new ContentObserver(null /* handler */) {
+            @Override
+            public void onChange(boolean selfChange) {
+                synchronized (mBlockedKeysLock) {
+                    mBlockedKeysGeneration++;
+                    mBlockedKeys = null;
+                }
+            }
+        };
+        synchronized (mBlockedKeysLock) {
+            mBlockedKeysObserver = blockedKeysObserver;
+        }
+        getContext().getContentResolver().registerContentObserver(
+                Settings.Global.getUriFor(Settings.Global.BLOCKED_SLICES),
+                false /* notifyForDescendants */, blockedKeysObserver);
+        ThreadUtils.postOnBackgroundThread(this::warmUpCache);
         return true;
     }
 
@@ -197,37 +267,17 @@ public class SettingsSliceProvider extends SliceProvider {
                         .getSlice();
             }
 
-            if (CustomSliceRegistry.WIFI_CALLING_URI.equals(sliceUri)) {
-                return FeatureFactory.getFactory(getContext())
-                        .getSlicesFeatureProvider()
-                        .getNewWifiCallingSliceHelper(getContext())
-                        .createWifiCallingSlice(sliceUri);
-            } else if (CustomSliceRegistry.ZEN_MODE_SLICE_URI.equals(sliceUri)) {
-                return ZenModeSliceBuilder.getSlice(getContext());
-            } else if (CustomSliceRegistry.BLUETOOTH_URI.equals(sliceUri)) {
-                return BluetoothSliceBuilder.getSlice(getContext());
-            } else if (CustomSliceRegistry.ENHANCED_4G_SLICE_URI.equals(sliceUri)) {
-                return FeatureFactory.getFactory(getContext())
-                        .getSlicesFeatureProvider()
-                        .getNewEnhanced4gLteSliceHelper(getContext())
-                        .createEnhanced4gLteSlice(sliceUri);
-            } else if (CustomSliceRegistry.WIFI_CALLING_PREFERENCE_URI.equals(sliceUri)) {
-                return FeatureFactory.getFactory(getContext())
-                        .getSlicesFeatureProvider()
-                        .getNewWifiCallingSliceHelper(getContext())
-                        .createWifiCallingPreferenceSlice(sliceUri);
+            final SliceBinder binder = SPECIAL_CASE_BINDERS.get(sliceUri);
+            if (binder != null) {
+                return binder.bindSlice(getContext(), sliceUri);
             }
 
-            SliceData cachedSliceData = mSliceWeakDataCache.get(sliceUri);
+            final SliceData cachedSliceData = mSliceDataCache.get(sliceUri);
             if (cachedSliceData == null) {
                 loadSliceInBackground(sliceUri);
                 return getSliceStub(sliceUri);
             }
 
-            // Remove the SliceData from the cache after it has been used to prevent a memory-leak.
-            if (!getPinnedSlices().contains(sliceUri)) {
-                mSliceWeakDataCache.remove(sliceUri);
-            }
             return SliceBuilderUtils.buildSlice(getContext(), cachedSliceData);
         } finally {
             StrictMode.setThreadPolicy(oldPolicy);
@@ -362,6 +412,16 @@ public class SettingsSliceProvider extends SliceProvider {
 
     @Override
     public void shutdown() {
+        final ContentObserver blockedKeysObserver;
+        synchronized (mBlockedKeysLock) {
+            blockedKeysObserver = mBlockedKeysObserver;
+            mBlockedKeysObserver = null;
+            mBlockedKeysGeneration++;
+            mBlockedKeys = null;
+        }
+        if (blockedKeysObserver != null) {
+            getContext().getContentResolver().unregisterContentObserver(blockedKeysObserver);
+        }
         ThreadUtils.postOnMainThread(() -> {
             SliceBackgroundWorker.shutdown();
         });
@@ -388,16 +448,21 @@ public class SettingsSliceProvider extends SliceProvider {
     void loadSlice(Uri uri) {
         long startBuildTime = System.currentTimeMillis();
 
-        final SliceData sliceData;
-        try {
-            sliceData = mSlicesDatabaseAccessor.getSliceDataFromUri(uri);
-        } catch (IllegalStateException e) {
-            Log.d(TAG, "Could not create slicedata for uri: " + uri, e);
-            return;
+        // A warmed up slice only needs its listeners registered.
+        SliceData sliceData = mSliceDataCache.peek(uri);
+        final boolean isCached = sliceData != null;
+        if (!isCached) {
+            try {
+                sliceData = mSlicesDatabaseAccessor.getSliceDataFromUri(uri);
+            } catch (IllegalStateException e) {
+                Log.d(TAG, "Could not create slicedata for uri: " + uri, e);
+                return;
+            }
+            SliceDataCache.recordLoad(getContext(), uri);
         }
 
-        final BasePreferenceController controller = SliceBuilderUtils.getPreferenceController(
-                getContext(), sliceData);
+        final BasePreferenceController controller =
+                SliceBuilderUtils.getPreferenceController(getContext(), sliceData);
 
         final IntentFilter filter = controller.getIntentFilter();
         if (filter != null) {
@@ -406,11 +471,35 @@ public class SettingsSliceProvider extends SliceProvider {
 
         ThreadUtils.postOnMainThread(() -> startBackgroundWorker(controller, uri));
 
-        mSliceWeakDataCache.put(uri, sliceData);
-        getContext().getContentResolver().notifyChange(uri, null /* content observer */);
+        if (!isCached) {
+            mSliceDataCache.put(uri, sliceData);
+            getContext().getContentResolver().notifyChange(uri, null /* content observer */);
+        }
 
         Log.d(TAG, "Built slice (" + uri + ") in: " +
-                (System.currentTimeMillis() - startBuildTime));
+                (System.currentTimeMillis() - startBuildTime) + ", cache hits: "
+                + mSliceDataCache.getHitCount() + ", misses: " + mSliceDataCache.getMissCount());
+    }
+
+    /**
+     * Loads the {@link SliceData} of the most frequently loaded slices into
+     * {@link #mSliceDataCache}, so their first bind doesn't need a round trip through
+     * {@link #loadSlice(Uri)}.
+     */
+    @VisibleForTesting
+    void warmUpCache() {
+        final Context context = getContext();
+        for (Uri uri : SliceDataCache.getFrequentUris(context, SliceDataCache.WARMUP_SIZE)) {
+            if (mSliceDataCache.contains(uri)) {
+                continue;
+            }
+            try {
+                final SliceData sliceData = mSlicesDatabaseAccessor.getSliceDataFromUri(uri);
+                mSliceDataCache.put(uri, sliceData);
+            } catch (IllegalStateException e) {
+                Log.d(TAG, "Could not warm up slice for uri: " + uri, e);
+            }
+        }
     }
 
     @VisibleForTesting
@@ -460,17 +549,42 @@ public class SettingsSliceProvider extends SliceProvider {
                 intentFilter);
     }
 
+    /**
+     * @return the keys in {@link Settings.Global#BLOCKED_SLICES}. The parsed set is kept until
+     * {@link #mBlockedKeysObserver} sees the setting change, so binds don't read or parse it.
+     */
     @VisibleForTesting
     Set<String> getBlockedKeys() {
+        Set<String> blockedKeys = mBlockedKeys;
+        if (blockedKeys != null) {
+            return blockedKeys;
+        }
+        final int generation;
+        synchronized (mBlockedKeysLock) {
+            generation = mBlockedKeysGeneration;
+        }
+        blockedKeys = Collections.unmodifiableSet(readBlockedKeys());
+        synchronized (mBlockedKeysLock) {
+            // Drop the set if the setting changed while it was read.
+            if (mBlockedKeysObserver != null && generation == mBlockedKeysGeneration) {
+                mBlockedKeys = blockedKeys;
+            }
+        }
+        return blockedKeys;
+    }
+
+    private Set<String> readBlockedKeys() {
         final String value = Settings.Global.getString(getContext().getContentResolver(),
                 Settings.Global.BLOCKED_SLICES);
         final Set<String> set = new ArraySet<>();
 
-        try {
-            KEY_VALUE_LIST_PARSER.setString(value);
-        } catch (IllegalArgumentException e) {
-            Log.e(TAG, "Bad Settings Slices Whitelist flags", e);
-            return set;
+        synchronized (KEY_VALUE_LIST_PARSER) {
+            try {
+                KEY_VALUE_LIST_PARSER.setString(value);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Bad Settings Slices Whitelist flags", e);
+                return set;
+            }
         }
 
         final String[] parsedValues = parseStringArray(value);
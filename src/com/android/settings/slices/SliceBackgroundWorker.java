@@ -20,9 +20,15 @@ import android.annotation.MainThread;
 import android.annotation.Nullable;
 import android.content.Context;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.Log;
 
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -42,6 +48,10 @@ import java.util.Map;
  * changed, and then notifies the Slice {@link Uri} to update.
  *
  * It also stores all instances of all workers to ensure each worker is a Singleton.
+ *
+ * Notifications are coalesced: the first change is sent right away, and further changes within
+ * {@link #getMinNotifyIntervalMillis()} are folded into a single notification at the end of the
+ * interval, so a worker firing many times per second doesn't rebuild the Slice for each event.
  */
 public abstract class SliceBackgroundWorker<E> implements Closeable {
 
@@ -49,10 +59,25 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
     private static final Map<Uri, SliceBackgroundWorker> LIVE_WORKERS = new ArrayMap<>();
 
+    /**
+     * Default minimum time between two notifications of the same Slice {@link Uri}.
+     */
+    @VisibleForTesting
+    static final long MIN_NOTIFY_INTERVAL_MS = 300;
+
     private final Context mContext;
     private final Uri mUri;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mNotifyRunnable = this::deliverSliceChange;
+    private final Object mLock = new Object();
 
     private List<E> mCachedResults;
+    @GuardedBy("mLock")
+    private long mLastNotifyTime = -1;
+    @GuardedBy("mLock")
+    private boolean mNotifyPending;
+    @GuardedBy("mLock")
+    private int mSuppressedNotifyCount;
 
     protected SliceBackgroundWorker(Context context, Uri uri) {
         mContext = context;
@@ -106,6 +131,8 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
     static void shutdown() {
         for (SliceBackgroundWorker worker : LIVE_WORKERS.values()) {
+            // Workers are only closed here, drop their pending notification with them.
+            worker.cancelPendingNotify();
             try {
                 worker.close();
             } catch (IOException e) {
@@ -146,6 +173,8 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
             if (mCachedResults != null) {
                 needNotify = true;
             }
+        } else if (mCachedResults == null || results.size() != mCachedResults.size()) {
+            needNotify = true;
         } else {
             needNotify = !areListsTheSame(results, mCachedResults);
         }
@@ -153,6 +182,10 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
         if (needNotify) {
             mCachedResults = results;
             notifySliceChange();
+        } else {
+            synchronized (mLock) {
+                mSuppressedNotifyCount++;
+            }
         }
     }
 
@@ -160,10 +193,61 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
         return a.equals(b);
     }
 
+    /**
+     * @return the minimum time in milliseconds between two notifications of this worker's
+     * {@link Uri}.
+     */
+    protected long getMinNotifyIntervalMillis() {
+        return MIN_NOTIFY_INTERVAL_MS;
+    }
+
+    /**
+     * @return the number of updates that didn't send a notification of their own, either because
+     * the results didn't change or because they were merged into a pending notification.
+     */
+    public final int getSuppressedNotifyCount() {
+        synchronized (mLock) {
+            return mSuppressedNotifyCount;
+        }
+    }
+
     /**
      * Notify that data was updated and attempt to sync changes to the Slice.
      */
     protected final void notifySliceChange() {
+        synchronized (mLock) {
+            if (mNotifyPending) {
+                mSuppressedNotifyCount++;
+                return;
+            }
+            final long now = SystemClock.uptimeMillis();
+            final long nextNotifyTime = mLastNotifyTime + getMinNotifyIntervalMillis();
+            if (mLastNotifyTime >= 0 && now < nextNotifyTime) {
+                mNotifyPending = true;
+                mHandler.postAtTime(mNotifyRunnable, nextNotifyTime);
+                return;
+            }
+            mLastNotifyTime = now;
+        }
+        mContext.getContentResolver().notifyChange(mUri, null);
+    }
+
+    /**
+     * Removes the pending trailing notification, if any.
+     */
+    @VisibleForTesting
+    void cancelPendingNotify() {
+        synchronized (mLock) {
+            mHandler.removeCallbacks(mNotifyRunnable);
+            mNotifyPending = false;
+        }
+    }
+
+    private void deliverSliceChange() {
+        synchronized (mLock) {
+            mNotifyPending = false;
+            mLastNotifyTime = SystemClock.uptimeMillis();
+        }
         mContext.getContentResolver().notifyChange(mUri, null);
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.settings.slices;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+import android.util.LruCache;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bounded LRU of {@link SliceData}, used by {@link SettingsSliceProvider} to bind slices without
+ * going back to the {@link SlicesDatabaseAccessor}. Controllers are not cached, they are built
+ * again for every bind.
+ *
+ * <p>Every load from the database is also counted in {@link SharedPreferences}, so the most
+ * frequently bound slices can be loaded again when the provider process starts. The counts are
+ * kept in memory and written in one batch {@link #FLUSH_DELAY_MS} after the first pending load.
+ * Entries are dropped when the locale changes, since the indexed titles and summaries are
+ * localized.
+ */
+class SliceDataCache {
+
+    private static final String SHARED_PREFS_TAG = "slice_data_cache";
+
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 32;
+
+    /**
+     * Number of slices loaded when the provider is created.
+     */
+    @VisibleForTesting
+    static final int WARMUP_SIZE = 8;
+
+    /**
+     * Delay before the pending load counts are written to {@link SharedPreferences}.
+     */
+    @VisibleForTesting
+    static final long FLUSH_DELAY_MS = 5000;
+
+    private static final Object sPendingLock = new Object();
+    @GuardedBy("sPendingLock")
+    private static final ArrayMap<String, Integer> sPendingLoads = new ArrayMap<>();
+    @GuardedBy("sPendingLock")
+    private static boolean sFlushScheduled;
+    private static Handler sHandler;
+
+    private final LruCache<Uri, SliceData> mEntries;
+    private Locale mLocale;
+    private int mHitCount;
+    private int mMissCount;
+
+    SliceDataCache() {
+        this(MAX_ENTRIES);
+    }
+
+    @VisibleForTesting
+    SliceDataCache(int maxEntries) {
+        mEntries = new LruCache<>(maxEntries);
+        mLocale = Locale.getDefault();
+    }
+
+    /**
+     * @return the cached {@link SliceData} for {@param uri}, or {@code null} on a miss.
+     */
+    public synchronized SliceData get(Uri uri) {
+        checkLocale();
+        final SliceData data = mEntries.get(uri);
+        if (data == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return data;
+    }
+
+    /**
+     * Same as {@link #get(Uri)}, without counting a hit or miss.
+     */
+    public synchronized SliceData peek(Uri uri) {
+        checkLocale();
+        return mEntries.get(uri);
+    }
+
+    public synchronized void put(Uri uri, SliceData data) {
+        checkLocale();
+        mEntries.put(uri, data);
+    }
+
+    public synchronized void remove(Uri uri) {
+        mEntries.remove(uri);
+    }
+
+    public synchronized boolean contains(Uri uri) {
+        return mEntries.get(uri) != null;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private void checkLocale() {
+        final Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mEntries.evictAll();
+            mLocale = locale;
+        }
+    }
+
+    /**
+     * Counts a load of {@param uri} from the database. The count is written to
+     * {@link SharedPreferences} with the other loads of the next {@link #FLUSH_DELAY_MS}.
+     */
+    static void recordLoad(Context context, Uri uri) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (sPendingLock) {
+            final String key = uri.toString();
+            final Integer count = sPendingLoads.get(key);
+            sPendingLoads.put(key, count == null ? 1 : count + 1);
+            if (sFlushScheduled) {
+                return;
+            }
+            sFlushScheduled = true;
+            if (sHandler == null) {
+                sHandler = new Handler(Looper.getMainLooper());
+            }
+        }
+        sHandler.postDelayed(() -> flushLoadCounts(appContext), FLUSH_DELAY_MS);
+    }
+
+    /**
+     * Writes the load counts recorded since the last flush in a single edit.
+     */
+    @VisibleForTesting
+    static void flushLoadCounts(Context context) {
+        final ArrayMap<String, Integer> pending;
+        synchronized (sPendingLock) {
+            sFlushScheduled = false;
+            if (sPendingLoads.isEmpty()) {
+                return;
+            }
+            pending = new ArrayMap<>(sPendingLoads);
+            sPendingLoads.clear();
+        }
+        final SharedPreferences prefs = getPrefs(context);
+        final SharedPreferences.Editor editor = prefs.edit();
+        for (int i = 0; i < pending.size(); i++) {
+            final String key = pending.keyAt(i);
+            editor.putInt(key, prefs.getInt(key, 0 /* default */) + pending.valueAt(i));
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return up to {@param limit} {@link Uri uris} ordered by how often they were loaded, most
+     * frequent first.
+     */
+    static List<Uri> getFrequentUris(Context context, int limit) {
+        flushLoadCounts(context);
+        final Map<String, ?> counts = getPrefs(context).getAll();
+        final List<Map.Entry<String, ?>> entries = new ArrayList<>(counts.entrySet());
+        Collections.sort(entries, (a, b) -> Integer.compare(getCount(b), getCount(a)));
+
+        final List<Uri> uris = new ArrayList<>();
+        for (int i = 0; i < entries.size() && uris.size() < limit; i++) {
+            uris.add(Uri.parse(entries.get(i).getKey()));
+        }
+        return uris;
+    }
+
+    private static int getCount(Map.Entry<String, ?> entry) {
+        final Object value = entry.getValue();
+        return value instanceof Integer ? (Integer) value : 0;
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE);
+    }
+}
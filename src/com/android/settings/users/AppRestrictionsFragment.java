@@ -33,6 +33,7 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.UserHandle;
@@ -45,6 +46,7 @@ import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.Switch;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.preference.ListPreference;
 import androidx.preference.MultiSelectListPreference;
 import androidx.preference.Preference;
@@ -58,7 +60,9 @@ import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 import com.android.settingslib.users.AppRestrictionsHelper;
+import com.android.settingslib.utils.ThreadUtils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -89,6 +93,15 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
 
     private static final int MAX_APP_RESTRICTIONS = 100;
 
+    /** Number of app rows resolved in the background before they are shown. */
+    private static final int APP_BATCH_SIZE = 12;
+    /** Restriction requests waiting for an app's answer at the same time. */
+    @VisibleForTesting
+    static final int MAX_RESTRICTION_REQUESTS_IN_FLIGHT = 4;
+    /** Time after which a restriction request stops holding its slot. */
+    @VisibleForTesting
+    static final long RESTRICTION_REQUEST_TIMEOUT_MS = 10000;
+
     private static final String DELIMITER = ";";
 
     /** Key for extra passed in from calling fragment for the userId of the user being edited */
@@ -107,7 +120,15 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
 
     private HashMap<Integer, AppRestrictionsPreference> mCustomRequestMap = new HashMap<>();
 
-    private AsyncTask mAppLoadingTask;
+    private boolean mAppsLoading;
+    // Number of app rows added by the current load, used to order them.
+    private int mAppRowCount;
+
+    private final Handler mHandler = new Handler();
+    private final ArrayDeque<RestrictionsResultReceiver> mPendingRestrictionRequests =
+            new ArrayDeque<>();
+    private final ArrayList<RestrictionsResultReceiver> mRestrictionRequestsInFlight =
+            new ArrayList<>();
 
     private BroadcastReceiver mUserBackgrounding = new BroadcastReceiver() {
         @Override
@@ -266,8 +287,8 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         getActivity().registerReceiver(mPackageObserver, packageFilter);
 
         mAppListChanged = false;
-        if (mAppLoadingTask == null || mAppLoadingTask.getStatus() == AsyncTask.Status.FINISHED) {
-            mAppLoadingTask = new AppLoadingTask().execute();
+        if (!mAppsLoading) {
+            loadApps();
         }
     }
 
@@ -277,6 +298,7 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         mNewUser = false;
         getActivity().unregisterReceiver(mUserBackgrounding);
         getActivity().unregisterReceiver(mPackageObserver);
+        cancelRestrictionsRequests();
         if (mAppListChanged) {
             new AsyncTask<Void, Void, Void>() {
                 @Override
@@ -315,18 +337,62 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         }
     }
 
-    private class AppLoadingTask extends AsyncTask<Void, Void, Void> {
+    /**
+     * An app of {@link AppRestrictionsHelper#getVisibleApps()} with the package information
+     * resolved in the background.
+     */
+    private static class AppRow {
+        final AppRestrictionsHelper.SelectableAppInfo app;
+        final PackageInfo packageInfo;
+        final boolean hasSettings;
 
-        @Override
-        protected Void doInBackground(Void... params) {
-            mHelper.fetchAndMergeApps();
-            return null;
+        AppRow(AppRestrictionsHelper.SelectableAppInfo app, PackageInfo packageInfo,
+                boolean hasSettings) {
+            this.app = app;
+            this.packageInfo = packageInfo;
+            this.hasSettings = hasSettings;
         }
+    }
 
-        @Override
-        protected void onPostExecute(Void result) {
-            populateApps();
-        }
+    /**
+     * Fetches the apps and resolves their package information in the background, showing the
+     * rows in batches of {@link #APP_BATCH_SIZE} as they are resolved.
+     */
+    private void loadApps() {
+        mAppsLoading = true;
+        final PackageManager pm = mPackageManager;
+        final IPackageManager ipm = mIPm;
+        final int userId = mUser.getIdentifier();
+        ThreadUtils.postOnBackgroundThread(() -> {
+            mHelper.fetchAndMergeApps();
+            final Intent restrictionsIntent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
+            final List<ResolveInfo> receivers = pm.queryBroadcastReceivers(restrictionsIntent, 0);
+            boolean first = true;
+            List<AppRow> batch = new ArrayList<>(APP_BATCH_SIZE);
+            for (AppRestrictionsHelper.SelectableAppInfo app : mHelper.getVisibleApps()) {
+                final String packageName = app.packageName;
+                if (packageName == null) continue;
+                PackageInfo pi = null;
+                try {
+                    pi = ipm.getPackageInfo(packageName,
+                            PackageManager.MATCH_ANY_USER
+                            | PackageManager.GET_SIGNATURES, userId);
+                } catch (RemoteException e) {
+                    // Ignore
+                }
+                batch.add(new AppRow(app, pi, resolveInfoListHasPackage(receivers, packageName)));
+                if (batch.size() == APP_BATCH_SIZE) {
+                    final List<AppRow> rows = batch;
+                    final boolean firstBatch = first;
+                    ThreadUtils.postOnMainThread(() -> populateApps(rows, firstBatch, false));
+                    batch = new ArrayList<>(APP_BATCH_SIZE);
+                    first = false;
+                }
+            }
+            final List<AppRow> rows = batch;
+            final boolean firstBatch = first;
+            ThreadUtils.postOnMainThread(() -> populateApps(rows, firstBatch, true));
+        });
     }
 
     private boolean isPlatformSigned(PackageInfo pi) {
@@ -343,40 +409,34 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                 && (privateFlags&ApplicationInfo.PRIVATE_FLAG_HIDDEN) == 0);
     }
 
-    private void populateApps() {
+    private void populateApps(List<AppRow> rows, boolean firstBatch, boolean lastBatch) {
+        if (lastBatch) {
+            mAppsLoading = false;
+        }
         final Context context = getActivity();
         if (context == null) return;
-        final PackageManager pm = mPackageManager;
-        final IPackageManager ipm = mIPm;
-        final int userId = mUser.getIdentifier();
 
         // Check if the user was removed in the meantime.
         if (Utils.getExistingUser(mUserManager, mUser) == null) {
             return;
         }
-        mAppList.removeAll();
-        Intent restrictionsIntent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
-        final List<ResolveInfo> receivers = pm.queryBroadcastReceivers(restrictionsIntent, 0);
-        for (AppRestrictionsHelper.SelectableAppInfo app : mHelper.getVisibleApps()) {
-            String packageName = app.packageName;
-            if (packageName == null) continue;
+        if (firstBatch) {
+            mAppList.removeAll();
+            mAppRowCount = 0;
+        }
+        for (AppRow row : rows) {
+            final AppRestrictionsHelper.SelectableAppInfo app = row.app;
+            final String packageName = app.packageName;
             final boolean isSettingsApp = packageName.equals(context.getPackageName());
             AppRestrictionsPreference p = new AppRestrictionsPreference(getPrefContext(), this);
-            final boolean hasSettings = resolveInfoListHasPackage(receivers, packageName);
+            final boolean hasSettings = row.hasSettings;
             if (isSettingsApp) {
                 addLocationAppRestrictionsPreference(app, p);
                 // Settings app should be available to restricted user
                 mHelper.setPackageSelected(packageName, true);
                 continue;
             }
-            PackageInfo pi = null;
-            try {
-                pi = ipm.getPackageInfo(packageName,
-                        PackageManager.MATCH_ANY_USER
-                        | PackageManager.GET_SIGNATURES, userId);
-            } catch (RemoteException e) {
-                // Ignore
-            }
+            final PackageInfo pi = row.packageInfo;
             if (pi == null) {
                 continue;
             }
@@ -411,10 +471,16 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
                 p.setImmutable(true);
                 p.setChecked(mHelper.isPackageSelected(packageName));
             }
-            p.setOrder(MAX_APP_RESTRICTIONS * (mAppList.getPreferenceCount() + 2));
+            // Not based on the preference count, restrictions of earlier rows may already be
+            // shown or removed.
+            p.setOrder(MAX_APP_RESTRICTIONS * (mAppRowCount + 2));
+            mAppRowCount++;
             mHelper.setPackageSelected(packageName, p.isChecked());
             mAppList.addPreference(p);
         }
+        if (!lastBatch) {
+            return;
+        }
         mAppListChanged = true;
         // If this is the first time for a new profile, install/uninstall default apps for profile
         // to avoid taking the hit in onPause(), which can cause race conditions on user switch.
@@ -586,22 +652,72 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
     }
 
     /**
-     * Send a broadcast to the app to query its restrictions
+     * Send a broadcast to the app to query its restrictions. Requests not made by the user are
+     * queued, at most {@link #MAX_RESTRICTION_REQUESTS_IN_FLIGHT} of them wait for an answer at
+     * once.
      * @param packageName package name of the app with restrictions
      * @param preference the preference item for the app toggle
      * @param invokeIfCustom whether to directly launch any custom activity that is returned
      *        for the app.
      */
-    private void requestRestrictionsForApp(String packageName,
+    @VisibleForTesting
+    void requestRestrictionsForApp(String packageName,
             AppRestrictionsPreference preference, boolean invokeIfCustom) {
+        final RestrictionsResultReceiver receiver =
+                new RestrictionsResultReceiver(packageName, preference, invokeIfCustom);
+        if (invokeIfCustom) {
+            // The user is waiting for this one.
+            sendRestrictionsRequest(receiver);
+            return;
+        }
+        mPendingRestrictionRequests.add(receiver);
+        sendPendingRestrictionsRequests();
+    }
+
+    private void sendPendingRestrictionsRequests() {
+        while (mRestrictionRequestsInFlight.size() < MAX_RESTRICTION_REQUESTS_IN_FLIGHT
+                && !mPendingRestrictionRequests.isEmpty()) {
+            final RestrictionsResultReceiver receiver = mPendingRestrictionRequests.poll();
+            if (getContext() == null) {
+                mPendingRestrictionRequests.clear();
+                return;
+            }
+            mRestrictionRequestsInFlight.add(receiver);
+            mHandler.postDelayed(receiver.timeout, RESTRICTION_REQUEST_TIMEOUT_MS);
+            sendRestrictionsRequest(receiver);
+        }
+    }
+
+    private void onRestrictionsRequestDone(RestrictionsResultReceiver receiver) {
+        if (!mRestrictionRequestsInFlight.remove(receiver)) {
+            return;
+        }
+        mHandler.removeCallbacks(receiver.timeout);
+        sendPendingRestrictionsRequests();
+    }
+
+    /**
+     * Drops the queued restriction requests and frees the in-flight slots. Answers to requests
+     * already sent are still applied.
+     */
+    @VisibleForTesting
+    void cancelRestrictionsRequests() {
+        mPendingRestrictionRequests.clear();
+        for (RestrictionsResultReceiver receiver : mRestrictionRequestsInFlight) {
+            mHandler.removeCallbacks(receiver.timeout);
+        }
+        mRestrictionRequestsInFlight.clear();
+    }
+
+    @VisibleForTesting
+    void sendRestrictionsRequest(RestrictionsResultReceiver receiver) {
         Bundle oldEntries =
-                mUserManager.getApplicationRestrictions(packageName, mUser);
+                mUserManager.getApplicationRestrictions(receiver.packageName, mUser);
         Intent intent = new Intent(Intent.ACTION_GET_RESTRICTION_ENTRIES);
-        intent.setPackage(packageName);
+        intent.setPackage(receiver.packageName);
         intent.putExtra(Intent.EXTRA_RESTRICTIONS_BUNDLE, oldEntries);
         intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-        getActivity().sendOrderedBroadcast(intent, null,
-                new RestrictionsResultReceiver(packageName, preference, invokeIfCustom),
+        getActivity().sendOrderedBroadcast(intent, null, receiver,
                 null, Activity.RESULT_OK, null, null);
     }
 
@@ -611,6 +727,11 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
         String packageName;
         AppRestrictionsPreference preference;
         boolean invokeIfCustom;
+        // Frees the slot of an app which doesn't answer; a late answer is still applied.
+        final Runnable timeout = () -> {
+            Log.w(TAG, "Timed out waiting for restrictions of " + packageName);
+            onRestrictionsRequestDone(this);
+        };
 
         RestrictionsResultReceiver(String packageName, AppRestrictionsPreference preference,
                 boolean invokeIfCustom) {
@@ -622,6 +743,7 @@ public class AppRestrictionsFragment extends SettingsPreferenceFragment implemen
 
         @Override
         public void onReceive(Context context, Intent intent) {
+            onRestrictionsRequestDone(this);
             Bundle results = getResultExtras(true);
             final ArrayList<RestrictionEntry> restrictions = results.getParcelableArrayList(
                     Intent.EXTRA_RESTRICTIONS_LIST);
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.users;
+
+import android.content.Context;
+import android.content.pm.UserInfo;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.UserManager;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.drawable.CircleFramedDrawable;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Circular user avatars for {@link UserSettings}, decoded and framed at the avatar size in the
+ * background and kept across visits of the Users screen.
+ *
+ * <p>Each avatar is tagged with the modification time of the user's photo, so a reload skips users
+ * whose photo didn't change. {@link #invalidate(int)} marks an avatar for reload when the user's
+ * info changes; it keeps being returned until the reload replaces it. Only the framed bitmap is
+ * kept, every {@link #getAvatar(int)} returns a new drawable of it, so avatars shown in several
+ * places don't share their bounds or state.
+ */
+public class UserAvatarCache {
+
+    private static UserAvatarCache sInstance;
+
+    private final Context mContext;
+    // Guarded by this.
+    private final SparseArray<Entry> mAvatars = new SparseArray<>();
+    // Bumped by each invalidate(), so a load racing with it stays stale. Guarded by this.
+    private final SparseIntArray mGenerations = new SparseIntArray();
+
+    private static final class Entry {
+        final Drawable.ConstantState mAvatar;
+        final long mPhotoTimestamp;
+        final int mGeneration;
+
+        Entry(Drawable.ConstantState avatar, long photoTimestamp, int generation) {
+            mAvatar = avatar;
+            mPhotoTimestamp = photoTimestamp;
+            mGeneration = generation;
+        }
+    }
+
+    public static synchronized UserAvatarCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UserAvatarCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    UserAvatarCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @return the last avatar loaded for {@code userId}, or {@code null} if none was loaded yet.
+     */
+    public synchronized Drawable getAvatar(int userId) {
+        final Entry entry = mAvatars.get(userId);
+        return entry != null ? entry.mAvatar.newDrawable(mContext.getResources()) : null;
+    }
+
+    /**
+     * @return whether the avatar of {@code userId} was never loaded or was invalidated since.
+     */
+    public synchronized boolean needsLoad(int userId) {
+        final Entry entry = mAvatars.get(userId);
+        return entry == null || entry.mGeneration != mGenerations.get(userId);
+    }
+
+    /**
+     * Marks the avatar of {@code userId} for reload, e.g. on {@code ACTION_USER_INFO_CHANGED}.
+     */
+    public synchronized void invalidate(int userId) {
+        mGenerations.put(userId, mGenerations.get(userId) + 1);
+    }
+
+    /**
+     * Loads the avatars of {@code users} in the background, then runs {@code onLoaded} on the main
+     * thread if any of them changed.
+     */
+    public void loadAvatars(UserManager userManager, List<UserInfo> users, Runnable onLoaded) {
+        ThreadUtils.postOnBackgroundThread(() -> {
+            boolean changed = false;
+            for (UserInfo user : users) {
+                changed |= loadAvatar(userManager, user);
+            }
+            if (changed && onLoaded != null) {
+                ThreadUtils.postOnMainThread(onLoaded);
+            }
+        });
+    }
+
+    /**
+     * Loads the avatar of {@code user} on the calling thread, unless its photo didn't change since
+     * it was last loaded.
+     *
+     * @return whether a new avatar was loaded.
+     */
+    public boolean loadAvatar(UserManager userManager, UserInfo user) {
+        final long photoTimestamp = getPhotoTimestamp(user);
+        final int generation;
+        synchronized (this) {
+            generation = mGenerations.get(user.id);
+            final Entry entry = mAvatars.get(user.id);
+            if (entry != null && photoTimestamp != 0 && entry.mPhotoTimestamp == photoTimestamp) {
+                mAvatars.put(user.id, new Entry(entry.mAvatar, photoTimestamp, generation));
+                return false;
+            }
+        }
+        Bitmap bitmap = userManager.getUserIcon(user.id);
+        if (bitmap == null) {
+            bitmap = UserSettings.getDefaultUserIconAsBitmap(mContext.getResources(), user.id);
+        }
+        // Framing scales the photo down to the avatar size, the full size bitmap isn't kept.
+        final Drawable.ConstantState avatar =
+                toBitmapDrawable(CircleFramedDrawable.getInstance(mContext, bitmap))
+                        .getConstantState();
+        synchronized (this) {
+            mAvatars.put(user.id, new Entry(avatar, photoTimestamp, generation));
+        }
+        return true;
+    }
+
+    private BitmapDrawable toBitmapDrawable(Drawable drawable) {
+        final Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
+                drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        drawable.draw(canvas);
+        return new BitmapDrawable(mContext.getResources(), bitmap);
+    }
+
+    private static long getPhotoTimestamp(UserInfo user) {
+        return user.iconPath != null && !user.iconPath.isEmpty()
+                ? new File(user.iconPath).lastModified() : 0;
+    }
+}
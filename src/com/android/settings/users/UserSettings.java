@@ -33,7 +33,6 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -76,6 +75,7 @@ import com.android.settingslib.RestrictedLockUtilsInternal;
 import com.android.settingslib.RestrictedPreference;
 import com.android.settingslib.drawable.CircleFramedDrawable;
 import com.android.settingslib.search.SearchIndexable;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -160,7 +160,7 @@ public class UserSettings extends SettingsPreferenceFragment
     private boolean mShouldUpdateUserList = true;
     private final Object mUserLock = new Object();
     private UserManager mUserManager;
-    private SparseArray<Bitmap> mUserIcons = new SparseArray<>();
+    private UserAvatarCache mAvatarCache;
     private static SparseArray<Bitmap> sDarkDefaultUserBitmapCache = new SparseArray<>();
 
     private MultiUserSwitchBarController mSwitchBarController;
@@ -196,7 +196,7 @@ public class UserSettings extends SettingsPreferenceFragment
             } else if (intent.getAction().equals(Intent.ACTION_USER_INFO_CHANGED)) {
                 int userHandle = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, -1);
                 if (userHandle != -1) {
-                    mUserIcons.remove(userHandle);
+                    getAvatarCache().invalidate(userHandle);
                 }
             }
             mHandler.sendEmptyMessage(MESSAGE_UPDATE_LIST);
@@ -384,32 +384,24 @@ public class UserSettings extends SettingsPreferenceFragment
             return;
         }
 
-        new AsyncTask<Void, Void, String>() {
-            @Override
-            protected void onPostExecute(String result) {
-                finishLoadProfile(result);
+        final UserAvatarCache avatarCache = getAvatarCache();
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final UserInfo user = mUserManager.getUserInfo(UserHandle.myUserId());
+            if (user.iconPath == null || user.iconPath.equals("")) {
+                // Assign profile photo.
+                copyMeProfilePhoto(getActivity(), user);
             }
-
-            @Override
-            protected String doInBackground(Void... values) {
-                UserInfo user = mUserManager.getUserInfo(UserHandle.myUserId());
-                if (user.iconPath == null || user.iconPath.equals("")) {
-                    // Assign profile photo.
-                    copyMeProfilePhoto(getActivity(), user);
-                }
-                return user.name;
-            }
-        }.execute();
+            avatarCache.loadAvatar(mUserManager, user);
+            ThreadUtils.postOnMainThread(() -> finishLoadProfile(user.name));
+        });
     }
 
     private void finishLoadProfile(String profileName) {
         if (getActivity() == null) return;
         mMePreference.setTitle(getString(R.string.user_you, profileName));
-        int myUserId = UserHandle.myUserId();
-        Bitmap b = mUserManager.getUserIcon(myUserId);
-        if (b != null) {
-            mMePreference.setIcon(encircle(b));
-            mUserIcons.put(myUserId, b);
+        final Drawable avatar = getAvatarCache().getAvatar(UserHandle.myUserId());
+        if (avatar != null) {
+            mMePreference.setIcon(avatar);
         }
     }
 
@@ -809,7 +801,7 @@ public class UserSettings extends SettingsPreferenceFragment
         final List<UserInfo> users = mUserManager.getUsers(true);
 
         final boolean voiceCapable = Utils.isVoiceCapable(context);
-        final ArrayList<Integer> missingIcons = new ArrayList<>();
+        final ArrayList<UserInfo> missingIcons = new ArrayList<>();
         final ArrayList<UserPreference> userPreferences = new ArrayList<>();
         int guestId = UserPreference.USERID_GUEST_DEFAULTS;
         userPreferences.add(mMePreference);
@@ -870,12 +862,13 @@ public class UserSettings extends SettingsPreferenceFragment
                 pref.setSummary(R.string.user_summary_restricted_profile);
             }
             if (user.iconPath != null) {
-                if (mUserIcons.get(user.id) == null) {
-                    // Icon not loaded yet, print a placeholder
-                    missingIcons.add(user.id);
-                    pref.setIcon(getEncircledDefaultIcon());
-                } else {
-                    setPhotoId(pref, user);
+                final UserAvatarCache avatarCache = getAvatarCache();
+                final Drawable avatar = avatarCache.getAvatar(user.id);
+                // Print a placeholder until the icon is loaded, a changed icon replaces the old one
+                // once loaded.
+                pref.setIcon(avatar != null ? avatar : getEncircledDefaultIcon());
+                if (avatarCache.needsLoad(user.id)) {
+                    missingIcons.add(user);
                 }
             } else {
                 // Icon not available yet, print a placeholder
@@ -1008,25 +1001,35 @@ public class UserSettings extends SettingsPreferenceFragment
         return maxUsersAndGuest - managedProfiles;
     }
 
-    private void loadIconsAsync(List<Integer> missingIcons) {
-        new AsyncTask<List<Integer>, Void, Void>() {
-            @Override
-            protected void onPostExecute(Void result) {
-                updateUserList();
-            }
+    private void loadIconsAsync(List<UserInfo> missingIcons) {
+        getAvatarCache().loadAvatars(mUserManager, missingIcons, () -> updateAvatars());
+    }
 
-            @Override
-            protected Void doInBackground(List<Integer>... values) {
-                for (int userId : values[0]) {
-                    Bitmap bitmap = mUserManager.getUserIcon(userId);
-                    if (bitmap == null) {
-                        bitmap = getDefaultUserIconAsBitmap(getContext().getResources(), userId);
-                    }
-                    mUserIcons.append(userId, bitmap);
+    /**
+     * Sets the avatars loaded since the list was built on its preferences.
+     */
+    private void updateAvatars() {
+        if (getActivity() == null) {
+            return;
+        }
+        final UserAvatarCache avatarCache = getAvatarCache();
+        for (int i = 0; i < mUserListCategory.getPreferenceCount(); i++) {
+            final Preference pref = mUserListCategory.getPreference(i);
+            if (pref instanceof UserPreference) {
+                final Drawable avatar =
+                        avatarCache.getAvatar(((UserPreference) pref).getUserId());
+                if (avatar != null) {
+                    pref.setIcon(avatar);
                 }
-                return null;
             }
-        }.execute(missingIcons);
+        }
+    }
+
+    private UserAvatarCache getAvatarCache() {
+        if (mAvatarCache == null) {
+            mAvatarCache = UserAvatarCache.getInstance(getContext());
+        }
+        return mAvatarCache;
     }
 
     private Drawable getEncircledDefaultIcon() {
@@ -1037,13 +1040,6 @@ public class UserSettings extends SettingsPreferenceFragment
         return mDefaultIconDrawable;
     }
 
-    private void setPhotoId(Preference pref, UserInfo user) {
-        Bitmap bitmap = mUserIcons.get(user.id);
-        if (bitmap != null) {
-            pref.setIcon(encircle(bitmap));
-        }
-    }
-
     @Override
     public boolean onPreferenceClick(Preference pref) {
         if (pref == mMePreference) {
@@ -1140,17 +1136,20 @@ public class UserSettings extends SettingsPreferenceFragment
      * @param resources resources object to fetch the user icon.
      * @param userId    the user id or {@code UserHandle.USER_NULL} for a non-user specific icon
      */
-    private static Bitmap getDefaultUserIconAsBitmap(Resources resources, int userId) {
-        Bitmap bitmap = null;
-        // Try finding the corresponding bitmap in the dark bitmap cache
-        bitmap = sDarkDefaultUserBitmapCache.get(userId);
-        if (bitmap == null) {
-            bitmap = UserIcons.convertToBitmap(
-                    UserIcons.getDefaultUserIcon(resources, userId, false));
-            // Save it to cache
-            sDarkDefaultUserBitmapCache.put(userId, bitmap);
+    static Bitmap getDefaultUserIconAsBitmap(Resources resources, int userId) {
+        // Also called from the background by UserAvatarCache
+        synchronized (sDarkDefaultUserBitmapCache) {
+            Bitmap bitmap = null;
+            // Try finding the corresponding bitmap in the dark bitmap cache
+            bitmap = sDarkDefaultUserBitmapCache.get(userId);
+            if (bitmap == null) {
+                bitmap = UserIcons.convertToBitmap(
+                        UserIcons.getDefaultUserIcon(resources, userId, false));
+                // Save it to cache
+                sDarkDefaultUserBitmapCache.put(userId, bitmap);
+            }
+            return bitmap;
         }
-        return bitmap;
     }
 
     /**
@@ -31,6 +31,7 @@ import android.graphics.Path;
 import android.graphics.Shader.TileMode;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 import android.util.TypedValue;
 import android.view.View;
@@ -65,6 +66,13 @@ public class UsageGraph extends View {
     // Paths for projection in local coordinates for drawing.
     private final SparseIntArray mLocalProjectedPaths = new SparseIntArray();
 
+    // Decimated paths, in the coordinates they are passed in, keyed by the view width they were
+    // decimated for. Layout changes back to a known width reuse them.
+    private final SparseArray<SparseIntArray> mPathLevels = new SparseArray<>();
+    private final SparseArray<SparseIntArray> mProjectedPathLevels = new SparseArray<>();
+    // Indices of the points kept for a pixel column, reused while decimating.
+    private final int[] mColumnPoints = new int[4];
+
     private final int mCornerRadius;
     private int mAccentColor;
 
@@ -111,10 +119,17 @@ public class UsageGraph extends View {
         mLocalPaths.clear();
         mProjectedPaths.clear();
         mLocalProjectedPaths.clear();
+        mPathLevels.clear();
+        mProjectedPathLevels.clear();
     }
 
     void setMax(int maxX, int maxY) {
         final long startTime = System.currentTimeMillis();
+        if (maxX != mMaxX) {
+            // The pixel column of each point changed.
+            mPathLevels.clear();
+            mProjectedPathLevels.clear();
+        }
         mMaxX = maxX;
         mMaxY = maxY;
         calculateLocalPaths();
@@ -132,16 +147,17 @@ public class UsageGraph extends View {
     }
 
     public void addPath(SparseIntArray points) {
-        addPathAndUpdate(points, mPaths, mLocalPaths);
+        addPathAndUpdate(points, mPaths, mLocalPaths, mPathLevels);
     }
 
     public void addProjectedPath(SparseIntArray points) {
-        addPathAndUpdate(points, mProjectedPaths, mLocalProjectedPaths);
+        addPathAndUpdate(points, mProjectedPaths, mLocalProjectedPaths, mProjectedPathLevels);
     }
 
-    private void addPathAndUpdate(
-            SparseIntArray points, SparseIntArray paths, SparseIntArray localPaths) {
+    private void addPathAndUpdate(SparseIntArray points, SparseIntArray paths,
+            SparseIntArray localPaths, SparseArray<SparseIntArray> levels) {
         final long startTime = System.currentTimeMillis();
+        levels.clear();
         for (int i = 0, size = points.size(); i < size; i++) {
             paths.put(points.keyAt(i), points.valueAt(i));
         }
@@ -180,19 +196,20 @@ public class UsageGraph extends View {
             return;
         }
         localPaths.clear();
+        final SparseIntArray points = getDecimatedPaths(paths);
         // Store the local coordinates of the most recent point.
         int lx = 0;
         int ly = PATH_DELIM;
         boolean skippedLastPoint = false;
-        for (int i = 0; i < paths.size(); i++) {
-            int x = paths.keyAt(i);
-            int y = paths.valueAt(i);
+        for (int i = 0; i < points.size(); i++) {
+            int x = points.keyAt(i);
+            int y = points.valueAt(i);
             if (y == PATH_DELIM) {
                 if (i == 1) {
                     localPaths.put(getX(x+1) - 1, getY(0));
                     continue;
                 }
-                if (i == paths.size() - 1 && skippedLastPoint) {
+                if (i == points.size() - 1 && skippedLastPoint) {
                     // Add back skipped point to complete the path.
                     localPaths.put(lx, ly);
                 }
@@ -217,6 +234,77 @@ public class UsageGraph extends View {
         BatteryUtils.logRuntime(LOG_TAG, "calculateLocalPaths", startTime);
     }
 
+    private SparseIntArray getDecimatedPaths(SparseIntArray paths) {
+        final SparseArray<SparseIntArray> levels = paths == mPaths ? mPathLevels
+                : paths == mProjectedPaths ? mProjectedPathLevels : null;
+        final int width = getWidth();
+        SparseIntArray points = levels != null ? levels.get(width) : null;
+        if (points == null) {
+            points = new SparseIntArray();
+            decimatePaths(paths, points);
+            if (levels != null) {
+                levels.put(width, points);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Keeps at most four points of {@code paths} per pixel column of the view: the first, lowest,
+     * highest and last point of the column, in their original order. Battery history can hold
+     * thousands of points for a few hundred columns; the kept points still draw the same shape.
+     */
+    @VisibleForTesting
+    void decimatePaths(SparseIntArray paths, SparseIntArray decimated) {
+        decimated.clear();
+        // Index of the first, lowest and highest point of the current column run, or -1.
+        int first = -1;
+        int min = -1;
+        int max = -1;
+        int column = 0;
+        for (int i = 0, size = paths.size(); i < size; i++) {
+            final int y = paths.valueAt(i);
+            if (y == PATH_DELIM) {
+                appendColumn(paths, decimated, first, min, max, i - 1);
+                first = -1;
+                decimated.append(paths.keyAt(i), PATH_DELIM);
+                continue;
+            }
+            final int x = getX(paths.keyAt(i));
+            if (first >= 0 && x == column) {
+                if (y < paths.valueAt(min)) {
+                    min = i;
+                } else if (y > paths.valueAt(max)) {
+                    max = i;
+                }
+                continue;
+            }
+            appendColumn(paths, decimated, first, min, max, i - 1);
+            first = min = max = i;
+            column = x;
+        }
+        appendColumn(paths, decimated, first, min, max, paths.size() - 1);
+    }
+
+    private void appendColumn(SparseIntArray paths, SparseIntArray decimated, int first, int min,
+            int max, int last) {
+        if (first < 0) {
+            return;
+        }
+        final int[] indices = mColumnPoints;
+        indices[0] = first;
+        indices[1] = Math.min(min, max);
+        indices[2] = Math.max(min, max);
+        indices[3] = last;
+        int previous = -1;
+        for (int index : indices) {
+            if (index != previous) {
+                decimated.append(paths.keyAt(index), paths.valueAt(index));
+                previous = index;
+            }
+        }
+    }
+
     private boolean hasDiff(int x1, int x2) {
         return Math.abs(x2 - x1) >= mCornerRadius;
     }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keyed difference between two ordered lists of {@link
+ * com.android.settingslib.wifi.AccessPoint#getKey() access point keys}.
+ *
+ * <p>Keys only in the new list are inserted and keys only in the old list are removed. Of the keys
+ * in both lists, the longest run which keeps its relative order stays in place and the others are
+ * reported as moved, so a single access point changing rank moves one preference instead of every
+ * preference between its old and new position.
+ */
+class AccessPointListDiff {
+
+    /** Gap left between the orders of neighbouring access points when renumbering. */
+    static final int ORDER_STRIDE = 1 << 8;
+    /** Orders stay within plus or minus this bound, below {@link #ORDER_AFTER_ACCESS_POINTS}. */
+    static final int MAX_ORDER = 1 << 28;
+    /** Order of the preferences shown after the access points. */
+    static final int ORDER_AFTER_ACCESS_POINTS = 1 << 29;
+
+    final List<String> inserted = new ArrayList<>();
+    final List<String> removed = new ArrayList<>();
+    final Set<String> moved = new ArraySet<>();
+
+    private AccessPointListDiff() {
+    }
+
+    boolean isEmpty() {
+        return inserted.isEmpty() && removed.isEmpty() && moved.isEmpty();
+    }
+
+    static AccessPointListDiff compute(List<String> oldKeys, List<String> newKeys) {
+        final AccessPointListDiff diff = new AccessPointListDiff();
+        final Map<String, Integer> oldIndices = new ArrayMap<>(oldKeys.size());
+        for (int i = 0; i < oldKeys.size(); i++) {
+            oldIndices.put(oldKeys.get(i), i);
+        }
+        final Set<String> newKeySet = new ArraySet<>(newKeys);
+        for (String key : oldKeys) {
+            if (!newKeySet.contains(key)) {
+                diff.removed.add(key);
+            }
+        }
+
+        // Old positions of the kept keys, in their new order.
+        final List<String> kept = new ArrayList<>(newKeys.size());
+        final int[] positions = new int[newKeys.size()];
+        for (String key : newKeys) {
+            final Integer oldIndex = oldIndices.get(key);
+            if (oldIndex == null) {
+                diff.inserted.add(key);
+            } else {
+                positions[kept.size()] = oldIndex;
+                kept.add(key);
+            }
+        }
+
+        final boolean[] inPlace = longestIncreasingRun(positions, kept.size());
+        for (int i = 0; i < kept.size(); i++) {
+            if (!inPlace[i]) {
+                diff.moved.add(kept.get(i));
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Returns preference orders for {@code newKeys}, the list this diff was computed for.
+     *
+     * <p>Keys which are neither inserted nor moved keep their order from {@code currentOrders}, the
+     * others are spread over the gaps between them, so that only those preferences need a new
+     * order. Everything is renumbered when a gap runs out of room.
+     */
+    int[] assignOrders(List<String> newKeys, Map<String, Integer> currentOrders) {
+        final int size = newKeys.size();
+        final int[] orders = new int[size];
+        int runStart = 0;
+        int lowOrder = Integer.MIN_VALUE;
+        for (int i = 0; i <= size; i++) {
+            final String key = i < size ? newKeys.get(i) : null;
+            final boolean anchor = key != null && !moved.contains(key) && !inserted.contains(key);
+            if (!anchor && i < size) {
+                continue;
+            }
+            final int runLength = i - runStart;
+            final int highOrder = anchor ? currentOrders.get(key) : Integer.MIN_VALUE;
+            final long low = lowOrder != Integer.MIN_VALUE ? lowOrder
+                    : highOrder != Integer.MIN_VALUE
+                            ? (long) highOrder - (long) (runLength + 1) * ORDER_STRIDE : 0;
+            final long high = highOrder != Integer.MIN_VALUE ? highOrder
+                    : low + (long) (runLength + 1) * ORDER_STRIDE;
+            final long step = (high - low) / (runLength + 1);
+            if (step < 1 || low < -MAX_ORDER || high > MAX_ORDER) {
+                return renumber(size);
+            }
+            for (int j = 0; j < runLength; j++) {
+                orders[runStart + j] = (int) (low + (j + 1) * step);
+            }
+            if (anchor) {
+                orders[i] = highOrder;
+                lowOrder = highOrder;
+            }
+            runStart = i + 1;
+        }
+        return orders;
+    }
+
+    private static int[] renumber(int size) {
+        final int[] orders = new int[size];
+        for (int i = 0; i < size; i++) {
+            orders[i] = (i + 1) * ORDER_STRIDE;
+        }
+        return orders;
+    }
+
+    /**
+     * Marks the members of a longest increasing subsequence of the first {@code size} values.
+     */
+    private static boolean[] longestIncreasingRun(int[] values, int size) {
+        final boolean[] result = new boolean[size];
+        if (size == 0) {
+            return result;
+        }
+        // tails[k] is the index of the smallest tail of an increasing run of length k + 1.
+        final int[] tails = new int[size];
+        final int[] previous = new int[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        for (int i = tails[length - 1]; i >= 0; i = previous[i]) {
+            result[i] = true;
+        }
+        return result;
+    }
+}
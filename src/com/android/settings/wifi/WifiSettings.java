@@ -41,18 +41,22 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.PowerManager;
 import android.provider.Settings;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.FeatureFlagUtils;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Toast;
 
 import androidx.annotation.VisibleForTesting;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceCategory;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.settings.LinkifyUtils;
 import com.android.settings.R;
@@ -82,7 +86,10 @@ import com.android.settingslib.wifi.WifiTracker;
 import com.android.settingslib.wifi.WifiTrackerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Two types of UI are provided here.
@@ -200,6 +207,47 @@ public class WifiSettings extends RestrictedSettingsFragment
      */
     private boolean mClickedConnect;
 
+    /** Whether the access point list is being touched or scrolled, see {@link #onViewCreated}. */
+    private boolean mListTouched;
+    private int mListScrollState = RecyclerView.SCROLL_STATE_IDLE;
+    /** Whether the last update kept the shown order because the user was touching the list. */
+    private boolean mReorderDeferred;
+
+    // Access point preference churn since the fragment was created.
+    @VisibleForTesting
+    int mInsertedPreferenceCount;
+    @VisibleForTesting
+    int mRemovedPreferenceCount;
+    @VisibleForTesting
+    int mMovedPreferenceCount;
+    @VisibleForTesting
+    int mUpdatedPreferenceCount;
+
+    private final RecyclerView.OnScrollListener mListScrollListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                    mListScrollState = newState;
+                    onListInteractionChanged();
+                }
+            };
+
+    private final RecyclerView.OnItemTouchListener mListTouchListener =
+            new RecyclerView.SimpleOnItemTouchListener() {
+                @Override
+                public boolean onInterceptTouchEvent(RecyclerView recyclerView, MotionEvent e) {
+                    final int action = e.getActionMasked();
+                    if (action == MotionEvent.ACTION_DOWN) {
+                        mListTouched = true;
+                    } else if (action == MotionEvent.ACTION_UP
+                            || action == MotionEvent.ACTION_CANCEL) {
+                        mListTouched = false;
+                        onListInteractionChanged();
+                    }
+                    return false;
+                }
+            };
+
     /* End of "used in Wifi Setup context" */
 
     public WifiSettings() {
@@ -218,6 +266,11 @@ public class WifiSettings extends RestrictedSettingsFragment
         ((SettingsActivity) activity).getSwitchBar().setSwitchBarText(
                 R.string.wifi_settings_master_switch_title,
                 R.string.wifi_settings_master_switch_title);
+        final RecyclerView listView = getListView();
+        if (listView != null) {
+            listView.addOnScrollListener(mListScrollListener);
+            listView.addOnItemTouchListener(mListTouchListener);
+        }
     }
 
     @Override
@@ -720,64 +773,163 @@ public class WifiSettings extends RestrictedSettingsFragment
             Log.i(TAG, "updateAccessPoints called for: " + accessPoints);
         }
 
-        boolean hasAvailableAccessPoints = false;
         mStatusMessagePreference.setVisible(false);
         mConnectedAccessPointPreferenceCategory.setVisible(true);
         mAccessPointsPreferenceCategory.setVisible(true);
 
-        cacheRemoveAllPrefs(mAccessPointsPreferenceCategory);
-
-        int index =
+        final int start =
                 configureConnectedAccessPointPreferenceCategory(accessPoints) ? 1 : 0;
-        int numAccessPoints = accessPoints.size();
-        for (; index < numAccessPoints; index++) {
+        final int numAccessPoints = accessPoints.size();
+        final List<String> keys = new ArrayList<>(numAccessPoints);
+        final Map<String, AccessPoint> reachableAccessPoints = new ArrayMap<>(numAccessPoints);
+        for (int index = start; index < numAccessPoints; index++) {
             AccessPoint accessPoint = accessPoints.get(index);
             // Ignore access points that are out of range.
-            if (accessPoint.isReachable()) {
-                String key = accessPoint.getKey();
-                hasAvailableAccessPoints = true;
-                LongPressAccessPointPreference pref =
-                        (LongPressAccessPointPreference) getCachedPreference(key);
-                if (pref != null) {
-                    pref.setOrder(index);
-                    continue;
+            if (accessPoint.isReachable()
+                    && !reachableAccessPoints.containsKey(accessPoint.getKey())) {
+                keys.add(accessPoint.getKey());
+                reachableAccessPoints.put(accessPoint.getKey(), accessPoint);
+            }
+        }
+        final boolean hasAvailableAccessPoints = !keys.isEmpty();
+
+        final Map<String, LongPressAccessPointPreference> shownPreferences = new ArrayMap<>();
+        final Map<String, Integer> shownOrders = new ArrayMap<>();
+        final List<String> shownKeys = getShownAccessPointKeys(shownPreferences, shownOrders);
+        // Keep the rows under the user's finger where they are, the new order is applied once
+        // the list is released.
+        final List<String> targetKeys = isUserInteractingWithList() && !shownKeys.isEmpty()
+                ? holdShownOrder(shownKeys, keys) : keys;
+        mReorderDeferred = !targetKeys.equals(keys);
+
+        final AccessPointListDiff diff = AccessPointListDiff.compute(shownKeys, targetKeys);
+        for (String key : diff.removed) {
+            mAccessPointsPreferenceCategory.removePreference(shownPreferences.get(key));
+        }
+        final int[] orders = diff.assignOrders(targetKeys, shownOrders);
+        int updated = 0;
+        for (int i = 0; i < targetKeys.size(); i++) {
+            final String key = targetKeys.get(i);
+            final AccessPoint accessPoint = reachableAccessPoints.get(key);
+            LongPressAccessPointPreference pref = shownPreferences.get(key);
+            if (pref != null && pref.getAccessPoint() != accessPoint) {
+                // The tracker replaced the access point, the preference can't be rebound.
+                mAccessPointsPreferenceCategory.removePreference(pref);
+                pref = null;
+                updated++;
+            }
+            if (pref != null) {
+                if (pref.getOrder() != orders[i]) {
+                    pref.setOrder(orders[i]);
                 }
-                LongPressAccessPointPreference preference =
-                        createLongPressAccessPointPreference(accessPoint);
-                preference.setKey(key);
-                preference.setOrder(index);
-                if (mOpenSsid != null && mOpenSsid.equals(accessPoint.getSsidStr())
-                        && (accessPoint.getSecurity() != AccessPoint.SECURITY_NONE &&
-                        accessPoint.getSecurity() != AccessPoint.SECURITY_OWE)) {
-                    if (!accessPoint.isSaved() || isDisabledByWrongPassword(accessPoint)) {
-                        onPreferenceTreeClick(preference);
-                        mOpenSsid = null;
-                    }
+                continue;
+            }
+            LongPressAccessPointPreference preference =
+                    createLongPressAccessPointPreference(accessPoint);
+            preference.setKey(key);
+            preference.setOrder(orders[i]);
+            if (mOpenSsid != null && mOpenSsid.equals(accessPoint.getSsidStr())
+                    && (accessPoint.getSecurity() != AccessPoint.SECURITY_NONE &&
+                    accessPoint.getSecurity() != AccessPoint.SECURITY_OWE)) {
+                if (!accessPoint.isSaved() || isDisabledByWrongPassword(accessPoint)) {
+                    onPreferenceTreeClick(preference);
+                    mOpenSsid = null;
                 }
-                mAccessPointsPreferenceCategory.addPreference(preference);
-                accessPoint.setListener(WifiSettings.this);
-                preference.refresh();
             }
+            mAccessPointsPreferenceCategory.addPreference(preference);
+            accessPoint.setListener(WifiSettings.this);
+            preference.refresh();
+        }
+        mInsertedPreferenceCount += diff.inserted.size();
+        mRemovedPreferenceCount += diff.removed.size();
+        mMovedPreferenceCount += diff.moved.size();
+        mUpdatedPreferenceCount += updated;
+        if (isVerboseLoggingEnabled()) {
+            Log.v(TAG, "Access point preferences inserted: " + diff.inserted.size()
+                    + ", removed: " + diff.removed.size() + ", moved: " + diff.moved.size()
+                    + ", updated: " + updated + ", reorder deferred: " + mReorderDeferred);
         }
-        removeCachedPrefs(mAccessPointsPreferenceCategory);
-        mAddWifiNetworkPreference.setOrder(index);
+
+        mAddWifiNetworkPreference.setOrder(AccessPointListDiff.ORDER_AFTER_ACCESS_POINTS);
         mAccessPointsPreferenceCategory.addPreference(mAddWifiNetworkPreference);
         setAdditionalSettingsSummaries();
 
+        final Preference emptyListPreference =
+                mAccessPointsPreferenceCategory.findPreference(PREF_KEY_EMPTY_WIFI_LIST);
         if (!hasAvailableAccessPoints) {
             setProgressBarVisible(true);
-            Preference pref = new Preference(getPrefContext());
-            pref.setSelectable(false);
-            pref.setSummary(R.string.wifi_empty_list_wifi_on);
-            pref.setOrder(index++);
-            pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
-            mAccessPointsPreferenceCategory.addPreference(pref);
+            if (emptyListPreference == null) {
+                Preference pref = new Preference(getPrefContext());
+                pref.setSelectable(false);
+                pref.setSummary(R.string.wifi_empty_list_wifi_on);
+                pref.setOrder(AccessPointListDiff.ORDER_AFTER_ACCESS_POINTS);
+                pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
+                mAccessPointsPreferenceCategory.addPreference(pref);
+            }
         } else {
+            if (emptyListPreference != null) {
+                mAccessPointsPreferenceCategory.removePreference(emptyListPreference);
+            }
             // Continuing showing progress bar for an additional delay to overlap with animation
             getView().postDelayed(mHideProgressBarRunnable, 1700 /* delay millis */);
         }
     }
 
+    /**
+     * Collects the access point preferences currently in {@link #mAccessPointsPreferenceCategory}
+     * and returns their keys in display order.
+     */
+    private List<String> getShownAccessPointKeys(
+            Map<String, LongPressAccessPointPreference> preferences, Map<String, Integer> orders) {
+        final List<LongPressAccessPointPreference> shown = new ArrayList<>();
+        final int count = mAccessPointsPreferenceCategory.getPreferenceCount();
+        for (int i = 0; i < count; i++) {
+            final Preference pref = mAccessPointsPreferenceCategory.getPreference(i);
+            if (pref instanceof LongPressAccessPointPreference && pref.getKey() != null) {
+                shown.add((LongPressAccessPointPreference) pref);
+            }
+        }
+        Collections.sort(shown, (lhs, rhs) -> Integer.compare(lhs.getOrder(), rhs.getOrder()));
+        final List<String> keys = new ArrayList<>(shown.size());
+        for (LongPressAccessPointPreference pref : shown) {
+            keys.add(pref.getKey());
+            preferences.put(pref.getKey(), pref);
+            orders.put(pref.getKey(), pref.getOrder());
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the access points of {@code keys} which are already shown in their current order,
+     * followed by the new ones.
+     */
+    private static List<String> holdShownOrder(List<String> shownKeys, List<String> keys) {
+        final Set<String> keySet = new ArraySet<>(keys);
+        final Set<String> shownKeySet = new ArraySet<>(shownKeys);
+        final List<String> result = new ArrayList<>(keys.size());
+        for (String key : shownKeys) {
+            if (keySet.contains(key)) {
+                result.add(key);
+            }
+        }
+        for (String key : keys) {
+            if (!shownKeySet.contains(key)) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    private boolean isUserInteractingWithList() {
+        return mListTouched || mListScrollState != RecyclerView.SCROLL_STATE_IDLE;
+    }
+
+    private void onListInteractionChanged() {
+        if (mReorderDeferred && !isUserInteractingWithList()) {
+            updateAccessPointsDelayed();
+        }
+    }
+
     @NonNull
     private LongPressAccessPointPreference createLongPressAccessPointPreference(
             AccessPoint accessPoint) {
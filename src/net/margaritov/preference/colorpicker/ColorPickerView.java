@@ -18,9 +18,9 @@
 package net.margaritov.preference.colorpicker;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ComposeShader;
 import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
@@ -92,11 +92,33 @@ public class ColorPickerView extends View {
 
     private Paint        mBorderPaint;
 
+    private Paint        mBitmapPaint;
+
     private Shader        mValShader;
     private Shader        mSatShader;
     private Shader        mHueShader;
     private Shader        mAlphaShader;
 
+    /*
+     * The panels are rendered into bitmaps when the size changes,
+     * so drawing a frame only copies them. The sat/val plane is
+     * rendered again when the hue changes, into the same bitmap.
+     * The alpha strip is an alpha mask drawn with the current color.
+     */
+    private Bitmap        mSatValBitmap;
+    private Canvas        mSatValCanvas;
+    private float        mSatValBitmapHue = Float.NaN;
+    private Bitmap        mHueBitmap;
+    private Bitmap        mAlphaBitmap;
+
+    /*
+     * Scratch objects reused while drawing and tracking touches.
+     */
+    private final float[]    mHsv = new float[3];
+    private final float[]    mSatVal = new float[2];
+    private final Point        mTrackerPoint = new Point();
+    private final RectF        mTrackerRect = new RectF();
+
     private int            mAlpha = 0xff;
     private float        mHue = 360f;
     private float         mSat = 0f;
@@ -133,7 +155,15 @@ public class ColorPickerView extends View {
 
     private AlphaPatternDrawable    mAlphaPattern;
 
-    private Point    mStartTouchPoint = null;
+    private Point    mStartTouchPoint = new Point();
+    private boolean    mTracking = false;
+
+    /*
+     * Color changes are sent to the listener at most
+     * once per frame.
+     */
+    private boolean    mColorChangePending = false;
+    private final Runnable    mDispatchColorChanged = this::dispatchColorChanged;
 
     public interface OnColorChangedListener {
         public void onColorChanged(int color);
@@ -179,6 +209,7 @@ public class ColorPickerView extends View {
         mAlphaPaint = new Paint();
         mAlphaTextPaint = new Paint();
         mBorderPaint = new Paint();
+        mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
 
 
         mSatValTrackerPaint.setStyle(Style.STROKE);
@@ -210,9 +241,14 @@ public class ColorPickerView extends View {
 
         int[] hue = new int[361];
 
+        final float[] hsv = mHsv;
+        hsv[1] = 1f;
+        hsv[2] = 1f;
+
         int count = 0;
         for(int i = hue.length -1; i >= 0; i--, count++){
-            hue[count] = Color.HSVToColor(new float[]{i, 1f, 1f});
+            hsv[0] = i;
+            hue[count] = Color.HSVToColor(hsv);
         }
 
         return hue;
@@ -241,20 +277,10 @@ public class ColorPickerView extends View {
                 rect.bottom + BORDER_WIDTH_PX, mBorderPaint);
         }
 
-        if (mValShader == null) {
-            mValShader = new LinearGradient(rect.left, rect.top, rect.left, rect.bottom,
-                    0xffffffff, 0xff000000, TileMode.CLAMP);
+        if (mSatValBitmapHue != mHue) {
+            renderSatValBitmap();
         }
-
-        int rgb = Color.HSVToColor(new float[]{mHue,1f,1f});
-
-        mSatShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
-                0xffffffff, rgb, TileMode.CLAMP);
-        ComposeShader mShader = new ComposeShader(
-            mValShader, mSatShader, PorterDuff.Mode.MULTIPLY);
-        mSatValPaint.setShader(mShader);
-
-        canvas.drawRect(rect, mSatValPaint);
+        canvas.drawBitmap(mSatValBitmap, rect.left, rect.top, mBitmapPaint);
 
         Point p = satValToPoint(mSat, mVal);
 
@@ -280,20 +306,13 @@ public class ColorPickerView extends View {
                     mBorderPaint);
         }
 
-        if (mHueShader == null) {
-            mHueShader = new LinearGradient(
-                rect.left, rect.top, rect.left, rect.bottom,
-                buildHueColorArray(), null, TileMode.CLAMP);
-            mHuePaint.setShader(mHueShader);
-        }
-
-        canvas.drawRect(rect, mHuePaint);
+        canvas.drawBitmap(mHueBitmap, rect.left, rect.top, mBitmapPaint);
 
         float rectHeight = 4 * mDensity / 2;
 
         Point p = hueToPoint(mHue);
 
-        RectF r = new RectF();
+        RectF r = mTrackerRect;
         r.left = rect.left - RECTANGLE_TRACKER_OFFSET;
         r.right = rect.right + RECTANGLE_TRACKER_OFFSET;
         r.top = p.y - rectHeight;
@@ -306,7 +325,8 @@ public class ColorPickerView extends View {
 
     private void drawAlphaPanel(Canvas canvas){
 
-        if(!mShowAlphaPanel || mAlphaRect == null || mAlphaPattern == null) return;
+        if(!mShowAlphaPanel || mAlphaRect == null || mAlphaPattern == null
+                || mAlphaBitmap == null) return;
 
         final RectF rect = mAlphaRect;
 
@@ -322,17 +342,9 @@ public class ColorPickerView extends View {
 
         mAlphaPattern.draw(canvas);
 
-        float[] hsv = new float[]{mHue,mSat,mVal};
-        int color = Color.HSVToColor(hsv);
-        int acolor = Color.HSVToColor(0, hsv);
-
-        mAlphaShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
-                color, acolor, TileMode.CLAMP);
-
-
-        mAlphaPaint.setShader(mAlphaShader);
-
-        canvas.drawRect(rect, mAlphaPaint);
+        // The alpha mask takes the color of the paint.
+        mAlphaPaint.setColor(getColor(0xff));
+        canvas.drawBitmap(mAlphaBitmap, rect.left, rect.top, mAlphaPaint);
 
         if(mAlphaSliderText != null && mAlphaSliderText!= ""){
             canvas.drawText(mAlphaSliderText, rect.centerX(),
@@ -343,7 +355,7 @@ public class ColorPickerView extends View {
 
         Point p = alphaToPoint(mAlpha);
 
-        RectF r = new RectF();
+        RectF r = mTrackerRect;
         r.left = p.x - rectWidth;
         r.right = p.x + rectWidth;
         r.top = rect.top - RECTANGLE_TRACKER_OFFSET;
@@ -354,12 +366,103 @@ public class ColorPickerView extends View {
     }
 
 
+    /**
+     * Creates the panel bitmaps for the current panel sizes.
+     */
+    private void createPanelBitmaps(){
+
+        mValShader = null;
+        mSatShader = null;
+        mHueShader = null;
+        mAlphaShader = null;
+
+        mSatValBitmap = createPanelBitmap(mSatValRect, Bitmap.Config.ARGB_8888);
+        mSatValCanvas = mSatValBitmap == null ? null : new Canvas(mSatValBitmap);
+        mSatValBitmapHue = Float.NaN;
+
+        mHueBitmap = createPanelBitmap(mHueRect, Bitmap.Config.ARGB_8888);
+        if (mHueBitmap != null) {
+            mHueShader = new LinearGradient(0, 0, 0, mHueBitmap.getHeight(),
+                    buildHueColorArray(), null, TileMode.CLAMP);
+            mHuePaint.setShader(mHueShader);
+            new Canvas(mHueBitmap).drawPaint(mHuePaint);
+        }
+
+        mAlphaBitmap = mShowAlphaPanel
+                ? createPanelBitmap(mAlphaRect, Bitmap.Config.ALPHA_8) : null;
+        if (mAlphaBitmap != null) {
+            mAlphaShader = new LinearGradient(0, 0, mAlphaBitmap.getWidth(), 0,
+                    0xff000000, 0x00000000, TileMode.CLAMP);
+            final Paint paint = new Paint();
+            paint.setShader(mAlphaShader);
+            new Canvas(mAlphaBitmap).drawPaint(paint);
+        }
+    }
+
+    private static Bitmap createPanelBitmap(RectF rect, Bitmap.Config config){
+        if (rect == null) return null;
+        final int width = Math.max(1, Math.round(rect.width()));
+        final int height = Math.max(1, Math.round(rect.height()));
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Renders the sat/val plane of the current hue into its bitmap:
+     * the hue, under white fading out with the saturation, under
+     * black fading in with the value.
+     */
+    private void renderSatValBitmap(){
+
+        final Canvas canvas = mSatValCanvas;
+        final int width = mSatValBitmap.getWidth();
+        final int height = mSatValBitmap.getHeight();
+
+        if (mValShader == null) {
+            mSatShader = new LinearGradient(0, 0, width, 0,
+                    0xffffffff, 0x00ffffff, TileMode.CLAMP);
+            mValShader = new LinearGradient(0, 0, 0, height,
+                    0x00000000, 0xff000000, TileMode.CLAMP);
+        }
+
+        final float[] hsv = mHsv;
+        hsv[0] = mHue;
+        hsv[1] = 1f;
+        hsv[2] = 1f;
+        canvas.drawColor(Color.HSVToColor(hsv), PorterDuff.Mode.SRC);
+
+        mSatValPaint.setShader(mSatShader);
+        canvas.drawPaint(mSatValPaint);
+        mSatValPaint.setShader(mValShader);
+        canvas.drawPaint(mSatValPaint);
+
+        mSatValBitmapHue = mHue;
+    }
+
+    private void postColorChanged(){
+        if (mListener == null || mColorChangePending) return;
+        mColorChangePending = true;
+        postOnAnimation(mDispatchColorChanged);
+    }
+
+    private void flushColorChanged(){
+        if (!mColorChangePending) return;
+        removeCallbacks(mDispatchColorChanged);
+        dispatchColorChanged();
+    }
+
+    private void dispatchColorChanged(){
+        mColorChangePending = false;
+        if (mListener != null) {
+            mListener.onColorChanged(getColor());
+        }
+    }
+
     private Point hueToPoint(float hue){
 
         final RectF rect = mHueRect;
         final float height = rect.height();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.y = (int) (height - (hue * height / 360f) + rect.top);
         p.x = (int) rect.left;
@@ -373,7 +476,7 @@ public class ColorPickerView extends View {
         final float height = rect.height();
         final float width = rect.width();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.x = (int) (sat * width + rect.left);
         p.y = (int) ((1f - val) * height + rect.top);
@@ -386,7 +489,7 @@ public class ColorPickerView extends View {
         final RectF rect = mAlphaRect;
         final float width = rect.width();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.x = (int) (width - (alpha * width / 0xff) + rect.left);
         p.y = (int) rect.top;
@@ -398,7 +501,7 @@ public class ColorPickerView extends View {
     private float[] pointToSatVal(float x, float y){
 
         final RectF rect = mSatValRect;
-        float[] result = new float[2];
+        float[] result = mSatVal;
 
         float width = rect.width();
         float height = rect.height();
@@ -558,9 +661,7 @@ public class ColorPickerView extends View {
 
         if(update){
 
-            if(mListener != null){
-                mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[]{mHue, mSat, mVal}));
-            }
+            postColorChanged();
 
             invalidate();
             return true;
@@ -579,7 +680,8 @@ public class ColorPickerView extends View {
 
         case MotionEvent.ACTION_DOWN:
 
-            mStartTouchPoint = new Point((int)event.getX(), (int)event.getY());
+            mStartTouchPoint.set((int)event.getX(), (int)event.getY());
+            mTracking = true;
 
             update = moveTrackersIfNeeded(event);
 
@@ -593,7 +695,7 @@ public class ColorPickerView extends View {
 
         case MotionEvent.ACTION_UP:
 
-            mStartTouchPoint = null;
+            mTracking = false;
 
             update = moveTrackersIfNeeded(event);
 
@@ -603,21 +705,23 @@ public class ColorPickerView extends View {
 
         if(update){
 
-            if(mListener != null){
-                mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[]{mHue, mSat, mVal}));
-            }
+            postColorChanged();
 
             invalidate();
-            return true;
+        }
+
+        if(event.getAction() == MotionEvent.ACTION_UP){
+            // Let the listener see the final color right away.
+            flushColorChanged();
         }
 
 
-        return super.onTouchEvent(event);
+        return update || super.onTouchEvent(event);
     }
 
     private boolean moveTrackersIfNeeded(MotionEvent event){
 
-        if(mStartTouchPoint == null) return false;
+        if(!mTracking) return false;
 
         boolean update = false;
 
@@ -756,6 +860,8 @@ public class ColorPickerView extends View {
         setUpSatValRect();
         setUpHueRect();
         setUpAlphaRect();
+
+        createPanelBitmaps();
     }
 
     private void setUpSatValRect(){
@@ -841,7 +947,15 @@ public class ColorPickerView extends View {
      * @return the current color.
      */
     public int getColor(){
-        return Color.HSVToColor(mAlpha, new float[]{mHue,mSat,mVal});
+        return getColor(mAlpha);
+    }
+
+    private int getColor(int alpha){
+        final float[] hsv = mHsv;
+        hsv[0] = mHue;
+        hsv[1] = mSat;
+        hsv[2] = mVal;
+        return Color.HSVToColor(alpha, hsv);
     }
 
     /**
@@ -865,7 +979,7 @@ public class ColorPickerView extends View {
         int blue = Color.blue(color);
         int green = Color.green(color);
 
-        float[] hsv = new float[3];
+        float[] hsv = mHsv;
 
         Color.RGBToHSV(red, green, blue, hsv);
 
@@ -875,7 +989,9 @@ public class ColorPickerView extends View {
         mVal = hsv[2];
 
         if(callback && mListener != null){
-            mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[]{mHue, mSat, mVal}));
+            removeCallbacks(mDispatchColorChanged);
+            mColorChangePending = false;
+            mListener.onColorChanged(getColor());
         }
 
         invalidate();
@@ -911,7 +1027,7 @@ public class ColorPickerView extends View {
             mValShader = null;
             mSatShader = null;
             mHueShader = null;
-            mAlphaShader = null;;
+            mAlphaShader = null;
 
             requestLayout();
         }
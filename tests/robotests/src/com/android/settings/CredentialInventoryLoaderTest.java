@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Process;
+import android.security.Credentials;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import com.android.internal.widget.LockPatternUtils;
+import com.android.settings.UserCredentialsSettings.Credential;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+public class CredentialInventoryLoaderTest {
+
+    private FakeKeyStore mKeyStore;
+    private CredentialInventoryLoader mLoader;
+
+    @Before
+    public void setUp() {
+        mKeyStore = new FakeKeyStore();
+        mLoader = new CredentialInventoryLoader(mKeyStore);
+    }
+
+    @Test
+    public void load_groupsTypesByAlias() {
+        mKeyStore.put(Credentials.CA_CERTIFICATE + "b", Process.WIFI_UID);
+        mKeyStore.put(Credentials.USER_CERTIFICATE + "a", Process.WIFI_UID);
+        mKeyStore.putKey(Credentials.USER_PRIVATE_KEY + "a", Process.WIFI_UID,
+                true /* asymmetric */);
+
+        final List<Credential> credentials = mLoader.load(Process.WIFI_UID);
+
+        assertThat(credentials).hasSize(2);
+        assertThat(credentials.get(0).alias).isEqualTo("a");
+        assertThat(credentials.get(0).storedTypes).containsExactly(
+                Credential.Type.USER_CERTIFICATE, Credential.Type.USER_KEY);
+        assertThat(credentials.get(1).alias).isEqualTo("b");
+        assertThat(credentials.get(1).storedTypes).containsExactly(
+                Credential.Type.CA_CERTIFICATE);
+        assertThat(mKeyStore.mListCount).isEqualTo(1);
+    }
+
+    @Test
+    public void load_skipsSymmetricAndInternalKeys() {
+        mKeyStore.putKey(Credentials.USER_SECRET_KEY + "secret", Process.SYSTEM_UID,
+                false /* asymmetric */);
+        mKeyStore.put(Credentials.USER_CERTIFICATE
+                + LockPatternUtils.SYNTHETIC_PASSWORD_KEY_PREFIX + "1", Process.SYSTEM_UID);
+        mKeyStore.put("LOCKSCREEN_key", Process.SYSTEM_UID);
+
+        assertThat(mLoader.load(Process.SYSTEM_UID)).isEmpty();
+    }
+
+    @Test
+    public void load_unchanged_reusesKeyMetadata() {
+        mKeyStore.putKey(Credentials.USER_PRIVATE_KEY + "a", Process.WIFI_UID,
+                true /* asymmetric */);
+
+        final List<Credential> first = mLoader.load(Process.WIFI_UID);
+        final List<Credential> second = mLoader.load(Process.WIFI_UID);
+
+        assertThat(second).isSameAs(first);
+        assertThat(mKeyStore.mCharacteristicsCount).isEqualTo(1);
+    }
+
+    @Test
+    public void load_entryAdded_reloads() {
+        mKeyStore.put(Credentials.CA_CERTIFICATE + "a", Process.WIFI_UID);
+        mLoader.load(Process.WIFI_UID);
+
+        mKeyStore.put(Credentials.CA_CERTIFICATE + "b", Process.WIFI_UID);
+
+        assertThat(mLoader.load(Process.WIFI_UID)).hasSize(2);
+    }
+
+    @Test
+    public void invalidate_reloads() {
+        mKeyStore.putKey(Credentials.USER_PRIVATE_KEY + "a", Process.WIFI_UID,
+                true /* asymmetric */);
+        mLoader.load(Process.WIFI_UID);
+
+        mLoader.invalidate();
+        mLoader.load(Process.WIFI_UID);
+
+        assertThat(mKeyStore.mCharacteristicsCount).isEqualTo(2);
+    }
+
+    private static class FakeKeyStore implements CredentialInventoryLoader.KeyStoreSource {
+        private final Map<Integer, Set<String>> mNames = new ArrayMap<>();
+        private final Set<String> mSymmetricKeys = new ArraySet<>();
+        private int mListCount;
+        private int mCharacteristicsCount;
+
+        void put(String name, int uid) {
+            Set<String> names = mNames.get(uid);
+            if (names == null) {
+                names = new ArraySet<>();
+                mNames.put(uid, names);
+            }
+            names.add(name);
+        }
+
+        void putKey(String name, int uid, boolean asymmetric) {
+            put(name, uid);
+            if (!asymmetric) {
+                mSymmetricKeys.add(name);
+            }
+        }
+
+        @Override
+        public String[] list(int uid) {
+            mListCount++;
+            final Set<String> names = mNames.get(uid);
+            return names == null ? new String[0] : names.toArray(new String[names.size()]);
+        }
+
+        @Override
+        public boolean isAsymmetric(String name, int uid) {
+            mCharacteristicsCount++;
+            return !mSymmetricKeys.contains(name);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.accounts;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.accounts.AuthenticatorDescription;
+import android.content.Context;
+import android.os.UserHandle;
+
+import com.android.settings.R;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class AuthenticatorMetadataCacheTest {
+
+    private static final UserHandle USER = UserHandle.of(0);
+
+    private Context mContext;
+    private AuthenticatorMetadataCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mCache = new AuthenticatorMetadataCache(mContext);
+    }
+
+    @Test
+    public void getMetadata_loadsLabelAndIcon() {
+        final AuthenticatorMetadataCache.Metadata metadata =
+                mCache.getMetadata(newDesc(R.string.account_settings_title), USER);
+
+        assertThat(metadata.label.toString())
+                .isEqualTo(mContext.getString(R.string.account_settings_title));
+        assertThat(metadata.getIcon()).isNotNull();
+    }
+
+    @Test
+    public void getIcon_returnsNewInstanceEachTime() {
+        final AuthenticatorMetadataCache.Metadata metadata =
+                mCache.getMetadata(newDesc(R.string.account_settings_title), USER);
+
+        assertThat(metadata.getIcon()).isNotSameAs(metadata.getIcon());
+    }
+
+    @Test
+    public void getMetadata_cached_returnsSameMetadata() {
+        final AuthenticatorDescription desc = newDesc(R.string.account_settings_title);
+
+        assertThat(mCache.getMetadata(desc, USER)).isSameAs(mCache.getMetadata(desc, USER));
+    }
+
+    @Test
+    public void getMetadata_labelChanged_reloads() {
+        mCache.getMetadata(newDesc(R.string.account_settings_title), USER);
+
+        final AuthenticatorMetadataCache.Metadata metadata =
+                mCache.getMetadata(newDesc(R.string.add_account_label), USER);
+
+        assertThat(metadata.label.toString())
+                .isEqualTo(mContext.getString(R.string.add_account_label));
+    }
+
+    @Test
+    public void invalidatePackage_reloads() {
+        final AuthenticatorDescription desc = newDesc(R.string.account_settings_title);
+        final AuthenticatorMetadataCache.Metadata metadata = mCache.getMetadata(desc, USER);
+
+        mCache.invalidatePackage(mContext.getPackageName());
+
+        assertThat(mCache.getMetadata(desc, USER)).isNotSameAs(metadata);
+    }
+
+    private AuthenticatorDescription newDesc(int labelId) {
+        return new AuthenticatorDescription("com.acct1", mContext.getPackageName(), labelId,
+                0 /* iconId */, 0 /* smallIconId */, 0 /* prefId */, false /* customTokens */);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.accounts;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class SyncStateSnapshotTest {
+
+    @Test
+    public void hasSameAdapters_onlySyncStateChanged_isTrue() {
+        final SyncStateSnapshot before = newSnapshot(
+                newState("auth1", false /* active */, 0 /* lastSuccessTime */),
+                newState("auth2", false /* active */, 0 /* lastSuccessTime */));
+        final SyncStateSnapshot after = newSnapshot(
+                newState("auth1", true /* active */, 0 /* lastSuccessTime */),
+                newState("auth2", false /* active */, 1000 /* lastSuccessTime */));
+
+        assertThat(after.hasSameAdapters(before)).isTrue();
+        assertThat(after.getState("auth1")).isNotEqualTo(before.getState("auth1"));
+        assertThat(after.getState("auth2")).isNotEqualTo(before.getState("auth2"));
+    }
+
+    @Test
+    public void hasSameAdapters_authorityAdded_isFalse() {
+        final SyncStateSnapshot before = newSnapshot(
+                newState("auth1", false /* active */, 0 /* lastSuccessTime */));
+        final SyncStateSnapshot after = newSnapshot(
+                newState("auth1", false /* active */, 0 /* lastSuccessTime */),
+                newState("auth2", false /* active */, 0 /* lastSuccessTime */));
+
+        assertThat(after.hasSameAdapters(before)).isFalse();
+        assertThat(after.hasSameAdapters(null)).isFalse();
+    }
+
+    @Test
+    public void getState_unchanged_isEqual() {
+        final SyncStateSnapshot before = newSnapshot(
+                newState("auth1", true /* active */, 1000 /* lastSuccessTime */));
+        final SyncStateSnapshot after = newSnapshot(
+                newState("auth1", true /* active */, 1000 /* lastSuccessTime */));
+
+        assertThat(after.getState("auth1")).isEqualTo(before.getState("auth1"));
+        assertThat(after.getState("auth2")).isNull();
+    }
+
+    @Test
+    public void isSyncing_activeAuthority_isTrue() {
+        assertThat(newSnapshot(newState("auth1", true /* active */, 0 /* lastSuccessTime */))
+                .isSyncing()).isTrue();
+        assertThat(newSnapshot(newState("auth1", false /* active */, 0 /* lastSuccessTime */))
+                .isSyncing()).isFalse();
+    }
+
+    @Test
+    public void isSyncFailing_failedAndNotRetrying_isTrue() {
+        final SyncStateSnapshot snapshot = newSnapshot(new SyncStateSnapshot.AuthorityState(
+                "auth1", "pkg", 1 /* uid */, true /* syncEnabled */, false /* active */,
+                false /* pending */, true /* lastSyncFailed */, 0 /* lastSuccessTime */));
+
+        assertThat(snapshot.isSyncFailing()).isTrue();
+    }
+
+    private static SyncStateSnapshot newSnapshot(SyncStateSnapshot.AuthorityState... states) {
+        return new SyncStateSnapshot(Arrays.asList(states), Collections.emptyList(),
+                true /* masterSyncAutomatically */, false /* anySyncActive */);
+    }
+
+    private static SyncStateSnapshot.AuthorityState newState(String authority, boolean active,
+            long lastSuccessTime) {
+        return new SyncStateSnapshot.AuthorityState(authority, "pkg", 1 /* uid */,
+                true /* syncEnabled */, active, false /* pending */, false /* lastSyncFailed */,
+                lastSuccessTime);
+    }
+}
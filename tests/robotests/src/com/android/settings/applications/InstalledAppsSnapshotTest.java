@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.UserInfo;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class InstalledAppsSnapshotTest {
+
+    private static final int MAIN_USER_ID = 0;
+    private static final int MANAGED_PROFILE_ID = 10;
+
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private UserManager mUserManager;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        InstalledAppsSnapshot.reset();
+
+        final ApplicationInfo app = new ApplicationInfo();
+        app.packageName = "app";
+        when(mUserManager.getProfiles(UserHandle.myUserId())).thenReturn(Arrays.asList(
+                new UserInfo(MAIN_USER_ID, "main", UserInfo.FLAG_ADMIN),
+                new UserInfo(MANAGED_PROFILE_ID, "managed profile", 0)));
+        when(mPackageManager.getInstalledApplicationsAsUser(anyInt(), anyInt()))
+                .thenReturn(Collections.singletonList(app));
+    }
+
+    @After
+    public void tearDown() {
+        InstalledAppsSnapshot.reset();
+    }
+
+    @Test
+    public void get_notTracking_enumeratesEveryTime() {
+        InstalledAppsSnapshot.get(mPackageManager, mUserManager);
+        InstalledAppsSnapshot.get(mPackageManager, mUserManager);
+
+        verify(mPackageManager, times(4)).getInstalledApplicationsAsUser(anyInt(), anyInt());
+    }
+
+    @Test
+    public void get_tracking_enumeratesOnce() {
+        InstalledAppsSnapshot.startTracking(RuntimeEnvironment.application);
+
+        final InstalledAppsSnapshot snapshot =
+                InstalledAppsSnapshot.get(mPackageManager, mUserManager);
+
+        assertThat(InstalledAppsSnapshot.get(mPackageManager, mUserManager)).isSameAs(snapshot);
+        assertThat(snapshot.getProfiles()).hasSize(2);
+        assertThat(snapshot.getProfiles().get(1).user.id).isEqualTo(MANAGED_PROFILE_ID);
+        verify(mPackageManager, times(2)).getInstalledApplicationsAsUser(anyInt(), anyInt());
+    }
+
+    @Test
+    public void get_tracking_otherManagers_reusesSnapshot() {
+        InstalledAppsSnapshot.startTracking(RuntimeEnvironment.application);
+        final PackageManager otherPackageManager = mock(PackageManager.class);
+        final UserManager otherUserManager = mock(UserManager.class);
+        final List<UserInfo> profiles = mUserManager.getProfiles(UserHandle.myUserId());
+        when(otherUserManager.getProfiles(UserHandle.myUserId())).thenReturn(profiles);
+
+        final InstalledAppsSnapshot snapshot =
+                InstalledAppsSnapshot.get(mPackageManager, mUserManager);
+
+        assertThat(InstalledAppsSnapshot.get(otherPackageManager, otherUserManager))
+                .isSameAs(snapshot);
+        verify(otherPackageManager, never()).getInstalledApplicationsAsUser(anyInt(), anyInt());
+    }
+
+    @Test
+    public void get_afterInvalidate_enumeratesAgain() {
+        InstalledAppsSnapshot.startTracking(RuntimeEnvironment.application);
+        InstalledAppsSnapshot.get(mPackageManager, mUserManager);
+
+        InstalledAppsSnapshot.invalidate();
+        InstalledAppsSnapshot.get(mPackageManager, mUserManager);
+
+        verify(mPackageManager, times(4)).getInstalledApplicationsAsUser(anyInt(), anyInt());
+    }
+
+    @Test
+    public void get_profilesChanged_enumeratesAgain() {
+        InstalledAppsSnapshot.startTracking(RuntimeEnvironment.application);
+        InstalledAppsSnapshot.get(mPackageManager, mUserManager);
+
+        when(mUserManager.getProfiles(UserHandle.myUserId())).thenReturn(Arrays.asList(
+                new UserInfo(MAIN_USER_ID, "main", UserInfo.FLAG_ADMIN)));
+        final InstalledAppsSnapshot snapshot =
+                InstalledAppsSnapshot.get(mPackageManager, mUserManager);
+
+        assertThat(snapshot.getProfiles()).hasSize(1);
+        verify(mPackageManager, times(3)).getInstalledApplicationsAsUser(anyInt(), anyInt());
+    }
+}
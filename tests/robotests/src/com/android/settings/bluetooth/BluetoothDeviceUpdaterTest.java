@@ -25,6 +25,7 @@ import static org.mockito.Mockito.when;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 
@@ -48,6 +49,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowLooper;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -83,6 +85,7 @@ public class BluetoothDeviceUpdaterTest {
     private BluetoothDevicePreference mPreference;
     private ShadowBluetoothAdapter mShadowBluetoothAdapter;
     private List<CachedBluetoothDevice> mCachedDevices = new ArrayList<CachedBluetoothDevice>();
+    private int mFilterMatchedCount;
 
     @Before
     public void setUp() {
@@ -105,6 +108,7 @@ public class BluetoothDeviceUpdaterTest {
                     mLocalManager) {
             @Override
             public boolean isFilterMatched(CachedBluetoothDevice cachedBluetoothDevice) {
+                mFilterMatchedCount++;
                 return true;
             }
         };
@@ -250,4 +254,34 @@ public class BluetoothDeviceUpdaterTest {
         verify(mDevicePreferenceCallback).onDeviceRemoved(mPreference);
         assertThat(mBluetoothDeviceUpdater.mPreferenceMap.containsKey(mBluetoothDevice)).isFalse();
     }
+
+    @Test
+    public void deviceEvents_sameBatch_evaluateDeviceOnce() {
+        ShadowLooper.pauseMainLooper();
+        mBluetoothDeviceUpdater.onAclConnectionStateChanged(mCachedBluetoothDevice,
+                BluetoothAdapter.STATE_CONNECTED);
+        mBluetoothDeviceUpdater.onProfileConnectionStateChanged(mCachedBluetoothDevice,
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.A2DP);
+
+        verify(mDevicePreferenceCallback, never()).onDeviceAdded(any(Preference.class));
+
+        ShadowLooper.unPauseMainLooper();
+
+        assertThat(mFilterMatchedCount).isEqualTo(1);
+        verify(mDevicePreferenceCallback).onDeviceAdded(any(Preference.class));
+    }
+
+    @Test
+    public void onServiceConnected_deviceStateUnchanged_skipDevice() {
+        mShadowBluetoothAdapter.setEnabled(true);
+        mBluetoothDeviceUpdater.onServiceConnected();
+        mBluetoothDeviceUpdater.onServiceConnected();
+
+        assertThat(mFilterMatchedCount).isEqualTo(1);
+
+        doReturn(true).when(mBluetoothDevice).isConnected();
+        mBluetoothDeviceUpdater.onServiceConnected();
+
+        assertThat(mFilterMatchedCount).isEqualTo(2);
+    }
 }
@@ -21,28 +21,49 @@ import static com.android.settingslib.drawer.TileUtils.META_DATA_KEY_ORDER;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.Mockito.spy;
+
 import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
 import android.os.Bundle;
+import android.os.UserManager;
+import android.util.ArrayMap;
 import android.util.Pair;
 
 import com.android.settingslib.drawer.CategoryKey;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
+import com.android.settingslib.drawer.TileUtils;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RunWith(RobolectricTestRunner.class)
 public class CategoryManagerTest {
 
+    private static final TileCatalog.Environment ENVIRONMENT = new TileCatalog.Environment(
+            "fingerprint", 3 /* bootCount */, 0 /* currentUserId */, new int[] {0},
+            true /* provisioned */);
+
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private UserManager mUserManager;
+
     private ActivityInfo mActivityInfo;
     private Context mContext;
     private CategoryManager mCategoryManager;
@@ -51,6 +72,7 @@ public class CategoryManagerTest {
 
     @Before
     public void setUp() {
+        MockitoAnnotations.initMocks(this);
         mContext = RuntimeEnvironment.application;
         mActivityInfo = new ActivityInfo();
         mActivityInfo.packageName = "pkg";
@@ -393,4 +415,54 @@ public class CategoryManagerTest {
 
         assertThat(category.getTilesCount()).isEqualTo(1);
     }
+
+    @Test
+    public void reloadPackages_shouldAddAndRemovePackageTiles() throws Exception {
+        final Context context = spy(mContext);
+        final Map<String, List<ResolveInfo>> resolveInfos = new ArrayMap<>();
+        TileCatalogTest.setUpPackageManager(context, mPackageManager, mUserManager,
+                resolveInfos);
+        final CategoryManager categoryManager = new CategoryManager(context);
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+        catalog.putPackage("old", 1 /* versionCode */, Collections.singletonList(
+                new Tile(createActivityInfo("old"), CategoryKey.CATEGORY_ACCOUNT)));
+        categoryManager.setCatalog(context, catalog, false /* persist */);
+        resolveInfos.put(TileUtils.IA_SETTINGS_ACTION, Collections.singletonList(
+                TileCatalogTest.createResolveInfo("new", "class", CategoryKey.CATEGORY_SYSTEM)));
+
+        categoryManager.reloadPackages(context, Arrays.asList("old", "new"));
+
+        assertThat(categoryManager.getTilesByCategory(context, CategoryKey.CATEGORY_ACCOUNT))
+                .isNull();
+        final DashboardCategory system =
+                categoryManager.getTilesByCategory(context, CategoryKey.CATEGORY_SYSTEM);
+        assertThat(system.getTilesCount()).isEqualTo(1);
+        assertThat(system.getTile(0).getPackageName()).isEqualTo("new");
+    }
+
+    @Test
+    public void reloadPackages_settingsActionOfOtherPackage_shouldNotAddTile() throws Exception {
+        final Context context = spy(mContext);
+        final Map<String, List<ResolveInfo>> resolveInfos = new ArrayMap<>();
+        TileCatalogTest.setUpPackageManager(context, mPackageManager, mUserManager,
+                resolveInfos);
+        final CategoryManager categoryManager = new CategoryManager(context);
+        categoryManager.setCatalog(context,
+                new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */), false /* persist */);
+        resolveInfos.put(TileCatalog.SETTINGS_ACTION, Collections.singletonList(
+                TileCatalogTest.createResolveInfo("pkg", "class", CategoryKey.CATEGORY_SYSTEM)));
+
+        categoryManager.reloadPackages(context, Collections.singletonList("pkg"));
+
+        assertThat(categoryManager.getCategories(context)).isEmpty();
+    }
+
+    private static ActivityInfo createActivityInfo(String packageName) {
+        final ActivityInfo activityInfo = new ActivityInfo();
+        activityInfo.packageName = packageName;
+        activityInfo.name = "class";
+        activityInfo.metaData = new Bundle();
+        activityInfo.applicationInfo = new ApplicationInfo();
+        return activityInfo;
+    }
 }
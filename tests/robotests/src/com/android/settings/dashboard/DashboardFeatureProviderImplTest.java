@@ -81,6 +81,7 @@ import org.robolectric.shadows.ShadowActivity;
 import org.robolectric.util.ReflectionHelpers;
 
 import java.util.ArrayList;
+import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(shadows = ShadowUserManager.class)
@@ -262,6 +263,23 @@ public class DashboardFeatureProviderImplTest {
         assertThat(preference.getSummary()).isEqualTo(ShadowTileUtils.MOCK_SUMMARY);
     }
 
+    @Test
+    @Config(shadows = {ShadowTileUtils.class, ShadowThreadUtils.class})
+    public void bindPreference_withSummaryListener_shouldNotifyOnceSummaryIsLoaded() {
+        final Preference preference = new Preference(RuntimeEnvironment.application);
+        final Tile tile = new Tile(mActivityInfo, CategoryKey.CATEGORY_HOMEPAGE);
+        mActivityInfo.metaData.remove(META_DATA_PREFERENCE_SUMMARY);
+        mActivityInfo.metaData.putString(TileUtils.META_DATA_PREFERENCE_SUMMARY_URI,
+                "content://com.android.settings/tile_summary");
+        final List<CharSequence> notified = new ArrayList<>();
+
+        mImpl.bindPreferenceToTile(mActivity, mForceRoundedIcon, MetricsEvent.VIEW_UNKNOWN,
+                preference, tile, null /*key */, Preference.DEFAULT_ORDER,
+                null /* iconListener */, pref -> notified.add(pref.getSummary()));
+
+        assertThat(notified).containsExactly(ShadowTileUtils.MOCK_SUMMARY);
+    }
+
     @Test
     public void bindPreference_withNullKeyTileKey_shouldUseTileKey() {
         final Preference preference = new Preference(RuntimeEnvironment.application);
@@ -282,8 +300,24 @@ public class DashboardFeatureProviderImplTest {
         mActivityInfo.metaData.putString(META_DATA_PREFERENCE_KEYHINT, "key");
         mActivityInfo.metaData.putString(TileUtils.META_DATA_PREFERENCE_ICON_URI,
                 "content://com.android.settings/tile_icon");
-        mImpl.bindIcon(preference, tile, false /* forceRoundedIcon */);
+        mImpl.bindIcon(preference, tile, false /* forceRoundedIcon */, null /* iconListener */);
+
+        assertThat(preference.getIcon()).isNotNull();
+    }
+
+    @Test
+    @Config(shadows = {ShadowTileUtils.class, ShadowThreadUtils.class})
+    public void bindIcon_withIconListener_shouldNotifyOnceIconIsSet() {
+        final Preference preference = new Preference(RuntimeEnvironment.application);
+        mActivityInfo.packageName = RuntimeEnvironment.application.getPackageName();
+        final Tile tile = new Tile(mActivityInfo, CategoryKey.CATEGORY_HOMEPAGE);
+        mActivityInfo.metaData.putString(TileUtils.META_DATA_PREFERENCE_ICON_URI,
+                "content://com.android.settings/tile_icon");
+        final List<Preference> notified = new ArrayList<>();
+
+        mImpl.bindIcon(preference, tile, false /* forceRoundedIcon */, notified::add);
 
+        assertThat(notified).containsExactly(preference);
         assertThat(preference.getIcon()).isNotNull();
     }
 
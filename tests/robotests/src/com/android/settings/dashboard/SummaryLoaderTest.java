@@ -29,6 +29,7 @@ import android.content.pm.ActivityInfo;
 import android.os.Bundle;
 
 import com.android.settings.testutils.FakeFeatureFactory;
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
 import com.android.settingslib.drawer.CategoryKey;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
@@ -40,6 +41,7 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
 
 @RunWith(RobolectricTestRunner.class)
 public class SummaryLoaderTest {
@@ -76,6 +78,20 @@ public class SummaryLoaderTest {
         verifyZeroInteractions(mFeatureFactory.dashboardFeatureProvider);
     }
 
+    @Test
+    @Config(shadows = ShadowThreadUtils.class)
+    public void setListening_noTiles_shouldNotifyLoaded() {
+        final boolean[] loaded = new boolean[1];
+        mSummaryLoader.setSummariesLoadedListener(() -> loaded[0] = true);
+        assertThat(mSummaryLoader.isLoaded()).isFalse();
+
+        mSummaryLoader.setListening(true);
+        Robolectric.flushBackgroundThreadScheduler();
+
+        assertThat(mSummaryLoader.isLoaded()).isTrue();
+        assertThat(loaded[0]).isTrue();
+    }
+
     @Test
     public void testUpdateSummaryIfNeeded_SummaryIdentical_NoCallback() {
         mSummaryLoader.updateSummaryIfNeeded(mContext, mTile, SUMMARY_1);
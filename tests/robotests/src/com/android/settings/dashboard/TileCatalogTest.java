@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Bundle;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArrayMap;
+import android.util.Pair;
+
+import com.android.settingslib.drawer.CategoryKey;
+import com.android.settingslib.drawer.Tile;
+import com.android.settingslib.drawer.TileUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileCatalogTest {
+
+    private static final TileCatalog.Environment ENVIRONMENT = new TileCatalog.Environment(
+            "fingerprint", 3 /* bootCount */, 0 /* currentUserId */, new int[] {0, 10},
+            true /* provisioned */);
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private UserManager mUserManager;
+
+    private Context mContext;
+    private File mFile;
+    private Map<String, List<ResolveInfo>> mResolveInfos;
+    private Map<Pair<String, String>, Tile> mTileByComponentCache;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mFile = new File(mTemporaryFolder.getRoot(), "tile_catalog");
+        mResolveInfos = new ArrayMap<>();
+        mTileByComponentCache = new ArrayMap<>();
+        mContext = spy(RuntimeEnvironment.application);
+        setUpPackageManager(mContext, mPackageManager, mUserManager, mResolveInfos);
+    }
+
+    /**
+     * Makes {@code context} resolve the activities of {@code resolveInfos}, keyed by action, for
+     * intents targeting their package.
+     */
+    static void setUpPackageManager(Context context, PackageManager packageManager,
+            UserManager userManager, Map<String, List<ResolveInfo>> resolveInfos)
+            throws Exception {
+        doReturn(packageManager).when(context).getPackageManager();
+        doReturn(userManager).when(context).getSystemService(Context.USER_SERVICE);
+        when(userManager.getUserProfiles()).thenReturn(Collections.singletonList(UserHandle.of(0)));
+        when(packageManager.getPackageInfo(anyString(), anyInt())).thenReturn(new PackageInfo());
+        when(packageManager.queryIntentActivitiesAsUser(any(Intent.class), anyInt(), anyInt()))
+                .thenAnswer(invocation -> {
+                    final Intent intent = invocation.getArgument(0);
+                    final List<ResolveInfo> results = new ArrayList<>();
+                    final List<ResolveInfo> infos = resolveInfos.get(intent.getAction());
+                    if (infos != null) {
+                        for (ResolveInfo info : infos) {
+                            if (info.activityInfo.packageName.equals(intent.getPackage())) {
+                                results.add(info);
+                            }
+                        }
+                    }
+                    return results;
+                });
+    }
+
+    static ResolveInfo createResolveInfo(String packageName, String className,
+            String category) {
+        final ResolveInfo info = new ResolveInfo();
+        info.system = true;
+        info.activityInfo = new ActivityInfo();
+        info.activityInfo.packageName = packageName;
+        info.activityInfo.name = className;
+        info.activityInfo.metaData = new Bundle();
+        info.activityInfo.metaData.putString(TileUtils.EXTRA_CATEGORY_KEY, category);
+        info.activityInfo.applicationInfo = new ApplicationInfo();
+        return info;
+    }
+
+    @Test
+    public void write_read_restoresTiles() {
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 42 /* sequenceNumber */);
+        catalog.putPackage("pkg", 7 /* versionCode */, Arrays.asList(
+                createTile("pkg", "class1", CategoryKey.CATEGORY_ACCOUNT),
+                createTile("pkg", "class2", CategoryKey.CATEGORY_SYSTEM)));
+
+        catalog.write(mFile);
+        final TileCatalog restored = TileCatalog.read(mFile);
+
+        assertThat(restored).isNotNull();
+        assertThat(restored.isValidFor(ENVIRONMENT)).isTrue();
+        final List<Tile> tiles = restored.getTiles();
+        assertThat(tiles).hasSize(2);
+        assertThat(tiles.get(0).getPackageName()).isEqualTo("pkg");
+        assertThat(tiles.get(0).getIntent().getComponent().getClassName()).isEqualTo("class1");
+        assertThat(tiles.get(0).getCategory()).isEqualTo(CategoryKey.CATEGORY_ACCOUNT);
+        assertThat(tiles.get(1).getCategory()).isEqualTo(CategoryKey.CATEGORY_SYSTEM);
+    }
+
+    @Test
+    public void read_noFile_returnsNull() {
+        assertThat(TileCatalog.read(mFile)).isNull();
+    }
+
+    @Test
+    public void isValidFor_otherBoot_isFalse() {
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+
+        assertThat(catalog.isValidFor(new TileCatalog.Environment("fingerprint",
+                4 /* bootCount */, 0 /* currentUserId */, new int[] {0, 10},
+                true /* provisioned */))).isFalse();
+    }
+
+    @Test
+    public void isValidFor_otherProfiles_isFalse() {
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+
+        assertThat(catalog.isValidFor(new TileCatalog.Environment("fingerprint",
+                3 /* bootCount */, 0 /* currentUserId */, new int[] {0},
+                true /* provisioned */))).isFalse();
+    }
+
+    @Test
+    public void putPackage_noTiles_removesPackage() {
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+        catalog.putPackage("pkg", 1 /* versionCode */, Collections.singletonList(
+                createTile("pkg", "class", CategoryKey.CATEGORY_ACCOUNT)));
+
+        catalog.putPackage("pkg", 2 /* versionCode */, Collections.emptyList());
+
+        assertThat(catalog.getTiles()).isEmpty();
+    }
+
+    @Test
+    public void reloadPackage_newPackage_addsTiles() {
+        mResolveInfos.put(TileUtils.IA_SETTINGS_ACTION, Collections.singletonList(
+                createResolveInfo("pkg", "class", CategoryKey.CATEGORY_SYSTEM)));
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+
+        assertThat(catalog.reloadPackage(mContext, "pkg", mTileByComponentCache)).isTrue();
+
+        final List<Tile> tiles = catalog.getTiles();
+        assertThat(tiles).hasSize(1);
+        assertThat(tiles.get(0).getCategory()).isEqualTo(CategoryKey.CATEGORY_SYSTEM);
+        assertThat(mTileByComponentCache).containsKey(new Pair<>("pkg", "class"));
+    }
+
+    @Test
+    public void reloadPackage_packageWithoutTiles_removesTiles() {
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+        final Tile tile = createTile("pkg", "class", CategoryKey.CATEGORY_SYSTEM);
+        catalog.putPackage("pkg", 1 /* versionCode */, Collections.singletonList(tile));
+        mTileByComponentCache.put(new Pair<>("pkg", "class"), tile);
+
+        assertThat(catalog.reloadPackage(mContext, "pkg", mTileByComponentCache)).isTrue();
+
+        assertThat(catalog.getTiles()).isEmpty();
+        assertThat(mTileByComponentCache).isEmpty();
+    }
+
+    @Test
+    public void reloadPackage_packageNeverWithTiles_returnsFalse() {
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+
+        assertThat(catalog.reloadPackage(mContext, "pkg", mTileByComponentCache)).isFalse();
+    }
+
+    @Test
+    public void reloadPackage_settingsActionOfOtherPackage_isIgnored() {
+        mResolveInfos.put(TileCatalog.SETTINGS_ACTION, Collections.singletonList(
+                createResolveInfo("pkg", "class", CategoryKey.CATEGORY_SYSTEM)));
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+
+        assertThat(catalog.reloadPackage(mContext, "pkg", mTileByComponentCache)).isFalse();
+        assertThat(catalog.getTiles()).isEmpty();
+    }
+
+    @Test
+    public void reloadPackage_settingsActionOfSettings_addsTile() {
+        mResolveInfos.put(TileCatalog.SETTINGS_ACTION, Collections.singletonList(
+                createResolveInfo("com.android.settings", "class", CategoryKey.CATEGORY_SYSTEM)));
+        final TileCatalog catalog = new TileCatalog(ENVIRONMENT, 0 /* sequenceNumber */);
+
+        assertThat(catalog.reloadPackage(mContext, "com.android.settings",
+                mTileByComponentCache)).isTrue();
+        assertThat(catalog.getTiles()).hasSize(1);
+    }
+
+    private static Tile createTile(String packageName, String className, String category) {
+        final ActivityInfo activityInfo = new ActivityInfo();
+        activityInfo.packageName = packageName;
+        activityInfo.name = className;
+        activityInfo.metaData = new Bundle();
+        activityInfo.applicationInfo = new ApplicationInfo();
+        return new Tile(activityInfo, category);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.Icon;
+import android.os.Bundle;
+
+import com.android.settings.R;
+import com.android.settingslib.drawer.CategoryKey;
+import com.android.settingslib.drawer.Tile;
+import com.android.settingslib.widget.AdaptiveIcon;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileIconLoaderTest {
+
+    private Context mContext;
+    private TileIconLoader mLoader;
+    private Tile mTile;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mLoader = new TileIconLoader(mContext);
+        final ActivityInfo activityInfo = new ActivityInfo();
+        activityInfo.packageName = mContext.getPackageName();
+        activityInfo.name = "class";
+        activityInfo.metaData = new Bundle();
+        mTile = spy(new Tile(activityInfo, CategoryKey.CATEGORY_HOMEPAGE));
+    }
+
+    @Test
+    public void loadIcon_resourceIcon_isCached() {
+        doReturn(Icon.createWithResource(mContext, R.drawable.ic_settings_24dp))
+                .when(mTile).getIcon(any(Context.class));
+        final List<Drawable> icons = new ArrayList<>();
+
+        mLoader.loadIcon(mContext, mTile, false /* rounded */, icons::add);
+
+        assertThat(icons).hasSize(1);
+        assertThat(icons.get(0)).isNotNull();
+        final Drawable cached = mLoader.getCachedIcon(mContext, mTile, false /* rounded */);
+        assertThat(cached).isNotNull();
+        assertThat(cached).isNotSameAs(icons.get(0));
+        assertThat(mLoader.getCachedIcon(mContext, mTile, true /* rounded */)).isNull();
+    }
+
+    @Test
+    public void getCachedIcon_rounded_returnsAdaptiveIcon() {
+        doReturn(Icon.createWithResource(mContext, R.drawable.ic_settings_24dp))
+                .when(mTile).getIcon(any(Context.class));
+        final List<Drawable> icons = new ArrayList<>();
+
+        mLoader.loadIcon(mContext, mTile, true /* rounded */, icons::add);
+
+        assertThat(icons.get(0)).isInstanceOf(AdaptiveIcon.class);
+        assertThat(mLoader.getCachedIcon(mContext, mTile, true /* rounded */))
+                .isInstanceOf(AdaptiveIcon.class);
+    }
+
+    @Test
+    public void loadIcon_changedIcon_shouldNotChangeCachedIcon() {
+        doReturn(Icon.createWithResource(mContext, R.drawable.ic_settings_24dp))
+                .when(mTile).getIcon(any(Context.class));
+        final List<Drawable> icons = new ArrayList<>();
+        mLoader.loadIcon(mContext, mTile, false /* rounded */, icons::add);
+
+        icons.get(0).setAlpha(10);
+        final Drawable cached = mLoader.getCachedIcon(mContext, mTile, false /* rounded */);
+        cached.setAlpha(20);
+
+        assertThat(mLoader.getCachedIcon(mContext, mTile, false /* rounded */).getAlpha())
+                .isEqualTo(255);
+        assertThat(icons.get(0).getAlpha()).isEqualTo(10);
+    }
+
+    @Test
+    public void loadIcon_bitmapIcon_isNotCached() {
+        doReturn(Icon.createWithBitmap(Bitmap.createBitmap(1, 1, Bitmap.Config.RGB_565)))
+                .when(mTile).getIcon(any(Context.class));
+        final List<Drawable> icons = new ArrayList<>();
+
+        mLoader.loadIcon(mContext, mTile, false /* rounded */, icons::add);
+
+        assertThat(icons).hasSize(1);
+        assertThat(mLoader.getCachedIcon(mContext, mTile, false /* rounded */)).isNull();
+    }
+
+    @Test
+    public void loadIcon_noIcon_passesNull() {
+        doReturn(null).when(mTile).getIcon(any(Context.class));
+        final List<Drawable> icons = new ArrayList<>();
+
+        mLoader.loadIcon(mContext, mTile, false /* rounded */, icons::add);
+
+        assertThat(icons).containsExactly((Drawable) null);
+    }
+
+    @Test
+    public void prewarm_cachedIcon_doesNotLoadAgain() {
+        doReturn(Icon.createWithResource(mContext, R.drawable.ic_settings_24dp))
+                .when(mTile).getIcon(any(Context.class));
+
+        mLoader.prewarm(mContext, Collections.singletonList(mTile), false /* forceRoundedIcon */);
+        mLoader.prewarm(mContext, Collections.singletonList(mTile), false /* forceRoundedIcon */);
+
+        verify(mTile, times(1)).getIcon(any(Context.class));
+    }
+
+    @Test
+    public void isRounded_settingsTile_isFalse() {
+        assertThat(mLoader.isRounded(mTile, true /* forceRoundedIcon */)).isFalse();
+    }
+}
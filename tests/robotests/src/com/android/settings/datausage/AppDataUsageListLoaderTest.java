@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.when;
+
+import android.net.NetworkTemplate;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.text.format.DateUtils;
+import android.util.SparseLongArray;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppDataUsageListLoaderTest {
+
+    private static final int CURRENT_USER = 0;
+    private static final int MANAGED_USER = 10;
+    private static final int REMOVED_USER = 11;
+    private static final int APP_UID = UserHandle.getUid(CURRENT_USER, 10001);
+    private static final int MANAGED_APP_UID = UserHandle.getUid(MANAGED_USER, 10002);
+    private static final int REMOVED_APP_UID = UserHandle.getUid(REMOVED_USER, 10003);
+    private static final int RESTRICTED_UID = UserHandle.getUid(CURRENT_USER, 10004);
+    private static final long CLOSED_START = 1000;
+    private static final long CLOSED_END = 2000;
+
+    @Mock
+    private UserManager mUserManager;
+
+    private List<UserHandle> mProfiles;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mProfiles = new ArrayList<>();
+        mProfiles.add(new UserHandle(CURRENT_USER));
+        mProfiles.add(new UserHandle(MANAGED_USER));
+        when(mUserManager.getUserInfo(REMOVED_USER)).thenReturn(null);
+    }
+
+    @After
+    public void tearDown() {
+        AppDataUsageListLoader.clearCache();
+    }
+
+    @Test
+    public void buildAppItems_shouldCollapseByUserAndCategory() {
+        final SparseLongArray uidBytes = new SparseLongArray();
+        uidBytes.put(APP_UID, 100);
+        uidBytes.put(MANAGED_APP_UID, 50);
+        uidBytes.put(REMOVED_APP_UID, 20);
+        uidBytes.put(Process.SYSTEM_UID, 5);
+        uidBytes.put(Process.PHONE_UID, 7);
+
+        final List<AppItem> items = AppDataUsageListLoader.buildAppItems(uidBytes, CURRENT_USER,
+                mProfiles, mUserManager, new int[0]);
+
+        assertThat(findItem(items, APP_UID).total).isEqualTo(100);
+        assertThat(findItem(items, MANAGED_APP_UID).total).isEqualTo(50);
+        final AppItem managedUser = findItem(items,
+                UidDetailProvider.buildKeyForUser(MANAGED_USER));
+        assertThat(managedUser.total).isEqualTo(50);
+        assertThat(managedUser.category).isEqualTo(AppItem.CATEGORY_USER);
+        assertThat(findItem(items, UID_REMOVED).total).isEqualTo(20);
+        assertThat(findItem(items, Process.SYSTEM_UID).total).isEqualTo(12);
+        assertThat(items).hasSize(5);
+    }
+
+    @Test
+    public void buildAppItems_restrictedUidWithoutUsage_shouldAddRestrictedItem() {
+        final SparseLongArray uidBytes = new SparseLongArray();
+        uidBytes.put(APP_UID, 100);
+
+        final List<AppItem> items = AppDataUsageListLoader.buildAppItems(uidBytes, CURRENT_USER,
+                mProfiles, mUserManager, new int[] {APP_UID, RESTRICTED_UID});
+
+        assertThat(findItem(items, APP_UID).restricted).isTrue();
+        assertThat(findItem(items, APP_UID).total).isEqualTo(100);
+        assertThat(findItem(items, RESTRICTED_UID).restricted).isTrue();
+        assertThat(findItem(items, RESTRICTED_UID).total).isEqualTo(-1);
+    }
+
+    @Test
+    public void buildAppItems_shouldSortByUsage() {
+        final SparseLongArray uidBytes = new SparseLongArray();
+        uidBytes.put(APP_UID, 10);
+        uidBytes.put(RESTRICTED_UID, 1000);
+
+        final List<AppItem> items = AppDataUsageListLoader.buildAppItems(uidBytes, CURRENT_USER,
+                mProfiles, mUserManager, new int[0]);
+
+        assertThat(items.get(0).key).isEqualTo(RESTRICTED_UID);
+        assertThat(items.get(1).key).isEqualTo(APP_UID);
+    }
+
+    @Test
+    public void getCachedUidBytes_otherSubscriber_shouldNotShareEntry() {
+        final NetworkTemplate sim1 = NetworkTemplate.buildTemplateMobileAll("310260000000001");
+        final NetworkTemplate sim2 = NetworkTemplate.buildTemplateMobileAll("310260000000002");
+        final SparseLongArray sim1Bytes = new SparseLongArray();
+        sim1Bytes.put(APP_UID, 100);
+
+        AppDataUsageListLoader.putCachedUidBytes(sim1, CLOSED_START, CLOSED_END, sim1Bytes,
+                0 /* now */);
+
+        assertThat(AppDataUsageListLoader.getCachedUidBytes(sim1, CLOSED_START, CLOSED_END,
+                0 /* now */)).isSameAs(sim1Bytes);
+        assertThat(AppDataUsageListLoader.getCachedUidBytes(sim2, CLOSED_START, CLOSED_END,
+                0 /* now */)).isNull();
+    }
+
+    @Test
+    public void getCachedUidBytes_sameCycle_shouldHitCache() {
+        final NetworkTemplate template = NetworkTemplate.buildTemplateMobileAll("310260000000001");
+        final SparseLongArray uidBytes = new SparseLongArray();
+
+        AppDataUsageListLoader.putCachedUidBytes(template, CLOSED_START, CLOSED_END, uidBytes,
+                0 /* now */);
+
+        assertThat(AppDataUsageListLoader.getCachedUidBytes(
+                NetworkTemplate.buildTemplateMobileAll("310260000000001"), CLOSED_START,
+                CLOSED_END, AppDataUsageListLoader.OPEN_CYCLE_TTL_MS * 10)).isSameAs(uidBytes);
+        assertThat(AppDataUsageListLoader.getCachedUidBytes(template, CLOSED_START,
+                CLOSED_END + 1, 0 /* now */)).isNull();
+    }
+
+    @Test
+    public void getCachedUidBytes_openCycleAfterTtl_shouldInvalidate() {
+        final NetworkTemplate template = NetworkTemplate.buildTemplateMobileAll("310260000000001");
+        final long end = System.currentTimeMillis() + DateUtils.DAY_IN_MILLIS;
+        final SparseLongArray uidBytes = new SparseLongArray();
+
+        AppDataUsageListLoader.putCachedUidBytes(template, CLOSED_START, end, uidBytes,
+                1000 /* now */);
+
+        assertThat(AppDataUsageListLoader.getCachedUidBytes(template, CLOSED_START, end,
+                1000 + AppDataUsageListLoader.OPEN_CYCLE_TTL_MS - 1)).isSameAs(uidBytes);
+        assertThat(AppDataUsageListLoader.getCachedUidBytes(template, CLOSED_START, end,
+                1000 + AppDataUsageListLoader.OPEN_CYCLE_TTL_MS)).isNull();
+    }
+
+    @Test
+    public void clearCache_shouldInvalidate() {
+        final NetworkTemplate template = NetworkTemplate.buildTemplateMobileAll("310260000000001");
+        AppDataUsageListLoader.putCachedUidBytes(template, CLOSED_START, CLOSED_END,
+                new SparseLongArray(), 0 /* now */);
+
+        AppDataUsageListLoader.clearCache();
+
+        assertThat(AppDataUsageListLoader.getCachedUidBytes(template, CLOSED_START, CLOSED_END,
+                0 /* now */)).isNull();
+    }
+
+    private static AppItem findItem(List<AppItem> items, int key) {
+        for (AppItem item : items) {
+            if (item.key == key) {
+                return item;
+            }
+        }
+        throw new AssertionError("No item for key " + key);
+    }
+}
@@ -151,6 +151,52 @@ public class BatteryDatabaseManagerTest {
         assertThat(newAppInfos).containsExactly(mCombinedAppInfo);
     }
 
+    @Test
+    public void insertAnomalies_thousandsOfRows_queryAndUpdateAll() {
+        final int appCount = 1500;
+        final List<BatteryDatabaseManager.AnomalyEntry> anomalies = new ArrayList<>();
+        final List<AppInfo> appInfos = new ArrayList<>();
+        for (int i = 0; i < appCount; i++) {
+            final String packageName = "com.android.app" + i;
+            // Two recent anomalies and one obsolete anomaly per app
+            anomalies.add(new BatteryDatabaseManager.AnomalyEntry(i, packageName, TYPE_NEW,
+                    AnomalyDatabaseHelper.State.NEW, NOW - i));
+            anomalies.add(new BatteryDatabaseManager.AnomalyEntry(i, packageName, TYPE_OLD,
+                    AnomalyDatabaseHelper.State.NEW, NOW - i));
+            anomalies.add(new BatteryDatabaseManager.AnomalyEntry(i, packageName, TYPE_OLD,
+                    AnomalyDatabaseHelper.State.NEW, TWO_DAYS_BEFORE - i));
+            appInfos.add(new AppInfo.Builder().setPackageName(packageName).build());
+        }
+
+        assertThat(mBatteryDatabaseManager.insertAnomalies(anomalies))
+                .isEqualTo(3 * appCount);
+        // Duplicates are ignored
+        assertThat(mBatteryDatabaseManager.insertAnomalies(anomalies)).isEqualTo(0);
+
+        final List<AppInfo> recentAppInfos = mBatteryDatabaseManager.queryAllAnomalies(
+                ONE_DAY_BEFORE, AnomalyDatabaseHelper.State.NEW);
+        assertThat(recentAppInfos).hasSize(appCount);
+        for (AppInfo appInfo : recentAppInfos) {
+            assertThat(appInfo.anomalyTypes).containsExactly(TYPE_NEW, TYPE_OLD);
+        }
+
+        // More packages than SQLite accepts as arguments of a single statement
+        mBatteryDatabaseManager.updateAnomalies(appInfos, AnomalyDatabaseHelper.State.HANDLED);
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(0 /* timeMsAfter */,
+                AnomalyDatabaseHelper.State.NEW)).isEmpty();
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.HANDLED)).hasSize(appCount);
+
+        mBatteryDatabaseManager.deleteAllAnomaliesBeforeTimeStamp(ONE_DAY_BEFORE);
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(0 /* timeMsAfter */,
+                AnomalyDatabaseHelper.State.HANDLED)).hasSize(appCount);
+    }
+
+    @Test
+    public void insertAnomalies_emptyList_insertNothing() {
+        assertThat(mBatteryDatabaseManager.insertAnomalies(new ArrayList<>())).isEqualTo(0);
+    }
+
     @Test
     public void allActionFunctions() {
         final long timestamp = System.currentTimeMillis();
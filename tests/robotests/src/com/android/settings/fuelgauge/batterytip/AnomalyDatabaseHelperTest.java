@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.fuelgauge.batterytip.AnomalyDatabaseHelper.Indices;
+import com.android.settings.fuelgauge.batterytip.AnomalyDatabaseHelper.Tables;
+import com.android.settings.testutils.DatabaseTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class AnomalyDatabaseHelperTest {
+
+    // Schema of version 5, which had no indices.
+    private static final String CREATE_ANOMALY_TABLE_V5 =
+            "CREATE TABLE anomaly(uid INTEGER NOT NULL, package_name TEXT, "
+                    + "anomaly_type INTEGER NOT NULL, anomaly_state INTEGER NOT NULL, "
+                    + "time_stamp_ms INTEGER NOT NULL, "
+                    + "PRIMARY KEY (uid,anomaly_type,anomaly_state,time_stamp_ms))";
+    private static final String CREATE_ACTION_TABLE_V5 =
+            "CREATE TABLE action(uid INTEGER NOT NULL, package_name TEXT, "
+                    + "action_type INTEGER NOT NULL, time_stamp_ms INTEGER NOT NULL, "
+                    + "PRIMARY KEY (action_type,uid,package_name))";
+
+    private Context mContext;
+    private AnomalyDatabaseHelper mHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mHelper = AnomalyDatabaseHelper.getInstance(mContext);
+        mDatabase = SQLiteDatabase.create(null /* factory */);
+        mDatabase.execSQL(CREATE_ANOMALY_TABLE_V5);
+        mDatabase.execSQL(CREATE_ACTION_TABLE_V5);
+        mDatabase.execSQL("INSERT INTO anomaly VALUES (1001, 'com.android.app', 2, 0, 100)");
+        mDatabase.execSQL("INSERT INTO action VALUES (1001, 'com.android.app', 0, 200)");
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.close();
+        DatabaseTestUtils.clearDb(mContext);
+    }
+
+    @Test
+    public void onUpgrade_fromVersion5_shouldKeepRows() {
+        mHelper.onUpgrade(mDatabase, 5 /* oldVersion */, 6 /* newVersion */);
+
+        assertThat(DatabaseUtils.queryNumEntries(mDatabase, Tables.TABLE_ANOMALY)).isEqualTo(1L);
+        assertThat(DatabaseUtils.queryNumEntries(mDatabase, Tables.TABLE_ACTION)).isEqualTo(1L);
+    }
+
+    @Test
+    public void onUpgrade_fromVersion5_shouldCreateIndices() {
+        mHelper.onUpgrade(mDatabase, 5 /* oldVersion */, 6 /* newVersion */);
+
+        assertThat(hasIndex(Indices.INDEX_ANOMALY_TIME_STATE)).isTrue();
+        assertThat(hasIndex(Indices.INDEX_ANOMALY_PACKAGE)).isTrue();
+    }
+
+    @Test
+    public void onUpgrade_fromOlderVersion_shouldReconstruct() {
+        mHelper.onUpgrade(mDatabase, 4 /* oldVersion */, 6 /* newVersion */);
+
+        assertThat(DatabaseUtils.queryNumEntries(mDatabase, Tables.TABLE_ANOMALY)).isEqualTo(0L);
+        assertThat(DatabaseUtils.queryNumEntries(mDatabase, Tables.TABLE_ACTION)).isEqualTo(0L);
+        assertThat(hasIndex(Indices.INDEX_ANOMALY_PACKAGE)).isTrue();
+    }
+
+    private boolean hasIndex(String name) {
+        try (Cursor cursor = mDatabase.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[] {name})) {
+            return cursor.getCount() == 1;
+        }
+    }
+}
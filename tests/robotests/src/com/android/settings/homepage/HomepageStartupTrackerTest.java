@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.homepage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class HomepageStartupTrackerTest {
+
+    @Test
+    public void onFirstFrame_noSummaries_isNotReported() {
+        final HomepageStartupTracker tracker = new HomepageStartupTracker(60 /* processStartTime */,
+                100 /* startTime */);
+
+        tracker.onFirstFrame(250 /* time */);
+
+        assertThat(tracker.isReported()).isFalse();
+    }
+
+    @Test
+    public void getReport_shouldMeasureFromStart() {
+        final HomepageStartupTracker tracker = new HomepageStartupTracker(60 /* processStartTime */,
+                100 /* startTime */);
+
+        tracker.onFirstFrame(250 /* time */);
+        tracker.onSummariesLoaded(400 /* time */);
+
+        assertThat(tracker.isReported()).isTrue();
+        assertThat(tracker.getReport()).isEqualTo("firstFrame=150 summaries=300 sinceProcessStart=40");
+    }
+
+    @Test
+    public void getReport_summariesBeforeFirstFrame_shouldReportSummaries() {
+        final HomepageStartupTracker tracker = new HomepageStartupTracker(60 /* processStartTime */,
+                100 /* startTime */);
+
+        tracker.onSummariesLoaded(200 /* time */);
+        tracker.onFirstFrame(250 /* time */);
+        tracker.onSummariesLoaded(500 /* time */);
+
+        assertThat(tracker.getReport()).isEqualTo("firstFrame=150 summaries=100 sinceProcessStart=40");
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.network.telephony;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.telephony.CellInfo;
+import android.telephony.NetworkScan;
+import android.telephony.TelephonyManager;
+import android.telephony.TelephonyScanManager;
+
+import com.android.internal.telephony.OperatorInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class NetworkScanSessionManagerTest {
+    private static final int SUB_ID = 2;
+
+    @Mock
+    private TelephonyManager mTelephonyManager;
+    @Mock
+    private NetworkScan mNetworkScan;
+    @Mock
+    private NetworkScanHelper.NetworkScanCallback mCallback1;
+    @Mock
+    private NetworkScanHelper.NetworkScanCallback mCallback2;
+
+    private NetworkScanSessionManager mManager;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mTelephonyManager.requestNetworkScan(any(), any(), any())).thenReturn(mNetworkScan);
+        mManager = new NetworkScanSessionManager(Runnable::run);
+    }
+
+    @Test
+    public void startScan_scanRunning_joinsScan() {
+        startScan(mCallback1);
+        final TelephonyScanManager.NetworkScanCallback scanCallback = captureScanCallback();
+        scanCallback.onResults(Arrays.asList(cellInfo("310260")));
+
+        startScan(mCallback2);
+
+        verify(mTelephonyManager, times(1)).requestNetworkScan(any(), any(), any());
+        verify(mCallback2).onResults(any());
+    }
+
+    @Test
+    public void onResults_sameOperator_deduplicated() {
+        startScan(mCallback1);
+        final TelephonyScanManager.NetworkScanCallback scanCallback = captureScanCallback();
+
+        scanCallback.onResults(Arrays.asList(cellInfo("310260"), cellInfo("310410")));
+        scanCallback.onResults(Arrays.asList(cellInfo("310260")));
+
+        final ArgumentCaptor<List<CellInfo>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mCallback1, times(2)).onResults(captor.capture());
+        assertThat(captor.getValue()).hasSize(2);
+    }
+
+    @Test
+    public void startScan_freshResults_noNewScan() {
+        startScan(mCallback1);
+        final TelephonyScanManager.NetworkScanCallback scanCallback = captureScanCallback();
+        scanCallback.onResults(Arrays.asList(cellInfo("310260")));
+        scanCallback.onComplete();
+
+        startScan(mCallback2);
+
+        verify(mTelephonyManager, times(1)).requestNetworkScan(any(), any(), any());
+        verify(mCallback2).onResults(any());
+        verify(mCallback2).onComplete();
+    }
+
+    @Test
+    public void startScan_freshResults_deliveredOutsideLockWithCopy() {
+        startScan(mCallback1);
+        final TelephonyScanManager.NetworkScanCallback scanCallback = captureScanCallback();
+        scanCallback.onResults(Arrays.asList(cellInfo("310260")));
+        scanCallback.onComplete();
+        final Object lock = ReflectionHelpers.getField(mManager, "mLock");
+        final List<List<CellInfo>> delivered = new ArrayList<>();
+        final boolean[] lockHeld = new boolean[1];
+        final NetworkScanHelper.NetworkScanCallback callback =
+                new NetworkScanHelper.NetworkScanCallback() {
+                    @Override
+                    public void onResults(List<CellInfo> results) {
+                        lockHeld[0] |= Thread.holdsLock(lock);
+                        delivered.add(results);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        lockHeld[0] |= Thread.holdsLock(lock);
+                    }
+
+                    @Override
+                    public void onError(int errorCode) {
+                    }
+                };
+
+        startScan(callback);
+        delivered.get(0).clear();
+        startScan(mCallback2);
+
+        assertThat(lockHeld[0]).isFalse();
+        final ArgumentCaptor<List<CellInfo>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mCallback2).onResults(captor.capture());
+        assertThat(captor.getValue()).hasSize(1);
+    }
+
+    @Test
+    public void release_lastRequester_stopsScanAfterDelay() {
+        startScan(mCallback1);
+
+        mManager.release(SUB_ID, mCallback1);
+
+        verify(mNetworkScan, never()).stopScan();
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+        verify(mNetworkScan).stopScan();
+    }
+
+    @Test
+    public void cancel_dropsCachedResults() {
+        startScan(mCallback1);
+        final TelephonyScanManager.NetworkScanCallback scanCallback = captureScanCallback();
+        scanCallback.onComplete();
+
+        mManager.cancel(SUB_ID);
+        startScan(mCallback2);
+
+        verify(mTelephonyManager, times(2)).requestNetworkScan(any(), any(), any());
+    }
+
+    private void startScan(NetworkScanHelper.NetworkScanCallback callback) {
+        mManager.startScan(mTelephonyManager, SUB_ID,
+                NetworkScanHelper.NETWORK_SCAN_TYPE_INCREMENTAL_RESULTS, callback);
+    }
+
+    private TelephonyScanManager.NetworkScanCallback captureScanCallback() {
+        final ArgumentCaptor<TelephonyScanManager.NetworkScanCallback> captor =
+                ArgumentCaptor.forClass(TelephonyScanManager.NetworkScanCallback.class);
+        verify(mTelephonyManager).requestNetworkScan(any(), any(), captor.capture());
+        return captor.getValue();
+    }
+
+    private static CellInfo cellInfo(String plmn) {
+        return CellInfoUtil.convertOperatorInfoToCellInfo(
+                new OperatorInfo("operator" + plmn, "op" + plmn, plmn));
+    }
+}
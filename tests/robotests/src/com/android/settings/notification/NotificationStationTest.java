@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.settings.notification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import android.app.Notification;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.ColorDrawable;
+import android.os.UserHandle;
+import android.service.notification.StatusBarNotification;
+
+import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.util.ReflectionHelpers;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationStationTest {
+
+    private static final String PACKAGE = "com.example.app";
+
+    @Mock
+    private PackageManager mPackageManager;
+
+    private Context mContext;
+    private NotificationStation mFragment;
+    private PreferenceScreen mScreen;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        when(mPackageManager.getApplicationIcon(anyString())).thenReturn(new ColorDrawable());
+
+        final PreferenceManager preferenceManager = new PreferenceManager(mContext);
+        mScreen = preferenceManager.createPreferenceScreen(mContext);
+        mScreen.setOrderingAsAdded(false);
+
+        mFragment = spy(new NotificationStation());
+        ReflectionHelpers.setField(mFragment, "mContext", mContext);
+        ReflectionHelpers.setField(mFragment, "mPm", mPackageManager);
+        doReturn(mContext).when(mFragment).getContext();
+        doReturn(preferenceManager).when(mFragment).getPreferenceManager();
+        doReturn(mScreen).when(mFragment).getPreferenceScreen();
+    }
+
+    @Test
+    public void applyPendingEvents_postedBatch_addsOneRowPerKey() {
+        mFragment.enqueueEvent(createNotification(1), true /* posted */);
+        mFragment.enqueueEvent(createNotification(2), true /* posted */);
+        // An update of an active notification replaces its row.
+        mFragment.enqueueEvent(createNotification(1), true /* posted */);
+
+        mFragment.applyPendingEvents();
+
+        assertThat(mScreen.getPreferenceCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void applyPendingEvents_removedBatch_keepsRowAsHistorical() {
+        mFragment.enqueueEvent(createNotification(1), true /* posted */);
+        mFragment.applyPendingEvents();
+
+        mFragment.enqueueEvent(createNotification(1), false /* posted */);
+        mFragment.applyPendingEvents();
+
+        assertThat(mScreen.getPreferenceCount()).isEqualTo(1);
+
+        // Posting the same notification again adds a new active row next to the historical one.
+        mFragment.enqueueEvent(createNotification(1), true /* posted */);
+        mFragment.applyPendingEvents();
+
+        assertThat(mScreen.getPreferenceCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void applyPendingEvents_removedUnknownNotification_doesNothing() {
+        mFragment.enqueueEvent(createNotification(1), false /* posted */);
+
+        mFragment.applyPendingEvents();
+
+        assertThat(mScreen.getPreferenceCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void applyPendingEvents_moreThanMaxHistorical_dropsOldestRows() {
+        final int count = NotificationStation.MAX_HISTORICAL + 5;
+        for (int i = 0; i < count; i++) {
+            mFragment.enqueueEvent(createNotification(i), true /* posted */);
+            mFragment.enqueueEvent(createNotification(i), false /* posted */);
+        }
+        // Active notifications are not part of the history cap.
+        mFragment.enqueueEvent(createNotification(count), true /* posted */);
+
+        mFragment.applyPendingEvents();
+
+        assertThat(mScreen.getPreferenceCount())
+                .isEqualTo(NotificationStation.MAX_HISTORICAL + 1);
+    }
+
+    private StatusBarNotification createNotification(int id) {
+        final Notification notification = new Notification.Builder(mContext, "channel")
+                .setContentTitle("title " + id)
+                .build();
+        return new StatusBarNotification(PACKAGE, PACKAGE, id, null /* tag */, 0 /* uid */,
+                0 /* initialPid */, notification, UserHandle.ALL, null /* overrideGroupKey */,
+                id /* postTime */);
+    }
+}
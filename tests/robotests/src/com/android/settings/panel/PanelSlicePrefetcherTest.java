@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.panel;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+
+import androidx.slice.Slice;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class PanelSlicePrefetcherTest {
+
+    private static final Uri URI = Uri.parse("content://com.android.settings.slices/test");
+
+    private PanelSlicePrefetcher mPrefetcher;
+
+    @Before
+    public void setUp() {
+        mPrefetcher = new PanelSlicePrefetcher(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void onSliceUpdated_sliceWithContent_cached() {
+        final Slice slice = new Slice.Builder(URI).addText("text", null /* subType */).build();
+
+        mPrefetcher.onSliceUpdated(URI, slice);
+
+        assertThat(mPrefetcher.getCachedSlice(URI)).isEqualTo(slice);
+    }
+
+    @Test
+    public void onSliceUpdated_stubSlice_notCached() {
+        mPrefetcher.onSliceUpdated(URI, new Slice.Builder(URI).build());
+
+        assertThat(mPrefetcher.getCachedSlice(URI)).isNull();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.rr.Preferences;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentResolver;
+import android.provider.Settings;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class SettingsWriteBufferTest {
+
+    private static final String KEY = "key";
+    private static final String OTHER_KEY = "other_key";
+
+    private List<String> mWrites;
+    private SettingsWriteBuffer mBuffer;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mWrites = new ArrayList<>();
+        mBuffer = new SettingsWriteBuffer((key, value) -> mWrites.add(key + "=" + value));
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void defer_batchedKey_shouldKeepLatestValue() {
+        mBuffer.beginBatch(KEY);
+
+        assertThat(mBuffer.defer(KEY, 1)).isTrue();
+        assertThat(mBuffer.defer(KEY, 2)).isTrue();
+        assertThat(mBuffer.defer(KEY, 3)).isTrue();
+
+        assertThat(mWrites).isEmpty();
+        assertThat(mBuffer.getInt(KEY, 0)).isEqualTo(3);
+        assertThat(mBuffer.getDeferredWriteCount()).isEqualTo(3);
+        assertThat(mBuffer.getCoalescedWriteCount()).isEqualTo(2);
+        assertThat(mBuffer.getFlushedWriteCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void defer_keyNotBatched_shouldNotDefer() {
+        mBuffer.beginBatch(KEY);
+
+        assertThat(mBuffer.defer(OTHER_KEY, 1)).isFalse();
+
+        assertThat(mBuffer.hasPendingValue(OTHER_KEY)).isFalse();
+        assertThat(mBuffer.getDeferredWriteCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void endBatch_shouldWritePendingValueOnce() {
+        mBuffer.beginBatch(KEY);
+        mBuffer.defer(KEY, 1);
+        mBuffer.defer(KEY, 2);
+
+        mBuffer.endBatch(KEY);
+
+        assertThat(mWrites).containsExactly(KEY + "=2");
+        assertThat(mBuffer.hasPendingValue(KEY)).isFalse();
+        assertThat(mBuffer.getFlushedWriteCount()).isEqualTo(1);
+        assertThat(mBuffer.defer(KEY, 3)).isFalse();
+    }
+
+    @Test
+    public void defer_idle_shouldFlushAfterIdleDelay() {
+        mBuffer.beginBatch(KEY);
+        mBuffer.defer(KEY, 1);
+        ShadowLooper.idleMainLooper(SettingsWriteBuffer.IDLE_FLUSH_MS / 2, TimeUnit.MILLISECONDS);
+        mBuffer.defer(KEY, 2);
+
+        ShadowLooper.idleMainLooper(SettingsWriteBuffer.IDLE_FLUSH_MS - 1, TimeUnit.MILLISECONDS);
+        assertThat(mWrites).isEmpty();
+
+        ShadowLooper.idleMainLooper(1, TimeUnit.MILLISECONDS);
+        assertThat(mWrites).containsExactly(KEY + "=2");
+        assertThat(mBuffer.hasPendingValue(KEY)).isFalse();
+    }
+
+    @Test
+    public void store_batchedKey_shouldReadPendingValue() {
+        final SystemSettingsStore store = new SystemSettingsStore(mResolver);
+        store.getWriteBuffer().beginBatch(KEY);
+
+        store.putInt(KEY, 5);
+
+        assertThat(store.getInt(KEY, 0)).isEqualTo(5);
+        assertThat(Settings.System.getInt(mResolver, KEY, 0)).isEqualTo(0);
+
+        store.getWriteBuffer().endBatch(KEY);
+
+        assertThat(Settings.System.getInt(mResolver, KEY, 0)).isEqualTo(5);
+    }
+
+    @Test
+    public void store_batchedBoolean_shouldReadAndWriteAsInt() {
+        final SystemSettingsStore store = new SystemSettingsStore(mResolver);
+        store.getWriteBuffer().beginBatch(KEY);
+
+        store.putBoolean(KEY, true);
+
+        assertThat(store.getBoolean(KEY, false)).isTrue();
+
+        store.getWriteBuffer().endBatch(KEY);
+
+        assertThat(Settings.System.getInt(mResolver, KEY, 0)).isEqualTo(1);
+    }
+
+    @Test
+    public void store_keyNotBatched_shouldWriteThrough() {
+        final SystemSettingsStore store = new SystemSettingsStore(mResolver);
+        store.getWriteBuffer().beginBatch(KEY);
+
+        store.putInt(OTHER_KEY, 7);
+
+        assertThat(Settings.System.getInt(mResolver, OTHER_KEY, 0)).isEqualTo(7);
+        assertThat(store.getWriteBuffer().getDeferredWriteCount()).isEqualTo(0);
+    }
+}
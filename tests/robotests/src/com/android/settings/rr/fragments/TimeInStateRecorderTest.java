@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 The Resurrection Remix Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.android.settings.rr.fragments;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+@RunWith(RobolectricTestRunner.class)
+public class TimeInStateRecorderTest {
+
+    private static final int BOOT_COUNT = 3;
+    private static final int CPUS = 2;
+    private static final int[] FREQUENCIES = {300000, 600000, 900000};
+    // Offset of the version in the header, after the magic.
+    private static final int VERSION_OFFSET = 4;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFile;
+    private TimeInStateRecorder mRecorder;
+    private TimeInStateSampler mSampler;
+    // Sample times end before the current elapsedRealtime, so every record is readable.
+    private long mNextTime;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mTemporaryFolder.getRoot(), "time_in_state.ring");
+        mRecorder = new TimeInStateRecorder(mFile, BOOT_COUNT);
+        mSampler = createSampler(FREQUENCIES);
+        mNextTime = SystemClock.elapsedRealtime() - 2 * TimeInStateRecorder.CAPACITY;
+    }
+
+    @After
+    public void tearDown() {
+        mRecorder.close();
+    }
+
+    @Test
+    public void append_moreThanCapacity_keepsNewestRecords() throws IOException {
+        final int count = TimeInStateRecorder.CAPACITY + 3;
+        final long firstTime = mNextTime;
+        append(mRecorder, count);
+
+        final String[] rows = readCsv(mRecorder);
+
+        assertThat(rows).hasLength(TimeInStateRecorder.CAPACITY + 1 /* header */);
+        // The three oldest records were overwritten, the rest is still in order.
+        assertThat(rowTime(rows[1])).isEqualTo(firstTime + 3);
+        assertThat(rowTime(rows[rows.length - 1])).isEqualTo(firstTime + count - 1);
+    }
+
+    @Test
+    public void append_afterReopen_continuesRing() throws IOException {
+        append(mRecorder, 5);
+        mRecorder.close();
+
+        final TimeInStateRecorder reopened = new TimeInStateRecorder(mFile, BOOT_COUNT);
+        append(reopened, 2);
+
+        assertThat(readCsv(reopened)).hasLength(7 + 1 /* header */);
+        reopened.close();
+    }
+
+    @Test
+    public void open_previousBoot_discardsRecords() throws IOException {
+        append(mRecorder, 5);
+        mRecorder.close();
+
+        final TimeInStateRecorder nextBoot = new TimeInStateRecorder(mFile, BOOT_COUNT + 1);
+
+        assertThat(readCsv(nextBoot)).hasLength(1 /* header */);
+        assertThat(nextBoot.getWindow(Long.MAX_VALUE / 2)).isNull();
+
+        append(nextBoot, 1);
+
+        assertThat(readCsv(nextBoot)).hasLength(1 + 1 /* header */);
+        nextBoot.close();
+    }
+
+    @Test
+    public void open_versionMismatch_rejectsRing() throws IOException {
+        append(mRecorder, 5);
+        mRecorder.close();
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            raf.seek(VERSION_OFFSET);
+            raf.writeInt(TimeInStateRecorder.VERSION + 1);
+        }
+
+        final TimeInStateRecorder reopened = new TimeInStateRecorder(mFile, BOOT_COUNT);
+
+        assertThat(readCsv(reopened)).asList().containsExactly("elapsed_ms,deep_sleep_ms");
+
+        append(reopened, 1);
+
+        assertThat(readCsv(reopened)).hasLength(1 + 1 /* header */);
+        reopened.close();
+    }
+
+    @Test
+    public void append_frequencyTableChanged_resetsRing() throws IOException {
+        append(mRecorder, 5);
+
+        mSampler = createSampler(new int[] {300000, 600000, 900000, 1200000});
+        append(mRecorder, 1);
+
+        final String[] rows = readCsv(mRecorder);
+        assertThat(rows).hasLength(1 + 1 /* header */);
+        assertThat(rows[0]).contains("cpu1_1200000");
+    }
+
+    private void append(TimeInStateRecorder recorder, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            when(mSampler.getSampleTime()).thenReturn(mNextTime++);
+            recorder.append(mSampler, 1 /* deepSleepDelta */);
+        }
+    }
+
+    private static String[] readCsv(TimeInStateRecorder recorder) throws IOException {
+        final StringBuilder csv = new StringBuilder();
+        recorder.writeCsv(csv);
+        return csv.toString().split("\n");
+    }
+
+    private static long rowTime(String row) {
+        return Long.parseLong(row.substring(0, row.indexOf(',')));
+    }
+
+    private static TimeInStateSampler createSampler(int[] frequencies) {
+        final TimeInStateSampler sampler = mock(TimeInStateSampler.class);
+        when(sampler.getInterval()).thenReturn(1000L);
+        when(sampler.getCpuCount()).thenReturn(CPUS);
+        when(sampler.getFrequencyCount()).thenReturn(frequencies.length);
+        for (int slot = 0; slot < frequencies.length; slot++) {
+            when(sampler.getFrequency(slot)).thenReturn(frequencies[slot]);
+        }
+        when(sampler.getDelta(anyInt(), anyInt())).thenReturn(10L);
+        return sampler;
+    }
+}
@@ -37,6 +37,7 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.StrictMode;
@@ -81,7 +82,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -135,7 +135,7 @@ public class SettingsSliceProviderTest {
 
         mProvider = spy(new SettingsSliceProvider());
         ShadowStrictMode.reset();
-        mProvider.mSliceWeakDataCache = new HashMap<>();
+        mProvider.mSliceDataCache = new SliceDataCache();
         mProvider.mSlicesDatabaseAccessor = new SlicesDatabaseAccessor(mContext);
         when(mProvider.getContext()).thenReturn(mContext);
 
@@ -169,7 +169,7 @@ public class SettingsSliceProviderTest {
         final Uri uri = SliceBuilderUtils.getUri(INTENT_PATH, false);
 
         mProvider.loadSlice(uri);
-        SliceData data = mProvider.mSliceWeakDataCache.get(uri);
+        SliceData data = mProvider.mSliceDataCache.get(uri);
 
         assertThat(data.getKey()).isEqualTo(KEY);
         assertThat(data.getTitle()).isEqualTo(TITLE);
@@ -200,15 +200,64 @@ public class SettingsSliceProviderTest {
     }
 
     @Test
-    public void testLoadSlice_cachedEntryRemovedOnBuild() {
+    public void onBindSlice_cachedEntry_keptForNextBind() {
         SliceData data = getDummyData();
-        mProvider.mSliceWeakDataCache.put(data.getUri(), data);
+        mProvider.mSliceDataCache.put(data.getUri(), data);
         mProvider.onBindSlice(data.getUri());
-        insertSpecialCase(data.getKey());
 
-        SliceData cachedData = mProvider.mSliceWeakDataCache.get(data.getUri());
+        assertThat(mProvider.mSliceDataCache.peek(data.getUri())).isEqualTo(data);
+    }
+
+    @Test
+    public void onBindSlice_cachedEntry_countsHitAndDoesNotLoad() {
+        SliceData data = getDummyData();
+        mProvider.mSliceDataCache.put(data.getUri(), data);
+
+        mProvider.onBindSlice(data.getUri());
+        mProvider.onBindSlice(data.getUri());
+
+        assertThat(mProvider.mSliceDataCache.getHitCount()).isEqualTo(2);
+        assertThat(mProvider.mSliceDataCache.getMissCount()).isEqualTo(0);
+        verify(mProvider, never()).loadSliceInBackground(any(Uri.class));
+    }
+
+    @Test
+    public void onBindSlice_notCached_countsMissAndLoads() {
+        insertSpecialCase(KEY);
+        final Uri uri = SliceBuilderUtils.getUri(INTENT_PATH, false);
 
-        assertThat(cachedData).isNull();
+        mProvider.onBindSlice(uri);
+
+        assertThat(mProvider.mSliceDataCache.getMissCount()).isEqualTo(1);
+        verify(mProvider).loadSliceInBackground(uri);
+    }
+
+    @Test
+    public void warmUpCache_loadsFrequentlyLoadedSlices() {
+        insertSpecialCase(KEY);
+        final Uri uri = SliceBuilderUtils.getUri(INTENT_PATH, false);
+        mProvider.loadSlice(uri);
+        mProvider.mSliceDataCache = new SliceDataCache();
+
+        mProvider.warmUpCache();
+
+        assertThat(mProvider.mSliceDataCache.peek(uri).getKey()).isEqualTo(KEY);
+    }
+
+    @Test
+    public void recordLoad_writesCountsInOneBatch() {
+        final Uri uri = SliceBuilderUtils.getUri(INTENT_PATH + "/batched", false);
+        final SharedPreferences prefs =
+                mContext.getSharedPreferences("slice_data_cache", Context.MODE_PRIVATE);
+
+        SliceDataCache.recordLoad(mContext, uri);
+        SliceDataCache.recordLoad(mContext, uri);
+
+        assertThat(prefs.contains(uri.toString())).isFalse();
+
+        SliceDataCache.flushLoadCounts(mContext);
+
+        assertThat(prefs.getInt(uri.toString(), 0)).isEqualTo(2);
     }
 
     @Test
@@ -216,7 +265,7 @@ public class SettingsSliceProviderTest {
         ShadowThreadUtils.setIsMainThread(true);
         final StrictMode.ThreadPolicy oldThreadPolicy = StrictMode.getThreadPolicy();
         SliceData data = getDummyData();
-        mProvider.mSliceWeakDataCache.put(data.getUri(), data);
+        mProvider.mSliceDataCache.put(data.getUri(), data);
         mProvider.onBindSlice(data.getUri());
 
         final StrictMode.ThreadPolicy newThreadPolicy = StrictMode.getThreadPolicy();
@@ -230,7 +279,7 @@ public class SettingsSliceProviderTest {
         ShadowThreadUtils.setIsMainThread(false);
 
         SliceData data = getDummyData();
-        mProvider.mSliceWeakDataCache.put(data.getUri(), data);
+        mProvider.mSliceDataCache.put(data.getUri(), data);
         mProvider.onBindSlice(data.getUri());
 
         assertThat(ShadowStrictMode.isThreadPolicyOverridden()).isTrue();
@@ -254,6 +303,29 @@ public class SettingsSliceProviderTest {
         assertThat(slice).isNull();
     }
 
+    @Test
+    public void getBlockedKeys_afterCreate_parsedOnce() {
+        Settings.Global.putString(mContext.getContentResolver(),
+                Settings.Global.BLOCKED_SLICES, "key_a:key_b");
+        mProvider.onCreateSliceProvider();
+
+        final Set<String> blockedKeys = mProvider.getBlockedKeys();
+
+        assertThat(blockedKeys).containsExactly("key_a", "key_b");
+        assertThat(mProvider.getBlockedKeys()).isSameAs(blockedKeys);
+    }
+
+    @Test
+    public void getBlockedKeys_afterShutdown_readsSettingAgain() {
+        mProvider.onCreateSliceProvider();
+        mProvider.getBlockedKeys();
+        mProvider.shutdown();
+        Settings.Global.putString(mContext.getContentResolver(),
+                Settings.Global.BLOCKED_SLICES, "key_c");
+
+        assertThat(mProvider.getBlockedKeys()).containsExactly("key_c");
+    }
+
     @Test
     public void getDescendantUris_fullActionUri_returnsSelf() {
         final Uri uri = SliceBuilderUtils.getUri(
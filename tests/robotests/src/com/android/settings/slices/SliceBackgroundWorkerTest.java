@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.settings.slices;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceBackgroundWorkerTest {
+
+    private static final Uri URI = Uri.parse("content://com.android.settings.slices/test");
+
+    private ContentResolver mResolver;
+    private TestWorker mWorker;
+
+    @Before
+    public void setUp() {
+        final Context context = spy(RuntimeEnvironment.application);
+        mResolver = mock(ContentResolver.class);
+        doReturn(mResolver).when(context).getContentResolver();
+        mWorker = new TestWorker(context, URI);
+    }
+
+    @Test
+    public void notifySliceChange_first_notifiesImmediately() {
+        mWorker.notifyChange();
+
+        verify(mResolver).notifyChange(URI, null);
+    }
+
+    @Test
+    public void notifySliceChange_burst_coalescedIntoTrailingNotification() {
+        mWorker.notifyChange();
+        mWorker.notifyChange();
+        mWorker.notifyChange();
+
+        verify(mResolver, times(1)).notifyChange(URI, null);
+        assertThat(mWorker.getSuppressedNotifyCount()).isEqualTo(1);
+
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+
+        verify(mResolver, times(2)).notifyChange(URI, null);
+    }
+
+    @Test
+    public void cancelPendingNotify_burst_dropsTrailingNotification() {
+        mWorker.notifyChange();
+        mWorker.notifyChange();
+
+        mWorker.cancelPendingNotify();
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+
+        verify(mResolver, times(1)).notifyChange(URI, null);
+    }
+
+    @Test
+    public void updateResults_sameResults_dropped() {
+        mWorker.update(Arrays.asList("a", "b"));
+        mWorker.update(Arrays.asList("a", "b"));
+
+        verify(mResolver, times(1)).notifyChange(URI, null);
+        assertThat(mWorker.getSuppressedNotifyCount()).isEqualTo(1);
+        assertThat(mWorker.getResults()).containsExactly("a", "b");
+    }
+
+    @Test
+    public void updateResults_differentResults_deliversLatest() {
+        mWorker.update(Arrays.asList("a"));
+        mWorker.update(Arrays.asList("a", "b"));
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+
+        verify(mResolver, times(2)).notifyChange(URI, null);
+        assertThat(mWorker.getResults()).containsExactly("a", "b");
+    }
+
+    private static class TestWorker extends SliceBackgroundWorker<String> {
+
+        TestWorker(Context context, Uri uri) {
+            super(context, uri);
+        }
+
+        void notifyChange() {
+            notifySliceChange();
+        }
+
+        void update(List<String> results) {
+            updateResults(results);
+        }
+
+        @Override
+        protected void onSlicePinned() {
+        }
+
+        @Override
+        protected void onSliceUnpinned() {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
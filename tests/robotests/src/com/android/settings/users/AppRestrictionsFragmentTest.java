@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.users;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppRestrictionsFragmentTest {
+
+    private AppRestrictionsFragment mFragment;
+    private List<String> mSentRequests;
+
+    @Before
+    public void setUp() {
+        mFragment = spy(new AppRestrictionsFragment());
+        mSentRequests = new ArrayList<>();
+        doReturn(RuntimeEnvironment.application).when(mFragment).getContext();
+        doAnswer(invocation -> {
+            final AppRestrictionsFragment.RestrictionsResultReceiver receiver =
+                    invocation.getArgument(0);
+            mSentRequests.add(receiver.packageName);
+            return null;
+        }).when(mFragment).sendRestrictionsRequest(any());
+    }
+
+    @Test
+    public void requestRestrictionsForApp_moreThanMaxInFlight_queuesTheRest() {
+        requestRestrictions(AppRestrictionsFragment.MAX_RESTRICTION_REQUESTS_IN_FLIGHT + 2);
+
+        assertThat(mSentRequests)
+                .hasSize(AppRestrictionsFragment.MAX_RESTRICTION_REQUESTS_IN_FLIGHT);
+    }
+
+    @Test
+    public void requestRestrictionsForApp_invokeIfCustom_sentRightAway() {
+        requestRestrictions(AppRestrictionsFragment.MAX_RESTRICTION_REQUESTS_IN_FLIGHT);
+
+        mFragment.requestRestrictionsForApp("custom", null /* preference */,
+                true /* invokeIfCustom */);
+
+        assertThat(mSentRequests).contains("custom");
+    }
+
+    @Test
+    public void requestTimeout_freesSlotsForQueuedRequests() {
+        final int count = AppRestrictionsFragment.MAX_RESTRICTION_REQUESTS_IN_FLIGHT + 2;
+        requestRestrictions(count);
+
+        ShadowLooper.idleMainLooper(AppRestrictionsFragment.RESTRICTION_REQUEST_TIMEOUT_MS,
+                TimeUnit.MILLISECONDS);
+
+        assertThat(mSentRequests).hasSize(count);
+    }
+
+    @Test
+    public void cancelRestrictionsRequests_dropsQueueAndTimeouts() {
+        requestRestrictions(AppRestrictionsFragment.MAX_RESTRICTION_REQUESTS_IN_FLIGHT + 2);
+
+        mFragment.cancelRestrictionsRequests();
+
+        assertThat(ShadowLooper.getShadowMainLooper().getScheduler().size()).isEqualTo(0);
+        ShadowLooper.idleMainLooper(AppRestrictionsFragment.RESTRICTION_REQUEST_TIMEOUT_MS,
+                TimeUnit.MILLISECONDS);
+        assertThat(mSentRequests)
+                .hasSize(AppRestrictionsFragment.MAX_RESTRICTION_REQUESTS_IN_FLIGHT);
+
+        // The slots are free again once cancelled.
+        mFragment.requestRestrictionsForApp("next", null /* preference */,
+                false /* invokeIfCustom */);
+
+        assertThat(mSentRequests).contains("next");
+    }
+
+    private void requestRestrictions(int count) {
+        for (int i = 0; i < count; i++) {
+            mFragment.requestRestrictionsForApp("package" + i, null /* preference */,
+                    false /* invokeIfCustom */);
+        }
+    }
+}
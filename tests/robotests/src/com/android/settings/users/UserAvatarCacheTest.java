@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.users;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.UserInfo;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.UserManager;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class UserAvatarCacheTest {
+
+    private static final int USER_ID = 10;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private UserManager mUserManager;
+
+    private UserAvatarCache mCache;
+    private UserInfo mUser;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mCache = new UserAvatarCache(RuntimeEnvironment.application);
+        final File photo = mTemporaryFolder.newFile("photo.png");
+        mUser = new UserInfo(USER_ID, "user", photo.getPath(), 0 /* flags */);
+        when(mUserManager.getUserIcon(USER_ID))
+                .thenReturn(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void loadAvatars_storesAvatar() {
+        assertThat(mCache.needsLoad(USER_ID)).isTrue();
+
+        mCache.loadAvatars(mUserManager, Collections.singletonList(mUser), null /* onLoaded */);
+
+        assertThat(mCache.getAvatar(USER_ID)).isNotNull();
+        assertThat(mCache.needsLoad(USER_ID)).isFalse();
+    }
+
+    @Test
+    public void getAvatar_returnsNewDrawableOfSameBitmap() {
+        mCache.loadAvatar(mUserManager, mUser);
+
+        final Drawable first = mCache.getAvatar(USER_ID);
+        final Drawable second = mCache.getAvatar(USER_ID);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(((BitmapDrawable) second).getBitmap())
+                .isSameAs(((BitmapDrawable) first).getBitmap());
+    }
+
+    @Test
+    public void invalidate_photoUnchanged_keepsAvatar() {
+        mCache.loadAvatar(mUserManager, mUser);
+        final Bitmap avatar = ((BitmapDrawable) mCache.getAvatar(USER_ID)).getBitmap();
+
+        mCache.invalidate(USER_ID);
+
+        assertThat(mCache.needsLoad(USER_ID)).isTrue();
+        assertThat(((BitmapDrawable) mCache.getAvatar(USER_ID)).getBitmap()).isSameAs(avatar);
+        assertThat(mCache.loadAvatar(mUserManager, mUser)).isFalse();
+        assertThat(mCache.needsLoad(USER_ID)).isFalse();
+        verify(mUserManager, times(1)).getUserIcon(USER_ID);
+    }
+
+    @Test
+    public void loadAvatar_photoChanged_decodesAgain() {
+        mCache.loadAvatar(mUserManager, mUser);
+        new File(mUser.iconPath).setLastModified(
+                new File(mUser.iconPath).lastModified() + 10000);
+
+        assertThat(mCache.loadAvatar(mUserManager, mUser)).isTrue();
+        verify(mUserManager, times(2)).getUserIcon(USER_ID);
+    }
+}
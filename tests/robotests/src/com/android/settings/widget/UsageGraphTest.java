@@ -189,4 +189,63 @@ public class UsageGraphTest {
         // Should not crash
         mGraph.drawFilledPath(canvas, localPaths, paint);
     }
+
+    @Test
+    public void decimatePaths_denseColumn_keepsFirstLowestHighestAndLast() {
+        // 10 points per pixel column.
+        mGraph.setMax(10000, 100);
+        SparseIntArray paths = new SparseIntArray();
+        paths.append(0, 50);
+        paths.append(2, 90);
+        paths.append(4, 10);
+        paths.append(6, 60);
+        paths.append(9, 40);
+        paths.append(10, 45);
+        paths.append(11, -1);
+
+        SparseIntArray decimated = new SparseIntArray();
+        mGraph.decimatePaths(paths, decimated);
+
+        assertThat(decimated.size()).isEqualTo(6);
+        assertThat(decimated.keyAt(0)).isEqualTo(0);
+        assertThat(decimated.keyAt(1)).isEqualTo(2);
+        assertThat(decimated.keyAt(2)).isEqualTo(4);
+        assertThat(decimated.keyAt(3)).isEqualTo(9);
+        assertThat(decimated.keyAt(4)).isEqualTo(10);
+        assertThat(decimated.keyAt(5)).isEqualTo(11);
+        assertThat(decimated.valueAt(5)).isEqualTo(-1);
+    }
+
+    @Test
+    public void decimatePaths_largePath_boundedByWidth() {
+        final int pointCount = 100000;
+        mGraph.setMax(pointCount, 100);
+        SparseIntArray paths = new SparseIntArray();
+        for (int i = 0; i < pointCount; i++) {
+            paths.append(i, (i * 7) % 101);
+        }
+        paths.append(pointCount, -1);
+
+        SparseIntArray decimated = new SparseIntArray();
+        mGraph.decimatePaths(paths, decimated);
+
+        assertThat(decimated.size()).isAtMost(4 * 1000 + 1);
+        assertThat(decimated.keyAt(0)).isEqualTo(0);
+        assertThat(decimated.keyAt(decimated.size() - 2)).isEqualTo(pointCount - 1);
+        assertThat(decimated.valueAt(decimated.size() - 1)).isEqualTo(-1);
+    }
+
+    @Test
+    public void decimatePaths_sparsePath_keepsAllPoints() {
+        SparseIntArray paths = new SparseIntArray();
+        paths.append(0, 100);
+        paths.append(250, 50);
+        paths.append(500, 0);
+        paths.append(501, -1);
+
+        SparseIntArray decimated = new SparseIntArray();
+        mGraph.decimatePaths(paths, decimated);
+
+        assertThat(decimated.toString()).isEqualTo(paths.toString());
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.ArrayMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class AccessPointListDiffTest {
+
+    @Test
+    public void compute_sameKeys_isEmpty() {
+        final List<String> keys = Arrays.asList("a", "b", "c");
+
+        assertThat(AccessPointListDiff.compute(keys, keys).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void compute_insertedAndRemoved() {
+        final AccessPointListDiff diff = AccessPointListDiff.compute(
+                Arrays.asList("a", "b", "c"), Arrays.asList("a", "c", "d"));
+
+        assertThat(diff.inserted).containsExactly("d");
+        assertThat(diff.removed).containsExactly("b");
+        assertThat(diff.moved).isEmpty();
+    }
+
+    @Test
+    public void compute_oneKeyMovedToFront_onlyThatKeyMoves() {
+        final AccessPointListDiff diff = AccessPointListDiff.compute(
+                Arrays.asList("a", "b", "c", "d"), Arrays.asList("d", "a", "b", "c"));
+
+        assertThat(diff.moved).containsExactly("d");
+        assertThat(diff.inserted).isEmpty();
+        assertThat(diff.removed).isEmpty();
+    }
+
+    @Test
+    public void assignOrders_keepsOrdersOfKeysInPlace() {
+        final Map<String, Integer> orders = new ArrayMap<>();
+        orders.put("a", 256);
+        orders.put("b", 512);
+        orders.put("c", 768);
+        final List<String> newKeys = Arrays.asList("c", "a", "x", "b");
+        final AccessPointListDiff diff =
+                AccessPointListDiff.compute(Arrays.asList("a", "b", "c"), newKeys);
+
+        final int[] result = diff.assignOrders(newKeys, orders);
+
+        assertThat(result[1]).isEqualTo(256);
+        assertThat(result[3]).isEqualTo(512);
+        assertThat(result[0]).isLessThan(result[1]);
+        assertThat(result[2]).isGreaterThan(result[1]);
+        assertThat(result[2]).isLessThan(result[3]);
+    }
+
+    @Test
+    public void assignOrders_noRoomBetweenKeys_renumbers() {
+        final Map<String, Integer> orders = new ArrayMap<>();
+        orders.put("a", 1);
+        orders.put("b", 2);
+        final List<String> newKeys = Arrays.asList("a", "x", "b");
+        final AccessPointListDiff diff =
+                AccessPointListDiff.compute(Arrays.asList("a", "b"), newKeys);
+
+        final int[] result = diff.assignOrders(newKeys, orders);
+
+        assertThat(result).asList().containsExactly(AccessPointListDiff.ORDER_STRIDE,
+                2 * AccessPointListDiff.ORDER_STRIDE, 3 * AccessPointListDiff.ORDER_STRIDE)
+                .inOrder();
+    }
+
+    @Test
+    public void assignOrders_noShownKeys_increasing() {
+        final List<String> newKeys = Arrays.asList("a", "b", "c");
+        final AccessPointListDiff diff =
+                AccessPointListDiff.compute(Collections.emptyList(), newKeys);
+
+        final int[] result = diff.assignOrders(newKeys, new ArrayMap<>());
+
+        assertThat(result[0]).isLessThan(result[1]);
+        assertThat(result[1]).isLessThan(result[2]);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.margaritov.preference.colorpicker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.view.MotionEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class ColorPickerViewTest {
+
+    private ColorPickerView mView;
+    private List<Integer> mColors;
+
+    @Before
+    public void setUp() {
+        mView = new ColorPickerView(RuntimeEnvironment.application);
+        mView.layout(0, 0, 300 /* right */, 200 /* bottom */);
+        mColors = new ArrayList<>();
+        mView.setOnColorChangedListener(mColors::add);
+    }
+
+    @Test
+    public void onTouchEvent_drag_shouldNotNotifyBeforeNextFrame() {
+        touch(MotionEvent.ACTION_DOWN, 50, 50);
+        touch(MotionEvent.ACTION_MOVE, 60, 60);
+        touch(MotionEvent.ACTION_MOVE, 70, 70);
+
+        assertThat(mColors).isEmpty();
+    }
+
+    @Test
+    public void onTouchEvent_release_shouldNotifyFinalColorOnce() {
+        touch(MotionEvent.ACTION_DOWN, 50, 50);
+        touch(MotionEvent.ACTION_MOVE, 60, 60);
+        touch(MotionEvent.ACTION_MOVE, 70, 70);
+        touch(MotionEvent.ACTION_UP, 70, 70);
+
+        assertThat(mColors).containsExactly(mView.getColor());
+    }
+
+    @Test
+    public void onTouchEvent_releaseOutsidePanels_shouldNotNotify() {
+        touch(MotionEvent.ACTION_DOWN, 1, 1);
+        touch(MotionEvent.ACTION_UP, 1, 1);
+
+        assertThat(mColors).isEmpty();
+    }
+
+    private void touch(int action, float x, float y) {
+        final MotionEvent event = MotionEvent.obtain(0 /* downTime */, 0 /* eventTime */,
+                action, x, y, 0 /* metaState */);
+        mView.onTouchEvent(event);
+        event.recycle();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.ui;
+
+import static com.android.settings.ui.testutils.SettingsTestUtils.SETTINGS_PACKAGE;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.support.test.uiautomator.UiDevice;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cold starts the Settings homepage several times and reports the median time to its first frame
+ * and to its summaries, as logged by HomepageStartupTracker, as instrumentation results. Both are
+ * reported from onCreate and from the start of the process, along with the TotalTime of
+ * {@code am start -W}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class HomepageStartupBenchmark {
+
+    private static final String TAG = "HomepageStartupBenchmark";
+    private static final String STARTUP_TAG = "HomepageStartup";
+    private static final Pattern STARTUP_LINE =
+            Pattern.compile("firstFrame=(\\d+) summaries=(\\d+) sinceProcessStart=(\\d+)");
+    private static final Pattern TOTAL_TIME_LINE = Pattern.compile("TotalTime: (\\d+)");
+    private static final int LAUNCH_COUNT = 10;
+    private static final long LAUNCH_TIMEOUT_MS = 10000;
+    private static final long POLL_INTERVAL_MS = 200;
+
+    private UiDevice mDevice;
+
+    @Before
+    public void setUp() throws Exception {
+        mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDevice.pressHome();
+    }
+
+    @Test
+    public void coldStart_reportsFirstFrameAndSummaries() throws Exception {
+        final long[] firstFrameTimes = new long[LAUNCH_COUNT];
+        final long[] summariesTimes = new long[LAUNCH_COUNT];
+        final long[] processFirstFrameTimes = new long[LAUNCH_COUNT];
+        final long[] processSummariesTimes = new long[LAUNCH_COUNT];
+        final long[] totalTimes = new long[LAUNCH_COUNT];
+        for (int i = 0; i < LAUNCH_COUNT; i++) {
+            final long[] times = coldStart();
+            firstFrameTimes[i] = times[0];
+            summariesTimes[i] = times[1];
+            processFirstFrameTimes[i] = times[2] + times[0];
+            processSummariesTimes[i] = times[2] + times[1];
+            totalTimes[i] = times[3];
+        }
+
+        final Bundle results = new Bundle();
+        results.putLong("homepage_first_frame_ms", median(firstFrameTimes));
+        results.putLong("homepage_summaries_ms", median(summariesTimes));
+        results.putLong("homepage_process_first_frame_ms", median(processFirstFrameTimes));
+        results.putLong("homepage_process_summaries_ms", median(processSummariesTimes));
+        results.putLong("homepage_am_total_time_ms", median(totalTimes));
+        Log.i(TAG, "Median of " + LAUNCH_COUNT + " cold starts: " + results);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+    }
+
+    /**
+     * @return the time to first frame and to summaries, the time from process start to onCreate
+     * and the TotalTime of {@code am start -W} of one cold start, in ms.
+     */
+    private long[] coldStart() throws Exception {
+        mDevice.pressHome();
+        mDevice.executeShellCommand("am force-stop " + SETTINGS_PACKAGE);
+        mDevice.executeShellCommand("logcat -c");
+        final Matcher totalTime = TOTAL_TIME_LINE.matcher(
+                mDevice.executeShellCommand("am start -W -a " + Settings.ACTION_SETTINGS));
+        assertTrue("am start did not report TotalTime", totalTime.find());
+
+        final long deadline = SystemClock.uptimeMillis() + LAUNCH_TIMEOUT_MS;
+        Matcher matcher = null;
+        while (SystemClock.uptimeMillis() < deadline) {
+            final String log = mDevice.executeShellCommand(
+                    "logcat -d -s " + STARTUP_TAG + ":I");
+            final Matcher m = STARTUP_LINE.matcher(log);
+            if (m.find()) {
+                matcher = m;
+                break;
+            }
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        assertNotNull("Homepage did not report its startup", matcher);
+        return new long[] {Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)),
+                Long.parseLong(matcher.group(3)), Long.parseLong(totalTime.group(1))};
+    }
+
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
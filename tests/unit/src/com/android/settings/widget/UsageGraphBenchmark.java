@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.widget;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseIntArray;
+import android.view.ContextThemeWrapper;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Times {@link UsageGraph} adding a path, changing its x range and drawing, for battery histories
+ * of increasing point counts, and reports the median of each as instrumentation results.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class UsageGraphBenchmark {
+
+    private static final String TAG = "UsageGraphBenchmark";
+    private static final int[] POINT_COUNTS = {100, 1000, 10000, 50000};
+    private static final int RUN_COUNT = 10;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 400;
+    // One point per 10s of battery history, which keeps twice the largest x range in an int.
+    private static final int POINT_INTERVAL_MS = 10 * 1000;
+
+    @Test
+    public void increasingPointCounts_reportsAddPathSetMaxAndDraw() {
+        final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final Bundle results = new Bundle();
+        for (int pointCount : POINT_COUNTS) {
+            final SparseIntArray points = createPoints(pointCount);
+            final long[] addPathTimes = new long[RUN_COUNT];
+            final long[] setMaxTimes = new long[RUN_COUNT];
+            final long[] drawTimes = new long[RUN_COUNT];
+            for (int i = 0; i < RUN_COUNT; i++) {
+                final int run = i;
+                instrumentation.runOnMainSync(() -> {
+                    final long[] times = measure(instrumentation, points, pointCount);
+                    addPathTimes[run] = times[0];
+                    setMaxTimes[run] = times[1];
+                    drawTimes[run] = times[2];
+                });
+            }
+            results.putLong("usage_graph_" + pointCount + "_add_path_us", median(addPathTimes));
+            results.putLong("usage_graph_" + pointCount + "_set_max_us", median(setMaxTimes));
+            results.putLong("usage_graph_" + pointCount + "_draw_us", median(drawTimes));
+        }
+        Log.i(TAG, "Median of " + RUN_COUNT + " runs: " + results);
+        instrumentation.sendStatus(Activity.RESULT_OK, results);
+    }
+
+    /**
+     * @return the time to add {@param points}, to change the x range and to draw, in us.
+     */
+    private static long[] measure(Instrumentation instrumentation, SparseIntArray points,
+            int pointCount) {
+        final UsageGraph graph = new UsageGraph(new ContextThemeWrapper(
+                instrumentation.getTargetContext(), android.R.style.Theme_DeviceDefault_Settings),
+                null /* attrs */);
+        final int maxX = pointCount * POINT_INTERVAL_MS;
+        graph.setMax(maxX, 100);
+        graph.layout(0, 0, WIDTH, HEIGHT);
+        final Canvas canvas = new Canvas(
+                Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        graph.addPath(points);
+        final long addPath = SystemClock.elapsedRealtimeNanos() - start;
+
+        // A new x range invalidates the decimated paths.
+        start = SystemClock.elapsedRealtimeNanos();
+        graph.setMax(maxX * 2, 100);
+        final long setMax = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        graph.draw(canvas);
+        final long draw = SystemClock.elapsedRealtimeNanos() - start;
+
+        return new long[] {addPath / 1000, setMax / 1000, draw / 1000};
+    }
+
+    private static SparseIntArray createPoints(int pointCount) {
+        final SparseIntArray points = new SparseIntArray(pointCount);
+        for (int i = 0; i < pointCount; i++) {
+            // A slow discharge with some noise, like a real battery history.
+            points.put(i * POINT_INTERVAL_MS, 100 - (i * 100 / pointCount) + (i % 3));
+        }
+        return points;
+    }
+
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}